@@ -0,0 +1,199 @@
+package com.anymind.points.controller;
+
+import com.anymind.points.config.GraphQlConfig;
+import com.anymind.points.model.Modifier;
+import com.anymind.points.model.Money;
+import com.anymind.points.model.PaymentMethod;
+import com.anymind.points.model.Sale;
+import com.anymind.points.repository.PaymentMethodRepository;
+import com.anymind.points.service.PaymentMethodCatalog;
+import graphql.ExecutionInput;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.schema.DataFetcher;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.TypeDefinitionRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderFactory;
+import org.dataloader.DataLoaderRegistry;
+import org.dataloader.MappedBatchLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Resolution of Sale.paymentMethod for every sale of a getAllSales response, against the application schema:
+ * - {@link #naive()} runs one query per sale, as a per-field resolver calling PaymentMethodRepository would,
+ * - {@link #batched()} runs one WHERE id IN query per response through a DataLoader,
+ * - {@link #batchedFromCatalog()} is what the application does, a DataLoader served by the PaymentMethodCatalog.
+ * The queries are simulated by a pool of connections each blocked for a round trip, so that the naive resolution
+ * queues on the pool like it would on the R2DBC one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PaymentMethodResolutionBenchmark {
+	private static final String QUERY = """
+			{
+			  getAllSales {
+			    id
+			    paymentMethod {
+			      name
+			      pointsModifier
+			    }
+			  }
+			}""";
+	private static final String LOADER = "paymentMethod";
+	private static final int PAYMENT_METHODS = 8;
+	private static final int CONNECTIONS = 10;
+
+	@Param({"100", "1000"})
+	private int sales;
+
+	@Param({"200"})
+	private long roundTripMicros;
+
+	private ExecutorService connections;
+	private Map<Integer, PaymentMethod> paymentMethods;
+	private PaymentMethodCatalog paymentMethodCatalog;
+	private GraphQL naiveGraphQL;
+	private GraphQL batchedGraphQL;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		connections = Executors.newFixedThreadPool(CONNECTIONS);
+		List<PaymentMethod> methods = new ArrayList<>();
+		for (int id = 1; id <= PAYMENT_METHODS; id++)
+			methods.add(PaymentMethod.builder()
+					.id(id)
+					.name("METHOD_" + id)
+					.priceModifierFrom(Modifier.of("0.9"))
+					.priceModifierTo(Modifier.of("1"))
+					.pointsModifier(Modifier.of("0.05"))
+					.build());
+		paymentMethods = methods.stream().collect(Collectors.toMap(PaymentMethod::getId, Function.identity()));
+		paymentMethodCatalog = new PaymentMethodCatalog(repository(methods), new SimpleMeterRegistry());
+		paymentMethodCatalog.refresh().block();
+
+		SplittableRandom random = new SplittableRandom(42);
+		ZonedDateTime start = ZonedDateTime.parse("2022-09-01T00:00:00Z");
+		List<Sale> page = new ArrayList<>(sales);
+		for (int id = 1; id <= sales; id++)
+			page.add(Sale.builder()
+					.id(id)
+					.finalPrice(Money.ofCents(random.nextLong(1_000_000)))
+					.points(Money.ofCents(random.nextLong(50_000)))
+					.paymentMethodId(1 + random.nextInt(PAYMENT_METHODS))
+					.dateTime(start.plusMinutes(id))
+					.build());
+
+		naiveGraphQL = graphQL(page, environment -> query(() -> paymentMethods.get(environment.<Sale>getSource().getPaymentMethodId())));
+		batchedGraphQL = graphQL(page, environment -> environment.<Integer, PaymentMethod>getDataLoader(LOADER)
+				.load(environment.<Sale>getSource().getPaymentMethodId()));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		connections.shutdownNow();
+	}
+
+	@Benchmark
+	public ExecutionResult naive() {
+		return execute(naiveGraphQL, ExecutionInput.newExecutionInput(QUERY).build());
+	}
+
+	@Benchmark
+	public ExecutionResult batched() {
+		MappedBatchLoader<Integer, PaymentMethod> loader = ids -> query(() -> ids.stream()
+				.collect(Collectors.toMap(Function.identity(), paymentMethods::get)));
+		return execute(batchedGraphQL, withLoader(DataLoaderFactory.newMappedDataLoader(loader)));
+	}
+
+	@Benchmark
+	public ExecutionResult batchedFromCatalog() {
+		MappedBatchLoader<Integer, PaymentMethod> loader = ids -> paymentMethodCatalog.findAllById(ids).toFuture();
+		return execute(batchedGraphQL, withLoader(DataLoaderFactory.newMappedDataLoader(loader)));
+	}
+
+	/**
+	 * A DataLoaderRegistry per execution, as Spring GraphQL creates one per request.
+	 */
+	private static ExecutionInput withLoader(DataLoader<Integer, PaymentMethod> loader) {
+		DataLoaderRegistry registry = new DataLoaderRegistry();
+		registry.register(LOADER, loader);
+		return ExecutionInput.newExecutionInput(QUERY).dataLoaderRegistry(registry).build();
+	}
+
+	private static ExecutionResult execute(GraphQL graphQL, ExecutionInput executionInput) {
+		ExecutionResult executionResult = graphQL.execute(executionInput);
+		if (!executionResult.getErrors().isEmpty())
+			throw new IllegalStateException(executionResult.getErrors().toString());
+		return executionResult;
+	}
+
+	/**
+	 * Simulates a query: one of the connections is held for a round trip.
+	 */
+	private <T> CompletableFuture<T> query(Supplier<T> result) {
+		return CompletableFuture.supplyAsync(() -> {
+			LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(roundTripMicros));
+			return result.get();
+		}, connections);
+	}
+
+	private GraphQL graphQL(List<Sale> page, DataFetcher<?> paymentMethodFetcher) throws IOException {
+		TypeDefinitionRegistry typeDefinitionRegistry;
+		try (Reader schema = new InputStreamReader(getClass().getResourceAsStream("/graphql/schema.graphqls"), StandardCharsets.UTF_8)) {
+			typeDefinitionRegistry = new SchemaParser().parse(schema);
+		}
+		RuntimeWiring.Builder wiring = RuntimeWiring.newRuntimeWiring();
+		new GraphQlConfig().runtimeWiringConfigurer().configure(wiring);
+		wiring.type("Query", type -> type.dataFetcher("getAllSales", environment -> page));
+		wiring.type("Sale", type -> type.dataFetcher("paymentMethod", paymentMethodFetcher));
+		GraphQLSchema graphQLSchema = new SchemaGenerator().makeExecutableSchema(typeDefinitionRegistry, wiring.build());
+		return GraphQL.newGraphQL(graphQLSchema).build();
+	}
+
+	/**
+	 * A PaymentMethodRepository which only serves the findAll of the catalog.
+	 */
+	private static PaymentMethodRepository repository(List<PaymentMethod> methods) {
+		return (PaymentMethodRepository) Proxy.newProxyInstance(PaymentMethodRepository.class.getClassLoader(),
+				new Class<?>[]{PaymentMethodRepository.class}, (proxy, method, args) -> {
+					if (method.getName().equals("findAll") && method.getParameterCount() == 0)
+						return Flux.fromIterable(methods);
+					throw new UnsupportedOperationException(method.getName());
+				});
+	}
+}
@@ -0,0 +1,99 @@
+package com.anymind.points.controller;
+
+import com.anymind.points.config.GraphQlConfig;
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Money;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.schema.GraphQLSchema;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+import graphql.schema.idl.TypeDefinitionRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a getSalesByRange report: execution of the query against the application schema and scalars with a
+ * data fetcher returning the precomputed report, then writing of the response as JSON.
+ * {@link #jsonOnly()} writes the same report with Jackson alone, without the GraphQL engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SalesReportSerializationBenchmark {
+	private static final String QUERY = """
+			{
+			  getSalesByRange(dateRangeInput: {from: "2022-09-01T00:00:00Z", to: "2023-09-01T00:00:00Z"}) {
+			    datetime
+			    sales
+			    points
+			  }
+			}""";
+
+	// one day, one month and one year of hours
+	@Param({"24", "744", "8760"})
+	private int hours;
+
+	private GraphQL graphQL;
+	private ObjectMapper objectMapper;
+	private List<SalesListDto> report;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		SplittableRandom random = new SplittableRandom(42);
+		ZonedDateTime start = ZonedDateTime.parse("2022-09-01T00:00:00Z");
+		report = new ArrayList<>(hours);
+		for (int hour = 0; hour < hours; hour++) {
+			long sales = random.nextLong(10_000_000);
+			report.add(SalesListDto.builder()
+					.datetime(start.plusHours(hour))
+					.sales(Money.ofCents(sales))
+					.points(Money.ofCents(sales / 20))
+					.build());
+		}
+
+		TypeDefinitionRegistry typeDefinitionRegistry;
+		try (Reader schema = new InputStreamReader(getClass().getResourceAsStream("/graphql/schema.graphqls"), StandardCharsets.UTF_8)) {
+			typeDefinitionRegistry = new SchemaParser().parse(schema);
+		}
+		RuntimeWiring.Builder wiring = RuntimeWiring.newRuntimeWiring();
+		new GraphQlConfig().runtimeWiringConfigurer().configure(wiring);
+		wiring.type("Query", type -> type.dataFetcher("getSalesByRange", environment -> report));
+		GraphQLSchema graphQLSchema = new SchemaGenerator().makeExecutableSchema(typeDefinitionRegistry, wiring.build());
+		graphQL = GraphQL.newGraphQL(graphQLSchema).build();
+		objectMapper = JsonMapper.builder().findAndAddModules().build();
+	}
+
+	@Benchmark
+	public byte[] graphQlResponse() throws IOException {
+		ExecutionResult executionResult = graphQL.execute(QUERY);
+		if (!executionResult.getErrors().isEmpty())
+			throw new IllegalStateException(executionResult.getErrors().toString());
+		return objectMapper.writeValueAsBytes(executionResult.toSpecification());
+	}
+
+	@Benchmark
+	public byte[] jsonOnly() throws IOException {
+		return objectMapper.writeValueAsBytes(report);
+	}
+}
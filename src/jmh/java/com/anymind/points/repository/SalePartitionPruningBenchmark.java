@@ -0,0 +1,147 @@
+package com.anymind.points.repository;
+
+import com.anymind.points.service.SalePartitionManager;
+import com.anymind.points.service.SalePartitioning;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+import org.springframework.r2dbc.connection.init.ResourceDatabasePopulator;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.utility.DockerImageName;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Range queries of the sale table, heap versus partitioned, against a throwaway Postgres container: the sales of one
+ * range as read by findByDateTimeBetweenOrderByDateTime and the hourly sums of sumByHourBetween.
+ * The sales are spread evenly over the last two years, the range ends a month ago. The plan of each query, with the
+ * partitions it reads and its buffer hits, is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SalePartitionPruningBenchmark {
+	private static final String RANGE = "SELECT * FROM sale WHERE datetime BETWEEN $1 AND $2 ORDER BY datetime";
+	private static final String HOURLY = """
+			SELECT date_trunc('hour', datetime) AS datetime, SUM(final_price) AS sales, SUM(points) AS points
+			FROM sale
+			WHERE datetime BETWEEN $1 AND $2
+			GROUP BY date_trunc('hour', datetime)
+			ORDER BY 1
+			""";
+
+	@Param({"NONE", "MONTHLY"})
+	private SalePartitioning partitioning;
+
+	@Param({"1000000", "10000000"})
+	private int rows;
+
+	@Param({"P1D", "P30D"})
+	private String range;
+
+	private PostgreSQLContainer<?> postgres;
+	private ConnectionPool connectionPool;
+	private DatabaseClient databaseClient;
+	private ZonedDateTime from;
+	private ZonedDateTime to;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		postgres = new PostgreSQLContainer<>(DockerImageName.parse("postgres:15.2"))
+				.withDatabaseName("sale")
+				.withUsername("postgres")
+				.withPassword("password");
+		postgres.start();
+		connectionPool = new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(
+						ConnectionFactoryOptions.parse("r2dbc:postgresql://" + postgres.getHost() + ":"
+										+ postgres.getMappedPort(PostgreSQLContainer.POSTGRESQL_PORT) + "/sale")
+								.mutate()
+								.option(ConnectionFactoryOptions.USER, "postgres")
+								.option(ConnectionFactoryOptions.PASSWORD, "password")
+								.build()))
+				.maxSize(2)
+				.build());
+		databaseClient = DatabaseClient.create(connectionPool);
+		new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).populate(connectionPool).block();
+
+		ZonedDateTime end = ZonedDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS);
+		ZonedDateTime start = end.minusYears(2);
+		databaseClient.sql("INSERT INTO payment_method(name, price_modifier_from, price_modifier_to, points_modifier) VALUES ('CASH', 0.9, 1, 0.05)")
+				.then().block();
+		databaseClient.sql("""
+						INSERT INTO sale(final_price, points, payment_method_id, datetime)
+						SELECT 95, 5, 1, $1 + (i * ($2 - $1) / $3)
+						FROM generate_series(0, $3 - 1) i
+						""")
+				.bind(0, start)
+				.bind(1, end)
+				.bind(2, rows)
+				.then().block(Duration.ofMinutes(30));
+
+		new SalePartitionManager(new SalePartitionRepository(databaseClient),
+				TransactionalOperator.create(new R2dbcTransactionManager(connectionPool)),
+				new SimpleMeterRegistry(), partitioning, 1, 0)
+				.maintain().block(Duration.ofMinutes(30));
+		databaseClient.sql("VACUUM ANALYZE sale").then().block(Duration.ofMinutes(30));
+
+		to = end.minusMonths(1);
+		from = to.minus(Duration.parse(range));
+		explain(RANGE);
+		explain(HOURLY);
+	}
+
+	private void explain(String query) {
+		System.out.println(partitioning + " " + rows + " rows, " + range + ":");
+		databaseClient.sql("EXPLAIN (ANALYZE, BUFFERS) " + query)
+				.bind(0, from)
+				.bind(1, to)
+				.map(row -> row.get(0, String.class))
+				.all()
+				.doOnNext(line -> System.out.println("  " + line))
+				.then().block();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		connectionPool.dispose();
+		postgres.stop();
+	}
+
+	@Benchmark
+	public long rangeScan() {
+		return databaseClient.sql(RANGE)
+				.bind(0, from)
+				.bind(1, to)
+				.fetch().all()
+				.count().block();
+	}
+
+	@Benchmark
+	public long hourlySums() {
+		return databaseClient.sql(HOURLY)
+				.bind(0, from)
+				.bind(1, to)
+				.fetch().all()
+				.count().block();
+	}
+}
@@ -0,0 +1,76 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Money;
+import com.anymind.points.model.Sale;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import reactor.core.publisher.Flux;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Hourly grouping of an ordered sale set, as done by the MEMORY report aggregation.
+ * {@link #generateOnly()} measures reading the synthetic set alone, subtract it from the other scores to get the cost
+ * of the grouping itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class HourlyAggregationBenchmark {
+	@Param({"10000", "1000000", "10000000"})
+	private int rows;
+
+	private SyntheticSales sales;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		sales = SyntheticSales.generate(rows, 42);
+	}
+
+	@Benchmark
+	public long generateOnly() {
+		return sales.flux().count().block();
+	}
+
+	@Benchmark
+	public List<SalesListDto> streamingAggregator() {
+		return SalesAggregator.hourly(sales.flux()).collectList().block();
+	}
+
+	/**
+	 * The grouping used before the streaming aggregator: every sale of the range is collected and grouped into a map of
+	 * lists, then each hour is summed.
+	 */
+	@Benchmark
+	public List<SalesListDto> groupIntoMap() {
+		return sales.flux()
+				.collectList()
+				.map(list -> list.stream().collect(Collectors.groupingBy(sale -> sale.getDateTime().truncatedTo(ChronoUnit.HOURS))))
+				.flatMapMany(map -> Flux.fromIterable(map.entrySet()).sort(Comparator.comparing(Map.Entry::getKey)))
+				.map(HourlyAggregationBenchmark::toSalesListDto)
+				.collectList()
+				.block();
+	}
+
+	private static SalesListDto toSalesListDto(Map.Entry<ZonedDateTime, List<Sale>> salesRecord) {
+		return SalesListDto.builder()
+				.datetime(salesRecord.getKey())
+				.sales(salesRecord.getValue().stream().map(Sale::getFinalPrice).reduce(Money.ZERO, Money::plus))
+				.points(salesRecord.getValue().stream().map(Sale::getPoints).reduce(Money.ZERO, Money::plus))
+				.build();
+	}
+}
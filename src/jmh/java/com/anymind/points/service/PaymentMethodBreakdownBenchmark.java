@@ -0,0 +1,84 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.PaymentMethodSalesDto;
+import com.anymind.points.dto.SalesBreakdownDto;
+import com.anymind.points.model.Granularity;
+import com.anymind.points.model.Money;
+import com.anymind.points.model.Sale;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Daily breakdown per payment method of an ordered sale set, as done by the MEMORY report aggregation.
+ * {@link #denseArrays()} is what the application does, {@link #nestedMaps()} keeps the totals in a map of maps keyed by
+ * day and payment method id.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PaymentMethodBreakdownBenchmark {
+	private static final TimeBuckets DAILY = new TimeBuckets(Granularity.DAY, ZoneOffset.UTC);
+
+	@Param({"10000", "1000000"})
+	private int rows;
+
+	private SyntheticSales sales;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		sales = SyntheticSales.generate(rows, 42);
+	}
+
+	@Benchmark
+	public List<SalesBreakdownDto> denseArrays() {
+		return PaymentMethodBreakdown.sum(DAILY, sales.flux(), Sale::getDateTime, Sale::getPaymentMethodId,
+				sale -> sale.getFinalPrice().cents(), sale -> sale.getPoints().cents()).collectList().block();
+	}
+
+	@Benchmark
+	public List<SalesBreakdownDto> nestedMaps() {
+		return sales.flux()
+				.reduce(new TreeMap<ZonedDateTime, Map<Integer, Money[]>>(), (days, sale) -> {
+					Money[] totals = days.computeIfAbsent(sale.getDateTime().truncatedTo(ChronoUnit.DAYS), day -> new TreeMap<>())
+							.computeIfAbsent(sale.getPaymentMethodId(), id -> new Money[]{Money.ZERO, Money.ZERO});
+					totals[0] = totals[0].plus(sale.getFinalPrice());
+					totals[1] = totals[1].plus(sale.getPoints());
+					return days;
+				})
+				.map(PaymentMethodBreakdownBenchmark::toDtos)
+				.block();
+	}
+
+	private static List<SalesBreakdownDto> toDtos(TreeMap<ZonedDateTime, Map<Integer, Money[]>> days) {
+		List<SalesBreakdownDto> dtos = new ArrayList<>(days.size());
+		days.forEach((day, paymentMethods) -> {
+			List<PaymentMethodSalesDto> splits = new ArrayList<>(paymentMethods.size());
+			Money sales = Money.ZERO;
+			Money points = Money.ZERO;
+			for (Map.Entry<Integer, Money[]> entry : paymentMethods.entrySet()) {
+				splits.add(PaymentMethodSalesDto.builder().datetime(day).paymentMethodId(entry.getKey())
+						.sales(entry.getValue()[0]).points(entry.getValue()[1]).build());
+				sales = sales.plus(entry.getValue()[0]);
+				points = points.plus(entry.getValue()[1]);
+			}
+			dtos.add(SalesBreakdownDto.builder().datetime(day).sales(sales).points(points).paymentMethods(splits).build());
+		});
+		return dtos;
+	}
+}
@@ -0,0 +1,82 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.RequestData;
+import com.anymind.points.model.Modifier;
+import com.anymind.points.model.Money;
+import com.anymind.points.model.PaymentMethod;
+import com.anymind.points.model.Sale;
+import com.anymind.points.model.SalesInput;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.context.support.ResourceBundleMessageSource;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the per-sale work of addSale without I/O: the price modifier check and the price and points calculation.
+ * The inputs cycle over a fixed set of requests so that the branch and rounding paths vary between calls.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PointsCalculationBenchmark {
+	private static final int INPUTS = 1024;
+
+	private SalesServiceImpl salesService;
+	private RequestData[] requests;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		ResourceBundleMessageSource messageSource = new ResourceBundleMessageSource();
+		messageSource.setBasename("messages");
+		salesService = new SalesServiceImpl(null, messageSource, null, null, null, null, null, null, null, null, null);
+
+		PaymentMethod cash = PaymentMethod.builder()
+				.id(1)
+				.name("CASH")
+				.priceModifierFrom(Modifier.of("0.9"))
+				.priceModifierTo(Modifier.of("1"))
+				.pointsModifier(Modifier.of("0.05"))
+				.build();
+		SplittableRandom random = new SplittableRandom(42);
+		requests = new RequestData[INPUTS];
+		for (int i = 0; i < INPUTS; i++) {
+			SalesInput salesInput = SalesInput.builder()
+					.price(Money.ofCents(100 + random.nextLong(100_000)))
+					.priceModifier(Modifier.ofUnits(9_000 + random.nextLong(1_001)))
+					.paymentMethod(cash.getName())
+					.datetime(SyntheticSales.START.plusSeconds(i))
+					.build();
+			requests[i] = RequestData.builder().salesInput(salesInput).paymentMethod(cash).build();
+		}
+	}
+
+	private RequestData nextRequest() {
+		RequestData requestData = requests[next];
+		next = (next + 1) & (INPUTS - 1);
+		return requestData;
+	}
+
+	@Benchmark
+	public Sale calculate() {
+		return salesService.toSale(nextRequest());
+	}
+
+	@Benchmark
+	public RequestData verifySaleData() {
+		return salesService.verifySaleData(nextRequest()).block();
+	}
+
+	@Benchmark
+	public Sale verifyAndCalculate() {
+		return salesService.verifySaleData(nextRequest()).map(salesService::toSale).block();
+	}
+}
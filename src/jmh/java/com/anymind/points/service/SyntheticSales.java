@@ -0,0 +1,107 @@
+package com.anymind.points.service;
+
+import com.anymind.points.model.Money;
+import com.anymind.points.model.Sale;
+import reactor.core.publisher.Flux;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic sale set for the benchmarks, ordered by datetime as the repository returns it.
+ * Only primitive columns are kept in memory, the Sale objects are built while the Flux is read, so even 10M rows fit
+ * in the heap next to what the benchmarked code allocates.
+ * Sales are skewed like real traffic: quiet nights, lunch and evening peaks, busier weekends and a few flash sale hours.
+ */
+final class SyntheticSales {
+	static final ZonedDateTime START = ZonedDateTime.parse("2022-09-01T00:00:00Z");
+	static final int DAYS = 90;
+	static final int PAYMENT_METHODS = 8;
+
+	// relative weight of every hour of the day
+	private static final int[] HOUR_WEIGHTS = {1, 1, 1, 1, 1, 2, 4, 8, 10, 12, 14, 18, 24, 20, 14, 12, 14, 18, 24, 22, 16, 10, 6, 3};
+	private static final int WEEKEND_FACTOR = 2;
+	private static final int FLASH_SALE_FACTOR = 20;
+	private static final int FLASH_SALE_HOURS = 6;
+
+	private final long[] epochSeconds;
+	private final long[] priceCents;
+	private final long[] pointsCents;
+
+	private SyntheticSales(long[] epochSeconds, long[] priceCents, long[] pointsCents) {
+		this.epochSeconds = epochSeconds;
+		this.priceCents = priceCents;
+		this.pointsCents = pointsCents;
+	}
+
+	/**
+	 * Generates a sale set spread over {@link #DAYS} days from {@link #START}.
+	 *
+	 * @param rows number of sales
+	 * @param seed seed of the generator, the same seed always gives the same set
+	 * @return the generated sale set
+	 */
+	static SyntheticSales generate(int rows, long seed) {
+		SplittableRandom random = new SplittableRandom(seed);
+		long[] cumulativeWeights = cumulativeHourWeights(random);
+		long totalWeight = cumulativeWeights[cumulativeWeights.length - 1];
+		long start = START.toEpochSecond();
+
+		long[] epochSeconds = new long[rows];
+		for (int i = 0; i < rows; i++) {
+			int hour = Arrays.binarySearch(cumulativeWeights, random.nextLong(totalWeight) + 1);
+			if (hour < 0)
+				hour = -hour - 1;
+			epochSeconds[i] = start + hour * 3600L + random.nextInt(3600);
+		}
+		Arrays.sort(epochSeconds);
+
+		long[] priceCents = new long[rows];
+		long[] pointsCents = new long[rows];
+		for (int i = 0; i < rows; i++) {
+			// mostly small baskets with a long tail of expensive ones
+			long price = 100 + (long) (-Math.log(1 - random.nextDouble()) * 5_000);
+			priceCents[i] = Math.round(price * (0.9 + random.nextDouble() * 0.1));
+			pointsCents[i] = Math.round(price * 0.05);
+		}
+		return new SyntheticSales(epochSeconds, priceCents, pointsCents);
+	}
+
+	private static long[] cumulativeHourWeights(SplittableRandom random) {
+		int hours = DAYS * 24;
+		long[] weights = new long[hours];
+		for (int hour = 0; hour < hours; hour++) {
+			int dayOfWeek = START.plusHours(hour).getDayOfWeek().getValue();
+			weights[hour] = HOUR_WEIGHTS[hour % 24] * (dayOfWeek >= 6 ? WEEKEND_FACTOR : 1);
+		}
+		for (int i = 0; i < FLASH_SALE_HOURS; i++)
+			weights[random.nextInt(hours)] *= FLASH_SALE_FACTOR;
+		for (int hour = 1; hour < hours; hour++)
+			weights[hour] += weights[hour - 1];
+		return weights;
+	}
+
+	int size() {
+		return epochSeconds.length;
+	}
+
+	Sale sale(int index) {
+		return Sale.builder()
+				.id(index + 1)
+				.finalPrice(Money.ofCents(priceCents[index]))
+				.points(Money.ofCents(pointsCents[index]))
+				.paymentMethodId(1 + index % PAYMENT_METHODS)
+				.dateTime(ZonedDateTime.ofInstant(Instant.ofEpochSecond(epochSeconds[index]), ZoneOffset.UTC))
+				.build();
+	}
+
+	/**
+	 * @return a Flux of the sales, ordered by datetime
+	 */
+	Flux<Sale> flux() {
+		return Flux.range(0, size()).map(this::sale);
+	}
+}
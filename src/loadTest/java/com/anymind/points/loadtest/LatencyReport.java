@@ -0,0 +1,115 @@
+package com.anymind.points.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and errors of every operation of a load test run.
+ * Latencies are recorded in microseconds from the time a request was scheduled, not the time it was sent, so a stalled
+ * application shows up in the percentiles instead of only slowing the sender down.
+ */
+final class LatencyReport {
+	private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(5);
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9, 100};
+
+	private final Map<Operation, Recorder> recorders = new EnumMap<>(Operation.class);
+	private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+	private final Map<Operation, Histogram> histograms = new EnumMap<>(Operation.class);
+
+	LatencyReport() {
+		for (Operation operation : Operation.values()) {
+			recorders.put(operation, new Recorder(HIGHEST_TRACKABLE_MICROS, 3));
+			errors.put(operation, new LongAdder());
+			histograms.put(operation, new Histogram(HIGHEST_TRACKABLE_MICROS, 3));
+		}
+	}
+
+	void recordSuccess(Operation operation, long scheduledNanos) {
+		recorders.get(operation).recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduledNanos)));
+	}
+
+	void recordError(Operation operation) {
+		errors.get(operation).increment();
+	}
+
+	/**
+	 * Drops everything recorded so far.
+	 */
+	void reset() {
+		recorders.values().forEach(Recorder::reset);
+		histograms.values().forEach(Histogram::reset);
+		errors.values().forEach(LongAdder::reset);
+	}
+
+	/**
+	 * Moves the latencies recorded since the previous call to the histograms of the run and prints them.
+	 *
+	 * @param interval duration of the interval in seconds
+	 * @param out      where the interval is printed
+	 */
+	void interval(double interval, PrintStream out) {
+		for (Operation operation : Operation.values()) {
+			Histogram histogram = recorders.get(operation).getIntervalHistogram();
+			histograms.get(operation).add(histogram);
+			if (histogram.getTotalCount() > 0)
+				out.printf("%-16s %8.1f req/s  p50 %8.2f ms  p99 %8.2f ms  max %8.2f ms%n", operation.operationName(),
+						histogram.getTotalCount() / interval, millis(histogram, 50), millis(histogram, 99),
+						histogram.getMaxValue() / 1000.0);
+		}
+	}
+
+	/**
+	 * Prints the summary of the run and writes the histogram of every operation to the output directory:
+	 * operation.hlog in the HdrHistogram log format and operation.hgrm with the percentile distribution in milliseconds.
+	 *
+	 * @param duration duration of the recorded part of the run in seconds
+	 * @param output   directory where the histograms are written
+	 * @param out      where the summary is printed
+	 */
+	void write(double duration, Path output, PrintStream out) throws IOException {
+		Files.createDirectories(output);
+		out.printf("%-16s %10s %10s %10s %10s %10s %10s %10s %10s%n", "operation", "count", "errors", "req/s",
+				"p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+		for (Operation operation : Operation.values()) {
+			Histogram histogram = histograms.get(operation);
+			long errorCount = errors.get(operation).sum();
+			if (histogram.getTotalCount() == 0 && errorCount == 0)
+				continue;
+			out.printf("%-16s %10d %10d %10.1f", operation.operationName(), histogram.getTotalCount(), errorCount,
+					histogram.getTotalCount() / duration);
+			for (double percentile : PERCENTILES)
+				out.printf(" %10.2f", millis(histogram, percentile));
+			out.println();
+
+			writeLog(histogram, output.resolve(operation.operationName() + ".hlog"));
+			try (PrintStream distribution = new PrintStream(output.resolve(operation.operationName() + ".hgrm").toFile())) {
+				histogram.outputPercentileDistribution(distribution, 1000.0);
+			}
+		}
+		out.println("Histograms written to " + output.toAbsolutePath());
+	}
+
+	private static void writeLog(Histogram histogram, Path path) throws FileNotFoundException {
+		try (PrintStream log = new PrintStream(path.toFile())) {
+			HistogramLogWriter writer = new HistogramLogWriter(log);
+			writer.outputLogFormatVersion();
+			writer.outputLegend();
+			writer.outputIntervalHistogram(histogram);
+		}
+	}
+
+	private static double millis(Histogram histogram, double percentile) {
+		return histogram.getValueAtPercentile(percentile) / 1000.0;
+	}
+}
@@ -0,0 +1,143 @@
+package com.anymind.points.loadtest;
+
+import com.anymind.points.PointsCalculatorApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.utility.DockerImageName;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Load test of the /graphql endpoint.
+ * Unless loadtest.url points to a running instance, the application is started against a throwaway Postgres container,
+ * so the run never touches a real database. Requests are sent at a constant rate, following the mix of
+ * {@link LoadTestSettings}, and the latency of every operation is printed every second and summarized at the end.
+ */
+public final class LoadTest {
+	private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+	private static final Duration DRAIN_TIMEOUT = Duration.ofMinutes(1);
+
+	private final LoadTestSettings settings;
+	private final WebClient webClient;
+	private final ConnectionProvider connectionProvider;
+	private final TrafficGenerator trafficGenerator;
+	private final LatencyReport report = new LatencyReport();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private volatile long measuredFrom = Long.MAX_VALUE;
+
+	private LoadTest(LoadTestSettings settings, String url) {
+		this.settings = settings;
+		this.connectionProvider = ConnectionProvider.builder("loadtest")
+				.maxConnections(settings.connections())
+				.pendingAcquireMaxCount(-1)
+				.build();
+		this.webClient = WebClient.builder()
+				.baseUrl(url)
+				.clientConnector(new ReactorClientHttpConnector(HttpClient.create(connectionProvider)))
+				.build();
+		this.trafficGenerator = new TrafficGenerator(settings.mix(), settings.days(), 42);
+	}
+
+	public static void main(String[] args) throws Exception {
+		LoadTestSettings settings = LoadTestSettings.fromSystemProperties();
+		if (settings.url() != null) {
+			new LoadTest(settings, settings.url()).run();
+			return;
+		}
+
+		try (PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(DockerImageName.parse("postgres:15.2"))
+				.withDatabaseName("sale")
+				.withUsername("postgres")
+				.withPassword("password")) {
+			postgres.start();
+			try (ConfigurableApplicationContext application = startApplication(postgres)) {
+				int port = application.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+				new LoadTest(settings, "http://localhost:" + port + "/graphql").run();
+			}
+		}
+	}
+
+	private static ConfigurableApplicationContext startApplication(PostgreSQLContainer<?> postgres) {
+		return new SpringApplicationBuilder(PointsCalculatorApplication.class).run(
+				"--server.port=0",
+				"--spring.r2dbc.url=r2dbc:postgresql://" + postgres.getHost() + ":"
+						+ postgres.getMappedPort(PostgreSQLContainer.POSTGRESQL_PORT) + "/" + postgres.getDatabaseName(),
+				"--spring.r2dbc.username=" + postgres.getUsername(),
+				"--spring.r2dbc.password=" + postgres.getPassword(),
+				// the DEBUG logging of application.properties would dominate the measured latencies
+				"--logging.level.sql=WARN",
+				"--logging.level.web=WARN",
+				"--logging.level.graphql=WARN",
+				"--logging.level.org.springframework.graphql=WARN");
+	}
+
+	private void run() throws Exception {
+		long period = SECOND / settings.rate();
+		long start = System.nanoTime();
+		long warmupEnd = start + settings.warmup().toNanos();
+		long end = warmupEnd + settings.duration().toNanos();
+		long lastInterval = start;
+
+		System.out.printf("Sending %d req/s for %s of warmup and %s of measurement%n", settings.rate(), settings.warmup(), settings.duration());
+		for (long scheduled = start; scheduled < end; scheduled += period) {
+			long delay;
+			while ((delay = scheduled - System.nanoTime()) > 0)
+				LockSupport.parkNanos(delay);
+
+			if (scheduled - lastInterval >= SECOND) {
+				report.interval((scheduled - lastInterval) / (double) SECOND, System.out);
+				lastInterval = scheduled;
+			}
+			if (measuredFrom == Long.MAX_VALUE && scheduled >= warmupEnd) {
+				report.reset();
+				measuredFrom = warmupEnd;
+				System.out.println("Warmup done, measuring");
+			}
+			send(trafficGenerator.next(), scheduled);
+		}
+
+		long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+		while (inFlight.get() > 0 && System.nanoTime() < drainDeadline)
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		report.interval((System.nanoTime() - lastInterval) / (double) SECOND, System.out);
+		connectionProvider.dispose();
+
+		report.write(settings.duration().toNanos() / (double) SECOND, settings.output(), System.out);
+	}
+
+	/**
+	 * Sends a request without waiting for its response. Requests scheduled during the warmup which complete after it
+	 * are not recorded.
+	 */
+	private void send(TrafficGenerator.Request request, long scheduled) {
+		Operation operation = request.operation();
+		inFlight.incrementAndGet();
+		webClient.post()
+				.contentType(MediaType.APPLICATION_JSON)
+				.bodyValue(request.body())
+				.retrieve()
+				.bodyToMono(JsonNode.class)
+				.doFinally(signal -> inFlight.decrementAndGet())
+				.subscribe(response -> {
+					if (scheduled < measuredFrom && measuredFrom != Long.MAX_VALUE)
+						return;
+					if (response.hasNonNull("errors"))
+						report.recordError(operation);
+					else
+						report.recordSuccess(operation, scheduled);
+				}, error -> {
+					if (scheduled >= measuredFrom || measuredFrom == Long.MAX_VALUE)
+						report.recordError(operation);
+				});
+	}
+}
@@ -0,0 +1,49 @@
+package com.anymind.points.loadtest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings of a load test run, read from the loadtest.* system properties.
+ *
+ * @param url         GraphQL endpoint of an already running instance, or null to start the application against a
+ *                    throwaway Postgres container
+ * @param rate        requests per second, sent at a constant rate whatever the response times are
+ * @param warmup      duration during which requests are sent but not recorded
+ * @param duration    duration of the recorded part of the run
+ * @param connections maximum number of connections to the application
+ * @param mix         relative weight of every operation
+ * @param days        number of days over which the datetime of the generated sales is spread
+ * @param output      directory where the histograms are written
+ */
+record LoadTestSettings(String url, int rate, Duration warmup, Duration duration, int connections,
+						Map<Operation, Integer> mix, int days, Path output) {
+
+	static LoadTestSettings fromSystemProperties() {
+		return new LoadTestSettings(
+				System.getProperty("loadtest.url"),
+				Integer.getInteger("loadtest.rate", 200),
+				Duration.parse(System.getProperty("loadtest.warmup", "PT10S")),
+				Duration.parse(System.getProperty("loadtest.duration", "PT60S")),
+				Integer.getInteger("loadtest.connections", 64),
+				parseMix(System.getProperty("loadtest.mix", "addSale=9,getSalesByRange=1")),
+				Integer.getInteger("loadtest.days", 30),
+				Path.of(System.getProperty("loadtest.output", "build/reports/loadtest")));
+	}
+
+	/**
+	 * Parses a mix such as "addSale=9,getSalesByRange=1".
+	 */
+	static Map<Operation, Integer> parseMix(String mix) {
+		Map<Operation, Integer> weights = new LinkedHashMap<>();
+		for (String entry : mix.split(",")) {
+			String[] weight = entry.trim().split("=");
+			if (weight.length != 2)
+				throw new IllegalArgumentException("Invalid loadtest.mix entry: " + entry);
+			weights.put(Operation.fromName(weight[0].trim()), Integer.parseInt(weight[1].trim()));
+		}
+		return weights;
+	}
+}
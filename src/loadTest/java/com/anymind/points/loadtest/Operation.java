@@ -0,0 +1,40 @@
+package com.anymind.points.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * GraphQL operations replayed by the load test.
+ */
+enum Operation {
+	ADD_SALE("addSale", """
+			mutation($salesInput: SaleInput!) {
+			  addSale(salesInput: $salesInput) { finalPrice points }
+			}"""),
+	GET_SALES_BY_RANGE("getSalesByRange", """
+			query($dateRangeInput: DateRangeInput!) {
+			  getSalesByRange(dateRangeInput: $dateRangeInput) { datetime sales points }
+			}""");
+
+	private final String operationName;
+	private final String query;
+
+	Operation(String operationName, String query) {
+		this.operationName = operationName;
+		this.query = query;
+	}
+
+	String operationName() {
+		return operationName;
+	}
+
+	String query() {
+		return query;
+	}
+
+	static Operation fromName(String operationName) {
+		return Arrays.stream(values())
+				.filter(operation -> operation.operationName.equals(operationName))
+				.findFirst()
+				.orElseThrow(() -> new IllegalArgumentException("Unknown operation: " + operationName));
+	}
+}
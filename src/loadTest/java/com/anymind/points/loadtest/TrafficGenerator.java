@@ -0,0 +1,87 @@
+package com.anymind.points.loadtest;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Generates the requests of the load test according to the configured mix.
+ * Sales use the payment methods of data.sql with a price modifier inside their range, so every addSale is valid, and
+ * are spread over the last days; reports ask for a random window of one to 24 hours over the same days.
+ */
+final class TrafficGenerator {
+	private record PaymentMethod(String name, int priceModifierFrom, int priceModifierTo) {
+	}
+
+	// price modifier ranges of data.sql, in hundredths
+	private static final List<PaymentMethod> PAYMENT_METHODS = List.of(
+			new PaymentMethod("CASH", 90, 100),
+			new PaymentMethod("CASH_ON_DELIVERY", 100, 102),
+			new PaymentMethod("VISA", 95, 100),
+			new PaymentMethod("MASTERCARD", 95, 100),
+			new PaymentMethod("AMEX", 98, 101),
+			new PaymentMethod("JCB", 95, 100));
+
+	private final SplittableRandom random;
+	private final Operation[] operations;
+	private final int[] cumulativeWeights;
+	private final ZonedDateTime start;
+	private final int hours;
+
+	TrafficGenerator(Map<Operation, Integer> mix, int days, long seed) {
+		this.random = new SplittableRandom(seed);
+		this.operations = mix.keySet().toArray(Operation[]::new);
+		this.cumulativeWeights = new int[operations.length];
+		int total = 0;
+		for (int i = 0; i < operations.length; i++) {
+			total += mix.get(operations[i]);
+			cumulativeWeights[i] = total;
+		}
+		this.hours = days * 24;
+		this.start = ZonedDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS).minusHours(hours);
+	}
+
+	/**
+	 * A request to send: the operation and the GraphQL variables of its query.
+	 */
+	record Request(Operation operation, Map<String, Object> variables) {
+		Map<String, Object> body() {
+			return Map.of("query", operation.query(), "variables", variables);
+		}
+	}
+
+	Request next() {
+		Operation operation = nextOperation();
+		return new Request(operation, switch (operation) {
+			case ADD_SALE -> addSaleVariables();
+			case GET_SALES_BY_RANGE -> getSalesByRangeVariables();
+		});
+	}
+
+	private Operation nextOperation() {
+		int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+		for (int i = 0; i < operations.length; i++)
+			if (value < cumulativeWeights[i])
+				return operations[i];
+		throw new IllegalStateException();
+	}
+
+	private Map<String, Object> addSaleVariables() {
+		PaymentMethod paymentMethod = PAYMENT_METHODS.get(random.nextInt(PAYMENT_METHODS.size()));
+		int priceModifier = random.nextInt(paymentMethod.priceModifierFrom(), paymentMethod.priceModifierTo() + 1);
+		return Map.of("salesInput", Map.of(
+				"price", String.format("%d.%02d", 1 + random.nextInt(1_000), random.nextInt(100)),
+				"priceModifier", String.format("%d.%02d", priceModifier / 100, priceModifier % 100),
+				"paymentMethod", paymentMethod.name(),
+				"datetime", start.plusSeconds(random.nextLong(hours * 3600L)).toString()));
+	}
+
+	private Map<String, Object> getSalesByRangeVariables() {
+		ZonedDateTime from = start.plusMinutes(random.nextLong(hours * 60L));
+		ZonedDateTime to = from.plusMinutes(60 + random.nextLong(23 * 60));
+		return Map.of("dateRangeInput", Map.of("from", from.toString(), "to", to.toString()));
+	}
+}
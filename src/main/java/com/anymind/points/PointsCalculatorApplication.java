@@ -2,11 +2,15 @@ package com.anymind.points;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ConfigurableApplicationContext;
 
 @SpringBootApplication
 public class PointsCalculatorApplication {
 	public static void main(String[] args) {
-		SpringApplication.run(PointsCalculatorApplication.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(PointsCalculatorApplication.class, args);
+		// the import of a file runs without the web server, the application exits with its status once it is done
+		if (context.getEnvironment().containsProperty("points.import.file"))
+			System.exit(SpringApplication.exit(context));
 	}
 
 }
@@ -0,0 +1,37 @@
+package com.anymind.points.actuator;
+
+import com.anymind.points.model.PaymentMethod;
+import com.anymind.points.service.PaymentMethodCatalog;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+
+/**
+ * Actuator endpoint exposing the in-memory payment method catalog on /actuator/paymentmethods.
+ * GET returns the current snapshot, DELETE invalidates it and triggers a reload from the database.
+ */
+@Component
+@Endpoint(id = "paymentmethods")
+public class PaymentMethodCatalogEndpoint {
+    private final PaymentMethodCatalog paymentMethodCatalog;
+
+    @Autowired
+    public PaymentMethodCatalogEndpoint(PaymentMethodCatalog paymentMethodCatalog) {
+        this.paymentMethodCatalog = paymentMethodCatalog;
+    }
+
+    @ReadOperation
+    public Mono<Collection<PaymentMethod>> paymentMethods() {
+        return paymentMethodCatalog.current().map(PaymentMethodCatalog.Snapshot::paymentMethods);
+    }
+
+    @DeleteOperation
+    public void invalidate() {
+        paymentMethodCatalog.invalidate();
+    }
+}
@@ -0,0 +1,43 @@
+package com.anymind.points.actuator;
+
+import com.anymind.points.model.SaleHourly;
+import com.anymind.points.service.SaleRollupService;
+import com.anymind.points.service.SalesReportCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Actuator endpoint for the sale_hourly rollup on /actuator/salehourly.
+ * GET runs the consistency check and returns the hours which differ from the raw sales,
+ * POST rebuilds the rollup from the sale table, e.g. to backfill it for existing data, and drops the cached reports
+ * which may have been computed from the previous rollup.
+ */
+@Component
+@Endpoint(id = "salehourly")
+public class SaleHourlyEndpoint {
+    private final SaleRollupService saleRollupService;
+    private final SalesReportCache salesReportCache;
+
+    @Autowired
+    public SaleHourlyEndpoint(SaleRollupService saleRollupService, SalesReportCache salesReportCache) {
+        this.saleRollupService = saleRollupService;
+        this.salesReportCache = salesReportCache;
+    }
+
+    @ReadOperation
+    public Mono<List<SaleHourly>> inconsistentHours() {
+        return saleRollupService.findInconsistentHours().collectList();
+    }
+
+    @WriteOperation
+    public Mono<Integer> rebuild() {
+        return saleRollupService.rebuild()
+                .doOnSuccess(hours -> salesReportCache.invalidateAll());
+    }
+}
@@ -0,0 +1,129 @@
+package com.anymind.points.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Routes the connections of our repositories to the read or the write pool of the primary, or to a read replica.
+ * Everything runs on the write pool unless the reactive pipeline is marked with readOnly, which the reports and the
+ * listings do, so that they can't take the connections the mutations need. A read-only pipeline runs on a healthy
+ * replica whose replication lag is within the staleness it tolerates and falls back to the read pool of the primary
+ * when there is none. A transaction keeps the connection of the pool it started on.
+ */
+public final class ConnectionRouting {
+	private static final String ROLE = ConnectionRouting.class.getName() + ".ROLE";
+	private static final String MAX_STALENESS = ConnectionRouting.class.getName() + ".MAX_STALENESS";
+
+	/**
+	 * The pool a connection is taken from.
+	 */
+	public enum Role {
+		READ,
+		WRITE
+	}
+
+	private ConnectionRouting() {
+	}
+
+	/**
+	 * Runs the queries of the given Mono on a replica within the default staleness, or on the read pool.
+	 */
+	public static <T> Mono<T> readOnly(Mono<T> mono) {
+		return mono.contextWrite(context -> context.put(ROLE, Role.READ));
+	}
+
+	/**
+	 * Runs the queries of the given Flux on a replica within the default staleness, or on the read pool.
+	 */
+	public static <T> Flux<T> readOnly(Flux<T> flux) {
+		return flux.contextWrite(context -> context.put(ROLE, Role.READ));
+	}
+
+	/**
+	 * Runs the queries of the given Mono on a replica lagging at most maxStaleness behind, or on the read pool.
+	 * Duration.ZERO always reads from the primary.
+	 */
+	public static <T> Mono<T> readOnly(Mono<T> mono, Duration maxStaleness) {
+		return mono.contextWrite(context -> context.put(ROLE, Role.READ).put(MAX_STALENESS, maxStaleness));
+	}
+
+	/**
+	 * Runs the queries of the given Flux on a replica lagging at most maxStaleness behind, or on the read pool.
+	 * Duration.ZERO always reads from the primary.
+	 */
+	public static <T> Flux<T> readOnly(Flux<T> flux, Duration maxStaleness) {
+		return flux.contextWrite(context -> context.put(ROLE, Role.READ).put(MAX_STALENESS, maxStaleness));
+	}
+
+	/**
+	 * ConnectionFactory picking the pool of the current Role, or a replica, and timing how long the acquisition of a
+	 * connection waits. A replica whose connection can't be acquired is marked down and the read pool is used instead.
+	 */
+	static final class RoutingConnectionFactory implements ConnectionFactory {
+		private final Map<Role, ? extends ConnectionFactory> pools;
+		private final ReplicaSet replicas;
+		private final Duration defaultMaxStaleness;
+		private final Map<String, Timer> acquireTimers = new HashMap<>();
+
+		RoutingConnectionFactory(Map<Role, ? extends ConnectionFactory> pools, ReplicaSet replicas,
+								 Duration defaultMaxStaleness, MeterRegistry meterRegistry) {
+			this.pools = Map.copyOf(pools);
+			this.replicas = replicas;
+			this.defaultMaxStaleness = defaultMaxStaleness;
+			for (Role role : Role.values())
+				acquireTimers.put(role.name().toLowerCase(), acquireTimer(role.name().toLowerCase(), meterRegistry));
+			for (ReplicaSet.Replica replica : replicas.getReplicas())
+				acquireTimers.put(replica.getName(), acquireTimer(replica.getName(), meterRegistry));
+		}
+
+		private static Timer acquireTimer(String pool, MeterRegistry meterRegistry) {
+			return Timer.builder("points.r2dbc.acquire")
+					.description("Time spent waiting for a pooled connection")
+					.tag("pool", pool)
+					.register(meterRegistry);
+		}
+
+		@Override
+		public Mono<Connection> create() {
+			return Mono.deferContextual(context -> {
+				Role role = context.getOrDefault(ROLE, Role.WRITE);
+				ReplicaSet.Replica replica = role == Role.READ ? replicas.select(maxStaleness(context)) : null;
+				if (replica == null)
+					return timed(role.name().toLowerCase(), pools.get(role));
+				return timed(replica.getName(), replica.getPool())
+						.onErrorResume(ex -> {
+							replicas.markDown(replica, ex);
+							return timed(Role.READ.name().toLowerCase(), pools.get(Role.READ));
+						});
+			});
+		}
+
+		private Duration maxStaleness(ContextView context) {
+			return context.getOrDefault(MAX_STALENESS, defaultMaxStaleness);
+		}
+
+		private Mono<Connection> timed(String pool, ConnectionFactory connectionFactory) {
+			Timer.Sample sample = Timer.start();
+			return Mono.from(connectionFactory.create())
+					.doOnEach(signal -> {
+						if (signal.isOnNext() || signal.isOnError())
+							sample.stop(acquireTimers.get(pool));
+					});
+		}
+
+		@Override
+		public ConnectionFactoryMetadata getMetadata() {
+			return pools.get(Role.WRITE).getMetadata();
+		}
+	}
+}
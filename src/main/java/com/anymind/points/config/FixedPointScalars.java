@@ -0,0 +1,68 @@
+package com.anymind.points.config;
+
+import com.anymind.points.model.Modifier;
+import com.anymind.points.model.Money;
+import graphql.scalars.ExtendedScalars;
+import graphql.schema.Coercing;
+import graphql.schema.CoercingParseLiteralException;
+import graphql.schema.CoercingParseValueException;
+import graphql.schema.CoercingSerializeException;
+import graphql.schema.GraphQLScalarType;
+
+import java.math.BigDecimal;
+import java.util.function.Function;
+
+/**
+ * GraphQL scalars of the fixed-point Money and Modifier types.
+ * On the wire they are plain decimal numbers, parsing and serialization are delegated to the BigDecimal scalar.
+ * Input values with more decimals than the type holds are rejected, so that a price is never rounded before it is
+ * multiplied by its modifier.
+ */
+final class FixedPointScalars {
+	static final GraphQLScalarType MONEY = scalar("Money", "Amount of money or points with up to two decimals",
+			Money.class, Money::of, Money::toBigDecimal);
+	static final GraphQLScalarType MODIFIER = scalar("Modifier", "Price or points modifier with up to four decimals",
+			Modifier.class, Modifier::of, Modifier::toBigDecimal);
+
+	private FixedPointScalars() {
+	}
+
+	private static <T> GraphQLScalarType scalar(String name, String description, Class<T> type,
+												Function<BigDecimal, T> fromBigDecimal, Function<T, BigDecimal> toBigDecimal) {
+		Coercing<?, ?> bigDecimal = ExtendedScalars.GraphQLBigDecimal.getCoercing();
+		return GraphQLScalarType.newScalar()
+				.name(name)
+				.description(description)
+				.coercing(new Coercing<T, BigDecimal>() {
+					@Override
+					public BigDecimal serialize(Object dataFetcherResult) throws CoercingSerializeException {
+						if (type.isInstance(dataFetcherResult))
+							return toBigDecimal.apply(type.cast(dataFetcherResult));
+						return (BigDecimal) bigDecimal.serialize(dataFetcherResult);
+					}
+
+					@Override
+					public T parseValue(Object input) throws CoercingParseValueException {
+						try {
+							return fromBigDecimal.apply((BigDecimal) bigDecimal.parseValue(input));
+						} catch (ArithmeticException ex) {
+							throw new CoercingParseValueException("Value out of range for " + name + ": " + input, ex);
+						} catch (IllegalArgumentException ex) {
+							throw new CoercingParseValueException("Too many decimals for " + name + ": " + input, ex);
+						}
+					}
+
+					@Override
+					public T parseLiteral(Object input) throws CoercingParseLiteralException {
+						try {
+							return fromBigDecimal.apply((BigDecimal) bigDecimal.parseLiteral(input));
+						} catch (ArithmeticException ex) {
+							throw new CoercingParseLiteralException("Value out of range for " + name + ": " + input, ex);
+						} catch (IllegalArgumentException ex) {
+							throw new CoercingParseLiteralException("Too many decimals for " + name + ": " + input, ex);
+						}
+					}
+				})
+				.build();
+	}
+}
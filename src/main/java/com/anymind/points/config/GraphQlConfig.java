@@ -1,17 +1,34 @@
 package com.anymind.points.config;
 
+import graphql.analysis.MaxQueryComplexityInstrumentation;
+import graphql.execution.AbortExecutionException;
+import graphql.execution.instrumentation.Instrumentation;
 import graphql.scalars.ExtendedScalars;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.graphql.GraphQlSourceBuilderCustomizer;
+import org.springframework.context.MessageSource;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.graphql.execution.RuntimeWiringConfigurer;
 
+import java.time.Duration;
+
 /**
  * Configuration class for GraphQL related beans.
  */
 @Configuration
 public class GraphQlConfig {
+	/**
+	 * Name of the counter of the operations aborted by the cost limit or the query timeout.
+	 */
+	public static final String ABORTED = "points.graphql.aborted";
+
 	/**
 	 * Add scalers which are used for date and Price and points calculation of our schema.
+	 * Prices and points are mapped to the fixed-point Money type, modifiers to the Modifier type.
 	 *
 	 * @return The runtime wiring configuration.
 	 */
@@ -19,6 +36,50 @@ public class GraphQlConfig {
 	public RuntimeWiringConfigurer runtimeWiringConfigurer() {
 		return wiringBuilder -> wiringBuilder
 				.scalar(ExtendedScalars.DateTime)
-				.scalar(ExtendedScalars.GraphQLBigDecimal);
+				.scalar(FixedPointScalars.MONEY)
+				.scalar(FixedPointScalars.MODIFIER);
+	}
+
+	/**
+	 * Serves the parsed and validated documents, and the persisted queries, from the GraphQlDocumentCache.
+	 *
+	 * @param graphQlDocumentCache The cache of the documents.
+	 * @return The customizer of the GraphQlSource of Spring Boot.
+	 */
+	@Bean
+	public GraphQlSourceBuilderCustomizer documentCacheCustomizer(GraphQlDocumentCache graphQlDocumentCache) {
+		return builder -> builder.configureGraphQl(graphQl -> graphQl.preparsedDocumentProvider(graphQlDocumentCache));
+	}
+
+	/**
+	 * Rejects an operation whose cost estimated by the QueryCostCalculator is over the budget, after its validation
+	 * and before any of its data fetchers runs.
+	 *
+	 * @param queryCostCalculator The calculator of the cost of every field.
+	 * @param maxCost             The largest cost of an operation, in rows.
+	 * @return The instrumentation, picked up by the GraphQlSource of Spring Boot.
+	 */
+	@Bean
+	public Instrumentation queryCostInstrumentation(QueryCostCalculator queryCostCalculator, MessageSource messageSource,
+	                                                MeterRegistry meterRegistry,
+	                                                @Value("${points.graphql.max-cost:20000}") int maxCost) {
+		Counter rejected = meterRegistry.counter(ABORTED, "reason", "cost");
+		return new MaxQueryComplexityInstrumentation(maxCost, queryCostCalculator, info -> {
+			rejected.increment();
+			throw new AbortExecutionException(messageSource.getMessage("errormessage.query-cost",
+					new String[]{String.valueOf(info.getComplexity()), String.valueOf(maxCost)}, LocaleContextHolder.getLocale()));
+		});
+	}
+
+	/**
+	 * Cancels the data fetchers of a query still running after the timeout, see QueryTimeoutInstrumentation.
+	 *
+	 * @param timeout The time a query may run.
+	 * @return The instrumentation, picked up by the GraphQlSource of Spring Boot.
+	 */
+	@Bean
+	public Instrumentation queryTimeoutInstrumentation(MessageSource messageSource, MeterRegistry meterRegistry,
+	                                                   @Value("${points.graphql.query-timeout:PT10S}") Duration timeout) {
+		return new QueryTimeoutInstrumentation(timeout, messageSource, meterRegistry.counter(ABORTED, "reason", "timeout"));
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,147 @@
+package com.anymind.points.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import graphql.ErrorType;
+import graphql.ExecutionInput;
+import graphql.GraphqlErrorBuilder;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.PreparsedDocumentProvider;
+import graphql.execution.preparsed.persisted.ApolloPersistedQuerySupport;
+import graphql.execution.preparsed.persisted.PersistedQueryCache;
+import graphql.execution.preparsed.persisted.PersistedQueryCacheMiss;
+import graphql.execution.preparsed.persisted.PersistedQueryNotFound;
+import graphql.execution.preparsed.persisted.PersistedQuerySupport;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of the parsed and validated GraphQL documents, so that the operations sent again and again by the
+ * clients are only parsed and validated once per instance.
+ * It also serves the Automatic Persisted Queries protocol: a client sends the sha256 hash of its document in the
+ * persistedQuery extension, and the document itself only when the hash is unknown. The documents of the registered
+ * locations are known from the start, their hashes can be sent without ever sending the documents.
+ * Documents with syntax or validation errors aren't cached.
+ *
+ * @author-pankaj.pande
+ */
+@Slf4j
+@Component
+public class GraphQlDocumentCache implements PreparsedDocumentProvider {
+	private static final String PERSISTED_QUERY_EXTENSION = "persistedQuery";
+
+	private final Cache<String, PreparsedDocumentEntry> documents;
+	private final Cache<String, PreparsedDocumentEntry> persistedDocuments;
+	private final Map<String, String> registeredQueries;
+	private final ApolloPersistedQuerySupport persistedQuerySupport = new ApolloPersistedQuerySupport(new PersistedDocuments());
+
+	/**
+	 * Constructor for GraphQlDocumentCache class.
+	 *
+	 * @param meterRegistry - MeterRegistry object to publish the hits and misses of the caches
+	 * @param maximumSize   - maximum number of cached documents, by query text and by hash each
+	 * @param locations     - locations of the registered documents, one operation document per file
+	 */
+	@Autowired
+	public GraphQlDocumentCache(MeterRegistry meterRegistry,
+	                            @Value("${points.graphql.document-cache.maximum-size:1000}") long maximumSize,
+	                            @Value("${points.graphql.persisted-queries.locations:classpath*:graphql/*.graphql}") String locations) {
+		this.documents = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.recordStats()
+				.build();
+		this.persistedDocuments = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.recordStats()
+				.build();
+		CaffeineCacheMetrics.monitor(meterRegistry, documents, "graphql-documents");
+		CaffeineCacheMetrics.monitor(meterRegistry, persistedDocuments, "graphql-persisted-documents");
+		this.registeredQueries = load(locations);
+	}
+
+	@Override
+	public PreparsedDocumentEntry getDocument(ExecutionInput executionInput,
+	                                          Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidateFunction) {
+		if (executionInput.getExtensions().get(PERSISTED_QUERY_EXTENSION) != null)
+			return persistedQuerySupport.getDocument(executionInput, parseAndValidateFunction);
+		String query = executionInput.getQuery();
+		PreparsedDocumentEntry entry = documents.getIfPresent(query);
+		if (entry == null) {
+			entry = parseAndValidateFunction.apply(executionInput);
+			if (!entry.hasErrors())
+				documents.put(query, entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Documents by their sha256 hash. A document sent along with a hash which isn't its own is rejected and not cached,
+	 * so that a client can't register a document under the hash of another one.
+	 */
+	private final class PersistedDocuments implements PersistedQueryCache {
+		@Override
+		public PreparsedDocumentEntry getPersistedQueryDocument(Object persistedQueryId, ExecutionInput executionInput,
+		                                                        PersistedQueryCacheMiss onCacheMiss) throws PersistedQueryNotFound {
+			String hash = persistedQueryId.toString();
+			PreparsedDocumentEntry entry = persistedDocuments.getIfPresent(hash);
+			if (entry != null)
+				return entry;
+			String query = registeredQueries.getOrDefault(hash, executionInput.getQuery());
+			if (query == null || PersistedQuerySupport.PERSISTED_QUERY_MARKER.equals(query))
+				throw new PersistedQueryNotFound(persistedQueryId);
+			if (!hash.equalsIgnoreCase(sha256(query)))
+				return new PreparsedDocumentEntry(GraphqlErrorBuilder.newError()
+						.errorType(ErrorType.ValidationError)
+						.message("PersistedQueryIdInvalid")
+						.extensions(Map.of("persistedQueryId", hash))
+						.build());
+			entry = onCacheMiss.apply(query);
+			if (!entry.hasErrors())
+				persistedDocuments.put(hash, entry);
+			return entry;
+		}
+	}
+
+	private static Map<String, String> load(String locations) {
+		Map<String, String> queries = new HashMap<>();
+		try {
+			for (Resource resource : new PathMatchingResourcePatternResolver().getResources(locations)) {
+				String query;
+				try (InputStream content = resource.getInputStream()) {
+					query = new String(content.readAllBytes(), StandardCharsets.UTF_8);
+				}
+				String hash = sha256(query);
+				queries.put(hash, query);
+				log.info("Registered the persisted query " + resource.getFilename() + " as " + hash);
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Unable to read the persisted queries of " + locations, ex);
+		}
+		return Map.copyOf(queries);
+	}
+
+	static String sha256(String query) {
+		try {
+			return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(query.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+}
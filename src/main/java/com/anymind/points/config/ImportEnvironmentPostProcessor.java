@@ -0,0 +1,32 @@
+package com.anymind.points.config;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.config.ConfigDataEnvironmentPostProcessor;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.Map;
+
+/**
+ * Runs the command line import of a csv file, --points.import.file=<path>, as a batch job: without the web server, and
+ * so without the scheduled jobs, and without replaying the sale journal of the instance serving the sales.
+ * The properties are added last, a value given explicitly still wins: application.properties must not set them.
+ */
+public class ImportEnvironmentPostProcessor implements EnvironmentPostProcessor, Ordered {
+	@Override
+	public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+		if (!environment.containsProperty("points.import.file"))
+			return;
+		environment.getPropertySources().addLast(new MapPropertySource("import", Map.of(
+				"spring.main.web-application-type", "none",
+				"points.ingestion.replay", "false")));
+	}
+
+	@Override
+	public int getOrder() {
+		// after application.properties has been loaded, so that the import can also be configured there
+		return ConfigDataEnvironmentPostProcessor.ORDER + 1;
+	}
+}
@@ -0,0 +1,125 @@
+package com.anymind.points.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import graphql.execution.preparsed.persisted.PersistedQuerySupport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpRequestDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Lets the GraphQL endpoint accept the requests of the Automatic Persisted Queries protocol which only carry the hash of
+ * their document. Spring GraphQL rejects a request without query, so the placeholder query of graphql-java is added to
+ * these requests and the GraphQlDocumentCache replaces it with the document of the hash. Other requests are passed on
+ * unchanged.
+ * A body is only buffered up to the in-memory limit of the codecs, which the GraphQL endpoint applies anyway: a larger
+ * one is passed on untouched when its length is declared, rejected as too large otherwise.
+ *
+ * @author-pankaj.pande
+ */
+@Component
+public class PersistedQueryWebFilter implements WebFilter {
+	private static final byte[] PERSISTED_QUERY = "\"persistedQuery\"".getBytes(StandardCharsets.UTF_8);
+
+	private final ObjectMapper objectMapper;
+	private final String path;
+	private final int maxInMemorySize;
+
+	/**
+	 * Constructor for PersistedQueryWebFilter class.
+	 *
+	 * @param objectMapper    - ObjectMapper object reading and writing the request documents
+	 * @param path            - path of the GraphQL endpoint
+	 * @param maxInMemorySize - largest body buffered to look for a persistedQuery extension
+	 */
+	@Autowired
+	public PersistedQueryWebFilter(ObjectMapper objectMapper, @Value("${spring.graphql.path:/graphql}") String path,
+	                               @Value("${spring.codec.max-in-memory-size:256KB}") DataSize maxInMemorySize) {
+		this.objectMapper = objectMapper;
+		this.path = path;
+		this.maxInMemorySize = Math.toIntExact(maxInMemorySize.toBytes());
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		ServerHttpRequest request = exchange.getRequest();
+		if (request.getMethod() != HttpMethod.POST || !path.equals(request.getPath().pathWithinApplication().value())
+				|| request.getHeaders().getContentLength() > maxInMemorySize)
+			return chain.filter(exchange);
+		return DataBufferUtils.join(request.getBody(), maxInMemorySize)
+				.map(buffer -> {
+					byte[] body = new byte[buffer.readableByteCount()];
+					buffer.read(body);
+					DataBufferUtils.release(buffer);
+					return body;
+				})
+				.defaultIfEmpty(new byte[0])
+				.flatMap(body -> chain.filter(exchange.mutate().request(withBody(exchange, withQuery(body))).build()))
+				.onErrorResume(DataBufferLimitException.class, ex -> {
+					exchange.getResponse().setStatusCode(HttpStatus.PAYLOAD_TOO_LARGE);
+					return exchange.getResponse().setComplete();
+				});
+	}
+
+	/**
+	 * Adds the placeholder query to a request document which has a persistedQuery extension and no query.
+	 *
+	 * @return the new document, the given one if it doesn't need a placeholder
+	 */
+	byte[] withQuery(byte[] body) {
+		if (!contains(body, PERSISTED_QUERY))
+			return body;
+		try {
+			if (!(objectMapper.readTree(body) instanceof ObjectNode document) || document.hasNonNull("query")
+					|| !document.path("extensions").has("persistedQuery"))
+				return body;
+			document.put("query", PersistedQuerySupport.PERSISTED_QUERY_MARKER);
+			return objectMapper.writeValueAsBytes(document);
+		} catch (IOException ex) {
+			// the GraphQL endpoint reports the malformed document
+			return body;
+		}
+	}
+
+	private static ServerHttpRequest withBody(ServerWebExchange exchange, byte[] body) {
+		return new ServerHttpRequestDecorator(exchange.getRequest()) {
+			@Override
+			public HttpHeaders getHeaders() {
+				HttpHeaders headers = new HttpHeaders();
+				headers.putAll(super.getHeaders());
+				headers.setContentLength(body.length);
+				return headers;
+			}
+
+			@Override
+			public Flux<DataBuffer> getBody() {
+				return Flux.defer(() -> Flux.just(exchange.getResponse().bufferFactory().wrap(body)));
+			}
+		};
+	}
+
+	private static boolean contains(byte[] bytes, byte[] pattern) {
+		for (int i = 0; i <= bytes.length - pattern.length; i++)
+			if (Arrays.equals(bytes, i, i + pattern.length, pattern, 0, pattern.length))
+				return true;
+		return false;
+	}
+}
@@ -0,0 +1,124 @@
+package com.anymind.points.config;
+
+import com.anymind.points.repository.SalesRepository;
+import com.anymind.points.service.PaymentMethodCatalog;
+import graphql.analysis.FieldComplexityCalculator;
+import graphql.analysis.FieldComplexityEnvironment;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.TemporalAccessor;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Estimates the cost of a GraphQL operation in rows read before it runs, from the arguments of its root fields:
+ * - getAllSales and the streamSales subscription read the whole sale table, whose size is estimated by the planner
+ * statistics: until the first estimate is loaded they cost the maximum,
+ * - getSalesConnection reads one page,
+ * - getSalesByRange reads one row of the hourly report per hour of the range, one row per minute for minute buckets,
+ * - getSalesBreakdownByRange reads as many rows for every payment method,
+ * - addSales writes one row per input.
+ * A root field returning a list costs its rows times the cost of one of its items, nested fields only cost what their
+ * children cost: the payment method of a sale is served by the catalog, once per response.
+ * The hourlySales subscription only pushes the changes of the hourly report, it costs one.
+ *
+ * @author-pankaj.pande
+ */
+@Slf4j
+@Component
+public class QueryCostCalculator implements FieldComplexityCalculator {
+	private static final String QUERY = "Query";
+	private static final String MUTATION = "Mutation";
+	private static final String SUBSCRIPTION = "Subscription";
+	private static final long SECONDS_PER_MINUTE = 60;
+	private static final long SECONDS_PER_HOUR = 3600;
+
+	private final SalesRepository salesRepository;
+	private final PaymentMethodCatalog paymentMethodCatalog;
+	private final int defaultPageSize;
+	private final int maxPageSize;
+	// unknown until the first estimate, the reads of the whole table are rejected meanwhile
+	private volatile long saleRows = Long.MAX_VALUE;
+	private volatile int paymentMethods = 1;
+
+	/**
+	 * Constructor for QueryCostCalculator class.
+	 *
+	 * @param salesRepository      - SalesRepository object estimating the size of the sale table
+	 * @param paymentMethodCatalog - PaymentMethodCatalog object counting the payment methods
+	 * @param defaultPageSize      - size of a page of getSalesConnection without first
+	 * @param maxPageSize          - largest page of getSalesConnection
+	 */
+	@Autowired
+	public QueryCostCalculator(SalesRepository salesRepository, PaymentMethodCatalog paymentMethodCatalog,
+	                           @Value("${points.sales-connection.default-page-size:100}") int defaultPageSize,
+	                           @Value("${points.sales-connection.max-page-size:1000}") int maxPageSize) {
+		this.salesRepository = salesRepository;
+		this.paymentMethodCatalog = paymentMethodCatalog;
+		this.defaultPageSize = defaultPageSize;
+		this.maxPageSize = maxPageSize;
+	}
+
+	@Override
+	public int calculate(FieldComplexityEnvironment environment, int childComplexity) {
+		String parentType = environment.getParentType().getName();
+		if (SUBSCRIPTION.equals(parentType))
+			return "streamSales".equals(environment.getField().getName()) ? rows(saleRows, childComplexity) : 1;
+		if (!QUERY.equals(parentType) && !MUTATION.equals(parentType))
+			return childComplexity;
+		Map<String, Object> arguments = environment.getArguments();
+		return switch (environment.getField().getName()) {
+			case "getAllSales" -> rows(saleRows, childComplexity);
+			case "getSalesConnection" -> rows(pageSize(arguments.get("first")), childComplexity);
+			case "getSalesByRange" -> rows(rangeRows(arguments.get("dateRangeInput")), childComplexity);
+			case "getSalesBreakdownByRange" ->
+					rows(rangeRows(arguments.get("dateRangeInput")) * paymentMethods, childComplexity);
+			case "addSales" -> rows(arguments.get("salesInputs") instanceof Collection<?> inputs ? inputs.size() : 1, childComplexity);
+			default -> saturated(1L + childComplexity);
+		};
+	}
+
+	/**
+	 * Periodically refreshes the estimated size of the sale table and the number of payment methods. A failed refresh
+	 * keeps the previous estimates.
+	 */
+	@Scheduled(initialDelayString = "${points.graphql.cost.initial-delay:PT0S}",
+			fixedDelayString = "${points.graphql.cost.refresh-interval:PT5M}")
+	void refresh() {
+		salesRepository.estimateRows().subscribe(rows -> saleRows = rows,
+				error -> log.error("Unable to estimate the size of the sale table", error));
+		paymentMethodCatalog.current().subscribe(snapshot -> paymentMethods = Math.max(1, snapshot.byId().size()),
+				error -> log.error("Unable to count the payment methods", error));
+	}
+
+	private long pageSize(Object first) {
+		return first instanceof Integer size ? Math.max(0, Math.min(size, maxPageSize)) : defaultPageSize;
+	}
+
+	/**
+	 * Returns the rows read for a date range, 1 if the range is incomplete: the validation rejects it anyway.
+	 */
+	private static long rangeRows(Object dateRangeInput) {
+		if (!(dateRangeInput instanceof Map<?, ?> input)
+				|| !(input.get("from") instanceof TemporalAccessor from) || !(input.get("to") instanceof TemporalAccessor to))
+			return 1;
+		long seconds = Math.max(0, Duration.between(Instant.from(from), Instant.from(to)).getSeconds());
+		long rowSeconds = "MINUTE".equals(String.valueOf(input.get("granularity"))) ? SECONDS_PER_MINUTE : SECONDS_PER_HOUR;
+		return seconds / rowSeconds + 1;
+	}
+
+	private static int rows(long rows, int childComplexity) {
+		// both factors fit in an int, their product can't overflow a long
+		return saturated(Math.min(rows, Integer.MAX_VALUE) * Math.max(1, childComplexity));
+	}
+
+	private static int saturated(long cost) {
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(0, cost));
+	}
+}
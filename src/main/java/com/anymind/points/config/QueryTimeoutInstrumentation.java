@@ -0,0 +1,92 @@
+package com.anymind.points.config;
+
+import com.anymind.points.exception.CustomException;
+import graphql.ErrorType;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.SimplePerformantInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters;
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters;
+import graphql.language.OperationDefinition;
+import graphql.schema.DataFetcher;
+import io.micrometer.core.instrument.Counter;
+import org.springframework.context.MessageSource;
+import org.springframework.context.i18n.LocaleContextHolder;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the time a GraphQL query may run. Every query gets a deadline when its execution starts, and a data fetcher
+ * which hasn't completed by then fails with an ExecutionAborted error.
+ * Our controllers return a Mono or a Flux which Spring GraphQL subscribes to through a CompletableFuture, cancelling the
+ * future cancels the subscription: the R2DBC query behind it is cancelled and its connection goes back to the pool
+ * instead of running to the end for a client which already got an error.
+ * Mutations and subscriptions aren't bounded, a mutation is left to complete or roll back on its own.
+ *
+ * @author-pankaj.pande
+ */
+public class QueryTimeoutInstrumentation extends SimplePerformantInstrumentation {
+	private final Duration timeout;
+	private final MessageSource messageSource;
+	private final Counter timedOut;
+
+	/**
+	 * Constructor for QueryTimeoutInstrumentation class.
+	 *
+	 * @param timeout       - time a query may run
+	 * @param messageSource - MessageSource object resolving the error message
+	 * @param timedOut      - Counter object counting the queries cancelled by their deadline
+	 */
+	public QueryTimeoutInstrumentation(Duration timeout, MessageSource messageSource, Counter timedOut) {
+		this.timeout = timeout;
+		this.messageSource = messageSource;
+		this.timedOut = timedOut;
+	}
+
+	@Override
+	public InstrumentationState createState(InstrumentationCreateStateParameters parameters) {
+		return new Deadline(System.nanoTime() + timeout.toNanos());
+	}
+
+	@Override
+	public DataFetcher<?> instrumentDataFetcher(DataFetcher<?> dataFetcher, InstrumentationFieldFetchParameters parameters,
+	                                            InstrumentationState state) {
+		if (parameters.isTrivialDataFetcher() || !(state instanceof Deadline deadline)
+				|| parameters.getExecutionContext().getOperationDefinition().getOperation() != OperationDefinition.Operation.QUERY)
+			return dataFetcher;
+		return environment -> {
+			Object value = dataFetcher.get(environment);
+			return value instanceof CompletableFuture<?> future ? withDeadline(future, deadline) : value;
+		};
+	}
+
+	private CompletableFuture<Object> withDeadline(CompletableFuture<?> future, Deadline deadline) {
+		CompletableFuture<Object> bounded = new CompletableFuture<>();
+		future.whenComplete((value, error) -> {
+			if (error != null)
+				bounded.completeExceptionally(error);
+			else
+				bounded.complete(value);
+		});
+		long remaining = deadline.nanos() - System.nanoTime();
+		Disposable expiry = Schedulers.parallel().schedule(() -> {
+			String message = messageSource.getMessage("errormessage.query-timeout", new String[]{timeout.toString()},
+					LocaleContextHolder.getLocale());
+			if (bounded.completeExceptionally(new CustomException(ErrorType.ExecutionAborted, message))) {
+				timedOut.increment();
+				future.cancel(true);
+			}
+		}, Math.max(0, remaining), TimeUnit.NANOSECONDS);
+		bounded.whenComplete((value, error) -> expiry.dispose());
+		return bounded;
+	}
+
+	/**
+	 * The System.nanoTime by which a query has to complete.
+	 */
+	private record Deadline(long nanos) implements InstrumentationState {
+	}
+}
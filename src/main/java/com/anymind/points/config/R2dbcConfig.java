@@ -0,0 +1,74 @@
+package com.anymind.points.config;
+
+import com.anymind.points.model.Modifier;
+import com.anymind.points.model.Money;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+import org.springframework.data.r2dbc.convert.R2dbcCustomConversions;
+import org.springframework.data.r2dbc.dialect.PostgresDialect;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Configuration class for the R2DBC mapping of our own value types.
+ */
+@Configuration
+public class R2dbcConfig {
+	/**
+	 * Maps the DECIMAL columns to the fixed-point Money and Modifier types of the entities.
+	 *
+	 * @return The custom conversions used by the R2DBC repositories.
+	 */
+	@Bean
+	public R2dbcCustomConversions r2dbcCustomConversions() {
+		return R2dbcCustomConversions.of(PostgresDialect.INSTANCE, List.of(
+				BigDecimalToMoneyConverter.INSTANCE,
+				MoneyToBigDecimalConverter.INSTANCE,
+				BigDecimalToModifierConverter.INSTANCE,
+				ModifierToBigDecimalConverter.INSTANCE));
+	}
+
+	@ReadingConverter
+	enum BigDecimalToMoneyConverter implements Converter<BigDecimal, Money> {
+		INSTANCE;
+
+		@Override
+		public Money convert(BigDecimal source) {
+			return Money.of(source);
+		}
+	}
+
+	@WritingConverter
+	enum MoneyToBigDecimalConverter implements Converter<Money, BigDecimal> {
+		INSTANCE;
+
+		@Override
+		public BigDecimal convert(Money source) {
+			return source.toBigDecimal();
+		}
+	}
+
+	@ReadingConverter
+	enum BigDecimalToModifierConverter implements Converter<BigDecimal, Modifier> {
+		INSTANCE;
+
+		@Override
+		public Modifier convert(BigDecimal source) {
+			return Modifier.of(source);
+		}
+	}
+
+	@WritingConverter
+	enum ModifierToBigDecimalConverter implements Converter<Modifier, BigDecimal> {
+		INSTANCE;
+
+		@Override
+		public BigDecimal convert(Modifier source) {
+			return source.toBigDecimal();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.anymind.points.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import io.r2dbc.spi.Option;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configuration class of the R2DBC connection pools, replacing the single pool of Spring Boot.
+ * Mutations and reports get separate pools, routed by ConnectionRouting, so that long range reports can't keep the
+ * mutations waiting for a connection. Pools which aren't sized explicitly are sized from the number of cores.
+ * Both pools are exported by Actuator as the r2dbc.pool gauges, tagged with their name, read or write.
+ * The read replicas listed in points.r2dbc.replicas.urls get a pool each, with the credentials of the primary, and
+ * take the read-only queries off the primary while they are healthy and close enough behind it.
+ */
+@Slf4j
+@Configuration
+public class R2dbcPoolConfig {
+	private static final Option<Integer> PREPARED_STATEMENT_CACHE_QUERIES = Option.valueOf("preparedStatementCacheQueries");
+
+	@Value("${spring.r2dbc.url}")
+	private String url;
+	@Value("${spring.r2dbc.username:}")
+	private String username;
+	@Value("${spring.r2dbc.password:}")
+	private String password;
+	@Value("${points.r2dbc.prepared-statement-cache-queries:256}")
+	private int preparedStatementCacheQueries = 256;
+	@Value("${points.r2dbc.pool.max-idle-time:PT30M}")
+	private Duration maxIdleTime = Duration.ofMinutes(30);
+	@Value("${points.r2dbc.pool.max-acquire-time:PT5S}")
+	private Duration maxAcquireTime = Duration.ofSeconds(5);
+
+	/**
+	 * The pool of the mutations, 2 connections per core by default: their transactions are short and mostly wait on
+	 * the network.
+	 *
+	 * @param maxSize maximum number of connections, 0 to size the pool from the number of cores
+	 * @return The write ConnectionPool.
+	 */
+	@Bean(destroyMethod = "dispose")
+	public ConnectionPool writeConnectionFactory(@Value("${points.r2dbc.pool.write.max-size:0}") int maxSize) {
+		return pool("write", maxSize > 0 ? maxSize : 2 * cores());
+	}
+
+	/**
+	 * The pool of the reports and the listings, 1 connection per core by default: their queries keep the database busy.
+	 *
+	 * @param maxSize maximum number of connections, 0 to size the pool from the number of cores
+	 * @return The read ConnectionPool.
+	 */
+	@Bean(destroyMethod = "dispose")
+	public ConnectionPool readConnectionFactory(@Value("${points.r2dbc.pool.read.max-size:0}") int maxSize) {
+		return pool("read", maxSize > 0 ? maxSize : cores());
+	}
+
+	/**
+	 * The read replicas, none by default, 1 connection per core each unless sized explicitly.
+	 *
+	 * @param urls                R2DBC urls of the replicas, comma separated
+	 * @param maxSize             maximum number of connections of every replica, 0 to size them from the number of cores
+	 * @param healthCheckInterval interval between two health checks of a replica
+	 * @param meterRegistry       MeterRegistry object to publish the health, the lag and the pool of every replica
+	 * @return The ReplicaSet.
+	 */
+	@Bean(destroyMethod = "close")
+	public ReplicaSet replicaSet(@Value("${points.r2dbc.replicas.urls:}") List<String> urls,
+								 @Value("${points.r2dbc.replicas.pool.max-size:0}") int maxSize,
+								 @Value("${points.r2dbc.replicas.health-check-interval:PT5S}") Duration healthCheckInterval,
+								 MeterRegistry meterRegistry) {
+		List<String> replicaUrls = urls.stream().map(String::trim).filter(replicaUrl -> !replicaUrl.isEmpty()).toList();
+		List<ConnectionPool> pools = new ArrayList<>();
+		for (int i = 0; i < replicaUrls.size(); i++)
+			pools.add(pool("replica-" + (i + 1), replicaUrls.get(i), maxSize > 0 ? maxSize : cores()));
+		return new ReplicaSet(pools, healthCheckInterval, meterRegistry);
+	}
+
+	/**
+	 * The ConnectionFactory of the repositories, the transaction manager and the schema initialization.
+	 *
+	 * @param writeConnectionFactory the write pool, used unless the pipeline is read-only
+	 * @param readConnectionFactory  the read pool, used by the read-only pipelines no replica can serve
+	 * @param replicaSet             the read replicas
+	 * @param defaultMaxStaleness    replication lag tolerated by the read-only pipelines which don't set their own
+	 * @param meterRegistry          MeterRegistry object to publish the connection acquisition wait of every pool
+	 * @return The routing ConnectionFactory.
+	 */
+	@Bean
+	@Primary
+	public ConnectionFactory connectionFactory(@Qualifier("writeConnectionFactory") ConnectionPool writeConnectionFactory,
+											   @Qualifier("readConnectionFactory") ConnectionPool readConnectionFactory,
+											   ReplicaSet replicaSet,
+											   @Value("${points.r2dbc.replicas.max-staleness:PT5S}") Duration defaultMaxStaleness,
+											   MeterRegistry meterRegistry) {
+		return new ConnectionRouting.RoutingConnectionFactory(Map.of(
+				ConnectionRouting.Role.WRITE, writeConnectionFactory,
+				ConnectionRouting.Role.READ, readConnectionFactory), replicaSet, defaultMaxStaleness, meterRegistry);
+	}
+
+	private ConnectionPool pool(String name, int maxSize) {
+		return pool(name, url, maxSize);
+	}
+
+	private ConnectionPool pool(String name, String url, int maxSize) {
+		ConnectionFactoryOptions.Builder options = ConnectionFactoryOptions.parse(url).mutate()
+				// bounded, the multi-row inserts of the batches would otherwise fill it with one statement per batch size
+				.option(PREPARED_STATEMENT_CACHE_QUERIES, preparedStatementCacheQueries);
+		if (!username.isEmpty())
+			options.option(ConnectionFactoryOptions.USER, username);
+		if (!password.isEmpty())
+			options.option(ConnectionFactoryOptions.PASSWORD, password);
+
+		log.info("R2DBC " + name + " pool of " + maxSize + " connections");
+		return new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options.build()))
+				.name(name)
+				.initialSize(Math.min(2, maxSize))
+				.maxSize(maxSize)
+				.maxIdleTime(maxIdleTime)
+				.maxAcquireTime(maxAcquireTime)
+				.build());
+	}
+
+	private static int cores() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+}
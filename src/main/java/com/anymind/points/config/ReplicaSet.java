@@ -0,0 +1,163 @@
+package com.anymind.points.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.spi.Connection;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.metrics.r2dbc.ConnectionPoolMetrics;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The read replicas of the database and their health.
+ * Every replica is checked periodically: it's healthy if it answers, is a hot standby and its replication lag is known.
+ * A replica whose connection can't be acquired is taken out right away until its next successful check.
+ *
+ * @author-pankaj.pande
+ */
+@Slf4j
+public class ReplicaSet implements AutoCloseable {
+	private static final String HEALTH_CHECK = """
+			SELECT pg_is_in_recovery() AS standby,
+			       CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+			            ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0)
+			       END::float8 AS lag
+			""";
+
+	private final List<Replica> replicas;
+	private final AtomicInteger next = new AtomicInteger();
+	private final Disposable healthChecks;
+
+	/**
+	 * Constructor for ReplicaSet class, starts the health checks.
+	 *
+	 * @param pools               - connection pools of the replicas, named replica-1, replica-2... in this order
+	 * @param healthCheckInterval - interval between two checks of a replica, also the timeout of a check
+	 * @param meterRegistry       - MeterRegistry object to publish the health, the lag and the pool of every replica
+	 */
+	public ReplicaSet(List<ConnectionPool> pools, Duration healthCheckInterval, MeterRegistry meterRegistry) {
+		this.replicas = new ArrayList<>();
+		for (int i = 0; i < pools.size(); i++) {
+			Replica replica = new Replica("replica-" + (i + 1), pools.get(i));
+			replicas.add(replica);
+			new ConnectionPoolMetrics(replica.pool, replica.name, Tags.empty()).bindTo(meterRegistry);
+			Gauge.builder("points.r2dbc.replica.healthy", replica, r -> r.healthy ? 1 : 0)
+					.description("Whether the replica is used for the read-only queries")
+					.tag("replica", replica.name)
+					.register(meterRegistry);
+			Gauge.builder("points.r2dbc.replica.lag", replica, r -> r.lagSeconds)
+					.description("Replication lag of the replica measured by the last health check, in seconds")
+					.tag("replica", replica.name)
+					.register(meterRegistry);
+		}
+		this.healthChecks = replicas.isEmpty() ? null : Flux.interval(Duration.ZERO, healthCheckInterval)
+				.onBackpressureDrop()
+				.concatMap(tick -> Flux.fromIterable(replicas).flatMap(replica -> check(replica, healthCheckInterval)))
+				.subscribe();
+	}
+
+	/**
+	 * Returns the replicas, in the order of their pools.
+	 */
+	public List<Replica> getReplicas() {
+		return replicas;
+	}
+
+	/**
+	 * Picks one of the healthy replicas whose lag is within the given staleness, round-robin.
+	 *
+	 * @param maxStaleness the replication lag the query tolerates
+	 * @return a Replica, null if none qualifies and the query has to run on the primary
+	 */
+	public Replica select(Duration maxStaleness) {
+		if (replicas.isEmpty() || maxStaleness.isZero())
+			return null;
+		double maxLag = maxStaleness.toNanos() / 1e9;
+		int start = next.getAndIncrement();
+		for (int i = 0; i < replicas.size(); i++) {
+			Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+			if (replica.healthy && replica.lagSeconds <= maxLag)
+				return replica;
+		}
+		return null;
+	}
+
+	/**
+	 * Takes a replica out until its next successful health check.
+	 */
+	public void markDown(Replica replica, Throwable error) {
+		if (replica.healthy)
+			log.warn("Replica " + replica.name + " is down, its read-only queries go to the primary", error);
+		replica.healthy = false;
+		replica.lagSeconds = Double.NaN;
+	}
+
+	private Mono<Void> check(Replica replica, Duration timeout) {
+		return Mono.usingWhen(Mono.defer(replica.pool::create),
+						(Connection connection) -> Mono.from(connection.createStatement(HEALTH_CHECK).execute())
+								.flatMap(result -> Mono.from(result.map((row, metadata) -> new Health(
+										Boolean.TRUE.equals(row.get("standby", Boolean.class)), row.get("lag", Double.class))))),
+						Connection::close)
+				.timeout(timeout)
+				.doOnNext(health -> {
+					if (!health.standby()) {
+						markDown(replica, new IllegalStateException("Not a hot standby"));
+						return;
+					}
+					if (!replica.healthy)
+						log.info("Replica " + replica.name + " is up, lag " + health.lag() + "s");
+					replica.lagSeconds = health.lag();
+					replica.healthy = true;
+				})
+				.onErrorResume(ex -> {
+					markDown(replica, ex);
+					return Mono.empty();
+				})
+				.then();
+	}
+
+	@Override
+	public void close() {
+		if (healthChecks != null)
+			healthChecks.dispose();
+		replicas.forEach(replica -> replica.pool.dispose());
+	}
+
+	private record Health(boolean standby, double lag) {
+	}
+
+	/**
+	 * A replica, its pool and its health as of the last check.
+	 */
+	public static final class Replica {
+		private final String name;
+		private final ConnectionPool pool;
+		private volatile boolean healthy;
+		private volatile double lagSeconds = Double.NaN;
+
+		Replica(String name, ConnectionPool pool) {
+			this.name = name;
+			this.pool = pool;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public ConnectionPool getPool() {
+			return pool;
+		}
+
+		public boolean isHealthy() {
+			return healthy;
+		}
+	}
+}
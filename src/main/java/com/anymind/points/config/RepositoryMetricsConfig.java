@@ -0,0 +1,64 @@
+package com.anymind.points.config;
+
+import com.anymind.points.service.SalesMetrics;
+import io.micrometer.core.instrument.Tags;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Configuration class timing every call to our repositories.
+ * The reactive repositories return before the query runs, so instead of timing the method invocation the returned Mono
+ * or Flux is timed from its subscription to its termination.
+ */
+@Configuration
+public class RepositoryMetricsConfig {
+	/**
+	 * Adds a RepositoryMetricsInterceptor to the proxy of every repository, custom fragments included.
+	 * SalesMetrics is looked up on the first call only, since the repositories have to be created before it.
+	 *
+	 * @param salesMetrics provider of the SalesMetrics bean.
+	 * @return The bean post processor customizing the repository factories.
+	 */
+	@Bean
+	public static BeanPostProcessor repositoryMetricsPostProcessor(ObjectProvider<SalesMetrics> salesMetrics) {
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessBeforeInitialization(Object bean, String beanName) {
+				if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> repositoryFactoryBean)
+					repositoryFactoryBean.addRepositoryFactoryCustomizer(repositoryFactory ->
+							repositoryFactory.addRepositoryProxyPostProcessor((proxyFactory, repositoryInformation) ->
+									proxyFactory.addAdvice(new RepositoryMetricsInterceptor(salesMetrics,
+											repositoryInformation.getRepositoryInterface().getSimpleName()))));
+				return bean;
+			}
+		};
+	}
+
+	static final class RepositoryMetricsInterceptor implements MethodInterceptor {
+		private final ObjectProvider<SalesMetrics> salesMetrics;
+		private final String repository;
+
+		RepositoryMetricsInterceptor(ObjectProvider<SalesMetrics> salesMetrics, String repository) {
+			this.salesMetrics = salesMetrics;
+			this.repository = repository;
+		}
+
+		@Override
+		public Object invoke(MethodInvocation invocation) throws Throwable {
+			Object result = invocation.proceed();
+			Tags tags = Tags.of("repository", repository, "method", invocation.getMethod().getName());
+			if (result instanceof Mono<?> mono)
+				return salesMetrics.getObject().time(SalesMetrics.REPOSITORY, tags, mono);
+			if (result instanceof Flux<?> flux)
+				return salesMetrics.getObject().time(SalesMetrics.REPOSITORY, tags, flux);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package com.anymind.points.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Configuration class for the scheduled jobs: the refreshes of the catalogs and estimates, the partition maintenance,
+ * the cold archive and the consistency check of the hourly rollup. They only run alongside the web server, not during
+ * a command line import.
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnWebApplication
+public class SchedulingConfig {
+}
@@ -4,46 +4,108 @@
 
 package com.anymind.points.controller;
 
+import com.anymind.points.dto.SaleConnectionDto;
 import com.anymind.points.dto.SaleResponseDto;
+import com.anymind.points.dto.SaleResultDto;
+import com.anymind.points.dto.SalesBreakdownDto;
 import com.anymind.points.dto.SalesListDto;
 import com.anymind.points.model.DateRangeInput;
+import com.anymind.points.model.PaymentMethod;
 import com.anymind.points.model.Sale;
 import com.anymind.points.model.SalesInput;
+import com.anymind.points.service.HourlySalesFeed;
+import com.anymind.points.service.SalesMetrics;
 import com.anymind.points.service.SalesService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.graphql.data.method.annotation.Argument;
+import org.springframework.graphql.data.method.annotation.BatchMapping;
 import org.springframework.graphql.data.method.annotation.MutationMapping;
 import org.springframework.graphql.data.method.annotation.QueryMapping;
+import org.springframework.graphql.data.method.annotation.SubscriptionMapping;
 import org.springframework.stereotype.Controller;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.SignalType;
 
+import java.util.List;
 import java.util.Locale;
-import java.util.logging.Level;
+import java.util.Map;
 
 @Slf4j
 @Controller
 public class SalesSystemController {
     private final SalesService salesService;
+    private final SalesMetrics salesMetrics;
+    private final HourlySalesFeed hourlySalesFeed;
 
 
     @Autowired
-    public SalesSystemController(SalesService salesService) {
+    public SalesSystemController(SalesService salesService, SalesMetrics salesMetrics, HourlySalesFeed hourlySalesFeed) {
         this.salesService = salesService;
+        this.salesMetrics = salesMetrics;
+        this.hourlySalesFeed = hourlySalesFeed;
     }
 
     @QueryMapping("getAllSales")
     Flux<Sale> getAllSales() {
         log.debug("Get all sales using 'getAllSales' query");
-        return processWithLog(salesService.getAllSales());
+        return salesMetrics.timeResolver("getAllSales", null, salesService.getAllSales());
+    }
+
+    /**
+     * Returns one page of the sales ordered by datetime and id.
+     *
+     * @param first The number of sales of the page, the configured default page size if null.
+     * @param after The cursor of the last sale of the previous page, null for the first page.
+     * @return A Mono of SaleConnectionDto holding the sales of the page and the cursor of the next one.
+     */
+    @QueryMapping("getSalesConnection")
+    Mono<SaleConnectionDto> getSalesConnection(@Argument Integer first, @Argument String after) {
+        log.debug("Get sales page using 'getSalesConnection' query first::" + first + " after::" + after);
+        return salesMetrics.timeResolver("getSalesConnection", null, salesService.getSalesConnection(first, after));
+    }
+
+    /**
+     * Streams every sale over the GraphQL WebSocket endpoint, reading them page by page with bounded memory.
+     *
+     * @param pageSize The number of sales read from the database at a time.
+     * @return A Flux of Sale objects ordered by datetime and id.
+     */
+    @SubscriptionMapping("streamSales")
+    Flux<Sale> streamSales(@Argument Integer pageSize) {
+        log.debug("Stream sales using 'streamSales' subscription pageSize::" + pageSize);
+        return salesService.streamSales(pageSize);
+    }
+
+    /**
+     * Pushes the new totals of every hour changed by addSale, addSales, updateSale or deleteSale over the GraphQL
+     * WebSocket endpoint. All the subscribers share one read of every changed hour, a slow subscriber only gets the
+     * latest totals of each hour.
+     *
+     * @return A Flux of SalesListDto objects, one per changed hour.
+     */
+    @SubscriptionMapping("hourlySales")
+    Flux<SalesListDto> hourlySales() {
+        log.debug("Subscribe to hourly sales using 'hourlySales' subscription");
+        return hourlySalesFeed.subscribe();
     }
 
     @QueryMapping("getSaleById")
     Mono<Sale> getSaleById(@Argument Integer id) {
         log.debug("Get Sale by id using 'getSaleById' query");
-        return processWithLog(salesService.getSaleById(id));
+        return salesMetrics.timeResolver("getSaleById", null, salesService.getSaleById(id));
+    }
+
+    /**
+     * Resolves the payment method of every Sale of a response, whatever the query returning them, with one call per
+     * response instead of one per sale. The DataLoader behind it is created for every request and loads a sale once.
+     *
+     * @param sales The sales of the response.
+     * @return A Mono of the payment method of every sale, by sale.
+     */
+    @BatchMapping(typeName = "Sale", field = "paymentMethod")
+    Mono<Map<Sale, PaymentMethod>> paymentMethod(List<Sale> sales) {
+        return salesMetrics.timeResolver("Sale.paymentMethod", null, salesService.getPaymentMethods(sales));
     }
 
     /**
@@ -57,10 +119,22 @@ public class SalesSystemController {
     @QueryMapping("getSalesByRange")
     Flux<SalesListDto> getSaleByRange(@Argument DateRangeInput dateRangeInput,Locale locale) {
         log.debug("Get Sale by range using 'getSaleByName' query argument dateRangeInput::" + dateRangeInput);
-        return processWithLog(salesService.getSaleByRange(dateRangeInput));
+        return salesMetrics.timeResolver("getSalesByRange", null, salesService.getSaleByRange(dateRangeInput));
     }
 
 
+    /**
+     * Returns the sales and points of every time bucket of a date range, in total and per payment method.
+     *
+     * @param dateRangeInput The input object specifying the date range and the buckets. Must not be null.
+     * @return A Flux of SalesBreakdownDto objects ordered by bucket.
+     */
+    @QueryMapping("getSalesBreakdownByRange")
+    Flux<SalesBreakdownDto> getSalesBreakdownByRange(@Argument DateRangeInput dateRangeInput) {
+        log.debug("Get sales breakdown by range using 'getSalesBreakdownByRange' query argument dateRangeInput::" + dateRangeInput);
+        return salesMetrics.timeResolver("getSalesBreakdownByRange", null, salesService.getSalesBreakdownByRange(dateRangeInput));
+    }
+
     /**
      * ASSIGNMENT METHOD 1:
      * This method receives a SalesInput object and saves it to the database using the SalesService class. It then returns a Mono object containing a SaleResponseDto object with information about the saved sale.
@@ -72,26 +146,31 @@ public class SalesSystemController {
     @MutationMapping("addSale")
     Mono<SaleResponseDto> addSale(@Argument("salesInput") SalesInput salesInput) {
         log.debug("Add Sale using 'addSale' mutation::" + salesInput);
-        return salesService.addSale(salesInput);
+        return salesMetrics.timeResolver("addSale", salesInput.getPaymentMethod(), salesService.addSale(salesInput));
+    }
+
+    /**
+     * Receives a batch of SalesInput objects, saves the valid ones with chunked multi-row inserts and returns the
+     * outcome of every item in the order of the input.
+     *
+     * @param salesInputs The sales to be saved. Must not be null.
+     * @return A Flux of SaleResultDto objects, one per input, holding either the price of the saved sale or the error.
+     */
+    @MutationMapping("addSales")
+    Flux<SaleResultDto> addSales(@Argument("salesInputs") List<SalesInput> salesInputs) {
+        log.debug("Add Sales using 'addSales' mutation, batch size::" + salesInputs.size());
+        return salesMetrics.timeResolver("addSales", null, salesService.addSales(salesInputs));
     }
 
     @MutationMapping("updateSale")
     Mono<SaleResponseDto> updateSale(@Argument Integer id, @Argument("salesInput") SalesInput salesInput) {
         log.debug("Updating Sale using 'updateSale' mutation for id" + id + " salesInput::" + salesInput);
-        return processWithLog(salesService.updateSale(id, salesInput));
+        return salesMetrics.timeResolver("updateSale", salesInput.getPaymentMethod(), salesService.updateSale(id, salesInput));
     }
 
     @MutationMapping("deleteSaleById")
     Mono<Sale> deleteSaleById(@Argument Integer id) {
         log.debug("Delete Sale using 'deleteSaleById' mutation for id::" + id);
-        return processWithLog(salesService.deleteSale(id));
-    }
-
-    private <T> Mono<T> processWithLog(Mono<T> monoToLog) {
-        return monoToLog.log("SalesGraphQLController.", Level.INFO, SignalType.ON_NEXT, SignalType.ON_COMPLETE);
-    }
-
-    private <T> Flux<T> processWithLog(Flux<T> fluxToLog) {
-        return fluxToLog.log("SalesGraphQLController.", Level.INFO, SignalType.ON_NEXT, SignalType.ON_COMPLETE);
+        return salesMetrics.timeResolver("deleteSaleById", null, salesService.deleteSale(id));
     }
 }
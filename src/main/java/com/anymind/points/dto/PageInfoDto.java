@@ -0,0 +1,12 @@
+package com.anymind.points.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class PageInfoDto {
+    @JsonProperty("hasNextPage") boolean hasNextPage;
+    @JsonProperty("endCursor") String endCursor;
+}
@@ -0,0 +1,25 @@
+package com.anymind.points.dto;
+
+import com.anymind.points.model.Money;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Sales and points of one payment method in a time bucket.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PaymentMethodSalesDto {
+	@JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss.SSSZ")
+	ZonedDateTime datetime;
+	Integer paymentMethodId;
+	Money sales;
+	Money points;
+}
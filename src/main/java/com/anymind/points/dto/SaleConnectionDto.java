@@ -0,0 +1,17 @@
+package com.anymind.points.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Relay style connection over the sales, ordered by datetime and id.
+ */
+@Data
+@Builder
+public class SaleConnectionDto {
+    @JsonProperty("edges") List<SaleEdgeDto> edges;
+    @JsonProperty("pageInfo") PageInfoDto pageInfo;
+}
@@ -0,0 +1,13 @@
+package com.anymind.points.dto;
+
+import com.anymind.points.model.Sale;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class SaleEdgeDto {
+    @JsonProperty("cursor") String cursor;
+    @JsonProperty("node") Sale node;
+}
@@ -1,14 +1,14 @@
 package com.anymind.points.dto;
 
+import com.anymind.points.model.Money;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Builder;
 import lombok.Data;
 
-import java.math.BigDecimal;
 
 @Data
 @Builder
 public class SaleResponseDto {
-    @JsonProperty("finalPrice") BigDecimal finalPrice;
-    @JsonProperty("points") BigDecimal points;
+    @JsonProperty("finalPrice") Money finalPrice;
+    @JsonProperty("points") Money points;
 }
@@ -0,0 +1,16 @@
+package com.anymind.points.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Outcome of one item of an addSales batch: either the price of the saved sale or the reason it was rejected.
+ */
+@Data
+@Builder
+public class SaleResultDto {
+    @JsonProperty("index") Integer index;
+    @JsonProperty("salePrice") SaleResponseDto salePrice;
+    @JsonProperty("error") String error;
+}
@@ -0,0 +1,26 @@
+package com.anymind.points.dto;
+
+import com.anymind.points.model.Money;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+/**
+ * Sales and points of a time bucket, in total and per payment method.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SalesBreakdownDto {
+	@JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss.SSSZ")
+	ZonedDateTime datetime;
+	Money sales;
+	Money points;
+	List<PaymentMethodSalesDto> paymentMethods;
+}
@@ -1,17 +1,21 @@
 package com.anymind.points.dto;
 
+import com.anymind.points.model.Money;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
-import java.math.BigDecimal;
 import java.time.ZonedDateTime;
 
 @Data
 @Builder
+@NoArgsConstructor
+@AllArgsConstructor
 public class SalesListDto {
 	@JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd'T'HH:mm:ss.SSSZ")
 	ZonedDateTime datetime;
-	BigDecimal sales;
-	BigDecimal points;
+	Money sales;
+	Money points;
 }
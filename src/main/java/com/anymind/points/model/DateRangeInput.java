@@ -18,6 +18,13 @@ import java.util.Objects;
 public class DateRangeInput {
     @Id @JsonProperty("from") private ZonedDateTime from;
     @JsonProperty("to") private ZonedDateTime to;
+    @JsonProperty("granularity") private Granularity granularity = Granularity.HOUR;
+    @JsonProperty("zone") private String zone;
+
+    public DateRangeInput(ZonedDateTime from, ZonedDateTime to) {
+        this.from = from;
+        this.to = to;
+    }
 
     public DateRangeInput(DateRangeInput dateRangeInput) {
         from = Objects.requireNonNull(from);
@@ -0,0 +1,22 @@
+package com.anymind.points.model;
+
+import java.util.Locale;
+
+/**
+ * Size of the time buckets of a sales report. Buckets start on the minute, hour, day, Monday or first day of the month
+ * in the time zone of the report.
+ */
+public enum Granularity {
+    MINUTE,
+    HOUR,
+    DAY,
+    WEEK,
+    MONTH;
+
+    /**
+     * Returns the name of this granularity as a field of the Postgres date_trunc function.
+     */
+    public String sqlUnit() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
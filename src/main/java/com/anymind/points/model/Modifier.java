@@ -0,0 +1,82 @@
+package com.anymind.points.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Price or points modifier as a fixed-point number with four decimals, held as a long number of units.
+ * Modifiers with more than four decimals are rejected rather than rounded, as amounts of Money are.
+ */
+public final class Modifier implements Comparable<Modifier> {
+    public static final int SCALE = 4;
+    private static final long ONE = 10_000;
+
+    private final long units;
+
+    private Modifier(long units) {
+        this.units = units;
+    }
+
+    public static Modifier ofUnits(long units) {
+        return new Modifier(units);
+    }
+
+    @JsonCreator
+    public static Modifier of(BigDecimal value) {
+        if (value.stripTrailingZeros().scale() > SCALE)
+            throw new IllegalArgumentException("Modifier with more than " + SCALE + " decimals: " + value.toPlainString());
+        return new Modifier(value.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact());
+    }
+
+    public static Modifier of(String value) {
+        return of(new BigDecimal(value));
+    }
+
+    public long units() {
+        return units;
+    }
+
+    /**
+     * Multiplies an amount of cents by a modifier given in units, rounding half up to the cent.
+     *
+     * @param cents an amount of cents
+     * @param units a modifier in units of 1/10000
+     * @return the product in cents
+     */
+    public static long apply(long cents, long units) {
+        long product = Math.multiplyExact(cents, units);
+        long result = product / ONE;
+        long remainder = product % ONE;
+        if (Math.abs(remainder) * 2 >= ONE)
+            result += Long.signum(product);
+        return result;
+    }
+
+    @JsonValue
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(units, SCALE).stripTrailingZeros();
+    }
+
+    @Override
+    public int compareTo(Modifier other) {
+        return Long.compare(units, other.units);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Modifier modifier && modifier.units == units;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(units);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+}
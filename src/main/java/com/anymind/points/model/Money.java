@@ -0,0 +1,95 @@
+package com.anymind.points.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Amount of money or points as a fixed-point number with two decimals, held as a long number of cents.
+ * It matches the DECIMAL(10,2) columns of the schema, so calculations and sums on it are exact primitive operations
+ * instead of BigDecimal ones. Results are rounded half up to the cent, as Postgres does when storing them.
+ * Amounts with more than two decimals are rejected rather than rounded: a product computed from a rounded amount could
+ * differ from the product of the exact amount rounded once.
+ */
+public final class Money implements Comparable<Money> {
+    public static final int SCALE = 2;
+    public static final Money ZERO = new Money(0);
+
+    private final long cents;
+
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    public static Money ofCents(long cents) {
+        return cents == 0 ? ZERO : new Money(cents);
+    }
+
+    /**
+     * Returns the given amount.
+     *
+     * @param value an amount with at most two decimals
+     * @return the amount as Money
+     * @throws IllegalArgumentException if the amount has more than two decimals
+     * @throws ArithmeticException      if the amount doesn't fit in a long number of cents
+     */
+    @JsonCreator
+    public static Money of(BigDecimal value) {
+        if (value.stripTrailingZeros().scale() > SCALE)
+            throw new IllegalArgumentException("Amount with more than " + SCALE + " decimals: " + value.toPlainString());
+        return ofCents(value.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact());
+    }
+
+    public static Money of(String value) {
+        return of(new BigDecimal(value));
+    }
+
+    public long cents() {
+        return cents;
+    }
+
+    public Money plus(Money other) {
+        return ofCents(Math.addExact(cents, other.cents));
+    }
+
+    public Money negate() {
+        return ofCents(-cents);
+    }
+
+    /**
+     * Multiplies the amount by a modifier, e.g. a price by its price modifier.
+     *
+     * @param modifier the modifier to apply
+     * @return the product rounded half up to the cent
+     */
+    public Money times(Modifier modifier) {
+        return ofCents(Modifier.apply(cents, modifier.units()));
+    }
+
+    @JsonValue
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(cents, other.cents);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Money money && money.cents == cents;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(cents);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+}
@@ -5,7 +5,6 @@ import lombok.Builder;
 import lombok.Data;
 import org.springframework.data.annotation.Id;
 
-import java.math.BigDecimal;
 
 
 @Data
@@ -14,7 +13,7 @@ public class PaymentMethod {
 	@Id
 	@JsonProperty("id") private Integer id;
 	@JsonProperty("name") private String name;
-	@JsonProperty("priceModifierFrom") private BigDecimal priceModifierFrom;
-	@JsonProperty("priceModifierTo") private BigDecimal priceModifierTo;
-	@JsonProperty("pointsModifier") private BigDecimal pointsModifier;
+	@JsonProperty("priceModifierFrom") private Modifier priceModifierFrom;
+	@JsonProperty("priceModifierTo") private Modifier priceModifierTo;
+	@JsonProperty("pointsModifier") private Modifier pointsModifier;
 }
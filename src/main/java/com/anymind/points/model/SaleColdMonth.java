@@ -0,0 +1,23 @@
+package com.anymind.points.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Row of the sale_cold_month table: a month whose sales have been moved from the database to a column file.
+ * It is inserted in the transaction which deletes the sales, so a month is either in the database or in its file.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SaleColdMonth {
+    @Id private ZonedDateTime month;
+    private String file;
+    private Long saleCount;
+}
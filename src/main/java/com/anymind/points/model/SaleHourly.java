@@ -0,0 +1,23 @@
+package com.anymind.points.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+
+import java.time.ZonedDateTime;
+
+/**
+ * Row of the sale_hourly rollup table: totals of the sales of one hour, maintained on every write to the sale table.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SaleHourly {
+    @Id private ZonedDateTime datetime;
+    private Money sales;
+    private Money points;
+    private Long saleCount;
+}
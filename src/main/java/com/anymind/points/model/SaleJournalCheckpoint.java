@@ -0,0 +1,20 @@
+package com.anymind.points.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+
+/**
+ * Row of the sale_journal_checkpoint table: the last sequence of a local sale journal whose sales are all saved.
+ * It is advanced in the transaction which saves the sales, so it never runs ahead of or behind the sale table.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SaleJournalCheckpoint {
+    @Id private String journal;
+    private Long sequence;
+}
@@ -5,7 +5,6 @@ import lombok.*;
 import lombok.experimental.Accessors;
 import org.springframework.data.annotation.Transient;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 
@@ -14,8 +13,9 @@ import java.time.ZonedDateTime;
 @Builder
 @Accessors(chain = true)
 public class SalesInput {
-    @JsonProperty("price") private BigDecimal price;
-    @JsonProperty("priceModifier") private BigDecimal priceModifier;
+    @JsonProperty("price") private Money price;
+    @JsonProperty("priceModifier") private Modifier priceModifier;
     @JsonProperty("priceModifier") private String paymentMethod;
     @JsonProperty("datetime") private ZonedDateTime datetime;
+    @JsonProperty("idempotencyKey") private String idempotencyKey;
 }
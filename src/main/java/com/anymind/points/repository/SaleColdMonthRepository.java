@@ -0,0 +1,27 @@
+/*
+ * @author-pankaj.pande
+ */
+
+package com.anymind.points.repository;
+
+
+import com.anymind.points.model.SaleColdMonth;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Mono;
+
+import java.time.ZonedDateTime;
+
+@Transactional
+public interface SaleColdMonthRepository extends ReactiveCrudRepository<SaleColdMonth, ZonedDateTime> {
+
+	/**
+	 * Records a month moved to a column file, failing if it already was.
+	 */
+	@Modifying
+	@Query("INSERT INTO sale_cold_month(month, file, sale_count) VALUES (:month, :file, :saleCount)")
+	Mono<Integer> insert(@Param("month") ZonedDateTime month, @Param("file") String file, @Param("saleCount") long saleCount);
+}
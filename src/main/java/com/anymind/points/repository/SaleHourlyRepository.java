@@ -0,0 +1,92 @@
+/*
+ * @author-pankaj.pande
+ */
+
+package com.anymind.points.repository;
+
+
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.SaleHourly;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+
+@Transactional
+public interface SaleHourlyRepository extends ReactiveCrudRepository<SaleHourly, ZonedDateTime> {
+
+	/**
+	 * Adds the given amounts to the rollup row of the hour the datetime falls in, creating the row if needed.
+	 * Negative amounts are used to take a sale out of the rollup.
+	 */
+	@Modifying
+	@Query("""
+			INSERT INTO sale_hourly(datetime, sales, points, sale_count)
+			VALUES (date_trunc('hour', :datetime, 'UTC'), :sales, :points, :saleCount)
+			ON CONFLICT (datetime) DO UPDATE SET
+			    sales = sale_hourly.sales + excluded.sales,
+			    points = sale_hourly.points + excluded.points,
+			    sale_count = sale_hourly.sale_count + excluded.sale_count
+			""")
+	Mono<Integer> increment(@Param("datetime") ZonedDateTime datetime, @Param("sales") BigDecimal sales,
+							@Param("points") BigDecimal points, @Param("saleCount") long saleCount);
+
+	/**
+	 * Removes the rollup row of the hour the datetime falls in once its last sale has been taken out.
+	 */
+	@Modifying
+	@Query("DELETE FROM sale_hourly WHERE datetime = date_trunc('hour', :datetime, 'UTC') AND sale_count <= 0")
+	Mono<Integer> deleteEmptyHour(@Param("datetime") ZonedDateTime datetime);
+
+	/**
+	 * Returns the rollup rows of the given range, which must start and end on whole hours.
+	 */
+	@Query("SELECT datetime, sales, points FROM sale_hourly WHERE datetime BETWEEN :from AND :to ORDER BY datetime")
+	Flux<SalesListDto> findHoursBetween(@Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+	/**
+	 * Blocks writes to the sale table until the end of the current transaction.
+	 */
+	@Modifying
+	@Query("LOCK TABLE sale IN SHARE MODE")
+	Mono<Void> lockSales();
+
+	/**
+	 * Recomputes every rollup row from the sale table.
+	 */
+	@Modifying
+	@Query("""
+			INSERT INTO sale_hourly(datetime, sales, points, sale_count)
+			SELECT date_trunc('hour', datetime, 'UTC'), SUM(final_price), SUM(points), COUNT(*)
+			FROM (SELECT datetime, final_price, points FROM sale UNION ALL SELECT datetime, final_price, points FROM sale_archive) s
+			WHERE datetime IS NOT NULL
+			GROUP BY date_trunc('hour', datetime, 'UTC')
+			""")
+	Mono<Integer> backfill();
+
+	/**
+	 * Compares the rollup with the raw sales and returns every hour which differs, with the values computed from the
+	 * raw sales. Hours which are in the rollup but have no sale anymore are returned with zero totals.
+	 */
+	@Query("""
+			SELECT COALESCE(s.datetime, r.datetime) AS datetime,
+			       COALESCE(s.sales, 0) AS sales, COALESCE(s.points, 0) AS points, COALESCE(s.sale_count, 0) AS sale_count
+			FROM sale_hourly r
+			FULL OUTER JOIN (
+			    SELECT date_trunc('hour', datetime, 'UTC') AS datetime, SUM(final_price) AS sales, SUM(points) AS points, COUNT(*) AS sale_count
+			    FROM (SELECT datetime, final_price, points FROM sale UNION ALL SELECT datetime, final_price, points FROM sale_archive) a
+			    WHERE datetime IS NOT NULL
+			    GROUP BY date_trunc('hour', datetime, 'UTC')
+			) s ON s.datetime = r.datetime
+			WHERE r.datetime IS NULL OR s.datetime IS NULL
+			   OR r.sales <> s.sales OR r.points <> s.points OR r.sale_count <> s.sale_count
+			ORDER BY 1
+			""")
+	Flux<SaleHourly> findInconsistentHours();
+}
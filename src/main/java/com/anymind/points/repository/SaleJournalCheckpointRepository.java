@@ -0,0 +1,35 @@
+/*
+ * @author-pankaj.pande
+ */
+
+package com.anymind.points.repository;
+
+
+import com.anymind.points.model.SaleJournalCheckpoint;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Mono;
+
+@Transactional
+public interface SaleJournalCheckpointRepository extends ReactiveCrudRepository<SaleJournalCheckpoint, String> {
+
+	/**
+	 * Moves the checkpoint of the given journal forward to the given sequence, creating it if needed.
+	 */
+	@Modifying
+	@Query("""
+			INSERT INTO sale_journal_checkpoint(journal, sequence)
+			VALUES (:journal, :sequence)
+			ON CONFLICT (journal) DO UPDATE SET sequence = GREATEST(sale_journal_checkpoint.sequence, excluded.sequence)
+			""")
+	Mono<Integer> advance(@Param("journal") String journal, @Param("sequence") long sequence);
+
+	/**
+	 * Returns the checkpoint of the given journal, empty if none of its sales has been saved yet.
+	 */
+	@Query("SELECT sequence FROM sale_journal_checkpoint WHERE journal = :journal")
+	Mono<Long> findSequence(@Param("journal") String journal);
+}
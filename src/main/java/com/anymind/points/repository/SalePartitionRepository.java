@@ -0,0 +1,140 @@
+/*
+ * @author-pankaj.pande
+ */
+
+package com.anymind.points.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * DDL of the partitioned sale table. Partition names and bounds are generated by SalePartitioning, never taken from a
+ * request, so they are inlined in the statements. Every method has to run inside the transaction holding lock().
+ */
+@Repository
+public class SalePartitionRepository {
+	private static final String COLUMNS = "id, final_price, points, payment_method_id, datetime, idempotency_key";
+
+	private final DatabaseClient databaseClient;
+
+	@Autowired
+	public SalePartitionRepository(DatabaseClient databaseClient) {
+		this.databaseClient = databaseClient;
+	}
+
+	/**
+	 * Serializes the maintenance of the partitions between the instances, until the end of the current transaction.
+	 */
+	public Mono<Void> lock() {
+		return databaseClient.sql("SELECT pg_advisory_xact_lock(hashtext('sale_partitioning'))").then();
+	}
+
+	/**
+	 * Tells whether the sale table is partitioned, false if it's still the heap table of schema.sql.
+	 */
+	public Mono<Boolean> isPartitioned() {
+		return databaseClient.sql("SELECT relkind = 'p' AS partitioned FROM pg_class WHERE oid = 'sale'::regclass")
+				.map(row -> row.get("partitioned", Boolean.class))
+				.one();
+	}
+
+	/**
+	 * Returns the first and last datetimes of the heap sale table, empty if it has no sale with a datetime.
+	 */
+	public Mono<ZonedDateTime[]> findHeapRange() {
+		return databaseClient.sql("SELECT min(datetime) AS first, max(datetime) AS last FROM sale WHERE datetime IS NOT NULL HAVING count(*) > 0")
+				.map(row -> new ZonedDateTime[]{row.get("first", ZonedDateTime.class), row.get("last", ZonedDateTime.class)})
+				.one();
+	}
+
+	/**
+	 * Renames the heap sale table and creates the partitioned sale table with its default partition in its place,
+	 * sharing the id sequence. The caller then creates the partitions and calls copyHeap.
+	 */
+	public Mono<Void> replaceHeap() {
+		return execute("LOCK TABLE sale IN ACCESS EXCLUSIVE MODE")
+				.then(execute("ALTER TABLE sale RENAME TO sale_heap"))
+				.then(execute("""
+						CREATE TABLE sale(
+						     id int not null default nextval('sale_id_seq'),
+						     final_price DECIMAL(10,2) not null,
+						     points DECIMAL(10,2) not null,
+						     payment_method_id int not null,
+						     datetime timestamptz null,
+						     idempotency_key varchar null,
+						     FOREIGN KEY (payment_method_id) REFERENCES payment_method(id)
+						) PARTITION BY RANGE (datetime)
+						"""))
+				// sales outside of every partition, those without datetime among them
+				.then(execute("CREATE TABLE sale_default PARTITION OF sale DEFAULT"));
+	}
+
+	/**
+	 * Moves the sales of the renamed heap table into the partitioned table, drops the heap table and indexes the
+	 * partitioned one. The unique index of the idempotency keys has to include the partition key: a retry repeats the
+	 * datetime of its first attempt, so it still conflicts with it.
+	 */
+	public Mono<Void> copyHeap() {
+		return execute("INSERT INTO sale(" + COLUMNS + ") SELECT " + COLUMNS + " FROM sale_heap")
+				.then(execute("ALTER SEQUENCE sale_id_seq OWNED BY sale.id"))
+				.then(execute("DROP TABLE sale_heap"))
+				.then(execute("CREATE INDEX sale_datetime_id_idx ON sale(datetime, id)"))
+				.then(execute("CREATE INDEX sale_id_idx ON sale(id)"))
+				.then(execute("CREATE UNIQUE INDEX sale_idempotency_key_idx ON sale(idempotency_key, datetime)"));
+	}
+
+	/**
+	 * Returns the names of the partitions of the given partitioned table.
+	 */
+	public Flux<String> findPartitions(String table) {
+		return databaseClient.sql("""
+						SELECT c.relname AS name FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+						WHERE i.inhparent = to_regclass(:table)
+						""")
+				.bind("table", table)
+				.map(row -> row.get("name", String.class))
+				.all();
+	}
+
+	/**
+	 * Creates the partition of sale covering from, inclusive, to to, exclusive. The sales of that range which landed
+	 * in the default partition are moved into it first, or attaching it would fail.
+	 */
+	public Mono<Void> createPartition(String name, ZonedDateTime from, ZonedDateTime to) {
+		return execute("CREATE TABLE " + name + " (LIKE sale INCLUDING DEFAULTS)")
+				.then(execute("WITH moved AS (DELETE FROM sale_default WHERE " + range(from, to) + " RETURNING *) "
+						+ "INSERT INTO " + name + "(" + COLUMNS + ") SELECT " + COLUMNS + " FROM moved"))
+				.then(execute("ALTER TABLE sale ATTACH PARTITION " + name + " FOR VALUES " + bounds(from, to)));
+	}
+
+	/**
+	 * Moves a partition of sale to sale_archive: its sales leave the lookups and the listings of the application but are
+	 * still part of the sales reports, the consistency check and the rebuild of the hourly rollup.
+	 */
+	public Mono<Void> archivePartition(String name, ZonedDateTime from, ZonedDateTime to) {
+		return execute("ALTER TABLE sale DETACH PARTITION " + name)
+				.then(execute("ALTER TABLE sale_archive ATTACH PARTITION " + name + " FOR VALUES " + bounds(from, to)));
+	}
+
+	private Mono<Void> execute(String sql) {
+		return databaseClient.sql(sql).then();
+	}
+
+	private static String range(ZonedDateTime from, ZonedDateTime to) {
+		return "datetime >= " + timestamp(from) + " AND datetime < " + timestamp(to);
+	}
+
+	private static String bounds(ZonedDateTime from, ZonedDateTime to) {
+		return "FROM (" + timestamp(from) + ") TO (" + timestamp(to) + ")";
+	}
+
+	private static String timestamp(ZonedDateTime datetime) {
+		return "'" + DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(datetime) + "'::timestamptz";
+	}
+}
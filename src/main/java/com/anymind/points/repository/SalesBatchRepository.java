@@ -0,0 +1,33 @@
+/*
+ * @author-pankaj.pande
+ */
+
+package com.anymind.points.repository;
+
+import com.anymind.points.model.Sale;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Bulk operations of the SalesRepository which can not be expressed as derived or annotated queries.
+ */
+public interface SalesBatchRepository {
+	/**
+	 * Inserts the given sales with a single multi-row INSERT statement.
+	 *
+	 * @param sales the Sale objects to insert, without id
+	 * @return a Flux of the same Sale objects, in the same order, with their generated id set
+	 */
+	Flux<Sale> insertAll(List<Sale> sales);
+
+	/**
+	 * Loads the given sales with a COPY FROM STDIN, or a multi-row INSERT statement if the connection isn't a Postgres
+	 * one. Generated ids aren't read back.
+	 *
+	 * @param sales the Sale objects to load, without id
+	 * @return a Mono of the number of loaded sales
+	 */
+	Mono<Long> copyAll(List<Sale> sales);
+}
@@ -0,0 +1,110 @@
+/*
+ * @author-pankaj.pande
+ */
+
+package com.anymind.points.repository;
+
+import com.anymind.points.model.Sale;
+import io.netty.buffer.Unpooled;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.Wrapped;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.r2dbc.core.DatabaseClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * DatabaseClient based implementation of SalesBatchRepository, picked up by Spring Data as a fragment of SalesRepository.
+ */
+class SalesBatchRepositoryImpl implements SalesBatchRepository {
+	private static final String INSERT = "INSERT INTO sale(final_price, points, payment_method_id, datetime, idempotency_key) VALUES ";
+	private static final int COLUMNS = 5;
+	private static final String COPY = "COPY sale(final_price, points, payment_method_id, datetime, idempotency_key) FROM STDIN WITH (FORMAT csv)";
+
+	private final DatabaseClient databaseClient;
+
+	@Autowired
+	SalesBatchRepositoryImpl(DatabaseClient databaseClient) {
+		this.databaseClient = databaseClient;
+	}
+
+	@Override
+	public Flux<Sale> insertAll(List<Sale> sales) {
+		if (sales.isEmpty())
+			return Flux.empty();
+
+		StringBuilder sql = new StringBuilder(INSERT.length() + sales.size() * 28);
+		sql.append(INSERT);
+		for (int i = 0; i < sales.size(); i++) {
+			int parameter = i * COLUMNS;
+			sql.append(i == 0 ? "(" : ",(")
+					.append('$').append(parameter + 1).append(",$").append(parameter + 2)
+					.append(",$").append(parameter + 3).append(",$").append(parameter + 4)
+					.append(",$").append(parameter + 5).append(')');
+		}
+		// Postgres returns the generated keys of a multi-row VALUES list in the order of the list
+		sql.append(" RETURNING id");
+
+		DatabaseClient.GenericExecuteSpec statement = databaseClient.sql(sql.toString());
+		for (int i = 0; i < sales.size(); i++) {
+			Sale sale = sales.get(i);
+			int parameter = i * COLUMNS;
+			statement = statement.bind(parameter, sale.getFinalPrice().toBigDecimal())
+					.bind(parameter + 1, sale.getPoints().toBigDecimal())
+					.bind(parameter + 2, sale.getPaymentMethodId())
+					.bind(parameter + 3, sale.getDateTime());
+			statement = sale.getIdempotencyKey() != null
+					? statement.bind(parameter + 4, sale.getIdempotencyKey())
+					: statement.bindNull(parameter + 4, String.class);
+		}
+		return statement.map(row -> row.get("id", Integer.class))
+				.all()
+				.index()
+				.map(id -> {
+					Sale sale = sales.get(id.getT1().intValue());
+					sale.setId(id.getT2());
+					return sale;
+				});
+	}
+
+	@Override
+	public Mono<Long> copyAll(List<Sale> sales) {
+		if (sales.isEmpty())
+			return Mono.just(0L);
+
+		// the connection of the current transaction, behind the proxies of Spring and of the pool
+		return databaseClient.inConnection(connection -> {
+			Connection target = connection;
+			while (!(target instanceof PostgresqlConnection) && target instanceof Wrapped<?> wrapped
+					&& wrapped.unwrap() instanceof Connection unwrapped && unwrapped != target)
+				target = unwrapped;
+			if (target instanceof PostgresqlConnection postgresqlConnection)
+				return postgresqlConnection.copyIn(COPY, Mono.fromSupplier(() -> Unpooled.wrappedBuffer(toCsv(sales))));
+			return insertAll(sales).count();
+		});
+	}
+
+	/**
+	 * Writes the sales in the csv format of COPY, where an unquoted empty field is a null.
+	 */
+	private static byte[] toCsv(List<Sale> sales) {
+		StringBuilder csv = new StringBuilder(sales.size() * 64);
+		for (Sale sale : sales) {
+			csv.append(sale.getFinalPrice().toBigDecimal().toPlainString()).append(',')
+					.append(sale.getPoints().toBigDecimal().toPlainString()).append(',')
+					.append(sale.getPaymentMethodId()).append(',');
+			if (sale.getDateTime() != null)
+				csv.append(DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(sale.getDateTime()));
+			csv.append(',');
+			if (sale.getIdempotencyKey() != null)
+				csv.append('"').append(sale.getIdempotencyKey().replace("\"", "\"\"")).append('"');
+			csv.append('\n');
+		}
+		return csv.toString().getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -5,19 +5,180 @@
 package com.anymind.points.repository;
 
 
+import com.anymind.points.dto.PaymentMethodSalesDto;
+import com.anymind.points.dto.SalesListDto;
 import com.anymind.points.model.Sale;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import org.springframework.transaction.annotation.Transactional;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.time.ZonedDateTime;
+import java.util.Collection;
 
 @Transactional
-public interface SalesRepository extends ReactiveCrudRepository<Sale, Integer> {
+public interface SalesRepository extends ReactiveCrudRepository<Sale, Integer>, SalesBatchRepository {
 	Mono<Sale> findById(int id);
 
 	Mono<Sale> deleteById(int id);
 
-	Flux<Sale> findByDateTimeBetweenOrderByDateTime(ZonedDateTime from, ZonedDateTime to);
+	/**
+	 * Returns the sales of the given range, both ends inclusive, from the sale table and its archived partitions,
+	 * ordered by datetime.
+	 */
+	@Query("""
+			SELECT id, final_price, points, payment_method_id, datetime, idempotency_key FROM sale
+			WHERE datetime BETWEEN :from AND :to
+			UNION ALL
+			SELECT id, final_price, points, payment_method_id, datetime, idempotency_key FROM sale_archive
+			WHERE datetime BETWEEN :from AND :to
+			ORDER BY datetime
+			""")
+	Flux<Sale> findByDateTimeBetweenOrderByDateTime(@Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+	Mono<Sale> findByIdempotencyKey(String idempotencyKey);
+
+	/**
+	 * Returns the saved sales of the given idempotency keys.
+	 */
+	Flux<Sale> findAllByIdempotencyKeyIn(Collection<String> idempotencyKeys);
+
+	/**
+	 * Returns the given idempotency keys which are already used by a saved sale.
+	 */
+	@Query("SELECT idempotency_key FROM sale WHERE idempotency_key IN (:keys)")
+	Flux<String> findUsedIdempotencyKeys(@Param("keys") Collection<String> keys);
+
+	/**
+	 * Sums the sales and points of the given range per hour inside the database, so only one row per hour
+	 * is sent back instead of every sale of the range. The archived partitions are included.
+	 *
+	 * @param from start of the range, inclusive
+	 * @param to   end of the range, inclusive
+	 * @return a Flux of SalesListDto objects ordered by hour
+	 */
+	@Query("""
+			SELECT date_trunc('hour', datetime, 'UTC') AS datetime, SUM(final_price) AS sales, SUM(points) AS points
+			FROM (SELECT datetime, final_price, points FROM sale UNION ALL SELECT datetime, final_price, points FROM sale_archive) s
+			WHERE datetime BETWEEN :from AND :to
+			GROUP BY date_trunc('hour', datetime, 'UTC')
+			ORDER BY 1
+			""")
+	Flux<SalesListDto> sumByHourBetween(@Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+	/**
+	 * Sums the sales and points of the given range per bucket inside the database, the buckets starting on the unit of
+	 * date_trunc in the given time zone. The archived partitions are included.
+	 *
+	 * @param unit the date_trunc field of the buckets, e.g. day
+	 * @param zone the time zone id of the buckets, e.g. Asia/Kolkata
+	 * @param from start of the range, inclusive
+	 * @param to   end of the range, inclusive
+	 * @return a Flux of SalesListDto objects ordered by bucket
+	 */
+	@Query("""
+			SELECT date_trunc(:unit, datetime, :zone) AS datetime, SUM(final_price) AS sales, SUM(points) AS points
+			FROM (SELECT datetime, final_price, points FROM sale UNION ALL SELECT datetime, final_price, points FROM sale_archive) s
+			WHERE datetime BETWEEN :from AND :to
+			GROUP BY 1
+			ORDER BY 1
+			""")
+	Flux<SalesListDto> sumByBucketBetween(@Param("unit") String unit, @Param("zone") String zone,
+	                                      @Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+	/**
+	 * Sums the sales and points of the given range per bucket and payment method inside the database, in one scan of
+	 * the range whatever the number of payment methods. The archived partitions are included.
+	 *
+	 * @param unit the date_trunc field of the buckets, e.g. day
+	 * @param zone the time zone of the buckets, e.g. Asia/Kolkata
+	 * @param from start of the range, inclusive
+	 * @param to   end of the range, inclusive
+	 * @return a Flux of PaymentMethodSalesDto objects ordered by bucket and payment method id
+	 */
+	@Query("""
+			SELECT date_trunc(:unit, datetime, :zone) AS datetime, payment_method_id,
+			       SUM(final_price) AS sales, SUM(points) AS points
+			FROM (SELECT datetime, payment_method_id, final_price, points FROM sale
+			      UNION ALL
+			      SELECT datetime, payment_method_id, final_price, points FROM sale_archive) s
+			WHERE datetime BETWEEN :from AND :to
+			GROUP BY 1, 2
+			ORDER BY 1, 2
+			""")
+	Flux<PaymentMethodSalesDto> sumByBucketAndPaymentMethodBetween(@Param("unit") String unit, @Param("zone") String zone,
+	                                                               @Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+	/**
+	 * Returns the number of rows of the sale table estimated by the planner statistics, its partitions included, without
+	 * scanning it.
+	 */
+	@Query("""
+			SELECT COALESCE(SUM(GREATEST(c.reltuples, 0)), 0)::bigint
+			FROM pg_class c
+			WHERE c.oid = 'sale'::regclass
+			   OR c.oid IN (SELECT inhrelid FROM pg_inherits WHERE inhparent = 'sale'::regclass)
+			""")
+	Mono<Long> estimateRows();
+
+	/**
+	 * Returns the months before the given datetime which have sales, in the sale table or in its archived partitions.
+	 */
+	@Query("""
+			SELECT DISTINCT date_trunc('month', datetime, 'UTC') AS month
+			FROM (SELECT datetime FROM sale UNION ALL SELECT datetime FROM sale_archive) s
+			WHERE datetime < :before
+			ORDER BY 1
+			""")
+	Flux<ZonedDateTime> findMonthsBefore(@Param("before") ZonedDateTime before);
+
+	/**
+	 * Returns the sales of the given range, start inclusive, end exclusive, from the sale table and its archived
+	 * partitions, ordered by datetime and id.
+	 */
+	@Query("""
+			SELECT id, final_price, points, payment_method_id, datetime, idempotency_key FROM sale
+			WHERE datetime >= :from AND datetime < :to
+			UNION ALL
+			SELECT id, final_price, points, payment_method_id, datetime, idempotency_key FROM sale_archive
+			WHERE datetime >= :from AND datetime < :to
+			ORDER BY datetime, id
+			""")
+	Flux<Sale> findAllToColdArchive(@Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+	/**
+	 * Deletes the sales of the given range, start inclusive, end exclusive, from the sale table and its archived
+	 * partitions.
+	 *
+	 * @return a Mono of the number of deleted sales
+	 */
+	@Query("""
+			WITH live AS (DELETE FROM sale WHERE datetime >= :from AND datetime < :to RETURNING 1),
+			     archived AS (DELETE FROM sale_archive WHERE datetime >= :from AND datetime < :to RETURNING 1)
+			SELECT (SELECT count(*) FROM live) + (SELECT count(*) FROM archived)
+			""")
+	Mono<Long> deleteAllMovedToColdArchive(@Param("from") ZonedDateTime from, @Param("to") ZonedDateTime to);
+
+	/**
+	 * Returns the first page of the sales ordered by datetime and id.
+	 *
+	 * @param limit the maximum number of sales to return
+	 * @return a Flux of Sale objects
+	 */
+	@Query("SELECT * FROM sale WHERE datetime IS NOT NULL ORDER BY datetime, id LIMIT :limit")
+	Flux<Sale> findPage(@Param("limit") int limit);
+
+	/**
+	 * Returns the page of the sales following the given (datetime, id) key, ordered by datetime and id.
+	 * Uses the sale_datetime_id_idx index, so the cost doesn't grow with the position of the page.
+	 *
+	 * @param datetime the datetime of the last sale of the previous page
+	 * @param id       the id of the last sale of the previous page
+	 * @param limit    the maximum number of sales to return
+	 * @return a Flux of Sale objects
+	 */
+	@Query("SELECT * FROM sale WHERE (datetime, id) > (:datetime, :id) ORDER BY datetime, id LIMIT :limit")
+	Flux<Sale> findPageAfter(@Param("datetime") ZonedDateTime datetime, @Param("id") int id, @Param("limit") int limit);
 }
\ No newline at end of file
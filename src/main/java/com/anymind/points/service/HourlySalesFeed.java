@@ -0,0 +1,164 @@
+package com.anymind.points.service;
+
+import com.anymind.points.config.ConnectionRouting;
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Money;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Live feed of the hourly sales totals.
+ * Writes publish the hours they changed once their transaction has committed. The changed hours are coalesced over a
+ * short window and every changed hour is then read once from the hourly rollup and fanned out to all the subscribers,
+ * so the cost of an update doesn't depend on the number of subscribers.
+ * A subscriber which can't keep up only gets the latest totals of every hour it hasn't consumed yet: older totals of
+ * the same hour are replaced instead of being queued.
+ *
+ * @author-pankaj.pande
+ */
+@Slf4j
+@Service
+public class HourlySalesFeed {
+    private static final Duration EMIT_TIMEOUT = Duration.ofMillis(100);
+
+    private final SaleRollupService saleRollupService;
+    private final Sinks.Many<Instant> changedHours = Sinks.many().unicast().onBackpressureBuffer();
+    private final Set<LatestPerHour> subscribers = new CopyOnWriteArraySet<>();
+    @Value("${points.hourly-sales-feed.coalesce-window:PT1S}")
+    private Duration coalesceWindow = Duration.ofSeconds(1);
+    private Disposable updates;
+
+    /**
+     * Constructor for HourlySalesFeed class.
+     *
+     * @param saleRollupService - SaleRollupService object, the totals of a changed hour are read from the rollup
+     */
+    @Autowired
+    public HourlySalesFeed(SaleRollupService saleRollupService) {
+        this.saleRollupService = saleRollupService;
+    }
+
+    @PostConstruct
+    void start() {
+        updates = changedHours.asFlux()
+                .bufferTimeout(1024, coalesceWindow)
+                .onBackpressureBuffer()
+                .filter(hours -> !subscribers.isEmpty())
+                .concatMap(hours -> Flux.fromIterable(new TreeSet<>(hours)).concatMap(this::totalsOf))
+                .subscribe(totals -> subscribers.forEach(subscriber -> subscriber.offer(totals)),
+                        error -> log.error("Hourly sales feed stopped", error));
+    }
+
+    @PreDestroy
+    void stop() {
+        changedHours.emitComplete(Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT));
+        if (updates != null)
+            updates.dispose();
+    }
+
+    /**
+     * Publishes the hours of the given datetimes once the current transaction has committed.
+     *
+     * @param datetimes the datetimes of the written sales
+     * @return a Mono which completes once the hours have been published or the publication has been registered
+     */
+    public Mono<Void> publish(Collection<ZonedDateTime> datetimes) {
+        if (datetimes.isEmpty())
+            return Mono.empty();
+        return TransactionCallbacks.afterCommit(() -> datetimes.stream()
+                .map(datetime -> datetime.withZoneSameInstant(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS).toInstant())
+                .distinct()
+                .forEach(hour -> changedHours.emitNext(hour, Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT))));
+    }
+
+    /**
+     * Returns the totals of every hour changed from now on, until the subscription is cancelled.
+     *
+     * @return a Flux of SalesListDto objects, the latest totals of each changed hour
+     */
+    public Flux<SalesListDto> subscribe() {
+        return Flux.create(sink -> {
+            LatestPerHour subscriber = new LatestPerHour(sink);
+            subscribers.add(subscriber);
+            sink.onRequest(requested -> subscriber.drain());
+            sink.onDispose(() -> subscribers.remove(subscriber));
+        }, FluxSink.OverflowStrategy.ERROR);
+    }
+
+    private Mono<SalesListDto> totalsOf(Instant hour) {
+        ZonedDateTime from = hour.atZone(ZoneOffset.UTC);
+        // from the primary, a replica may not have the write which changed the hour yet
+        return ConnectionRouting.readOnly(saleRollupService.sumByHourBetween(from, from.plusHours(1).minus(1, ChronoUnit.MICROS)), Duration.ZERO)
+                .next()
+                // the last sale of the hour has been deleted
+                .defaultIfEmpty(SalesListDto.builder().datetime(from).sales(Money.ZERO).points(Money.ZERO).build())
+                .onErrorResume(ex -> {
+                    log.error("Unable to read the sales of hour " + from + " for the hourly sales feed", ex);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Pending totals of one subscriber, at most one per hour, emitted in the order the hours first changed as soon as
+     * the subscriber requests them.
+     */
+    static final class LatestPerHour {
+        private final FluxSink<SalesListDto> sink;
+        private final Map<Instant, SalesListDto> pending = new LinkedHashMap<>();
+        private final AtomicInteger wip = new AtomicInteger();
+
+        LatestPerHour(FluxSink<SalesListDto> sink) {
+            this.sink = sink;
+        }
+
+        void offer(SalesListDto totals) {
+            synchronized (pending) {
+                pending.put(totals.getDatetime().toInstant(), totals);
+            }
+            drain();
+        }
+
+        void drain() {
+            if (wip.getAndIncrement() != 0)
+                return;
+            int missed = 1;
+            do {
+                while (sink.requestedFromDownstream() > 0 && !sink.isCancelled()) {
+                    SalesListDto next;
+                    synchronized (pending) {
+                        Iterator<SalesListDto> iterator = pending.values().iterator();
+                        if (!iterator.hasNext())
+                            break;
+                        next = iterator.next();
+                        iterator.remove();
+                    }
+                    sink.next(next);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
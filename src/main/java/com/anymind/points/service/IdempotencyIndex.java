@@ -0,0 +1,115 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SaleResponseDto;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Bounded in-memory index of the idempotency keys of the recent addSale calls and the price they answered.
+ * The first attempt with a key claims it with a single map insertion and runs without any extra I/O. A retry with the
+ * same key gets the price of the first attempt, waiting for it if it's still running, without touching the database.
+ * The index only covers the recent keys of this instance: the unique index on sale.idempotency_key catches the others.
+ *
+ * @author-pankaj.pande
+ */
+@Service
+public class IdempotencyIndex {
+    public static final int MAX_KEY_LENGTH = 128;
+
+    private final Cache<String, CompletableFuture<SaleResponseDto>> prices;
+    private final Counter retries;
+
+    /**
+     * Constructor for IdempotencyIndex class.
+     *
+     * @param meterRegistry    - MeterRegistry object to publish the size of the index and the deduplicated retries
+     * @param maximumSize      - maximum number of indexed keys, the least recently used ones are evicted first
+     * @param expireAfterWrite - time after which a key is only caught by the unique index of the database
+     */
+    @Autowired
+    public IdempotencyIndex(MeterRegistry meterRegistry,
+                            @Value("${points.idempotency.maximum-size:100000}") long maximumSize,
+                            @Value("${points.idempotency.expire-after-write:PT24H}") Duration expireAfterWrite) {
+        this.prices = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, prices, "idempotency");
+        this.retries = Counter.builder("points.idempotency.retries")
+                .description("addSale retries answered from the idempotency index")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs the first attempt of the given key, or returns the outcome of the first attempt to a retry.
+     *
+     * @param key          the idempotency key of the call, null if the call isn't idempotent
+     * @param firstAttempt saves the sale and returns its price
+     * @return a Mono of the price of the first attempt with the key
+     */
+    public Mono<SaleResponseDto> deduplicate(String key, Supplier<Mono<SaleResponseDto>> firstAttempt) {
+        if (key == null)
+            return firstAttempt.get();
+        return Mono.defer(() -> {
+            CompletableFuture<SaleResponseDto> claim = new CompletableFuture<>();
+            CompletableFuture<SaleResponseDto> previous = prices.asMap().putIfAbsent(key, claim);
+            if (previous != null) {
+                retries.increment();
+                // a copy, so that a cancelled retry doesn't cancel the first attempt
+                return Mono.fromFuture(previous.copy());
+            }
+            return firstAttempt.get()
+                    .doOnSuccess(price -> {
+                        if (price != null)
+                            claim.complete(price);
+                        else
+                            release(key, claim, new IllegalStateException("No price for idempotency key " + key));
+                    })
+                    .doOnError(ex -> release(key, claim, ex))
+                    .doOnCancel(() -> release(key, claim, new CancellationException("First attempt of idempotency key " + key + " cancelled")));
+        });
+    }
+
+    /**
+     * Returns the price of the given key if its first attempt has succeeded, without claiming the key.
+     *
+     * @param key the idempotency key of a call
+     * @return the price of the first attempt with the key, null if there is none or it hasn't completed
+     */
+    public SaleResponseDto completedPrice(String key) {
+        CompletableFuture<SaleResponseDto> price = prices.getIfPresent(key);
+        return price != null && price.isDone() && !price.isCompletedExceptionally() ? price.join() : null;
+    }
+
+    /**
+     * Remembers the price of a key saved without going through deduplicate, e.g. by an addSales batch, so that the
+     * retries of addSale are answered without touching the database.
+     *
+     * @param key   the idempotency key of the saved sale
+     * @param price the price of the saved sale
+     */
+    public void remember(String key, SaleResponseDto price) {
+        prices.asMap().putIfAbsent(key, CompletableFuture.completedFuture(price));
+    }
+
+    /**
+     * Fails the retries waiting for a first attempt which failed or was cancelled and lets the next retry try again.
+     */
+    private void release(String key, CompletableFuture<SaleResponseDto> claim, Throwable error) {
+        prices.asMap().remove(key, claim);
+        claim.completeExceptionally(error);
+    }
+}
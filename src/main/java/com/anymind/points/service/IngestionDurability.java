@@ -0,0 +1,21 @@
+package com.anymind.points.service;
+
+/**
+ * When a sale queued by the write-behind ingestion is acknowledged to the client.
+ */
+public enum IngestionDurability {
+    /**
+     * As soon as the sale is in the in-memory queue. Queued sales are lost if the process dies before they are flushed.
+     */
+    QUEUED,
+    /**
+     * Once the sale has been appended to the local SaleJournal and forced to disk. Nothing is lost if the process dies,
+     * the journaled sales which weren't saved yet are replayed on startup, and the client doesn't wait for the database.
+     */
+    JOURNALED,
+    /**
+     * Once the micro-batch holding the sale has been committed. Nothing is lost, the client still waits for the
+     * database but shares the insert and the transaction with the other sales of the batch.
+     */
+    COMMITTED
+}
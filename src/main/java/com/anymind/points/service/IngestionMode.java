@@ -0,0 +1,16 @@
+package com.anymind.points.service;
+
+/**
+ * How addSale writes a verified sale to the database.
+ */
+public enum IngestionMode {
+    /**
+     * Saves the sale in its own transaction before answering.
+     */
+    SYNC,
+    /**
+     * Queues the sale in memory and answers with its price right away, the queue is flushed to the database in
+     * micro-batches by SaleWriteBehind. When the answer is sent depends on the configured IngestionDurability.
+     */
+    WRITE_BEHIND
+}
@@ -0,0 +1,124 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.PaymentMethodSalesDto;
+import com.anymind.points.dto.SalesBreakdownDto;
+import com.anymind.points.model.Money;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Streaming breakdown of sales per time bucket and payment method, in a single pass over a range.
+ * The running totals of the current bucket are dense arrays indexed by payment method id, which are small and
+ * consecutive, so adding an item is two array increments and closing a bucket only walks the ids it has seen.
+ * The items have to arrive grouped by bucket, like the ordered sales or the rows of a GROUP BY bucket, payment method.
+ */
+final class PaymentMethodBreakdown {
+    private static final int INITIAL_PAYMENT_METHODS = 16;
+
+    private final TimeBuckets buckets;
+    private long[] sales = new long[INITIAL_PAYMENT_METHODS];
+    private long[] points = new long[INITIAL_PAYMENT_METHODS];
+    private int[] items = new int[INITIAL_PAYMENT_METHODS];
+    private int lastPaymentMethodId = -1;
+    private boolean open;
+    private long start;
+    private ZoneId zone;
+
+    private PaymentMethodBreakdown(TimeBuckets buckets) {
+        this.buckets = buckets;
+    }
+
+    /**
+     * Sums items per bucket and payment method.
+     *
+     * @param buckets         the TimeBuckets of the report
+     * @param items           the items, grouped by bucket
+     * @param datetime        the datetime of an item
+     * @param paymentMethodId the payment method id of an item
+     * @param sales           the sales of an item, in cents
+     * @param points          the points of an item, in cents
+     * @return a Flux of SalesBreakdownDto objects, one per bucket with items, the payment methods ordered by id
+     */
+    static <T> Flux<SalesBreakdownDto> sum(TimeBuckets buckets, Flux<T> items, Function<T, ZonedDateTime> datetime,
+                                           ToIntFunction<T> paymentMethodId, ToLongFunction<T> sales, ToLongFunction<T> points) {
+        return Flux.defer(() -> {
+            TimeBuckets.Indexer indexer = buckets.indexer();
+            PaymentMethodBreakdown breakdown = new PaymentMethodBreakdown(buckets);
+            return items.<SalesBreakdownDto>handle((item, sink) -> {
+                        ZonedDateTime itemDatetime = datetime.apply(item);
+                        long bucketStart = indexer.startOf(itemDatetime.toEpochSecond(), itemDatetime.getZone());
+                        SalesBreakdownDto closed = breakdown.add(bucketStart, indexer.zone(), paymentMethodId.applyAsInt(item),
+                                sales.applyAsLong(item), points.applyAsLong(item));
+                        if (closed != null)
+                            sink.next(closed);
+                    })
+                    .concatWith(Mono.fromSupplier(breakdown::close));
+        });
+    }
+
+    private SalesBreakdownDto add(long bucketStart, ZoneId bucketZone, int paymentMethodId, long salesCents, long pointsCents) {
+        if (paymentMethodId < 0)
+            throw new IllegalArgumentException("Invalid payment method id " + paymentMethodId);
+        SalesBreakdownDto closed = null;
+        if (open && bucketStart != start)
+            closed = close();
+        if (!open) {
+            open = true;
+            start = bucketStart;
+            zone = bucketZone;
+        }
+        if (paymentMethodId >= items.length) {
+            int length = Math.max(paymentMethodId + 1, items.length * 2);
+            sales = Arrays.copyOf(sales, length);
+            points = Arrays.copyOf(points, length);
+            items = Arrays.copyOf(items, length);
+        }
+        sales[paymentMethodId] += salesCents;
+        points[paymentMethodId] += pointsCents;
+        items[paymentMethodId]++;
+        lastPaymentMethodId = Math.max(lastPaymentMethodId, paymentMethodId);
+        return closed;
+    }
+
+    private SalesBreakdownDto close() {
+        if (!open)
+            return null;
+        open = false;
+        ZonedDateTime datetime = buckets.zone() != null ? TimeBuckets.label(start, zone) : Instant.ofEpochSecond(start).atZone(zone);
+        List<PaymentMethodSalesDto> paymentMethods = new ArrayList<>();
+        long salesTotal = 0;
+        long pointsTotal = 0;
+        for (int id = 0; id <= lastPaymentMethodId; id++) {
+            if (items[id] == 0)
+                continue;
+            paymentMethods.add(PaymentMethodSalesDto.builder()
+                    .datetime(datetime)
+                    .paymentMethodId(id)
+                    .sales(Money.ofCents(sales[id]))
+                    .points(Money.ofCents(points[id]))
+                    .build());
+            salesTotal += sales[id];
+            pointsTotal += points[id];
+        }
+        Arrays.fill(sales, 0, lastPaymentMethodId + 1, 0);
+        Arrays.fill(points, 0, lastPaymentMethodId + 1, 0);
+        Arrays.fill(items, 0, lastPaymentMethodId + 1, 0);
+        lastPaymentMethodId = -1;
+        return SalesBreakdownDto.builder()
+                .datetime(datetime)
+                .sales(Money.ofCents(salesTotal))
+                .points(Money.ofCents(pointsTotal))
+                .paymentMethods(paymentMethods)
+                .build();
+    }
+}
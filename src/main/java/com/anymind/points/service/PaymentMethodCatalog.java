@@ -0,0 +1,226 @@
+package com.anymind.points.service;
+
+import com.anymind.points.model.PaymentMethod;
+import com.anymind.points.repository.PaymentMethodRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory catalog of the payment methods.
+ * The payment_method table holds a handful of rows which almost never change, so instead of querying it on every
+ * sale we keep an immutable snapshot of it in memory, refresh it in the background and swap it atomically.
+ * Lookups against a loaded snapshot never touch the database. Concurrent refreshes share one query, and a load only
+ * replaces the snapshot of a load which started before it.
+ *
+ * @author-pankaj.pande
+ */
+@Slf4j
+@Service
+public class PaymentMethodCatalog {
+    private final PaymentMethodRepository paymentMethodRepository;
+    private final Counter hits;
+    private final Counter misses;
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicReference<Load> pendingLoad = new AtomicReference<>();
+    private volatile Snapshot snapshot;
+    // the number of the load of the snapshot, guarded by this
+    private long snapshotLoad;
+
+    /**
+     * Constructor for PaymentMethodCatalog class.
+     *
+     * @param paymentMethodRepository - PaymentMethodRepository object used to (re)load the catalog
+     * @param meterRegistry           - MeterRegistry object to publish the hit/miss counters
+     */
+    @Autowired
+    public PaymentMethodCatalog(PaymentMethodRepository paymentMethodRepository, MeterRegistry meterRegistry) {
+        this.paymentMethodRepository = paymentMethodRepository;
+        this.hits = Counter.builder("points.payment-method.catalog.lookups")
+                .description("Payment method lookups served by the in-memory catalog")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("points.payment-method.catalog.lookups")
+                .description("Payment method lookups served by the in-memory catalog")
+                .tag("result", "miss")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the payment method with the given name.
+     *
+     * @param name the name of the payment method, e.g. CASH
+     * @return a Mono of PaymentMethod, empty if there is no such payment method
+     */
+    public Mono<PaymentMethod> findByName(String name) {
+        return current().mapNotNull(loaded -> record(loaded.byName().get(name)));
+    }
+
+    /**
+     * Returns the payment method with the given id.
+     *
+     * @param id the id of the payment method
+     * @return a Mono of PaymentMethod, empty if there is no such payment method
+     */
+    public Mono<PaymentMethod> findById(Integer id) {
+        return current().mapNotNull(loaded -> record(loaded.byId().get(id)));
+    }
+
+    /**
+     * Returns the payment methods with the given ids, for the resolution of the payment methods of many sales at once.
+     * Ids missing from the snapshot, added to the table since its last refresh, are read with a single query.
+     *
+     * @param ids the ids of the payment methods, duplicates are looked up once
+     * @return a Mono of the payment methods by id, without the ids which don't exist
+     */
+    public Mono<Map<Integer, PaymentMethod>> findAllById(Collection<Integer> ids) {
+        return current().flatMap(loaded -> {
+            Map<Integer, PaymentMethod> found = new HashMap<>();
+            Set<Integer> missing = new HashSet<>();
+            for (Integer id : new HashSet<>(ids)) {
+                PaymentMethod paymentMethod = record(loaded.byId().get(id));
+                if (paymentMethod != null)
+                    found.put(id, paymentMethod);
+                else
+                    missing.add(id);
+            }
+            if (missing.isEmpty())
+                return Mono.just(found);
+            return paymentMethodRepository.findAllById(missing)
+                    .doOnNext(paymentMethod -> found.put(paymentMethod.getId(), paymentMethod))
+                    .then(Mono.fromSupplier(() -> found));
+        });
+    }
+
+    /**
+     * Tells whether the loaded snapshot holds a payment method with the given name, without loading it or counting a
+     * lookup. Used to keep the values of metric tags bounded to the known payment methods.
+     *
+     * @param name the name of the payment method, e.g. CASH
+     * @return true if the payment method is known
+     */
+    public boolean isKnown(String name) {
+        Snapshot loaded = snapshot;
+        return loaded != null && name != null && loaded.byName().containsKey(name);
+    }
+
+    /**
+     * Returns the current snapshot of the catalog, loading it first if it has not been loaded yet.
+     *
+     * @return a Mono of the current Snapshot
+     */
+    public Mono<Snapshot> current() {
+        Snapshot loaded = snapshot;
+        return loaded != null ? Mono.just(loaded) : refresh();
+    }
+
+    /**
+     * Reloads the catalog from the database and swaps the snapshot once the new one is complete.
+     * Lookups keep being served from the previous snapshot while the reload is running, and a reload which is already
+     * running is joined instead of starting another one.
+     *
+     * @return a Mono of the freshly loaded Snapshot
+     */
+    public Mono<Snapshot> refresh() {
+        return Mono.defer(() -> {
+            Load pending = pendingLoad.get();
+            if (pending != null)
+                return pending.snapshot();
+            Load load = newLoad();
+            return pendingLoad.compareAndSet(null, load) ? load.snapshot() : refresh();
+        });
+    }
+
+    /**
+     * Reloads the catalog in the background, without joining a reload which may have read the table before it changed.
+     * Lookups keep being served from the current snapshot until the new one is loaded.
+     * Should be called after the payment_method table has been changed.
+     */
+    public void invalidate() {
+        Load load = newLoad();
+        pendingLoad.set(load);
+        load.snapshot().subscribe(loaded -> {
+        }, error -> log.error("Unable to reload the payment method catalog", error));
+    }
+
+    /**
+     * Periodically refreshes the catalog. A failed refresh keeps the previous snapshot.
+     */
+    @Scheduled(initialDelayString = "${points.payment-method-catalog.initial-delay:PT0S}",
+            fixedDelayString = "${points.payment-method-catalog.refresh-interval:PT5M}")
+    void scheduledRefresh() {
+        refresh().subscribe(loaded -> {
+        }, error -> log.error("Unable to refresh the payment method catalog", error));
+    }
+
+    private Load newLoad() {
+        long number = loads.incrementAndGet();
+        Mono<Snapshot> loaded = paymentMethodRepository.findAll()
+                .collectList()
+                .map(paymentMethods -> publish(number, Snapshot.of(paymentMethods)))
+                .doFinally(signal -> pendingLoad.updateAndGet(pending -> pending != null && pending.number() == number ? null : pending))
+                .cache();
+        return new Load(number, loaded);
+    }
+
+    /**
+     * Swaps the snapshot unless a load which started later has already been published.
+     *
+     * @return the newest snapshot
+     */
+    private synchronized Snapshot publish(long number, Snapshot loaded) {
+        if (number > snapshotLoad) {
+            snapshot = loaded;
+            snapshotLoad = number;
+            log.debug("Payment method catalog loaded with " + loaded.byName().size() + " entries");
+        }
+        return snapshot;
+    }
+
+    private PaymentMethod record(PaymentMethod paymentMethod) {
+        (paymentMethod != null ? hits : misses).increment();
+        return paymentMethod;
+    }
+
+    /**
+     * A load of the catalog, numbered in the order the loads started.
+     */
+    private record Load(long number, Mono<Snapshot> snapshot) {
+    }
+
+    /**
+     * Immutable view of the payment_method table at a given point in time.
+     *
+     * @param byName   payment methods indexed by name
+     * @param byId     payment methods indexed by id
+     * @param loadedAt the time the snapshot was loaded
+     */
+    public record Snapshot(Map<String, PaymentMethod> byName, Map<Integer, PaymentMethod> byId, Instant loadedAt) {
+        static Snapshot of(List<PaymentMethod> paymentMethods) {
+            return new Snapshot(
+                    paymentMethods.stream().collect(Collectors.toUnmodifiableMap(PaymentMethod::getName, Function.identity())),
+                    paymentMethods.stream().collect(Collectors.toUnmodifiableMap(PaymentMethod::getId, Function.identity())),
+                    Instant.now());
+        }
+
+        public Collection<PaymentMethod> paymentMethods() {
+            return byId.values();
+        }
+    }
+}
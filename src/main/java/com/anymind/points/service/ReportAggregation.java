@@ -0,0 +1,20 @@
+package com.anymind.points.service;
+
+/**
+ * Where the hourly sales report of getSalesByRange is aggregated.
+ */
+public enum ReportAggregation {
+    /**
+     * Reads the whole hours of the range from the sale_hourly rollup and only the partial hours at its edges from the
+     * sale table.
+     */
+    ROLLUP,
+    /**
+     * Sums the sales per hour inside the database and streams one row per hour.
+     */
+    DATABASE,
+    /**
+     * Fetches every sale of the range and groups them inside the JVM. Kept as a fallback.
+     */
+    MEMORY
+}
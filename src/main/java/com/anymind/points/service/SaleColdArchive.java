@@ -0,0 +1,297 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Money;
+import com.anymind.points.model.Sale;
+import com.anymind.points.model.SaleColdMonth;
+import com.anymind.points.model.SaleHourly;
+import com.anymind.points.repository.SaleColdMonthRepository;
+import com.anymind.points.repository.SalesRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Cold storage of the old sales: the closed months older than the retained ones are moved from the database to one
+ * SaleColumnFile each, in a local directory, and the hourly reports merge the hours of these files with the live ones.
+ * A month is exported, recorded in sale_cold_month, deleted from the sale table and its archived partitions and taken
+ * out of the hourly rollup in one repeatable read transaction: the deletion sees the same sales as the export, a sale
+ * written meanwhile stays live and a sale changed meanwhile makes the month fail and wait for the next run.
+ * Every instance maps the files recorded in sale_cold_month, so the directory has to be shared between the instances.
+ * Sales added later to an archived month stay in the database and are merged like the others.
+ *
+ * @author-pankaj.pande
+ */
+@Slf4j
+@Service
+public class SaleColdArchive {
+    private static final String FILE_SUFFIX = ".salecol";
+    private static final Comparator<SalesListDto> BY_DATETIME = Comparator.comparing(dto -> dto.getDatetime().toInstant());
+
+    private final SalesRepository salesRepository;
+    private final SaleColdMonthRepository saleColdMonthRepository;
+    private final SaleRollupService saleRollupService;
+    private final SalesReportCache salesReportCache;
+    private final TransactionalOperator repeatableRead;
+    private final Path directory;
+    private final boolean enabled;
+    private final int retainedMonths;
+    private final NavigableMap<Instant, SaleColumnFile> months = new ConcurrentSkipListMap<>();
+    private final Counter archivedSales;
+
+    /**
+     * Constructor for SaleColdArchive class.
+     *
+     * @param salesRepository         - SalesRepository object exporting and deleting the sales of a month
+     * @param saleColdMonthRepository - SaleColdMonthRepository object recording the archived months
+     * @param saleRollupService       - SaleRollupService object whose rollup loses the hours of an archived month
+     * @param salesReportCache        - SalesReportCache object evicting the hours of an archived month
+     * @param transactionManager      - ReactiveTransactionManager object running every month in its own transaction
+     * @param meterRegistry           - MeterRegistry object to publish the archived months and sales
+     * @param directory               - directory of the column files, shared by the instances
+     * @param enabled                 - whether this instance moves the old months to the directory, every instance
+     *                                reads the archived ones anyway
+     * @param retainedMonths          - number of closed months kept in the database
+     */
+    @Autowired
+    public SaleColdArchive(SalesRepository salesRepository, SaleColdMonthRepository saleColdMonthRepository,
+                           SaleRollupService saleRollupService, SalesReportCache salesReportCache,
+                           ReactiveTransactionManager transactionManager, MeterRegistry meterRegistry,
+                           @Value("${points.cold-archive.directory:archive}") String directory,
+                           @Value("${points.cold-archive.enabled:false}") boolean enabled,
+                           @Value("${points.cold-archive.retained-months:24}") int retainedMonths) {
+        this.salesRepository = salesRepository;
+        this.saleColdMonthRepository = saleColdMonthRepository;
+        this.saleRollupService = saleRollupService;
+        this.salesReportCache = salesReportCache;
+        DefaultTransactionDefinition definition = new DefaultTransactionDefinition();
+        definition.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.repeatableRead = TransactionalOperator.create(transactionManager, definition);
+        this.directory = Paths.get(directory);
+        this.enabled = enabled;
+        this.retainedMonths = retainedMonths;
+        Gauge.builder("points.cold-archive.months", months, NavigableMap::size)
+                .description("Months of sales read from column files")
+                .register(meterRegistry);
+        this.archivedSales = Counter.builder("points.cold-archive.sales")
+                .description("Sales moved from the database to column files")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Maps the archived months before the first report.
+     */
+    @PostConstruct
+    void start() {
+        refresh().onErrorResume(ex -> {
+            log.error("Unable to load the archived months, reports miss them until the next refresh", ex);
+            return Mono.empty();
+        }).block();
+    }
+
+    /**
+     * Merges the hours of the archived months of the given range with the hours read from the database.
+     *
+     * @param live the hours read from the database, ordered by hour
+     * @param from start of the range, inclusive
+     * @param to   end of the range, inclusive
+     * @return a Flux of SalesListDto objects ordered by hour, one per hour
+     */
+    public Flux<SalesListDto> mergeByHour(Flux<SalesListDto> live, ZonedDateTime from, ZonedDateTime to) {
+        if (months.isEmpty() || to.toInstant().isBefore(months.firstKey()))
+            return live;
+        return Flux.defer(() -> {
+            List<SalesListDto> archived = sumByHourBetween(from, to);
+            if (archived.isEmpty())
+                return live;
+            return Flux.mergeComparing(BY_DATETIME, live, Flux.fromIterable(archived))
+                    .bufferUntilChanged(dto -> dto.getDatetime().toInstant())
+                    .map(SaleColdArchive::sum);
+        });
+    }
+
+    /**
+     * Merges the buckets of the archived months of the given range with the buckets read from the database, for the
+     * buckets which can't be summed from the hourly report.
+     *
+     * @param live    the buckets read from the database, ordered by bucket
+     * @param from    start of the range, inclusive
+     * @param to      end of the range, inclusive
+     * @param buckets the TimeBuckets of the report
+     * @return a Flux of SalesListDto objects ordered by bucket, one per bucket
+     */
+    Flux<SalesListDto> mergeByBucket(Flux<SalesListDto> live, ZonedDateTime from, ZonedDateTime to, TimeBuckets buckets) {
+        if (months.isEmpty() || to.toInstant().isBefore(months.firstKey()))
+            return live;
+        return Flux.defer(() -> {
+            List<SalesListDto> archived = new ArrayList<>();
+            for (SaleColumnFile file : filesBetween(from, to))
+                archived.addAll(file.sumByBucketBetween(from, to, buckets));
+            if (archived.isEmpty())
+                return live;
+            // a bucket spanning two months is read from both files, the merge sums it like the live and archived ones
+            return Flux.mergeComparing(BY_DATETIME, live, Flux.fromIterable(archived))
+                    .bufferUntilChanged(dto -> dto.getDatetime().toInstant())
+                    .map(SaleColdArchive::sum);
+        });
+    }
+
+    /**
+     * Returns the sales of the given range read from the archived months, ordered by datetime. The sales of a month are
+     * decoded when the previous month has been read.
+     *
+     * @param from start of the range, inclusive
+     * @param to   end of the range, inclusive
+     * @return a Flux of Sale objects, empty if no archived month overlaps the range
+     */
+    Flux<Sale> findAllBetween(ZonedDateTime from, ZonedDateTime to) {
+        if (months.isEmpty() || to.toInstant().isBefore(months.firstKey()))
+            return Flux.empty();
+        return Flux.defer(() -> Flux.fromIterable(List.copyOf(filesBetween(from, to))))
+                .concatMapIterable(file -> {
+                    List<Sale> sales = new ArrayList<>();
+                    file.forEachSaleBetween(from, to, sales::add);
+                    return sales;
+                });
+    }
+
+    /**
+     * Returns the hours of the given range read from the archived months.
+     */
+    List<SalesListDto> sumByHourBetween(ZonedDateTime from, ZonedDateTime to) {
+        List<SalesListDto> hours = new ArrayList<>();
+        for (SaleColumnFile file : filesBetween(from, to))
+            hours.addAll(file.sumByHourBetween(from, to));
+        return hours;
+    }
+
+    private Collection<SaleColumnFile> filesBetween(ZonedDateTime from, ZonedDateTime to) {
+        Instant firstMonth = from.withZoneSameInstant(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).toInstant();
+        return months.subMap(firstMonth, true, to.toInstant(), true).values();
+    }
+
+    private static SalesListDto sum(List<SalesListDto> hour) {
+        if (hour.size() == 1)
+            return hour.get(0);
+        Money sales = Money.ZERO;
+        Money points = Money.ZERO;
+        for (SalesListDto dto : hour) {
+            sales = sales.plus(dto.getSales());
+            points = points.plus(dto.getPoints());
+        }
+        return SalesListDto.builder().datetime(hour.get(0).getDatetime()).sales(sales).points(points).build();
+    }
+
+    /**
+     * Maps the files of the months recorded in sale_cold_month which aren't mapped yet.
+     *
+     * @return a Mono which completes once they are mapped
+     */
+    public Mono<Void> refresh() {
+        return saleColdMonthRepository.findAll()
+                .filter(month -> !months.containsKey(month.getMonth().toInstant()))
+                .publishOn(Schedulers.boundedElastic())
+                .doOnNext(this::map)
+                .then();
+    }
+
+    private void map(SaleColdMonth month) {
+        try {
+            months.put(month.getMonth().toInstant(), SaleColumnFile.open(directory.resolve(month.getFile())));
+        } catch (IOException ex) {
+            log.error("Unable to map the archived sales of " + month.getMonth() + ", reports miss them", ex);
+        }
+    }
+
+    /**
+     * Moves the closed months older than the retained ones to column files, one month after the other.
+     *
+     * @return a Flux of the archived months
+     */
+    public Flux<SaleColumnFile> archive() {
+        ZonedDateTime before = ZonedDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1)
+                .minusMonths(retainedMonths);
+        return Mono.fromCallable(() -> Files.createDirectories(directory))
+                .subscribeOn(Schedulers.boundedElastic())
+                .thenMany(salesRepository.findMonthsBefore(before))
+                .map(month -> month.withZoneSameInstant(ZoneOffset.UTC))
+                .filter(month -> !months.containsKey(month.toInstant()))
+                .collectList()
+                .flatMapMany(Flux::fromIterable)
+                .concatMap(this::archive);
+    }
+
+    private Mono<SaleColumnFile> archive(ZonedDateTime month) {
+        ZonedDateTime next = month.plusMonths(1);
+        String name = "sales-" + month.toLocalDate().toString().substring(0, 7) + FILE_SUFFIX;
+        Path temporary = directory.resolve(name + ".tmp");
+        return Mono.usingWhen(Mono.fromCallable(() -> SaleColumnFile.create(temporary, month)).subscribeOn(Schedulers.boundedElastic()),
+                        writer -> salesRepository.findAllToColdArchive(month, next)
+                                .publishOn(Schedulers.boundedElastic())
+                                .reduce(writer, SaleColumnFile.Writer::add)
+                                .map(written -> written.finish(directory.resolve(name))),
+                        writer -> Mono.fromCallable(() -> {
+                            writer.close();
+                            return true;
+                        }).subscribeOn(Schedulers.boundedElastic()))
+                .flatMap(file -> saleColdMonthRepository.insert(month, name, file.getRows())
+                        .then(salesRepository.deleteAllMovedToColdArchive(month, next))
+                        .flatMap(deleted -> deleted == file.getRows()
+                                ? Mono.just(file)
+                                : Mono.error(new IllegalStateException("Archived " + file.getRows() + " sales of " + month
+                                + " but deleted " + deleted)))
+                        .flatMap(checked -> {
+                            List<SaleHourly> hours = file.hours();
+                            // mapped before the hours are evicted, so a report can't cache them without the file
+                            return TransactionCallbacks.afterCommit(() -> months.put(month.toInstant(), file))
+                                    .then(saleRollupService.removeAll(hours))
+                                    .then(salesReportCache.evict(hours.stream().map(SaleHourly::getDatetime).toList()))
+                                    .thenReturn(file);
+                        }))
+                .as(repeatableRead::transactional)
+                .doOnNext(file -> {
+                    archivedSales.increment(file.getRows());
+                    log.info("Archived " + file.getRows() + " sales of " + month + " to " + file.getPath());
+                })
+                .onErrorMap(IOException.class, ex -> new UncheckedIOException("Unable to archive the sales of " + month, ex));
+    }
+
+    /**
+     * Periodically maps the months archived by any instance and, if enabled, archives the months which are due.
+     */
+    @Scheduled(initialDelayString = "${points.cold-archive.interval:PT1H}", fixedDelayString = "${points.cold-archive.interval:PT1H}")
+    void scheduledArchive() {
+        refresh().thenMany(enabled ? archive() : Flux.empty())
+                .subscribe(file -> {
+                }, error -> log.error("Unable to archive the old sales", error));
+    }
+}
@@ -0,0 +1,531 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Money;
+import com.anymind.points.model.Sale;
+import com.anymind.points.model.SaleHourly;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Columnar file of the sales of one month, the cold storage of SaleColdArchive.
+ * The sales are stored in blocks of one UTC hour, every column of a block after the other, as variable-length
+ * integers: datetimes as deltas from the previous sale of the hour, ids as signed deltas, prices and points in cents,
+ * payment methods, then the idempotency keys. An index at the end of the file gives the totals of every hour with sales
+ * and where its columns are, so an hourly report only reads the index and decodes the hours its range cuts.
+ * A file is written once and read through a read-only memory mapping.
+ *
+ * @author-pankaj.pande
+ */
+final class SaleColumnFile {
+    private static final int MAGIC = 0x53434F4C;
+    private static final int VERSION = 1;
+    // magic, version, month, rows, first and last datetime, hours, index offset
+    private static final int HEADER_BYTES = 52;
+    // hour, rows, sales, points, block offset, lengths of the datetime, id, price, points and payment method columns
+    private static final int INDEX_ENTRY_BYTES = 56;
+    private static final int NUMBER_COLUMNS = 5;
+    private static final long MICROS_PER_HOUR = 3_600_000_000L;
+    private static final long MICROS_PER_SECOND = 1_000_000L;
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final ZonedDateTime month;
+    private final long rows;
+    private final long firstMicros;
+    private final long lastMicros;
+    private final int hours;
+    private final int indexOffset;
+
+    private SaleColumnFile(Path path, ByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            throw new IOException("Not a sale column file: " + path);
+        this.month = toDateTime(buffer.getLong(8));
+        this.rows = buffer.getLong(16);
+        this.firstMicros = buffer.getLong(24);
+        this.lastMicros = buffer.getLong(32);
+        this.hours = buffer.getInt(40);
+        long offset = buffer.getLong(44);
+        if (offset < HEADER_BYTES || offset + (long) hours * INDEX_ENTRY_BYTES != buffer.capacity())
+            throw new IOException("Truncated sale column file: " + path);
+        this.indexOffset = (int) offset;
+    }
+
+    /**
+     * Maps a sale column file into memory.
+     *
+     * @param path the file, at most 2GB
+     * @return the SaleColumnFile
+     * @throws IOException if it can't be read or isn't a complete sale column file
+     */
+    static SaleColumnFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Sale column file larger than 2GB: " + path);
+            // the mapping stays valid once the channel is closed
+            return new SaleColumnFile(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Starts a new sale column file.
+     *
+     * @param temporary the file written until finish moves it to its final path
+     * @param month     the first instant of the month of the sales
+     * @return a Writer
+     */
+    static Writer create(Path temporary, ZonedDateTime month) throws IOException {
+        return new Writer(temporary, month);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    ZonedDateTime getMonth() {
+        return month;
+    }
+
+    long getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the totals of every hour with sales, in hour order.
+     */
+    List<SaleHourly> hours() {
+        List<SaleHourly> totals = new ArrayList<>(hours);
+        for (int i = 0; i < hours; i++)
+            totals.add(SaleHourly.builder()
+                    .datetime(toDateTime(hour(i)))
+                    .sales(Money.ofCents(entryLong(i, 12)))
+                    .points(Money.ofCents(entryLong(i, 20)))
+                    .saleCount((long) entryInt(i, 8))
+                    .build());
+        return totals;
+    }
+
+    /**
+     * Returns the sales of the given range per hour. The hours inside the range are read from the index, the hours
+     * cut by its ends are summed from their datetime, price and points columns.
+     *
+     * @param from start of the range, inclusive
+     * @param to   end of the range, inclusive
+     * @return the SalesListDto objects of the hours with sales, ordered by hour
+     */
+    List<SalesListDto> sumByHourBetween(ZonedDateTime from, ZonedDateTime to) {
+        long fromMicros = toMicros(from);
+        long toMicros = toMicros(to);
+        List<SalesListDto> totals = new ArrayList<>();
+        if (rows == 0 || toMicros < firstMicros || fromMicros > lastMicros)
+            return totals;
+        for (int i = firstHourEndingAfter(fromMicros); i < hours && hour(i) <= toMicros; i++) {
+            long hour = hour(i);
+            if (hour >= fromMicros && hour + MICROS_PER_HOUR - 1 <= toMicros) {
+                totals.add(dto(hour, entryLong(i, 12), entryLong(i, 20)));
+                continue;
+            }
+            Cursor datetimes = new Cursor(blockOffset(i));
+            Cursor prices = new Cursor(columnOffset(i, 2));
+            Cursor points = new Cursor(columnOffset(i, 3));
+            long micros = hour;
+            long sales = 0;
+            long earned = 0;
+            boolean any = false;
+            for (int row = entryInt(i, 8); row > 0; row--) {
+                micros += datetimes.unsigned();
+                long price = prices.signed();
+                long point = points.signed();
+                if (micros >= fromMicros && micros <= toMicros) {
+                    sales += price;
+                    earned += point;
+                    any = true;
+                }
+            }
+            if (any)
+                totals.add(dto(hour, sales, earned));
+        }
+        return totals;
+    }
+
+    /**
+     * Returns the sales of the given range per bucket. The hours inside the range and inside a single bucket are read
+     * from the index, the other hours are summed from their columns.
+     *
+     * @param from    start of the range, inclusive
+     * @param to      end of the range, inclusive
+     * @param buckets the TimeBuckets of the report, UTC if they have no zone
+     * @return the SalesListDto objects of the buckets with sales, ordered by bucket
+     */
+    List<SalesListDto> sumByBucketBetween(ZonedDateTime from, ZonedDateTime to, TimeBuckets buckets) {
+        long fromMicros = toMicros(from);
+        long toMicros = toMicros(to);
+        List<SalesListDto> totals = new ArrayList<>();
+        if (rows == 0 || toMicros < firstMicros || fromMicros > lastMicros)
+            return totals;
+        TimeBuckets.Indexer indexer = buckets.indexer();
+        TimeBuckets.Totals bucket = new TimeBuckets.Totals(true);
+        for (int i = firstHourEndingAfter(fromMicros); i < hours && hour(i) <= toMicros; i++) {
+            long hour = hour(i);
+            long hourEnd = hour + MICROS_PER_HOUR - 1;
+            long lastStart = indexer.startOf(Math.floorDiv(hourEnd, MICROS_PER_SECOND), ZoneOffset.UTC);
+            if (hour >= fromMicros && hourEnd <= toMicros
+                    && indexer.startOf(Math.floorDiv(hour, MICROS_PER_SECOND), ZoneOffset.UTC) == lastStart) {
+                add(totals, bucket.add(lastStart, indexer.zone(), entryLong(i, 12), entryLong(i, 20)));
+                continue;
+            }
+            Cursor datetimes = new Cursor(blockOffset(i));
+            Cursor prices = new Cursor(columnOffset(i, 2));
+            Cursor points = new Cursor(columnOffset(i, 3));
+            long micros = hour;
+            for (int row = entryInt(i, 8); row > 0; row--) {
+                micros += datetimes.unsigned();
+                long price = prices.signed();
+                long point = points.signed();
+                if (micros >= fromMicros && micros <= toMicros) {
+                    long start = indexer.startOf(Math.floorDiv(micros, MICROS_PER_SECOND), ZoneOffset.UTC);
+                    add(totals, bucket.add(start, indexer.zone(), price, point));
+                }
+            }
+        }
+        add(totals, bucket.close());
+        return totals;
+    }
+
+    private static void add(List<SalesListDto> totals, SalesListDto closed) {
+        if (closed != null)
+            totals.add(closed);
+    }
+
+    /**
+     * Decodes every sale of the file, in datetime order.
+     */
+    void forEachSale(Consumer<Sale> action) {
+        forEachSale(0, Long.MIN_VALUE, Long.MAX_VALUE, action);
+    }
+
+    /**
+     * Decodes the sales of the given range, in datetime order. Only the hours of the range are read.
+     *
+     * @param from start of the range, inclusive
+     * @param to   end of the range, inclusive
+     */
+    void forEachSaleBetween(ZonedDateTime from, ZonedDateTime to, Consumer<Sale> action) {
+        long fromMicros = toMicros(from);
+        long toMicros = toMicros(to);
+        if (rows == 0 || toMicros < firstMicros || fromMicros > lastMicros)
+            return;
+        forEachSale(firstHourEndingAfter(fromMicros), fromMicros, toMicros, action);
+    }
+
+    private void forEachSale(int firstHour, long fromMicros, long toMicros, Consumer<Sale> action) {
+        for (int i = firstHour; i < hours && hour(i) <= toMicros; i++) {
+            Cursor datetimes = new Cursor(blockOffset(i));
+            Cursor ids = new Cursor(columnOffset(i, 1));
+            Cursor prices = new Cursor(columnOffset(i, 2));
+            Cursor points = new Cursor(columnOffset(i, 3));
+            Cursor paymentMethods = new Cursor(columnOffset(i, 4));
+            Cursor keys = new Cursor(columnOffset(i, 5));
+            long micros = hour(i);
+            long id = 0;
+            for (int row = entryInt(i, 8); row > 0; row--) {
+                micros += datetimes.unsigned();
+                id += ids.signed();
+                long price = prices.signed();
+                long point = points.signed();
+                long paymentMethod = paymentMethods.unsigned();
+                String key = keys.string();
+                if (micros < fromMicros || micros > toMicros)
+                    continue;
+                action.accept(Sale.builder()
+                        .id(Math.toIntExact(id))
+                        .dateTime(toDateTime(micros))
+                        .finalPrice(Money.ofCents(price))
+                        .points(Money.ofCents(point))
+                        .paymentMethodId(Math.toIntExact(paymentMethod))
+                        .idempotencyKey(key)
+                        .build());
+            }
+        }
+    }
+
+    private int firstHourEndingAfter(long micros) {
+        long hour = Math.floorDiv(micros, MICROS_PER_HOUR) * MICROS_PER_HOUR;
+        int low = 0;
+        int high = hours;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (hour(middle) < hour)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private long hour(int entry) {
+        return entryLong(entry, 0);
+    }
+
+    private int blockOffset(int entry) {
+        return (int) entryLong(entry, 28);
+    }
+
+    private int columnOffset(int entry, int column) {
+        int offset = blockOffset(entry);
+        for (int i = 0; i < column; i++)
+            offset += entryInt(entry, 36 + 4 * i);
+        return offset;
+    }
+
+    private long entryLong(int entry, int field) {
+        return buffer.getLong(indexOffset + entry * INDEX_ENTRY_BYTES + field);
+    }
+
+    private int entryInt(int entry, int field) {
+        return buffer.getInt(indexOffset + entry * INDEX_ENTRY_BYTES + field);
+    }
+
+    private static SalesListDto dto(long hour, long salesCents, long pointsCents) {
+        return SalesListDto.builder()
+                .datetime(toDateTime(hour))
+                .sales(Money.ofCents(salesCents))
+                .points(Money.ofCents(pointsCents))
+                .build();
+    }
+
+    private static long toMicros(ZonedDateTime datetime) {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, datetime.toInstant());
+    }
+
+    private static ZonedDateTime toDateTime(long micros) {
+        return Instant.EPOCH.plus(micros, ChronoUnit.MICROS).atZone(ZoneOffset.UTC);
+    }
+
+    /**
+     * Reads the variable-length values of a column from the mapped file.
+     */
+    private final class Cursor {
+        private int position;
+
+        Cursor(int position) {
+            this.position = position;
+        }
+
+        long unsigned() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get(position++);
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0)
+                    return value;
+            }
+        }
+
+        long signed() {
+            long value = unsigned();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String string() {
+            int length = (int) unsigned() - 1;
+            if (length < 0)
+                return null;
+            byte[] bytes = new byte[length];
+            buffer.get(position, bytes);
+            position += length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Writes the sales of a month, which have to be added in datetime order, hour block by hour block.
+     */
+    static final class Writer implements AutoCloseable {
+        private final Path temporary;
+        private final FileChannel channel;
+        private final long month;
+        private final Column[] columns = new Column[NUMBER_COLUMNS + 1];
+        private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+        private final DataOutputStream indexOut = new DataOutputStream(index);
+        private long position = HEADER_BYTES;
+        private long rows;
+        private long firstMicros = Long.MAX_VALUE;
+        private long lastMicros = Long.MIN_VALUE;
+        private int hours;
+        private long hour = Long.MIN_VALUE;
+        private int hourRows;
+        private long hourSales;
+        private long hourPoints;
+        private long previousMicros;
+        private long previousId;
+        private boolean finished;
+
+        private Writer(Path temporary, ZonedDateTime month) throws IOException {
+            this.temporary = temporary;
+            this.month = toMicros(month);
+            this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = new Column();
+        }
+
+        /**
+         * Appends a sale, later than or as late as the previous one.
+         */
+        Writer add(Sale sale) {
+            long micros = toMicros(sale.getDateTime());
+            long saleHour = Math.floorDiv(micros, MICROS_PER_HOUR) * MICROS_PER_HOUR;
+            if (saleHour != hour) {
+                if (saleHour < hour)
+                    throw new IllegalArgumentException("Sales of a column file must be added in datetime order");
+                writeHour();
+                hour = saleHour;
+                previousMicros = saleHour;
+                previousId = 0;
+            }
+            if (micros < previousMicros)
+                throw new IllegalArgumentException("Sales of a column file must be added in datetime order");
+            columns[0].unsigned(micros - previousMicros);
+            columns[1].signed(sale.getId() - previousId);
+            columns[2].signed(sale.getFinalPrice().cents());
+            columns[3].signed(sale.getPoints().cents());
+            columns[4].unsigned(sale.getPaymentMethodId());
+            columns[5].string(sale.getIdempotencyKey());
+            previousMicros = micros;
+            previousId = sale.getId();
+            hourRows++;
+            hourSales += sale.getFinalPrice().cents();
+            hourPoints += sale.getPoints().cents();
+            rows++;
+            firstMicros = Math.min(firstMicros, micros);
+            lastMicros = Math.max(lastMicros, micros);
+            return this;
+        }
+
+        /**
+         * Writes the index and the header, forces the file to disk and moves it to its final path.
+         *
+         * @param target the final path of the file, replaced if it exists
+         * @return the written file, mapped into memory
+         */
+        SaleColumnFile finish(Path target) {
+            try {
+                writeHour();
+                long indexOffset = position;
+                write(ByteBuffer.wrap(index.toByteArray()));
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                        .putInt(MAGIC)
+                        .putInt(VERSION)
+                        .putLong(month)
+                        .putLong(rows)
+                        .putLong(firstMicros)
+                        .putLong(lastMicros)
+                        .putInt(hours)
+                        .putLong(indexOffset)
+                        .flip();
+                position = 0;
+                write(header);
+                channel.force(true);
+                channel.close();
+                Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                finished = true;
+                return open(target);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Unable to write the sale column file " + target, ex);
+            }
+        }
+
+        private void writeHour() {
+            if (hourRows == 0)
+                return;
+            try {
+                indexOut.writeLong(hour);
+                indexOut.writeInt(hourRows);
+                indexOut.writeLong(hourSales);
+                indexOut.writeLong(hourPoints);
+                indexOut.writeLong(position);
+                for (int i = 0; i < NUMBER_COLUMNS; i++)
+                    indexOut.writeInt(columns[i].size());
+                for (Column column : columns) {
+                    write(column.buffer());
+                    column.reset();
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Unable to write the sale column file " + temporary, ex);
+            }
+            if (position > Integer.MAX_VALUE)
+                throw new IllegalStateException("Sale column file larger than 2GB: " + temporary);
+            hours++;
+            hourRows = 0;
+            hourSales = 0;
+            hourPoints = 0;
+        }
+
+        private void write(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining())
+                position += channel.write(bytes, position);
+        }
+
+        /**
+         * Deletes the temporary file of a writer which hasn't been finished.
+         */
+        @Override
+        public void close() throws IOException {
+            if (finished)
+                return;
+            channel.close();
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Column of the hour being written.
+     */
+    private static final class Column extends ByteArrayOutputStream {
+        void unsigned(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void signed(long value) {
+            unsigned((value << 1) ^ (value >> 63));
+        }
+
+        void string(String value) {
+            if (value == null) {
+                unsigned(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            unsigned(bytes.length + 1L);
+            write(bytes, 0, bytes.length);
+        }
+
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
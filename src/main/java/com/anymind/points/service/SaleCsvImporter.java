@@ -0,0 +1,374 @@
+package com.anymind.points.service;
+
+import com.anymind.points.exception.CustomException;
+import com.anymind.points.model.Modifier;
+import com.anymind.points.model.Money;
+import com.anymind.points.model.Sale;
+import com.anymind.points.model.SalesInput;
+import com.anymind.points.repository.SaleJournalCheckpointRepository;
+import com.anymind.points.repository.SalesRepository;
+import graphql.ErrorType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.MessageSource;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Bulk import of sales from a csv file, for backfills which would otherwise take one addSale per row.
+ * The file is read line by line and loaded in chunks, each with one COPY and one transaction which also updates the
+ * hourly rollup and advances a checkpoint, the last line of the file whose sales are saved. An interrupted import
+ * started again with the same checkpoint resumes after that line.
+ * Two layouts are read, told apart by their header:
+ * - price,price_modifier,payment_method,datetime: the inputs of addSale, verified and priced by the same rules,
+ * - id,final_price,points,payment_method_id,datetime: an export of the sale table, whose prices were computed when the
+ * sales were added, loaded as is once their payment method is checked. Their ids are not kept.
+ * Invalid rows are logged and skipped.
+ *
+ * @author-pankaj.pande
+ */
+@Slf4j
+@Service
+public class SaleCsvImporter {
+    private static final List<String> INPUT_COLUMNS = List.of("price", "price_modifier", "payment_method", "datetime");
+    private static final List<String> EXPORT_COLUMNS = List.of("final_price", "points", "payment_method_id", "datetime");
+    /**
+     * ISO datetimes as well as the datetimes of the Postgres exports, e.g. 2022-09-01 00:00:00.000000 +00:00
+     */
+    private static final DateTimeFormatter DATETIME = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE)
+            .optionalStart().appendLiteral('T').optionalEnd()
+            .optionalStart().appendLiteral(' ').optionalEnd()
+            .append(DateTimeFormatter.ISO_LOCAL_TIME)
+            .optionalStart().appendLiteral(' ').optionalEnd()
+            .appendOffset("+HH:MM", "Z")
+            .toFormatter();
+
+    private final SalesRepository salesRepository;
+    private final SalesServiceImpl salesService;
+    private final PaymentMethodCatalog paymentMethodCatalog;
+    private final SaleRollupService saleRollupService;
+    private final SalesReportCache salesReportCache;
+    private final HourlySalesFeed hourlySalesFeed;
+    private final TransactionalOperator transactionalOperator;
+    private final SaleJournalCheckpointRepository checkpointRepository;
+    private final MessageSource messageSource;
+    private final Locale locale = LocaleContextHolder.getLocale();
+    private final Counter importedRows;
+    private final Counter rejectedRows;
+    @Value("${points.import.chunk-size:5000}")
+    private int chunkSize = 5000;
+
+    /**
+     * Constructor for SaleCsvImporter class.
+     *
+     * @param salesRepository       - SalesRepository object loading the chunks
+     * @param salesService          - SalesServiceImpl object verifying and pricing the inputs of addSale
+     * @param paymentMethodCatalog  - PaymentMethodCatalog object checking the payment methods of the exported sales
+     * @param saleRollupService     - SaleRollupService object maintaining the hourly rollup of the sales
+     * @param salesReportCache      - SalesReportCache object whose hours are evicted by the imported sales
+     * @param hourlySalesFeed       - HourlySalesFeed object to which the hours of the imported sales are published
+     * @param transactionalOperator - TransactionalOperator object used to load every chunk in its own transaction
+     * @param checkpointRepository  - SaleJournalCheckpointRepository object storing the checkpoint of the imports
+     * @param messageSource         - MessageSource Object to return the message string in a given language.
+     * @param meterRegistry         - MeterRegistry object to publish the imported and rejected rows
+     */
+    @Autowired
+    public SaleCsvImporter(SalesRepository salesRepository, SalesServiceImpl salesService, PaymentMethodCatalog paymentMethodCatalog,
+                           SaleRollupService saleRollupService, SalesReportCache salesReportCache, HourlySalesFeed hourlySalesFeed,
+                           TransactionalOperator transactionalOperator, SaleJournalCheckpointRepository checkpointRepository,
+                           MessageSource messageSource, MeterRegistry meterRegistry) {
+        this.salesRepository = salesRepository;
+        this.salesService = salesService;
+        this.paymentMethodCatalog = paymentMethodCatalog;
+        this.saleRollupService = saleRollupService;
+        this.salesReportCache = salesReportCache;
+        this.hourlySalesFeed = hourlySalesFeed;
+        this.transactionalOperator = transactionalOperator;
+        this.checkpointRepository = checkpointRepository;
+        this.messageSource = messageSource;
+        this.importedRows = Counter.builder("points.import.rows")
+                .description("Rows of the imported csv files")
+                .tag("outcome", "imported")
+                .register(meterRegistry);
+        this.rejectedRows = Counter.builder("points.import.rows")
+                .description("Rows of the imported csv files")
+                .tag("outcome", "rejected")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Imports the sales of a csv file, starting after the line of the given checkpoint if it exists.
+     *
+     * @param file       the csv file, with a header line
+     * @param checkpoint the name of the checkpoint of this import
+     * @return a Mono of the Result of this run, failing with the first chunk which couldn't be saved
+     */
+    public Mono<Result> importFile(Path file, String checkpoint) {
+        return checkpointRepository.findSequence(checkpoint)
+                .defaultIfEmpty(0L)
+                .flatMap(savedLine -> {
+                    if (savedLine > 0)
+                        log.info("Resuming the import of " + file + " after line " + savedLine);
+                    Progress progress = new Progress(file, savedLine, System.nanoTime());
+                    return read(file)
+                            .filter(line -> line.number() > savedLine)
+                            .concatMap(this::parse)
+                            .buffer(chunkSize)
+                            // one chunk read ahead while the previous one is saved
+                            .concatMap(chunk -> save(chunk, checkpoint), 1)
+                            .doOnNext(progress::add)
+                            .then(Mono.fromSupplier(progress::result));
+                })
+                .doOnNext(result -> log.info("Imported " + file + ": " + result));
+    }
+
+    /**
+     * Streams the rows of the file with their line number, the first row being line 2. Blank lines are ignored.
+     */
+    Flux<Line> read(Path file) {
+        return Flux.using(() -> Files.newBufferedReader(file, StandardCharsets.UTF_8),
+                        reader -> {
+                            Header header = Header.of(split(readLine(reader)));
+                            return Flux.fromStream(reader.lines())
+                                    .index(2)
+                                    .filter(line -> !line.getT2().isBlank())
+                                    .map(line -> new Line(line.getT1(), header, split(line.getT2())));
+                        },
+                        reader -> {
+                            try {
+                                reader.close();
+                            } catch (IOException ex) {
+                                log.warn("Unable to close " + file, ex);
+                            }
+                        })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static String readLine(BufferedReader reader) {
+        try {
+            String line = reader.readLine();
+            if (line == null)
+                throw new IllegalArgumentException("Empty csv file, a header line is expected");
+            return line;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Turns a row into a priced sale, or into the reason why it's rejected.
+     */
+    Mono<Row> parse(Line line) {
+        Mono<Sale> sale;
+        try {
+            sale = line.header().export() ? parseExported(line) : parseInput(line);
+        } catch (RuntimeException ex) {
+            sale = Mono.error(ex);
+        }
+        return sale.map(parsed -> new Row(line.number(), parsed, null))
+                .onErrorResume(ex -> ex instanceof CustomException || ex instanceof IllegalArgumentException
+                        || ex instanceof DateTimeParseException, ex -> {
+                    final String errorMessage = messageSource.getMessage("errormessage.import-row", new String[]{
+                            String.valueOf(line.number()), ex.getMessage()}, locale);
+                    log.error(errorMessage);
+                    return Mono.just(new Row(line.number(), null, errorMessage));
+                });
+    }
+
+    private Mono<Sale> parseInput(Line line) {
+        SalesInput salesInput = SalesInput.builder()
+                .price(Money.of(line.get("price")))
+                .priceModifier(Modifier.of(line.get("price_modifier")))
+                .paymentMethod(line.get("payment_method"))
+                .datetime(ZonedDateTime.parse(line.get("datetime"), DATETIME))
+                .build();
+        return salesService.verifyPaymentMethod(salesInput).map(salesService::toSale);
+    }
+
+    private Mono<Sale> parseExported(Line line) {
+        Integer paymentMethodId = Integer.valueOf(line.get("payment_method_id"));
+        Sale sale = Sale.builder()
+                .finalPrice(Money.of(line.get("final_price")))
+                .points(Money.of(line.get("points")))
+                .paymentMethodId(paymentMethodId)
+                .dateTime(ZonedDateTime.parse(line.get("datetime"), DATETIME))
+                .build();
+        return paymentMethodCatalog.findById(paymentMethodId)
+                .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("Unknown payment method id:" + paymentMethodId)))
+                .thenReturn(sale);
+    }
+
+    /**
+     * Loads the valid sales of a chunk, adds them to the hourly rollup and moves the checkpoint to the last line of the
+     * chunk in one transaction.
+     */
+    Mono<Chunk> save(List<Row> chunk, String checkpoint) {
+        List<Sale> sales = chunk.stream().map(Row::sale).filter(Objects::nonNull).toList();
+        long lastLine = chunk.get(chunk.size() - 1).line();
+        List<ZonedDateTime> datetimes = sales.stream().map(Sale::getDateTime).distinct().toList();
+        return salesRepository.copyAll(sales)
+                .flatMap(loaded -> saleRollupService.addAll(sales)
+                        .then(checkpointRepository.advance(checkpoint, lastLine))
+                        .thenReturn(loaded))
+                .as(transactionalOperator::transactional)
+                .flatMap(loaded -> salesReportCache.evict(datetimes)
+                        .then(hourlySalesFeed.publish(datetimes))
+                        .thenReturn(loaded))
+                .map(loaded -> {
+                    importedRows.increment(loaded);
+                    rejectedRows.increment(chunk.size() - sales.size());
+                    return new Chunk(lastLine, loaded, chunk.size() - sales.size());
+                })
+                .onErrorMap(ex -> {
+                    final String errorMessage = messageSource.getMessage("errormessage.import-chunk", new String[]{
+                            String.valueOf(chunk.get(0).line()), String.valueOf(lastLine)}, locale);
+                    log.error(errorMessage, ex);
+                    return new CustomException(ErrorType.ExecutionAborted, errorMessage);
+                });
+    }
+
+    /**
+     * Splits a csv line on its commas, honouring the double quoted fields.
+     */
+    static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"')
+                    field.append(line.charAt(++i));
+                else if (c == '"')
+                    quoted = false;
+                else
+                    field.append(c);
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    /**
+     * The positions of the columns of a file, and whether it's an export of the sale table.
+     */
+    record Header(Map<String, Integer> columns, boolean export) {
+        static Header of(List<String> names) {
+            Map<String, Integer> columns = IntStream.range(0, names.size()).boxed()
+                    .collect(Collectors.toMap(i -> names.get(i).toLowerCase(Locale.ROOT), Function.identity(), (first, second) -> first));
+            if (columns.keySet().containsAll(INPUT_COLUMNS))
+                return new Header(columns, false);
+            if (columns.keySet().containsAll(EXPORT_COLUMNS))
+                return new Header(columns, true);
+            throw new IllegalArgumentException("Unknown csv header " + names + ", expected the columns " + INPUT_COLUMNS
+                    + " or " + EXPORT_COLUMNS);
+        }
+    }
+
+    /**
+     * A row of the file.
+     */
+    record Line(long number, Header header, List<String> fields) {
+        String get(String column) {
+            int index = header.columns().get(column);
+            if (index >= fields.size() || fields.get(index).isEmpty())
+                throw new IllegalArgumentException("Missing " + column);
+            return fields.get(index);
+        }
+    }
+
+    /**
+     * A parsed row: its sale if it's valid, the error message otherwise.
+     */
+    record Row(long line, Sale sale, String error) {
+    }
+
+    /**
+     * A saved chunk: its last line and its loaded and rejected rows.
+     */
+    record Chunk(long lastLine, long imported, long rejected) {
+    }
+
+    /**
+     * The outcome of an import.
+     *
+     * @param lastLine the last line saved, including the lines of a previous run
+     * @param imported the sales loaded by this run
+     * @param rejected the invalid rows skipped by this run
+     * @param elapsed  the duration of this run
+     */
+    public record Result(long lastLine, long imported, long rejected, Duration elapsed) {
+        public double rowsPerSecond() {
+            return elapsed.isZero() ? 0 : (imported + rejected) * 1e9 / elapsed.toNanos();
+        }
+
+        @Override
+        public String toString() {
+            return imported + " sales imported and " + rejected + " rows rejected up to line " + lastLine + " in "
+                    + elapsed.toMillis() + "ms, " + Math.round(rowsPerSecond()) + " rows/s";
+        }
+    }
+
+    /**
+     * Counts the rows of a run and logs its throughput after every chunk.
+     */
+    private static final class Progress {
+        private final Path file;
+        private final long start;
+        private long lastLine;
+        private long imported;
+        private long rejected;
+
+        Progress(Path file, long lastLine, long start) {
+            this.file = file;
+            this.lastLine = lastLine;
+            this.start = start;
+        }
+
+        void add(Chunk chunk) {
+            lastLine = chunk.lastLine();
+            imported += chunk.imported();
+            rejected += chunk.rejected();
+            log.info("Importing " + file + ": " + result());
+        }
+
+        Result result() {
+            return new Result(lastLine, imported, rejected, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+}
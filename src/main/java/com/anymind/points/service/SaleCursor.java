@@ -0,0 +1,49 @@
+package com.anymind.points.service;
+
+import com.anymind.points.model.Sale;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Base64;
+
+/**
+ * Opaque position of a sale in the (datetime, id) order used by the sales connection.
+ *
+ * @param datetime the datetime of the sale
+ * @param id       the id of the sale
+ */
+record SaleCursor(Instant datetime, int id) {
+    private static final char SEPARATOR = '|';
+
+    static SaleCursor of(Sale sale) {
+        return new SaleCursor(sale.getDateTime().toInstant(), sale.getId());
+    }
+
+    /**
+     * Parses a cursor returned by encode.
+     *
+     * @param cursor the encoded cursor
+     * @return the SaleCursor
+     * @throws IllegalArgumentException if the cursor is not a valid cursor
+     */
+    static SaleCursor decode(String cursor) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = value.indexOf(SEPARATOR);
+            return new SaleCursor(Instant.parse(value.substring(0, separator)), Integer.parseInt(value.substring(separator + 1)));
+        } catch (RuntimeException ex) {
+            throw new IllegalArgumentException("Invalid cursor " + cursor, ex);
+        }
+    }
+
+    String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((datetime.toString() + SEPARATOR + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    ZonedDateTime zonedDateTime() {
+        return datetime.atZone(ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,69 @@
+package com.anymind.points.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Command line import of a csv file with the SaleCsvImporter, enabled by --points.import.file=<path>, which also
+ * disables the web server. The application exits once the file is imported, with the exit code 1 if the import failed. Its checkpoint is named after the file
+ * unless --points.import.checkpoint is given, so running the same command again resumes an interrupted import.
+ *
+ * @author-pankaj.pande
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty("points.import.file")
+public class SaleImportRunner implements ApplicationRunner, ExitCodeGenerator {
+    private static final String CHECKPOINT_PREFIX = "import:";
+
+    private final SaleCsvImporter saleCsvImporter;
+    private final Path file;
+    private final String checkpoint;
+    private volatile int exitCode;
+
+    /**
+     * Constructor for SaleImportRunner class.
+     *
+     * @param saleCsvImporter - SaleCsvImporter object importing the file
+     * @param file            - path of the csv file
+     * @param checkpoint      - name of the checkpoint of the import, the file name if empty
+     */
+    @Autowired
+    public SaleImportRunner(SaleCsvImporter saleCsvImporter,
+                            @Value("${points.import.file}") String file,
+                            @Value("${points.import.checkpoint:}") String checkpoint) {
+        this.saleCsvImporter = saleCsvImporter;
+        this.file = Paths.get(file);
+        this.checkpoint = CHECKPOINT_PREFIX + (checkpoint.isEmpty() ? this.file.getFileName() : checkpoint);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            SaleCsvImporter.Result result = saleCsvImporter.importFile(file, checkpoint).block();
+            log.info("Import of " + file + " done: " + result);
+        } catch (RuntimeException ex) {
+            log.error("Import of " + file + " failed, run it again to resume after the checkpoint " + checkpoint, ex);
+            exitCode = 1;
+        }
+    }
+
+    /**
+     * Returns the exit code of the import, collected by the main class once the context has been started.
+     *
+     * @return 0 if the file has been imported, 1 otherwise
+     */
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+}
@@ -0,0 +1,463 @@
+package com.anymind.points.service;
+
+import com.anymind.points.model.Money;
+import com.anymind.points.model.Sale;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only local journal of the sales accepted by the write-behind ingestion with the JOURNALED durability.
+ * The journal is a directory of memory-mapped segments of a fixed size, named after the sequence of their first record.
+ * A record is a compact binary encoding of a sale, fixed-size fields followed by the optional idempotency key, prefixed
+ * with its length and the CRC32C of its payload, so a record torn by a crash is detected and ignored on replay.
+ * The segments of the first version, whose records have no idempotency key, are still replayed after an upgrade.
+ * Appends only write to the mapped segment. A single sync thread forces the active segment to disk and acknowledges
+ * every record written before the force started, so concurrent appends share one fsync (group commit).
+ * A segment is deleted once the checkpoint stored with the saved sales has passed its last record.
+ * The checkpoint is stored under the name of the journal. Unless a name is configured, it is generated on first use
+ * and kept in the journal directory, so that instances sharing the database never share a checkpoint.
+ *
+ * @author-pankaj.pande
+ */
+@Slf4j
+@Service
+public class SaleJournal {
+    private static final int MAGIC = 0x53414C4A;
+    private static final int VERSION = 2;
+    private static final int VERSION_WITHOUT_KEY = 1;
+    private static final int SEGMENT_HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 8;
+    // sequence, final price, points, payment method, datetime and offset
+    private static final int PAYLOAD_BYTES_WITHOUT_KEY = 44;
+    // sequence, final price, points, payment method, datetime, offset and length of the idempotency key
+    private static final int FIXED_PAYLOAD_BYTES = 46;
+    // a UTF-8 encoded char takes at most 3 bytes
+    private static final int MAX_PAYLOAD_BYTES = FIXED_PAYLOAD_BYTES + 3 * IdempotencyIndex.MAX_KEY_LENGTH;
+    private static final short NO_KEY = -1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String NAME_FILE = "journal.name";
+    // the name of every journal before the names were generated
+    private static final String LEGACY_NAME = "default";
+
+    private final Path directory;
+    private final String configuredName;
+    private volatile String name;
+    private final int segmentSize;
+    private final NavigableMap<Long, Segment> sealed = new ConcurrentSkipListMap<>();
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean syncScheduled = new AtomicBoolean();
+    private final CRC32C crc = new CRC32C();
+    private final Timer syncTimer;
+    private final DistributionSummary syncSize;
+    private Scheduler syncer;
+    private Segment active;
+    private long nextSequence;
+    private volatile long durableSequence;
+
+    /**
+     * Constructor for SaleJournal class.
+     *
+     * @param meterRegistry - MeterRegistry object to publish the fsync latency, the records per fsync and the segments
+     * @param directory     - directory of the segments, one per application instance
+     * @param name          - name of the journal, the key of its checkpoint in the database, unique per instance, empty
+     *                      to generate one stored in the directory
+     * @param segmentSize   - size of a segment, at most 2GB
+     */
+    @Autowired
+    public SaleJournal(MeterRegistry meterRegistry,
+                       @Value("${points.journal.directory:journal}") String directory,
+                       @Value("${points.journal.name:}") String name,
+                       @Value("${points.journal.segment-size:64MB}") DataSize segmentSize) {
+        this.directory = Paths.get(directory);
+        this.configuredName = name;
+        this.segmentSize = Math.toIntExact(segmentSize.toBytes());
+        if (this.segmentSize < SEGMENT_HEADER_BYTES + RECORD_HEADER_BYTES + MAX_PAYLOAD_BYTES)
+            throw new IllegalArgumentException("A journal segment must hold at least one record: " + segmentSize);
+        this.syncTimer = Timer.builder("points.journal.sync")
+                .description("Latency of the fsync of the active journal segment")
+                .register(meterRegistry);
+        this.syncSize = DistributionSummary.builder("points.journal.sync.size")
+                .description("Appends acknowledged per fsync")
+                .register(meterRegistry);
+        Gauge.builder("points.journal.segments", sealed, segments -> segments.size() + (active != null ? 1 : 0))
+                .description("Journal segments on disk")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the name of the journal, the key of its checkpoint in the database.
+     */
+    public String getName() {
+        String resolved = name;
+        if (resolved == null) {
+            synchronized (this) {
+                if (name == null)
+                    name = configuredName.isEmpty() ? storedName() : configuredName;
+                resolved = name;
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Reads the name kept in the journal directory, generating it on first use. A directory which already holds segments
+     * was written under the legacy name, which is kept so that its checkpoint still applies.
+     */
+    private String storedName() {
+        Path file = directory.resolve(NAME_FILE);
+        try {
+            if (Files.exists(file))
+                return Files.readString(file, StandardCharsets.UTF_8).trim();
+            String generated;
+            if (hasSegments()) {
+                generated = LEGACY_NAME;
+                log.warn("Sale journal " + directory + " keeps the name " + LEGACY_NAME + ", it must not be shared by another instance");
+            } else {
+                generated = UUID.randomUUID().toString();
+            }
+            Files.createDirectories(directory);
+            Files.writeString(file, generated, StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return generated;
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to read the name of the sale journal " + directory, ex);
+        }
+    }
+
+    /**
+     * Whether the journal directory holds segments, which are only replayed with the JOURNALED durability.
+     */
+    public boolean hasSegments() {
+        return !segmentPaths().isEmpty();
+    }
+
+    /**
+     * Opens the journal: reads the existing segments, deletes those which are covered by the checkpoint and starts a
+     * new segment for the appends.
+     *
+     * @param checkpoint the sequence up to which the journaled sales are saved in the database
+     * @return the journaled sales after the checkpoint, in sequence order, to be saved again
+     */
+    public synchronized List<Entry> open(long checkpoint) {
+        if (active != null)
+            throw new IllegalStateException("Sale journal " + directory + " is already open");
+        List<Entry> unsaved = new ArrayList<>();
+        long lastSequence = checkpoint;
+        try {
+            Files.createDirectories(directory);
+            for (Path path : segmentPaths()) {
+                List<Entry> entries = read(path);
+                if (entries.isEmpty() || entries.get(entries.size() - 1).sequence() <= checkpoint) {
+                    Files.delete(path);
+                    continue;
+                }
+                Segment segment = new Segment(path, entries.get(0).sequence(), null);
+                segment.lastSequence = entries.get(entries.size() - 1).sequence();
+                sealed.put(segment.firstSequence, segment);
+                lastSequence = Math.max(lastSequence, segment.lastSequence);
+                entries.stream().filter(entry -> entry.sequence() > checkpoint).forEach(unsaved::add);
+            }
+            nextSequence = lastSequence + 1;
+            durableSequence = lastSequence;
+            active = newSegment(nextSequence);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to open the sale journal " + directory, ex);
+        }
+        syncer = Schedulers.newSingle("sale-journal-sync");
+        log.info("Sale journal " + directory + " opened, " + unsaved.size() + " sales after checkpoint " + checkpoint);
+        return unsaved;
+    }
+
+    /**
+     * Writes a sale to the active segment, without waiting for it to be on disk.
+     *
+     * @param sale     the Sale object to be journaled
+     * @param appended called with the sequence of the record while no other append can run, so that the callbacks see
+     *                 the sequences in order
+     * @return the sequence of the record
+     */
+    public synchronized long append(Sale sale, LongConsumer appended) {
+        if (active == null)
+            throw new IllegalStateException("Sale journal " + directory + " is not open");
+        long sequence = nextSequence;
+        byte[] key = sale.getIdempotencyKey() != null ? sale.getIdempotencyKey().getBytes(StandardCharsets.UTF_8) : null;
+        int payloadBytes = FIXED_PAYLOAD_BYTES + (key != null ? key.length : 0);
+        if (payloadBytes > MAX_PAYLOAD_BYTES)
+            throw new IllegalArgumentException("Idempotency key too long for the sale journal: " + sale.getIdempotencyKey());
+        if (active.buffer.remaining() < RECORD_HEADER_BYTES + payloadBytes)
+            roll(sequence);
+        write(active.buffer, sequence, sale, key, payloadBytes);
+        active.lastSequence = sequence;
+        nextSequence++;
+        appended.accept(sequence);
+        return sequence;
+    }
+
+    /**
+     * Waits until the record of the given sequence has been forced to disk.
+     *
+     * @param sequence the sequence returned by append
+     * @return a Mono which completes once the record is durable, or fails if the fsync failed
+     */
+    public Mono<Void> awaitDurable(long sequence) {
+        return Mono.create(sink -> {
+            if (sequence <= durableSequence) {
+                sink.success();
+                return;
+            }
+            waiters.add(new Waiter(sequence, sink));
+            if (syncScheduled.compareAndSet(false, true))
+                syncer.schedule(this::sync);
+        });
+    }
+
+    /**
+     * Deletes the sealed segments whose records are all saved in the database.
+     *
+     * @param checkpoint the sequence up to which the journaled sales are saved
+     */
+    public void truncate(long checkpoint) {
+        Iterator<Segment> segments = sealed.values().iterator();
+        while (segments.hasNext()) {
+            Segment segment = segments.next();
+            if (segment.lastSequence > checkpoint)
+                break;
+            segments.remove();
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException ex) {
+                log.error("Unable to delete the saved journal segment " + segment.path, ex);
+            }
+        }
+    }
+
+    @PreDestroy
+    synchronized void close() {
+        if (active == null)
+            return;
+        active.buffer.force();
+        syncer.dispose();
+        active = null;
+    }
+
+    /**
+     * Forces the active segment and acknowledges every record written before. Appends which happen while the force
+     * runs schedule another sync, which acknowledges them all at once.
+     */
+    private void sync() {
+        syncScheduled.set(false);
+        long upTo;
+        Segment segment;
+        synchronized (this) {
+            if (active == null)
+                return;
+            upTo = nextSequence - 1;
+            segment = active;
+        }
+        try {
+            syncTimer.record(() -> segment.buffer.force());
+        } catch (UncheckedIOException ex) {
+            log.error("Unable to force the journal segment " + segment.path, ex);
+            Waiter waiter;
+            while ((waiter = waiters.poll()) != null)
+                waiter.sink.error(ex);
+            return;
+        }
+        durableSequence = upTo;
+        int acknowledged = 0;
+        for (Iterator<Waiter> iterator = waiters.iterator(); iterator.hasNext(); ) {
+            Waiter waiter = iterator.next();
+            if (waiter.sequence <= upTo) {
+                iterator.remove();
+                waiter.sink.success();
+                acknowledged++;
+            }
+        }
+        syncSize.record(acknowledged);
+    }
+
+    /**
+     * Seals the full active segment and starts a new one. The sealed segment is forced first, so that the sync thread
+     * only ever has to force the active one.
+     */
+    private void roll(long firstSequence) {
+        active.buffer.force();
+        sealed.put(active.firstSequence, active);
+        try {
+            active = newSegment(firstSequence);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to create a sale journal segment in " + directory, ex);
+        }
+    }
+
+    private Segment newSegment(long firstSequence) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping grows the file to the segment size, zero filled, and stays valid once the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buffer.putInt(MAGIC).putInt(VERSION);
+            return new Segment(path, firstSequence, buffer);
+        }
+    }
+
+    private List<Path> segmentPaths() {
+        if (!Files.isDirectory(directory))
+            return List.of();
+        try (Stream<Path> paths = Files.list(directory)) {
+            // the zero padded sequences sort in sequence order
+            return paths.filter(path -> {
+                        String fileName = path.getFileName().toString();
+                        return fileName.startsWith(SEGMENT_PREFIX) && fileName.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to list the sale journal " + directory, ex);
+        }
+    }
+
+    /**
+     * Reads the records of a segment up to the first unwritten or damaged one.
+     */
+    private List<Entry> read(Path path) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            // created right before a crash, nothing has been written to it
+            if (buffer.remaining() < SEGMENT_HEADER_BYTES)
+                return entries;
+            int version = buffer.getInt() == MAGIC ? buffer.getInt() : -1;
+            if (version != VERSION && version != VERSION_WITHOUT_KEY)
+                throw new IOException("Not a sale journal segment: " + path);
+            boolean withKey = version == VERSION;
+            int minPayloadBytes = withKey ? FIXED_PAYLOAD_BYTES : PAYLOAD_BYTES_WITHOUT_KEY;
+            int maxPayloadBytes = withKey ? MAX_PAYLOAD_BYTES : PAYLOAD_BYTES_WITHOUT_KEY;
+            while (buffer.remaining() >= RECORD_HEADER_BYTES + minPayloadBytes) {
+                int position = buffer.position();
+                int length = buffer.getInt();
+                // the rest of the segment has never been written
+                if (length == 0)
+                    break;
+                int checksum = buffer.getInt();
+                if (length < minPayloadBytes || length > Math.min(maxPayloadBytes, buffer.remaining())
+                        || checksum != checksum(buffer, buffer.position(), length)) {
+                    log.warn("Damaged record at offset " + position + " of journal segment " + path + ", the rest of the segment is ignored");
+                    break;
+                }
+                entries.add(new Entry(buffer.getLong(), decodeSale(buffer, withKey)));
+            }
+        }
+        return entries;
+    }
+
+    private void write(ByteBuffer buffer, long sequence, Sale sale, byte[] key, int payloadBytes) {
+        int position = buffer.position();
+        int payload = position + RECORD_HEADER_BYTES;
+        buffer.position(payload);
+        buffer.putLong(sequence)
+                .putLong(sale.getFinalPrice().cents())
+                .putLong(sale.getPoints().cents())
+                .putInt(sale.getPaymentMethodId())
+                .putLong(sale.getDateTime().toEpochSecond())
+                .putInt(sale.getDateTime().getNano())
+                .putInt(sale.getDateTime().getOffset().getTotalSeconds());
+        if (key != null)
+            buffer.putShort((short) key.length).put(key);
+        else
+            buffer.putShort(NO_KEY);
+        // the length goes last, a record is only seen once its payload and checksum are written
+        buffer.putInt(position + 4, checksum(buffer, payload, payloadBytes));
+        buffer.putInt(position, payloadBytes);
+    }
+
+    private Sale decodeSale(ByteBuffer buffer, boolean withKey) {
+        Money finalPrice = Money.ofCents(buffer.getLong());
+        Money points = Money.ofCents(buffer.getLong());
+        int paymentMethodId = buffer.getInt();
+        long epochSecond = buffer.getLong();
+        int nano = buffer.getInt();
+        ZoneOffset offset = ZoneOffset.ofTotalSeconds(buffer.getInt());
+        short keyLength = withKey ? buffer.getShort() : NO_KEY;
+        String key = null;
+        if (keyLength != NO_KEY) {
+            byte[] bytes = new byte[keyLength];
+            buffer.get(bytes);
+            key = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return Sale.builder()
+                .finalPrice(finalPrice)
+                .points(points)
+                .paymentMethodId(paymentMethodId)
+                .dateTime(Instant.ofEpochSecond(epochSecond, nano).atZone(offset))
+                .idempotencyKey(key)
+                .build();
+    }
+
+    private int checksum(ByteBuffer buffer, int payload, int payloadBytes) {
+        synchronized (crc) {
+            crc.reset();
+            crc.update(buffer.slice(payload, payloadBytes));
+            return (int) crc.getValue();
+        }
+    }
+
+    /**
+     * A journaled sale and the sequence of its record.
+     */
+    public record Entry(long sequence, Sale sale) {
+    }
+
+    private record Waiter(long sequence, MonoSink<Void> sink) {
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final long firstSequence;
+        // null for the segments found on open, which are only read
+        private final MappedByteBuffer buffer;
+        private volatile long lastSequence;
+
+        private Segment(Path path, long firstSequence, MappedByteBuffer buffer) {
+            this.path = path;
+            this.firstSequence = firstSequence;
+            this.buffer = buffer;
+        }
+    }
+}
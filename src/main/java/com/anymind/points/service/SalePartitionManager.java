@@ -0,0 +1,154 @@
+package com.anymind.points.service;
+
+import com.anymind.points.repository.SalePartitionRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Partitions the sale table on datetime and keeps its partitions in line with time, so that the range queries only
+ * read the partitions of their range.
+ * With a SalePartitioning other than NONE, the heap table created by schema.sql is converted once, in a single
+ * transaction, into a partitioned table with one partition per period of its sales. Then every maintenance creates the
+ * partitions of the coming periods ahead of time and moves the partitions older than the retained ones to
+ * sale_archive, whose sales are still part of every sales report. Instances serialize the maintenance with an advisory
+ * lock.
+ *
+ * @author-pankaj.pande
+ */
+@Slf4j
+@Service
+public class SalePartitionManager {
+    private final SalePartitionRepository salePartitionRepository;
+    private final TransactionalOperator transactionalOperator;
+    private final SalePartitioning partitioning;
+    private final int premadePartitions;
+    private final int retainedPartitions;
+    private final AtomicInteger partitions = new AtomicInteger();
+
+    /**
+     * Constructor for SalePartitionManager class.
+     *
+     * @param salePartitionRepository - SalePartitionRepository object running the DDL
+     * @param transactionalOperator   - TransactionalOperator object used to run every maintenance in its own transaction
+     * @param meterRegistry           - MeterRegistry object to publish the number of partitions of the sale table
+     * @param partitioning            - how the sale table is partitioned, NONE keeps the heap table
+     * @param premadePartitions       - number of partitions created ahead of the current one
+     * @param retainedPartitions      - number of partitions kept before the current one, the older ones are archived,
+     *                                0 keeps them all
+     */
+    @Autowired
+    public SalePartitionManager(SalePartitionRepository salePartitionRepository, TransactionalOperator transactionalOperator,
+                                MeterRegistry meterRegistry,
+                                @Value("${points.sale-partitioning.granularity:NONE}") SalePartitioning partitioning,
+                                @Value("${points.sale-partitioning.premade-partitions:3}") int premadePartitions,
+                                @Value("${points.sale-partitioning.retained-partitions:0}") int retainedPartitions) {
+        this.salePartitionRepository = salePartitionRepository;
+        this.transactionalOperator = transactionalOperator;
+        this.partitioning = partitioning;
+        this.premadePartitions = premadePartitions;
+        this.retainedPartitions = retainedPartitions;
+        meterRegistry.gauge("points.sale-partitioning.partitions", partitions);
+    }
+
+    /**
+     * Converts the sale table if it isn't partitioned yet, creates the missing partitions up to the premade ones and
+     * archives the partitions which aren't retained anymore.
+     *
+     * @return a Mono of the number of partitions of the sale table, empty with the NONE partitioning
+     */
+    public Mono<Integer> maintain() {
+        if (partitioning == SalePartitioning.NONE)
+            return Mono.empty();
+        ZonedDateTime current = partitioning.start(ZonedDateTime.now(ZoneOffset.UTC));
+        return salePartitionRepository.lock()
+                .then(salePartitionRepository.isPartitioned())
+                .flatMap(partitioned -> partitioned ? Mono.<Void>empty() : convert(current))
+                .then(Mono.defer(() -> salePartitionRepository.findPartitions("sale").collectList()))
+                .flatMap(names -> createMissing(names, current, partitioning.plus(current, premadePartitions))
+                        .then(archiveOld(current)))
+                .as(transactionalOperator::transactional)
+                .doOnNext(count -> {
+                    partitions.set(count);
+                    log.info("sale table has " + count + " " + partitioning + " partitions");
+                });
+    }
+
+    /**
+     * Replaces the heap table with a partitioned one holding the same sales, partitioned from the first period of its
+     * sales to the current one.
+     */
+    private Mono<Void> convert(ZonedDateTime current) {
+        return salePartitionRepository.findHeapRange()
+                .map(range -> List.of(partitioning.start(range[0]), partitioning.start(range[1])))
+                .defaultIfEmpty(List.of(current, current))
+                .flatMap(range -> {
+                    ZonedDateTime last = range.get(1).isAfter(current) ? range.get(1) : current;
+                    log.info("Converting the sale table to " + partitioning + " partitions from " + range.get(0));
+                    return salePartitionRepository.replaceHeap()
+                            .then(createMissing(List.of(), range.get(0), last))
+                            .then(salePartitionRepository.copyHeap());
+                });
+    }
+
+    /**
+     * Creates the partitions from the one starting at first to the one starting at last, both included, which aren't
+     * in the given partitions.
+     */
+    private Mono<Void> createMissing(List<String> existing, ZonedDateTime first, ZonedDateTime last) {
+        Set<String> names = new HashSet<>(existing);
+        return Flux.<ZonedDateTime, ZonedDateTime>generate(() -> first, (start, sink) -> {
+                    if (start.isAfter(last))
+                        sink.complete();
+                    else
+                        sink.next(start);
+                    return partitioning.plus(start, 1);
+                })
+                .filter(start -> !names.contains(partitioning.name(start)))
+                .concatMap(start -> salePartitionRepository.createPartition(partitioning.name(start), start, partitioning.plus(start, 1))
+                        .doOnSuccess(created -> log.info("Created partition " + partitioning.name(start))))
+                .then();
+    }
+
+    /**
+     * Archives the partitions ending before the retained ones and returns the number of partitions left.
+     */
+    private Mono<Integer> archiveOld(ZonedDateTime current) {
+        ZonedDateTime retainedFrom = partitioning.plus(current, -retainedPartitions);
+        return salePartitionRepository.findPartitions("sale")
+                .concatMap(name -> {
+                    Optional<ZonedDateTime> start = partitioning.parse(name);
+                    if (retainedPartitions <= 0 || start.isEmpty() || !start.get().isBefore(retainedFrom))
+                        return Mono.just(1);
+                    return salePartitionRepository.archivePartition(name, start.get(), partitioning.plus(start.get(), 1))
+                            .doOnSuccess(archived -> log.info("Archived partition " + name))
+                            .thenReturn(0);
+                })
+                .reduce(0, Integer::sum);
+    }
+
+    /**
+     * Periodically maintains the partitions, starting right after startup so that the table is converted before it
+     * grows any further.
+     */
+    @Scheduled(initialDelayString = "${points.sale-partitioning.initial-delay:PT0S}",
+            fixedDelayString = "${points.sale-partitioning.maintenance-interval:PT6H}")
+    void scheduledMaintenance() {
+        maintain().subscribe(count -> {
+        }, error -> log.error("Unable to maintain the partitions of the sale table", error));
+    }
+}
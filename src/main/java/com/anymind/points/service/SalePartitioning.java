@@ -0,0 +1,79 @@
+package com.anymind.points.service;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
+/**
+ * How the sale table is partitioned on datetime. Partitions cover whole UTC periods and are named after their first
+ * day, sale_p2022_09 for a month, sale_p2022_09_01 for a day.
+ */
+public enum SalePartitioning {
+    /**
+     * A single heap table, as created by schema.sql.
+     */
+    NONE(null, null),
+    /**
+     * One partition per month.
+     */
+    MONTHLY(ChronoUnit.MONTHS, DateTimeFormatter.ofPattern("yyyy_MM")),
+    /**
+     * One partition per day, for high volumes.
+     */
+    DAILY(ChronoUnit.DAYS, DateTimeFormatter.ofPattern("yyyy_MM_dd"));
+
+    private static final String PREFIX = "sale_p";
+
+    private final ChronoUnit unit;
+    private final DateTimeFormatter suffix;
+
+    SalePartitioning(ChronoUnit unit, DateTimeFormatter suffix) {
+        this.unit = unit;
+        this.suffix = suffix;
+    }
+
+    /**
+     * Returns the start of the partition holding the given datetime.
+     */
+    public ZonedDateTime start(ZonedDateTime datetime) {
+        ZonedDateTime day = datetime.withZoneSameInstant(ZoneOffset.UTC).truncatedTo(ChronoUnit.DAYS);
+        return unit == ChronoUnit.MONTHS ? day.withDayOfMonth(1) : day;
+    }
+
+    /**
+     * Returns the start of the partition the given number of partitions after the one starting at the given datetime,
+     * before it if negative.
+     */
+    public ZonedDateTime plus(ZonedDateTime start, long partitions) {
+        return start.plus(partitions, unit);
+    }
+
+    /**
+     * Returns the name of the partition starting at the given datetime.
+     */
+    public String name(ZonedDateTime start) {
+        return PREFIX + suffix.format(start);
+    }
+
+    /**
+     * Returns the start of the partition of the given name, empty if it isn't named after a partition of this kind.
+     */
+    public Optional<ZonedDateTime> parse(String name) {
+        if (unit == null || !name.startsWith(PREFIX))
+            return Optional.empty();
+        String date = name.substring(PREFIX.length());
+        try {
+            LocalDate day = unit == ChronoUnit.MONTHS
+                    ? LocalDate.parse(date + "_01", DAILY.suffix)
+                    : LocalDate.parse(date, suffix);
+            ZonedDateTime start = day.atStartOfDay(ZoneOffset.UTC);
+            return name.equals(name(start)) ? Optional.of(start) : Optional.empty();
+        } catch (DateTimeParseException ex) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Money;
+import com.anymind.points.model.Sale;
+import com.anymind.points.model.SaleHourly;
+import com.anymind.points.repository.SaleHourlyRepository;
+import com.anymind.points.repository.SalesRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maintains the sale_hourly rollup table and answers hourly reports from it.
+ * Every write to the sale table is applied incrementally to the rollup row of its hour, so a report over a range only
+ * reads one row per hour. Hours are truncated in UTC, on both sides, whatever the time zone of the database session.
+ *
+ * @author-pankaj.pande
+ */
+@Slf4j
+@Service
+public class SaleRollupService {
+    private final SaleHourlyRepository saleHourlyRepository;
+    private final SalesRepository salesRepository;
+    private final AtomicInteger inconsistentHours = new AtomicInteger();
+
+    /**
+     * Constructor for SaleRollupService class.
+     *
+     * @param saleHourlyRepository - SaleHourlyRepository object
+     * @param salesRepository      - SalesRepository object, used for the partial hours at the edges of a range
+     * @param meterRegistry        - MeterRegistry object to publish the result of the consistency check
+     */
+    @Autowired
+    public SaleRollupService(SaleHourlyRepository saleHourlyRepository, SalesRepository salesRepository, MeterRegistry meterRegistry) {
+        this.saleHourlyRepository = saleHourlyRepository;
+        this.salesRepository = salesRepository;
+        meterRegistry.gauge("points.sale-hourly.inconsistent-hours", inconsistentHours);
+    }
+
+    /**
+     * Adds a newly saved sale to the rollup.
+     *
+     * @param sale the Sale object which has been saved
+     * @return a Mono which completes once the rollup has been updated
+     */
+    public Mono<Void> add(Sale sale) {
+        return saleHourlyRepository.increment(sale.getDateTime(), sale.getFinalPrice().toBigDecimal(), sale.getPoints().toBigDecimal(), 1)
+                .then();
+    }
+
+    /**
+     * Adds a batch of newly saved sales to the rollup with one update per hour of the batch.
+     *
+     * @param sales the Sale objects which have been saved
+     * @return a Mono which completes once the rollup has been updated
+     */
+    public Mono<Void> addAll(List<Sale> sales) {
+        Map<ZonedDateTime, SaleHourly> hours = new TreeMap<>();
+        for (Sale sale : sales) {
+            SaleHourly hour = hours.computeIfAbsent(sale.getDateTime().withZoneSameInstant(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS),
+                    datetime -> SaleHourly.builder().datetime(datetime).sales(Money.ZERO).points(Money.ZERO).saleCount(0L).build());
+            hour.setSales(hour.getSales().plus(sale.getFinalPrice()));
+            hour.setPoints(hour.getPoints().plus(sale.getPoints()));
+            hour.setSaleCount(hour.getSaleCount() + 1);
+        }
+        // rows are updated in hour order, so concurrent batches lock them in the same order
+        return Flux.fromIterable(hours.values())
+                .concatMap(hour -> saleHourlyRepository.increment(hour.getDatetime(), hour.getSales().toBigDecimal(),
+                        hour.getPoints().toBigDecimal(), hour.getSaleCount()))
+                .then();
+    }
+
+    /**
+     * Takes an updated or deleted sale out of the rollup.
+     *
+     * @param sale the Sale object as it was before the update or deletion
+     * @return a Mono which completes once the rollup has been updated
+     */
+    public Mono<Void> remove(Sale sale) {
+        return saleHourlyRepository.increment(sale.getDateTime(), sale.getFinalPrice().negate().toBigDecimal(),
+                        sale.getPoints().negate().toBigDecimal(), -1)
+                .then(saleHourlyRepository.deleteEmptyHour(sale.getDateTime()))
+                .then();
+    }
+
+    /**
+     * Takes the totals of whole hours out of the rollup, for sales which left the sale table without being deleted.
+     *
+     * @param hours the totals to take out, in hour order
+     * @return a Mono which completes once the rollup has been updated
+     */
+    public Mono<Void> removeAll(List<SaleHourly> hours) {
+        return Flux.fromIterable(hours)
+                .concatMap(hour -> saleHourlyRepository.increment(hour.getDatetime(), hour.getSales().negate().toBigDecimal(),
+                                hour.getPoints().negate().toBigDecimal(), -hour.getSaleCount())
+                        .then(saleHourlyRepository.deleteEmptyHour(hour.getDatetime())))
+                .then();
+    }
+
+    /**
+     * Returns the sales of the given range per hour.
+     * The whole hours of the range are read from the rollup, the partial hours at its edges from the sale table.
+     *
+     * @param from start of the range, inclusive
+     * @param to   end of the range, inclusive
+     * @return a Flux of SalesListDto objects ordered by hour
+     */
+    public Flux<SalesListDto> sumByHourBetween(ZonedDateTime from, ZonedDateTime to) {
+        ZonedDateTime firstHour = from.withZoneSameInstant(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS);
+        if (firstHour.isBefore(from))
+            firstHour = firstHour.plusHours(1);
+        // the range includes its end, so the last whole hour is the one ending right after it
+        ZonedDateTime endOfLastHour = to.plus(1, ChronoUnit.MICROS).withZoneSameInstant(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS);
+
+        if (!firstHour.isBefore(endOfLastHour))
+            return salesRepository.sumByHourBetween(from, to);
+
+        Flux<SalesListDto> head = firstHour.isAfter(from)
+                ? salesRepository.sumByHourBetween(from, firstHour.minus(1, ChronoUnit.MICROS))
+                : Flux.empty();
+        Flux<SalesListDto> tail = endOfLastHour.isAfter(to)
+                ? Flux.empty()
+                : salesRepository.sumByHourBetween(endOfLastHour, to);
+        return Flux.concat(head,
+                saleHourlyRepository.findHoursBetween(firstHour, endOfLastHour.minus(1, ChronoUnit.MICROS)),
+                tail);
+    }
+
+    /**
+     * Recomputes the whole rollup from the sale table. Writes to the sale table wait until the rebuild is committed.
+     *
+     * @return a Mono of the number of hours in the rebuilt rollup
+     */
+    @Transactional
+    public Mono<Integer> rebuild() {
+        return saleHourlyRepository.lockSales()
+                .then(saleHourlyRepository.deleteAll())
+                .then(saleHourlyRepository.backfill())
+                .doOnNext(hours -> log.info("Rebuilt sale_hourly rollup with " + hours + " hours"));
+    }
+
+    /**
+     * Returns every hour where the rollup differs from the raw sales, with the values computed from the raw sales.
+     *
+     * @return a Flux of SaleHourly objects
+     */
+    public Flux<SaleHourly> findInconsistentHours() {
+        return saleHourlyRepository.findInconsistentHours();
+    }
+
+    /**
+     * Periodically compares the rollup with the raw sales and publishes the number of hours which differ.
+     */
+    @Scheduled(cron = "${points.sale-hourly.consistency-check-cron:0 30 3 * * *}")
+    void checkConsistency() {
+        findInconsistentHours()
+                .doOnNext(hour -> log.warn("sale_hourly is inconsistent with the sale table for hour " + hour))
+                .count()
+                .subscribe(count -> inconsistentHours.set(count.intValue()),
+                        error -> log.error("Unable to check the consistency of the sale_hourly rollup", error));
+    }
+}
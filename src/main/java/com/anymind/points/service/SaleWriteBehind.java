@@ -0,0 +1,361 @@
+package com.anymind.points.service;
+
+import com.anymind.points.exception.CustomException;
+import com.anymind.points.model.Sale;
+import com.anymind.points.repository.SaleJournalCheckpointRepository;
+import com.anymind.points.repository.SalesRepository;
+import graphql.ErrorType;
+import io.r2dbc.spi.R2dbcNonTransientException;
+import io.r2dbc.spi.R2dbcNonTransientResourceException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.MessageSource;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind ingestion of verified sales, used by addSale in the WRITE_BEHIND IngestionMode.
+ * Sales are put in a bounded in-memory queue which is flushed in micro-batches, when a batch is full or when the flush
+ * interval has elapsed, with one multi-row insert and one transaction per batch. A batch which fails is retried a few
+ * times before its sales are given up. The queue is flushed on shutdown.
+ * With the JOURNALED durability every sale is first appended to the local SaleJournal, in the order of the queue, and
+ * every batch advances the checkpoint of the journal in its transaction. Such a batch is retried until it commits, so
+ * the saved sales are always the journaled ones up to the checkpoint, and the sales after the checkpoint are replayed on
+ * startup. Only a failure which can't go away, e.g. a constraint violation, gives it up: its sales are written to the
+ * dead-letter log and the checkpoint is moved past them, so that they don't block the batches after them. A sale whose journal fsync fails is withdrawn from the queue before its client is told it failed, unless its
+ * batch is already being flushed: it is then saved, and its client is told it was accepted.
+ *
+ * @author-pankaj.pande
+ */
+@Slf4j
+@Service
+public class SaleWriteBehind {
+    private static final Duration EMIT_TIMEOUT = Duration.ofMillis(100);
+    private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration MAX_RETRY_BACKOFF = Duration.ofSeconds(10);
+    // one line per journaled sale given up, to be saved again by hand once the cause is fixed
+    private static final Logger DEAD_LETTERS = LoggerFactory.getLogger("points.ingestion.dead-letter");
+
+    private final SalesRepository salesRepository;
+    private final SaleRollupService saleRollupService;
+    private final SalesReportCache salesReportCache;
+    private final HourlySalesFeed hourlySalesFeed;
+    private final TransactionalOperator transactionalOperator;
+    private final SaleJournal saleJournal;
+    private final SaleJournalCheckpointRepository checkpointRepository;
+    private final MessageSource messageSource;
+    private final Locale locale = LocaleContextHolder.getLocale();
+    private final MeterRegistry meterRegistry;
+    private final Sinks.Many<Pending> queue = Sinks.many().unicast().onBackpressureBuffer();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final CountDownLatch drained = new CountDownLatch(1);
+    private final DistributionSummary batchSize;
+    private final Counter dropped;
+    private final Counter deadLettered;
+    @Value("${points.ingestion.durability:COMMITTED}")
+    private IngestionDurability durability = IngestionDurability.COMMITTED;
+    @Value("${points.ingestion.queue-capacity:10000}")
+    private int queueCapacity = 10000;
+    @Value("${points.ingestion.max-batch-size:500}")
+    private int maxBatchSize = 500;
+    @Value("${points.ingestion.flush-interval:PT0.05S}")
+    private Duration flushInterval = Duration.ofMillis(50);
+    @Value("${points.ingestion.flush-retries:3}")
+    private int flushRetries = 3;
+    // false during a command line import, the journal belongs to the instance serving the sales
+    @Value("${points.ingestion.replay:true}")
+    private boolean replay = true;
+
+    /**
+     * Constructor for SaleWriteBehind class.
+     *
+     * @param salesRepository       - SalesRepository object used to insert the batches
+     * @param saleRollupService     - SaleRollupService object maintaining the hourly rollup of the sales
+     * @param salesReportCache      - SalesReportCache object whose hours are evicted by the flushed sales
+     * @param hourlySalesFeed       - HourlySalesFeed object to which the hours of the flushed sales are published
+     * @param transactionalOperator - TransactionalOperator object used to flush every batch in its own transaction
+     * @param saleJournal           - SaleJournal object in which the sales are journaled with the JOURNALED durability
+     * @param checkpointRepository  - SaleJournalCheckpointRepository object storing the checkpoint of the journal
+     * @param messageSource         - MessageSource Object to return the message string in a given language.
+     * @param meterRegistry         - MeterRegistry object to publish the queue depth and the flush latency
+     */
+    @Autowired
+    public SaleWriteBehind(SalesRepository salesRepository, SaleRollupService saleRollupService, SalesReportCache salesReportCache,
+                           HourlySalesFeed hourlySalesFeed, TransactionalOperator transactionalOperator, SaleJournal saleJournal,
+                           SaleJournalCheckpointRepository checkpointRepository, MessageSource messageSource, MeterRegistry meterRegistry) {
+        this.salesRepository = salesRepository;
+        this.saleRollupService = saleRollupService;
+        this.salesReportCache = salesReportCache;
+        this.hourlySalesFeed = hourlySalesFeed;
+        this.transactionalOperator = transactionalOperator;
+        this.saleJournal = saleJournal;
+        this.checkpointRepository = checkpointRepository;
+        this.messageSource = messageSource;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("points.ingestion.queue.depth", depth, AtomicInteger::get)
+                .description("Sales queued and not flushed yet")
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("points.ingestion.flush.size")
+                .description("Sales per flushed batch")
+                .register(meterRegistry);
+        this.dropped = Counter.builder("points.ingestion.dropped")
+                .description("Queued sales given up after their batch failed to be flushed")
+                .register(meterRegistry);
+        this.deadLettered = Counter.builder("points.ingestion.dead-lettered")
+                .description("Journaled sales given up after their batch failed permanently, written to the dead-letter log")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        queue.asFlux()
+                .bufferTimeout(maxBatchSize, flushInterval)
+                // the queue depth is bounded by submit, batches only wait here while a flush is running
+                .onBackpressureBuffer()
+                .concatMap(this::flush)
+                .doFinally(signal -> drained.countDown())
+                .subscribe();
+        if (!replay)
+            log.info("The sale journal is left to the instance serving the sales");
+        else if (durability == IngestionDurability.JOURNALED)
+            replay();
+        else if (saleJournal.hasSegments())
+            log.warn("The sale journal holds sales which are only replayed with the JOURNALED durability");
+    }
+
+    /**
+     * Opens the journal and queues the journaled sales which are not saved yet, before any new sale.
+     */
+    private void replay() {
+        long checkpoint = checkpointRepository.findSequence(saleJournal.getName()).defaultIfEmpty(0L).block();
+        List<SaleJournal.Entry> unsaved = saleJournal.open(checkpoint);
+        if (!unsaved.isEmpty())
+            log.info("Replaying " + unsaved.size() + " journaled sales");
+        for (SaleJournal.Entry entry : unsaved) {
+            depth.incrementAndGet();
+            queue.emitNext(new Pending(entry.sale(), entry.sequence(), null), Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT));
+        }
+    }
+
+    /**
+     * Stops accepting sales and waits until the queued ones are flushed.
+     */
+    @PreDestroy
+    void stop() throws InterruptedException {
+        queue.emitComplete(Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT));
+        if (!drained.await(SHUTDOWN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS))
+            log.error(depth.get() + " queued sales have not been flushed before shutdown");
+    }
+
+    /**
+     * Queues a verified sale.
+     *
+     * @param sale the Sale object to be saved, with its price and points computed
+     * @return a Mono which completes when the sale is queued, when it is journaled or when its batch has been committed,
+     * depending on the durability. It fails if the queue is full or if the sale couldn't be journaled or saved.
+     */
+    public Mono<Void> submit(Sale sale) {
+        return Mono.defer(() -> {
+            if (depth.incrementAndGet() > queueCapacity) {
+                depth.decrementAndGet();
+                final String errorMessage = messageSource.getMessage("errormessage.ingestion-queue-full", new String[]{String.valueOf(queueCapacity)}, locale);
+                log.error(errorMessage);
+                return Mono.error(new CustomException(ErrorType.ExecutionAborted, errorMessage));
+            }
+            if (durability == IngestionDurability.JOURNALED)
+                return journal(sale);
+            Sinks.One<Void> committed = durability == IngestionDurability.COMMITTED ? Sinks.one() : null;
+            queue.emitNext(new Pending(sale, 0, committed), Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT));
+            return committed != null ? committed.asMono() : Mono.empty();
+        });
+    }
+
+    /**
+     * Appends the sale to the journal and queues it in the same order, then waits until the journal is on disk.
+     */
+    private Mono<Void> journal(Sale sale) {
+        final String errorMessage = messageSource.getMessage("errormessage.journal-sale", null, locale);
+        AtomicReference<Pending> queued = new AtomicReference<>();
+        long sequence;
+        try {
+            sequence = saleJournal.append(sale, appended -> {
+                Pending pending = new Pending(sale, appended, null);
+                queued.set(pending);
+                queue.emitNext(pending, Sinks.EmitFailureHandler.busyLooping(EMIT_TIMEOUT));
+            });
+        } catch (UncheckedIOException ex) {
+            depth.decrementAndGet();
+            log.error(errorMessage, ex);
+            return Mono.error(new CustomException(ErrorType.ExecutionAborted, errorMessage));
+        }
+        return saleJournal.awaitDurable(sequence)
+                .onErrorResume(UncheckedIOException.class, ex -> {
+                    if (!queued.get().claim()) {
+                        // its batch is being flushed, failing it would make the client save it twice
+                        log.warn("Journaled sale " + sequence + " is not durable but is already being saved", ex);
+                        return Mono.empty();
+                    }
+                    depth.decrementAndGet();
+                    log.error(errorMessage, ex);
+                    return Mono.error(new CustomException(ErrorType.ExecutionAborted, errorMessage));
+                });
+    }
+
+    /**
+     * Inserts a batch of queued sales and adds them to the hourly rollup in one transaction, then notifies the waiting
+     * clients. Never fails, so that a failed batch doesn't stop the pipeline.
+     */
+    Mono<Void> flush(List<Pending> queued) {
+        // the sales withdrawn by their client after a failed journal fsync are left out
+        List<Pending> batch = queued.stream().filter(Pending::claim).toList();
+        long lastSequence = queued.get(queued.size() - 1).sequence();
+        boolean journaled = lastSequence > 0;
+        if (batch.isEmpty())
+            // moves the checkpoint past the withdrawn sales so that they aren't replayed, a later batch does it otherwise
+            return journaled
+                    ? checkpointRepository.advance(saleJournal.getName(), lastSequence).then().onErrorResume(ex -> Mono.empty())
+                    : Mono.empty();
+        List<Sale> sales = batch.stream().map(Pending::sale).toList();
+        List<ZonedDateTime> datetimes = sales.stream().map(Sale::getDateTime).toList();
+        Timer.Sample sample = Timer.start(meterRegistry);
+        return withoutUsedKeys(sales)
+                .flatMap(unsaved -> salesRepository.insertAll(unsaved).collectList())
+                .flatMap(saved -> saleRollupService.addAll(saved)
+                        .then(journaled ? checkpointRepository.advance(saleJournal.getName(), lastSequence).then() : Mono.<Void>empty())
+                        .then(salesReportCache.evict(datetimes))
+                        .then(hourlySalesFeed.publish(datetimes)))
+                .as(transactionalOperator::transactional)
+                // journaled sales are acknowledged already, they are only given up when retrying can't help
+                .retryWhen(journaled
+                        ? Retry.backoff(Long.MAX_VALUE, Duration.ofMillis(100)).maxBackoff(MAX_RETRY_BACKOFF)
+                        .filter(ex -> !isPermanent(ex))
+                        : Retry.backoff(flushRetries, Duration.ofMillis(100)))
+                .doOnSuccess(done -> {
+                    flushed(batch, sample, "success");
+                    if (journaled)
+                        saleJournal.truncate(lastSequence);
+                    batch.forEach(pending -> pending.complete(null));
+                })
+                .onErrorResume(ex -> {
+                    flushed(batch, sample, "error");
+                    final String errorMessage = messageSource.getMessage("errormessage.flush-sales", new String[]{String.valueOf(batch.size())}, locale);
+                    log.error(errorMessage, ex);
+                    if (journaled)
+                        return deadLetter(batch, lastSequence);
+                    if (durability == IngestionDurability.QUEUED)
+                        dropped.increment(batch.size());
+                    batch.forEach(pending -> pending.complete(new CustomException(ErrorType.ExecutionAborted, errorMessage)));
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Gives up a journaled batch which can never be saved: its sales are written to the dead-letter log and the
+     * checkpoint is moved past them, so that they are neither retried nor replayed.
+     */
+    private Mono<Void> deadLetter(List<Pending> batch, long lastSequence) {
+        for (Pending pending : batch)
+            DEAD_LETTERS.error("journal=" + saleJournal.getName() + " sequence=" + pending.sequence() + " sale=" + pending.sale());
+        deadLettered.increment(batch.size());
+        return checkpointRepository.advance(saleJournal.getName(), lastSequence)
+                .doOnSuccess(advanced -> saleJournal.truncate(lastSequence))
+                .then()
+                .onErrorResume(ex -> {
+                    // the next batch moves it past them, or they are replayed and given up again after a restart
+                    log.error("Unable to move the journal checkpoint past the dead-lettered sales", ex);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * Tells whether a failed flush would fail again whatever the number of retries: a constraint violation, a value out
+     * of the range of its column or an invalid statement, unlike a lost connection or a timeout.
+     */
+    static boolean isPermanent(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DataAccessResourceFailureException || cause instanceof R2dbcNonTransientResourceException)
+                return false;
+            if (cause instanceof NonTransientDataAccessException || cause instanceof R2dbcNonTransientException)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drops the sales whose idempotency key is already saved, or used by an earlier sale of the batch: a retry queued
+     * after a restart, or the replay of a journaled sale which has been sent again.
+     */
+    private Mono<List<Sale>> withoutUsedKeys(List<Sale> sales) {
+        List<String> keys = sales.stream().map(Sale::getIdempotencyKey).filter(Objects::nonNull).toList();
+        if (keys.isEmpty())
+            return Mono.just(sales);
+        return salesRepository.findUsedIdempotencyKeys(keys)
+                .collect(Collectors.toCollection(HashSet::new))
+                .map(used -> sales.stream()
+                        .filter(sale -> sale.getIdempotencyKey() == null || used.add(sale.getIdempotencyKey()))
+                        .toList());
+    }
+
+    private void flushed(List<Pending> batch, Timer.Sample sample, String outcome) {
+        depth.addAndGet(-batch.size());
+        batchSize.record(batch.size());
+        sample.stop(Timer.builder("points.ingestion.flush")
+                .description("Latency of the flush of a batch of queued sales, retries included")
+                .tag("outcome", outcome)
+                .register(meterRegistry));
+    }
+
+    /**
+     * A queued sale, its journal sequence with the JOURNALED durability, 0 otherwise, and, with the COMMITTED
+     * durability, the sink notifying the client waiting for it. A sale is claimed once, either by the flush of its batch
+     * or by its client withdrawing it.
+     */
+    record Pending(Sale sale, long sequence, Sinks.One<Void> committed, AtomicBoolean claimed) {
+        Pending(Sale sale, long sequence, Sinks.One<Void> committed) {
+            this(sale, sequence, committed, new AtomicBoolean());
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        void complete(Throwable error) {
+            if (committed == null)
+                return;
+            if (error == null)
+                committed.tryEmitEmpty();
+            else
+                committed.tryEmitError(error);
+        }
+    }
+}
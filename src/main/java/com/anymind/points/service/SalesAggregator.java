@@ -0,0 +1,37 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Sale;
+import reactor.core.publisher.Flux;
+
+/**
+ * Streaming aggregation of sales into time buckets.
+ * The sales have to arrive ordered by datetime: a bucket is emitted as soon as the first sale of the next bucket is
+ * read, so only one running accumulator is kept in memory whatever the size of the range.
+ */
+final class SalesAggregator {
+
+    private SalesAggregator() {
+    }
+
+    /**
+     * Sums the sales and points of an ordered Flux of sales per UTC hour.
+     *
+     * @param sales a Flux of Sale objects ordered by datetime
+     * @return a Flux of SalesListDto objects, one per hour which has at least one sale
+     */
+    static Flux<SalesListDto> hourly(Flux<Sale> sales) {
+        return bucketed(sales, TimeBuckets.HOURLY);
+    }
+
+    /**
+     * Sums the sales and points of an ordered Flux of sales per bucket.
+     *
+     * @param sales   a Flux of Sale objects ordered by datetime
+     * @param buckets the TimeBuckets of the report
+     * @return a Flux of SalesListDto objects, one per bucket which has at least one sale
+     */
+    static Flux<SalesListDto> bucketed(Flux<Sale> sales, TimeBuckets buckets) {
+        return buckets.sum(sales, Sale::getDateTime, sale -> sale.getFinalPrice().cents(), sale -> sale.getPoints().cents());
+    }
+}
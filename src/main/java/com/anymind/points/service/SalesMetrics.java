@@ -0,0 +1,120 @@
+package com.anymind.points.service;
+
+import com.anymind.points.exception.CustomException;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Timers of the GraphQL resolvers, of the stages of the sales service and of the repository calls.
+ * A Mono or Flux is timed from its subscription to its termination and every timer is tagged with the outcome:
+ * success, rejected (a CustomException, i.e. invalid input), error or cancelled. The number of items of a timed Flux
+ * is recorded in a distribution summary named after the timer with an .items suffix, instead of logging every item.
+ *
+ * @author-pankaj.pande
+ */
+@Service
+public class SalesMetrics {
+    public static final String RESOLVER = "points.graphql.resolver";
+    public static final String STAGE = "points.sales.stage";
+    public static final String REPOSITORY = "points.repository";
+
+    static final String NONE = "none";
+    private static final String UNKNOWN = "unknown";
+
+    private final MeterRegistry meterRegistry;
+    private final PaymentMethodCatalog paymentMethodCatalog;
+
+    /**
+     * Constructor for SalesMetrics class.
+     *
+     * @param meterRegistry        - MeterRegistry object where the timers are registered
+     * @param paymentMethodCatalog - PaymentMethodCatalog object used to keep the payment method tag bounded
+     */
+    @Autowired
+    public SalesMetrics(MeterRegistry meterRegistry, PaymentMethodCatalog paymentMethodCatalog) {
+        this.meterRegistry = meterRegistry;
+        this.paymentMethodCatalog = paymentMethodCatalog;
+    }
+
+    /**
+     * Times a GraphQL query or mutation.
+     *
+     * @param operation     the name of the query or mutation
+     * @param paymentMethod the payment method of the input, null if the operation has none
+     */
+    public <T> Mono<T> timeResolver(String operation, String paymentMethod, Mono<T> mono) {
+        return time(RESOLVER, Tags.of(Tag.of("operation", operation), paymentMethodTag(paymentMethod)), mono);
+    }
+
+    public <T> Flux<T> timeResolver(String operation, String paymentMethod, Flux<T> flux) {
+        return time(RESOLVER, Tags.of(Tag.of("operation", operation), paymentMethodTag(paymentMethod)), flux);
+    }
+
+    /**
+     * Times a stage of the sales service: verify, save, group or aggregate.
+     *
+     * @param stage         the name of the stage
+     * @param paymentMethod the payment method of the sale, null if the stage isn't about a single sale
+     */
+    public <T> Mono<T> timeStage(String stage, String paymentMethod, Mono<T> mono) {
+        return time(STAGE, Tags.of(Tag.of("stage", stage), paymentMethodTag(paymentMethod)), mono);
+    }
+
+    public <T> Flux<T> timeStage(String stage, String paymentMethod, Flux<T> flux) {
+        return time(STAGE, Tags.of(Tag.of("stage", stage), paymentMethodTag(paymentMethod)), flux);
+    }
+
+    public <T> Mono<T> time(String name, Tags tags, Mono<T> mono) {
+        return Mono.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return mono.doOnSuccess(value -> stop(sample, name, tags, "success"))
+                    .doOnError(error -> stop(sample, name, tags, outcome(error)))
+                    .doOnCancel(() -> stop(sample, name, tags, "cancelled"));
+        });
+    }
+
+    public <T> Flux<T> time(String name, Tags tags, Flux<T> flux) {
+        return Flux.defer(() -> {
+            Timer.Sample sample = Timer.start(meterRegistry);
+            long[] items = new long[1];
+            return flux.doOnNext(item -> items[0]++)
+                    .doOnComplete(() -> {
+                        stop(sample, name, tags, "success");
+                        DistributionSummary.builder(name + ".items")
+                                .tags(tags)
+                                .register(meterRegistry)
+                                .record(items[0]);
+                    })
+                    .doOnError(error -> stop(sample, name, tags, outcome(error)))
+                    .doOnCancel(() -> stop(sample, name, tags, "cancelled"));
+        });
+    }
+
+    /**
+     * Returns the payment method tag of the given input. Names which aren't in the catalog are tagged as unknown, so a
+     * client sending arbitrary names can't create an unbounded number of timers.
+     */
+    Tag paymentMethodTag(String paymentMethod) {
+        if (paymentMethod == null)
+            return Tag.of("payment.method", NONE);
+        return Tag.of("payment.method", paymentMethodCatalog.isKnown(paymentMethod) ? paymentMethod : UNKNOWN);
+    }
+
+    private void stop(Timer.Sample sample, String name, Tags tags, String outcome) {
+        sample.stop(Timer.builder(name)
+                .tags(tags)
+                .tag("outcome", outcome)
+                .register(meterRegistry));
+    }
+
+    private static String outcome(Throwable error) {
+        return error instanceof CustomException ? "rejected" : "error";
+    }
+}
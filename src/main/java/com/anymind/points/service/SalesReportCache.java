@@ -0,0 +1,226 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SalesListDto;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * Cache of the hourly sales report, one bucket per closed UTC hour.
+ * A range is answered by stitching the cached hours with the hours which have to be computed: the partial hours at the
+ * edges of the range, the hours which are still open and the closed hours missing from the cache, which are computed
+ * with one query per run of consecutive missing hours and then cached. Hours without sales are cached too.
+ * Writes evict the hours they touch, right away and once more after their transaction completes, so a report read
+ * while the transaction was running can't leave a stale bucket behind. With read replicas they are evicted a third time
+ * once the replicas had time to replay the write, so a report read from a lagging replica can't either.
+ *
+ * @author-pankaj.pande
+ */
+@Slf4j
+@Service
+public class SalesReportCache {
+    private final boolean enabled;
+    private final Cache<Instant, Optional<SalesListDto>> buckets;
+    // incremented on every eviction, tells a report which hours were written while it was computing its missing hours
+    private final AtomicLong evictions = new AtomicLong();
+    // the last eviction of every evicted hour, forgotten once no report which started before it is still computing
+    private final Map<Instant, Long> evictedHours = new ConcurrentHashMap<>();
+    private final AtomicInteger computing = new AtomicInteger();
+    private volatile long lastInvalidateAll;
+    private final Duration lateEviction;
+
+    /**
+     * Constructor for SalesReportCache class.
+     *
+     * @param meterRegistry    - MeterRegistry object to publish the hit, miss and eviction counts and the hit ratio
+     * @param enabled          - whether reports are cached at all
+     * @param maximumSize      - maximum number of cached hours
+     * @param expireAfterWrite - time after which a cached hour is computed again, bounds the staleness caused by
+     *                         writes which don't go through this instance
+     * @param lateEviction     - delay of the last eviction after the transaction of a write, the staleness tolerated
+     *                         from the read replicas, 0 without replicas
+     */
+    @Autowired
+    public SalesReportCache(MeterRegistry meterRegistry,
+                            @Value("${points.sales-report.cache.enabled:true}") boolean enabled,
+                            @Value("${points.sales-report.cache.maximum-size:100000}") long maximumSize,
+                            @Value("${points.sales-report.cache.expire-after-write:PT1H}") Duration expireAfterWrite,
+                            @Value("${points.sales-report.cache.late-eviction:PT0S}") Duration lateEviction) {
+        this.enabled = enabled;
+        this.lateEviction = lateEviction;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, buckets, "sales-report");
+        Gauge.builder("points.sales-report.cache.hit-ratio", buckets, cache -> cache.stats().hitRate())
+                .description("Ratio of the closed hours of the reports served from the cache")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the sales of the given range per hour, computing only the hours which aren't cached.
+     *
+     * @param from      start of the range, inclusive
+     * @param to        end of the range, inclusive
+     * @param aggregate computes the report of a sub-range, both ends inclusive
+     * @return a Flux of SalesListDto objects ordered by hour
+     */
+    public Flux<SalesListDto> sumByHourBetween(ZonedDateTime from, ZonedDateTime to,
+                                               BiFunction<ZonedDateTime, ZonedDateTime, Flux<SalesListDto>> aggregate) {
+        if (!enabled)
+            return aggregate.apply(from, to);
+
+        ZonedDateTime firstHour = from.withZoneSameInstant(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS);
+        if (firstHour.isBefore(from))
+            firstHour = firstHour.plusHours(1);
+        // the range includes its end, so the last whole hour is the one ending right after it
+        ZonedDateTime endOfLastHour = to.plus(1, ChronoUnit.MICROS).withZoneSameInstant(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS);
+        ZonedDateTime currentHour = ZonedDateTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS);
+        ZonedDateTime endOfClosedHours = endOfLastHour.isBefore(currentHour) ? endOfLastHour : currentHour;
+
+        if (!firstHour.isBefore(endOfClosedHours))
+            return aggregate.apply(from, to);
+
+        Flux<SalesListDto> head = firstHour.isAfter(from)
+                ? aggregate.apply(from, firstHour.minus(1, ChronoUnit.MICROS))
+                : Flux.empty();
+        Flux<SalesListDto> tail = endOfClosedHours.isAfter(to)
+                ? Flux.empty()
+                : aggregate.apply(endOfClosedHours, to);
+        return Flux.concat(head, closedHours(firstHour, endOfClosedHours, aggregate), tail);
+    }
+
+    /**
+     * Returns the closed hours from start, inclusive, to end, exclusive: the cached ones as they are, the missing ones
+     * computed with one aggregation per run of consecutive missing hours.
+     */
+    private Flux<SalesListDto> closedHours(ZonedDateTime start, ZonedDateTime end,
+                                           BiFunction<ZonedDateTime, ZonedDateTime, Flux<SalesListDto>> aggregate) {
+        return Flux.defer(() -> {
+            List<Flux<SalesListDto>> segments = new ArrayList<>();
+            ZonedDateTime missingFrom = null;
+            for (ZonedDateTime hour = start; hour.isBefore(end); hour = hour.plusHours(1)) {
+                Optional<SalesListDto> bucket = buckets.getIfPresent(hour.toInstant());
+                if (bucket == null) {
+                    if (missingFrom == null)
+                        missingFrom = hour;
+                    continue;
+                }
+                if (missingFrom != null) {
+                    segments.add(computeAndCache(missingFrom, hour, aggregate));
+                    missingFrom = null;
+                }
+                bucket.ifPresent(dto -> segments.add(Flux.just(dto)));
+            }
+            if (missingFrom != null)
+                segments.add(computeAndCache(missingFrom, end, aggregate));
+            return Flux.concat(segments);
+        });
+    }
+
+    private Flux<SalesListDto> computeAndCache(ZonedDateTime start, ZonedDateTime end,
+                                               BiFunction<ZonedDateTime, ZonedDateTime, Flux<SalesListDto>> aggregate) {
+        return Flux.defer(() -> {
+            computing.incrementAndGet();
+            long evictionsBefore = evictions.get();
+            return aggregate.apply(start, end.minus(1, ChronoUnit.MICROS))
+                    .collectList()
+                    .doOnNext(hours -> cache(start, end, hours, evictionsBefore))
+                    .doFinally(signal -> computed())
+                    .flatMapIterable(hours -> hours);
+        });
+    }
+
+    private void cache(ZonedDateTime start, ZonedDateTime end, List<SalesListDto> hours, long evictionsBefore) {
+        Map<Instant, Optional<SalesListDto>> computed = new HashMap<>();
+        for (ZonedDateTime hour = start; hour.isBefore(end); hour = hour.plusHours(1))
+            computed.put(hour.toInstant(), Optional.empty());
+        for (SalesListDto dto : hours)
+            computed.put(dto.getDatetime().toInstant(), Optional.of(dto));
+        buckets.putAll(computed);
+        // the hours evicted by a write while they were being computed may predate it, the other ones are kept
+        if (lastInvalidateAll > evictionsBefore) {
+            buckets.invalidateAll(computed.keySet());
+            return;
+        }
+        for (Instant hour : computed.keySet())
+            if (evictedHours.getOrDefault(hour, 0L) > evictionsBefore)
+                buckets.invalidate(hour);
+    }
+
+    /**
+     * Forgets the evictions older than every running computation. A computation starting afterwards takes its snapshot
+     * of the evictions after they were read here, so none of the forgotten ones can matter to it.
+     */
+    private void computed() {
+        long evictionsNow = evictions.get();
+        if (computing.decrementAndGet() == 0)
+            evictedHours.values().removeIf(eviction -> eviction <= evictionsNow);
+    }
+
+    /**
+     * Evicts the hours of the given datetimes, right away, once more after the current transaction completes and, with
+     * a late eviction, once again after that delay.
+     *
+     * @param datetimes the datetimes of the written sales
+     * @return a Mono which completes once the hours have been evicted or the eviction has been registered
+     */
+    public Mono<Void> evict(Collection<ZonedDateTime> datetimes) {
+        if (!enabled || datetimes.isEmpty())
+            return Mono.empty();
+        List<Instant> hours = datetimes.stream()
+                .map(datetime -> datetime.withZoneSameInstant(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS).toInstant())
+                .distinct()
+                .toList();
+        return Mono.fromRunnable(() -> evictNow(hours))
+                .then(TransactionCallbacks.afterCompletion(() -> {
+                    evictNow(hours);
+                    if (!lateEviction.isZero())
+                        Mono.delay(lateEviction).subscribe(tick -> evictNow(hours));
+                }));
+    }
+
+    private void evictNow(List<Instant> hours) {
+        long eviction = evictions.incrementAndGet();
+        // recorded before the invalidation, so a computation caching one of these hours either sees the record or has
+        // its bucket invalidated
+        for (Instant hour : hours)
+            evictedHours.merge(hour, eviction, Math::max);
+        buckets.invalidateAll(hours);
+    }
+
+    /**
+     * Evicts every cached hour.
+     */
+    public void invalidateAll() {
+        lastInvalidateAll = evictions.incrementAndGet();
+        buckets.invalidateAll();
+        log.info("Sales report cache invalidated");
+    }
+}
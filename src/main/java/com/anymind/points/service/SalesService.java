@@ -4,24 +4,41 @@
 
 package com.anymind.points.service;
 
+import com.anymind.points.dto.SaleConnectionDto;
 import com.anymind.points.dto.SaleResponseDto;
+import com.anymind.points.dto.SaleResultDto;
+import com.anymind.points.dto.SalesBreakdownDto;
 import com.anymind.points.dto.SalesListDto;
 import com.anymind.points.model.DateRangeInput;
+import com.anymind.points.model.PaymentMethod;
 import com.anymind.points.model.Sale;
 import com.anymind.points.model.SalesInput;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+import java.util.Map;
+
 public interface SalesService {
     Flux<Sale> getAllSales();
 
     Mono<Sale> getSaleById(Integer id);
 
+    Mono<SaleConnectionDto> getSalesConnection(Integer first, String after);
+
+    Flux<Sale> streamSales(Integer pageSize);
+
     Mono<SaleResponseDto> addSale(SalesInput salesInput);
 
+    Flux<SaleResultDto> addSales(List<SalesInput> salesInputs);
+
     Mono<SaleResponseDto> updateSale(Integer id, SalesInput salesInput);
 
     Flux<SalesListDto> getSaleByRange(DateRangeInput dateRangeInput);
 
+    Flux<SalesBreakdownDto> getSalesBreakdownByRange(DateRangeInput dateRangeInput);
+
     Mono<Sale> deleteSale(Integer id);
+
+    Mono<Map<Sale, PaymentMethod>> getPaymentMethods(List<Sale> sales);
 }
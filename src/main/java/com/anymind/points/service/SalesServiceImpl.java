@@ -1,32 +1,50 @@
 package com.anymind.points.service;
 
+import com.anymind.points.config.ConnectionRouting;
+import com.anymind.points.dto.PageInfoDto;
 import com.anymind.points.dto.RequestData;
+import com.anymind.points.dto.PaymentMethodSalesDto;
+import com.anymind.points.dto.SaleConnectionDto;
+import com.anymind.points.dto.SaleEdgeDto;
 import com.anymind.points.dto.SaleResponseDto;
+import com.anymind.points.dto.SaleResultDto;
+import com.anymind.points.dto.SalesBreakdownDto;
 import com.anymind.points.dto.SalesListDto;
 import com.anymind.points.exception.CustomException;
 import com.anymind.points.model.DateRangeInput;
+import com.anymind.points.model.Granularity;
+import com.anymind.points.model.Money;
 import com.anymind.points.model.PaymentMethod;
 import com.anymind.points.model.Sale;
 import com.anymind.points.model.SalesInput;
-import com.anymind.points.repository.PaymentMethodRepository;
 import com.anymind.points.repository.SalesRepository;
 import graphql.ErrorType;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.MessageSource;
 import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.math.BigDecimal;
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
-import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * @author-pankaj.pande
@@ -34,23 +52,65 @@ import java.util.stream.Collectors;
 @Slf4j
 @Service
 public class SalesServiceImpl implements SalesService {
+    private static final Comparator<Sale> SALES_BY_DATETIME = Comparator.comparing(sale -> sale.getDateTime().toInstant());
+    private static final Comparator<PaymentMethodSalesDto> ROWS_BY_DATETIME = Comparator.comparing(row -> row.getDatetime().toInstant());
+    // the largest final price and points of the DECIMAL(10,2) columns of the sale table
+    private static final Money MAX_AMOUNT = Money.ofCents(9_999_999_999L);
+
     private final SalesRepository salesRepository;
     private final MessageSource messageSource;
     private final Locale locale = LocaleContextHolder.getLocale();
-    private final PaymentMethodRepository paymentMethodRepository;
+    private final PaymentMethodCatalog paymentMethodCatalog;
+    private final SaleRollupService saleRollupService;
+    private final TransactionalOperator transactionalOperator;
+    private final SalesMetrics salesMetrics;
+    private final SalesReportCache salesReportCache;
+    private final HourlySalesFeed hourlySalesFeed;
+    private final SaleWriteBehind saleWriteBehind;
+    private final IdempotencyIndex idempotencyIndex;
+    private final SaleColdArchive saleColdArchive;
+    @Value("${points.ingestion.mode:SYNC}")
+    private IngestionMode ingestionMode = IngestionMode.SYNC;
+    @Value("${points.sales-report.aggregation:ROLLUP}")
+    private ReportAggregation reportAggregation = ReportAggregation.ROLLUP;
+    @Value("${points.batch.chunk-size:500}")
+    private int batchChunkSize = 500;
+    @Value("${points.sales-connection.default-page-size:100}")
+    private int defaultPageSize = 100;
+    @Value("${points.sales-connection.max-page-size:1000}")
+    private int maxPageSize = 1000;
 
     /**
-     * Constructor for SalesServiceImpl class that initializes SalesRepository and PaymentMethodRepository.
+     * Constructor for SalesServiceImpl class that initializes SalesRepository, PaymentMethodCatalog and SaleRollupService.
      *
-     * @param salesRepository         - SalesRepository object
-     * @param messageSource           - MessageSource Object to return the message string in a given language.
-     * @param paymentMethodRepository - PaymentMethodRepository object
+     * @param salesRepository      - SalesRepository object
+     * @param messageSource        - MessageSource Object to return the message string in a given language.
+     * @param paymentMethodCatalog - PaymentMethodCatalog object serving the payment methods from memory
+     * @param saleRollupService     - SaleRollupService object maintaining the hourly rollup of the sales
+     * @param transactionalOperator - TransactionalOperator object used to save every chunk of a batch in its own transaction
+     * @param salesMetrics          - SalesMetrics object timing the verify, save, group and aggregate stages
+     * @param salesReportCache      - SalesReportCache object caching the hourly report of the closed hours
+     * @param hourlySalesFeed       - HourlySalesFeed object pushing the changed hourly totals to the subscribers
+     * @param saleWriteBehind       - SaleWriteBehind object queueing the added sales in the WRITE_BEHIND ingestion mode
+     * @param idempotencyIndex      - IdempotencyIndex object answering the retries of addSale
+     * @param saleColdArchive       - SaleColdArchive object adding the archived months to the hourly report
      */
     @Autowired
-    public SalesServiceImpl(SalesRepository salesRepository, MessageSource messageSource, PaymentMethodRepository paymentMethodRepository) {
+    public SalesServiceImpl(SalesRepository salesRepository, MessageSource messageSource, PaymentMethodCatalog paymentMethodCatalog,
+                            SaleRollupService saleRollupService, TransactionalOperator transactionalOperator, SalesMetrics salesMetrics,
+                            SalesReportCache salesReportCache, HourlySalesFeed hourlySalesFeed, SaleWriteBehind saleWriteBehind,
+                            IdempotencyIndex idempotencyIndex, SaleColdArchive saleColdArchive) {
         this.salesRepository = salesRepository;
         this.messageSource = messageSource;
-        this.paymentMethodRepository = paymentMethodRepository;
+        this.paymentMethodCatalog = paymentMethodCatalog;
+        this.saleRollupService = saleRollupService;
+        this.transactionalOperator = transactionalOperator;
+        this.salesMetrics = salesMetrics;
+        this.salesReportCache = salesReportCache;
+        this.hourlySalesFeed = hourlySalesFeed;
+        this.saleWriteBehind = saleWriteBehind;
+        this.idempotencyIndex = idempotencyIndex;
+        this.saleColdArchive = saleColdArchive;
     }
 
     // SALES GET DATA LOGIC-START//
@@ -62,15 +122,85 @@ public class SalesServiceImpl implements SalesService {
      */
     public Flux<Sale> getAllSales() {
         final String errorMessage = messageSource.getMessage("errormessage.get-all-sales", null, locale);
-        return salesRepository.findAll()
+        return ConnectionRouting.readOnly(salesRepository.findAll())
                 .switchIfEmpty(Flux.defer(() -> {
                     log.error(errorMessage);
                     return Flux.error(new CustomException(ErrorType.DataFetchingException, errorMessage));
                 }));
     }
 
+    /**
+     * Returns one page of the sales ordered by datetime and id, using keyset pagination so that the cost of a page
+     * doesn't depend on its position.
+     *
+     * @param first the number of sales of the page, the configured default page size if null
+     * @param after the cursor of the last sale of the previous page, null for the first page
+     * @return a Mono of SaleConnectionDto
+     */
+    public Mono<SaleConnectionDto> getSalesConnection(Integer first, String after) {
+        final int pageSize = pageSize(first);
+        final SaleCursor cursor;
+        try {
+            cursor = after != null ? SaleCursor.decode(after) : null;
+        } catch (IllegalArgumentException ex) {
+            final String errorMessage = messageSource.getMessage("errormessage.invalid-cursor", new String[]{after}, locale);
+            log.error(errorMessage);
+            return Mono.error(new CustomException(ErrorType.ValidationError, errorMessage));
+        }
+
+        // one more sale than asked tells whether there is a next page
+        return ConnectionRouting.readOnly(findPage(cursor, pageSize + 1))
+                .map(sales -> {
+                    List<SaleEdgeDto> edges = sales.stream()
+                            .limit(pageSize)
+                            .map(sale -> SaleEdgeDto.builder().cursor(SaleCursor.of(sale).encode()).node(sale).build())
+                            .toList();
+                    return SaleConnectionDto.builder()
+                            .edges(edges)
+                            .pageInfo(PageInfoDto.builder()
+                                    .hasNextPage(sales.size() > pageSize)
+                                    .endCursor(edges.isEmpty() ? after : edges.get(edges.size() - 1).getCursor())
+                                    .build())
+                            .build();
+                });
+    }
+
+    /**
+     * Streams every sale ordered by datetime and id, reading them page by page as the subscriber requests them, so
+     * that at most a couple of pages are held in memory.
+     *
+     * @param pageSize the number of sales read per page, the configured default page size if null
+     * @return a Flux of Sale objects
+     */
+    public Flux<Sale> streamSales(Integer pageSize) {
+        final int size = pageSize(pageSize);
+        return ConnectionRouting.readOnly(findPage(null, size)
+                        .expand(page -> page.size() < size ? Mono.empty() : findPage(SaleCursor.of(page.get(page.size() - 1)), size)))
+                .flatMapIterable(page -> page);
+    }
+
+    /**
+     * Returns the page of sales following the given cursor.
+     *
+     * @param cursor the cursor of the last sale of the previous page, null for the first page
+     * @param limit  the maximum number of sales of the page
+     * @return a Mono of the List of Sale objects of the page
+     */
+    Mono<List<Sale>> findPage(SaleCursor cursor, int limit) {
+        return (cursor == null
+                ? salesRepository.findPage(limit)
+                : salesRepository.findPageAfter(cursor.zonedDateTime(), cursor.id(), limit))
+                .collectList();
+    }
+
+    private int pageSize(Integer requested) {
+        return requested == null || requested <= 0 ? defaultPageSize : Math.min(requested, maxPageSize);
+    }
+
     /**
      * Returns sales within the given date range, grouped by hour intervals, along with the total sales and points earned in each interval.
+     * With another granularity or a time zone, the buckets are summed from the hourly report when they are made of
+     * whole hours, and aggregated directly otherwise.
      *
      * @param dateRangeInput the DateRangeInput object representing the date range to filter by
      * @return a Flux of SalesListDto objects
@@ -78,46 +208,136 @@ public class SalesServiceImpl implements SalesService {
     public Flux<SalesListDto> getSaleByRange(DateRangeInput dateRangeInput) {
         final String errorMessage = messageSource.getMessage("errormessage.get-sales-by-range", new String[]{
                 dateRangeInput.getFrom().toString(), dateRangeInput.getTo().toString()}, locale);
+        final TimeBuckets buckets;
+        try {
+            buckets = timeBuckets(dateRangeInput);
+        } catch (DateTimeException ex) {
+            return invalidZone(dateRangeInput);
+        }
 
+        ZonedDateTime from = dateRangeInput.getFrom();
+        ZonedDateTime to = dateRangeInput.getTo();
+        Flux<SalesListDto> report;
+        if (buckets == TimeBuckets.HOURLY)
+            report = salesReportCache.sumByHourBetween(from, to, this::aggregateByHour);
+        else if (buckets.alignedWithHours(from, to))
+            report = buckets.rebucket(salesReportCache.sumByHourBetween(from, to, this::aggregateByHour));
+        else
+            report = aggregateByBucket(from, to, buckets);
+        return salesMetrics.timeStage("aggregate", null, ConnectionRouting.readOnly(report))
+                .switchIfEmpty(Flux.defer(() -> {
+                    log.error(errorMessage);
+                    return Flux.error(new CustomException(ErrorType.DataFetchingException, errorMessage));
+                }));
+    }
 
-        return salesRepository.findByDateTimeBetweenOrderByDateTime(dateRangeInput.getFrom(), dateRangeInput.getTo())
+    /**
+     * Returns sales within the given date range per time bucket and payment method, computed in one pass over the
+     * range: inside the database, or with the MEMORY ReportAggregation by streaming the ordered sales. The hourly
+     * rollup has no payment method, so the ROLLUP ReportAggregation is served by the database too.
+     *
+     * @param dateRangeInput the DateRangeInput object representing the date range and the buckets
+     * @return a Flux of SalesBreakdownDto objects ordered by bucket
+     */
+    public Flux<SalesBreakdownDto> getSalesBreakdownByRange(DateRangeInput dateRangeInput) {
+        final String errorMessage = messageSource.getMessage("errormessage.get-sales-by-range", new String[]{
+                dateRangeInput.getFrom().toString(), dateRangeInput.getTo().toString()}, locale);
+        final TimeBuckets buckets;
+        try {
+            buckets = timeBuckets(dateRangeInput);
+        } catch (DateTimeException ex) {
+            return invalidZone(dateRangeInput);
+        }
+
+        ZonedDateTime from = dateRangeInput.getFrom();
+        ZonedDateTime to = dateRangeInput.getTo();
+        Flux<Sale> archived = saleColdArchive.findAllBetween(from, to);
+        Flux<SalesBreakdownDto> report;
+        if (reportAggregation == ReportAggregation.MEMORY) {
+            Flux<Sale> sales = Flux.mergeComparing(SALES_BY_DATETIME, salesRepository.findByDateTimeBetweenOrderByDateTime(from, to), archived);
+            report = salesMetrics.timeStage("group", null, PaymentMethodBreakdown.sum(buckets, sales, Sale::getDateTime,
+                    Sale::getPaymentMethodId, sale -> sale.getFinalPrice().cents(), sale -> sale.getPoints().cents()));
+        } else {
+            // the archived sales fall between the rows of their bucket, whose datetime is the start of the bucket
+            Flux<PaymentMethodSalesDto> rows = Flux.mergeComparing(ROWS_BY_DATETIME,
+                    salesRepository.sumByBucketAndPaymentMethodBetween(buckets.granularity().sqlUnit(), buckets.sqlZone(), from, to),
+                    archived.map(SalesServiceImpl::toPaymentMethodSales));
+            report = PaymentMethodBreakdown.sum(buckets, rows, PaymentMethodSalesDto::getDatetime,
+                    PaymentMethodSalesDto::getPaymentMethodId, row -> row.getSales().cents(), row -> row.getPoints().cents());
+        }
+        return salesMetrics.timeStage("aggregate", null, ConnectionRouting.readOnly(report))
                 .switchIfEmpty(Flux.defer(() -> {
                     log.error(errorMessage);
                     return Flux.error(new CustomException(ErrorType.DataFetchingException, errorMessage));
-                }))
-                .collectList()
-                .flatMap(this::groupSalesByInterval)
-                .flatMapMany(map -> Flux.fromIterable(map.entrySet()).sort(Comparator.comparing(Map.Entry::getKey)))
-                .flatMap(this::getSalesListDto);
+                }));
+    }
+
+    private static PaymentMethodSalesDto toPaymentMethodSales(Sale sale) {
+        return PaymentMethodSalesDto.builder()
+                .datetime(sale.getDateTime())
+                .paymentMethodId(sale.getPaymentMethodId())
+                .sales(sale.getFinalPrice())
+                .points(sale.getPoints())
+                .build();
+    }
+
+    private <T> Flux<T> invalidZone(DateRangeInput dateRangeInput) {
+        final String errorMessage = messageSource.getMessage("errormessage.invalid-zone", new String[]{dateRangeInput.getZone()}, locale);
+        log.error(errorMessage);
+        return Flux.error(new CustomException(ErrorType.ValidationError, errorMessage));
     }
 
     /**
-     * Groups sales records by hour intervals.
+     * Returns the buckets asked by the given input, the hourly ones in UTC by default.
      *
-     * @param salesList a List of Sale objects to group
-     * @return a Mono of a Map from ZonedDateTime to List of Sale objects
+     * @throws DateTimeException if the zone of the input isn't a valid time zone id
      */
-    Mono<Map<ZonedDateTime, List<Sale>>> groupSalesByInterval(List<Sale> salesList) {
-        Map<ZonedDateTime, List<Sale>> salesRecordsByInterval = salesList.stream()
-                .collect(Collectors.groupingBy(sale ->
-                        sale.getDateTime().truncatedTo(ChronoUnit.HOURS)));
-        return Mono.just(salesRecordsByInterval);
+    private static TimeBuckets timeBuckets(DateRangeInput dateRangeInput) {
+        Granularity granularity = dateRangeInput.getGranularity() != null ? dateRangeInput.getGranularity() : Granularity.HOUR;
+        if (dateRangeInput.getZone() == null)
+            return granularity == Granularity.HOUR ? TimeBuckets.HOURLY : new TimeBuckets(granularity, ZoneOffset.UTC);
+        return new TimeBuckets(granularity, ZoneId.of(dateRangeInput.getZone()));
     }
 
     /**
-     * Returns a SalesListDto object containing the date and time of the sales interval, as well as the total sales and points earned in that interval.
+     * Aggregates the sales of the given range per bucket when the buckets aren't made of whole hours, inside the
+     * database or, with the MEMORY ReportAggregation, by streaming the ordered sales through the SalesAggregator.
      *
-     * @param salesRecord a Map Entry object representing the sales interval and its corresponding sales records
-     * @return a Mono of a SalesListDto object
+     * @param from    start of the range, inclusive
+     * @param to      end of the range, inclusive
+     * @param buckets the TimeBuckets of the report
+     * @return a Flux of SalesListDto objects ordered by bucket
      */
-    Mono<SalesListDto> getSalesListDto(Map.Entry<ZonedDateTime, List<Sale>> salesRecord) {
-        List<Sale> saleRecords = salesRecord.getValue();
-        return Mono.just(SalesListDto.builder()
-                .datetime(salesRecord.getKey())
-                .sales(saleRecords.stream().map(o -> o.getFinalPrice()).reduce(BigDecimal.ZERO, BigDecimal::add))
-                .points(saleRecords.stream().map(o -> o.getPoints()).reduce(BigDecimal.ZERO, BigDecimal::add))
-                .build());
+    Flux<SalesListDto> aggregateByBucket(ZonedDateTime from, ZonedDateTime to, TimeBuckets buckets) {
+        Flux<SalesListDto> live = reportAggregation == ReportAggregation.MEMORY
+                ? salesMetrics.timeStage("group", null, SalesAggregator.bucketed(salesRepository.findByDateTimeBetweenOrderByDateTime(from, to), buckets))
+                : salesRepository.sumByBucketBetween(buckets.granularity().sqlUnit(), buckets.sqlZone(), from, to)
+                .map(bucket -> {
+                    bucket.setDatetime(TimeBuckets.label(bucket.getDatetime().toEpochSecond(), buckets.zone()));
+                    return bucket;
+                });
+        return saleColdArchive.mergeByBucket(live, from, to, buckets);
+    }
+
+    /**
+     * Aggregates the sales of the given range per hour, either from the hourly rollup, inside the database or, as a
+     * fallback, by streaming the ordered sales through the SalesAggregator depending on the configured ReportAggregation.
+     *
+     * @param from start of the range, inclusive
+     * @param to   end of the range, inclusive
+     * @return a Flux of SalesListDto objects ordered by hour
+     */
+    Flux<SalesListDto> aggregateByHour(ZonedDateTime from, ZonedDateTime to) {
+        return saleColdArchive.mergeByHour(aggregateLiveByHour(from, to), from, to);
+    }
 
+    private Flux<SalesListDto> aggregateLiveByHour(ZonedDateTime from, ZonedDateTime to) {
+        if (reportAggregation == ReportAggregation.ROLLUP)
+            return saleRollupService.sumByHourBetween(from, to);
+        if (reportAggregation == ReportAggregation.DATABASE)
+            return salesRepository.sumByHourBetween(from, to);
+
+        return salesMetrics.timeStage("group", null, SalesAggregator.hourly(salesRepository.findByDateTimeBetweenOrderByDateTime(from, to)));
     }
 
     /**
@@ -127,6 +347,13 @@ public class SalesServiceImpl implements SalesService {
      * @return a Mono of a Sale object
      */
     public Mono<Sale> getSaleById(Integer id) {
+        return ConnectionRouting.readOnly(findSaleById(id));
+    }
+
+    /**
+     * Returns a sale by its ID, read from the primary unless the caller marked the pipeline read-only.
+     */
+    private Mono<Sale> findSaleById(Integer id) {
         final String errorMessage = messageSource.getMessage("errormessage.get-sales-by-id", new String[]{id.toString()}, locale);
         return salesRepository.findById(id).switchIfEmpty(Mono.defer(() -> {
             log.error(errorMessage);
@@ -134,19 +361,74 @@ public class SalesServiceImpl implements SalesService {
         }));
     }
 
+    /**
+     * Returns the payment methods of the given sales with one lookup for all of them, served by the in-memory catalog.
+     *
+     * @param sales the sales whose payment method is resolved
+     * @return a Mono of the payment method of every sale, by sale
+     */
+    public Mono<Map<Sale, PaymentMethod>> getPaymentMethods(List<Sale> sales) {
+        return paymentMethodCatalog.findAllById(sales.stream().map(Sale::getPaymentMethodId).toList())
+                .map(byId -> {
+                    Map<Sale, PaymentMethod> bySale = new HashMap<>(sales.size() * 2);
+                    for (Sale sale : sales) {
+                        PaymentMethod paymentMethod = byId.get(sale.getPaymentMethodId());
+                        if (paymentMethod != null)
+                            bySale.put(sale, paymentMethod);
+                    }
+                    return bySale;
+                });
+    }
+
     // SALES ADD/UPDATE/DELETE DATA LOGIC-START//
 
     /**
      * Adds a new sale with the given sales input and returns a Mono of SaleResponseDto.
+     * In the WRITE_BEHIND ingestion mode the verified sale is queued and saved later with other sales, no transaction
+     * is opened for it.
+     * A retry with the idempotency key of a previous call returns the price of that call instead of adding a sale.
      *
      * @param salesInput the SalesInput object to be added
      * @return a Mono of SaleResponseDto
      */
     public Mono<SaleResponseDto> addSale(SalesInput salesInput) {
-        return verifyPaymentMethod(salesInput)
-                .flatMap(this::verifySaleData)
+        String idempotencyKey = salesInput.getIdempotencyKey();
+        final String errorMessage = idempotencyKeyError(idempotencyKey);
+        if (errorMessage != null)
+            return Mono.error(new CustomException(ErrorType.ValidationError, errorMessage));
+        return idempotencyIndex.deduplicate(idempotencyKey, () -> addNewSale(salesInput));
+    }
+
+    /**
+     * Returns the error message of an invalid idempotency key, null if the key is valid or absent.
+     */
+    private String idempotencyKeyError(String idempotencyKey) {
+        if (idempotencyKey == null || (!idempotencyKey.isEmpty() && idempotencyKey.length() <= IdempotencyIndex.MAX_KEY_LENGTH))
+            return null;
+        return messageSource.getMessage("errormessage.idempotency-key", new String[]{
+                String.valueOf(IdempotencyIndex.MAX_KEY_LENGTH)}, locale);
+    }
+
+    /**
+     * Adds the sale of a first attempt. The sale of a key which is already saved, by a call this instance doesn't
+     * remember, is rejected by the unique index of the database and its price is returned instead.
+     */
+    private Mono<SaleResponseDto> addNewSale(SalesInput salesInput) {
+        Mono<RequestData> verified = verifyPaymentMethod(salesInput)
+                .flatMap(this::verifySaleData);
+        if (ingestionMode == IngestionMode.WRITE_BEHIND)
+            return verified
+                    .map(this::toSale)
+                    .flatMap(sale -> saleWriteBehind.submit(sale).thenReturn(toPriceDto(sale)));
+        return verified
                 .flatMap(this::saveSale)
-                .flatMap(this::getPriceDto);
+                .flatMap(this::getPriceDto)
+                .as(transactionalOperator::transactional)
+                .onErrorResume(DataIntegrityViolationException.class, ex -> salesInput.getIdempotencyKey() == null
+                        ? Mono.error(ex)
+                        : salesRepository.findByIdempotencyKey(salesInput.getIdempotencyKey())
+                        .map(this::toPriceDto)
+                        .switchIfEmpty(Mono.error(ex)));
     }
 
     /**
@@ -156,46 +438,238 @@ public class SalesServiceImpl implements SalesService {
      * @return a Mono of SaleResponseDto
      */
     Mono<SaleResponseDto> getPriceDto(Sale sale) {
-        return Mono.just(SaleResponseDto.builder()
-                .finalPrice(sale.getFinalPrice().setScale(BigDecimal.ROUND_HALF_UP))
+        return Mono.just(toPriceDto(sale));
+    }
+
+    /**
+     * Returns a SaleResponseDto for the given Sale object.
+     *
+     * @param sale the Sale object to be used to create a SaleResponseDto
+     * @return a SaleResponseDto
+     */
+    SaleResponseDto toPriceDto(Sale sale) {
+        return SaleResponseDto.builder()
+                .finalPrice(sale.getFinalPrice())
                 .points(sale.getPoints())
-                .build());
+                .build();
     }
 
     /**
-     * Saves the sale data and returns a Mono of Sale.
+     * Saves the sale data, adds it to the hourly rollup, evicts its hour from the report cache, publishes it to the
+     * hourly sales feed and returns a Mono of Sale.
      *
      * @param requestData the RequestData object containing the sales input and payment method
      * @return a Mono of Sale
      */
     public Mono<Sale> saveSale(RequestData requestData) {
         final String errorMessage = messageSource.getMessage("errormessage.save-sale", new String[]{requestData.getSalesInput().toString()}, locale);
+
+        return salesMetrics.timeStage("save", requestData.getPaymentMethod().getName(), salesRepository.save(toSale(requestData))
+                .switchIfEmpty(Mono.defer(() -> {
+                    log.error(errorMessage);
+                    return Mono.error(new CustomException(ErrorType.ExecutionAborted, errorMessage));
+                }))
+                .flatMap(sale -> saleRollupService.add(sale)
+                        .then(hoursChanged(List.of(sale.getDateTime())))
+                        .thenReturn(sale)));
+    }
+
+    /**
+     * Evicts the hours of the given datetimes from the report cache and publishes them to the hourly sales feed.
+     *
+     * @param datetimes the datetimes of the written sales
+     * @return a Mono which completes once the hours have been handled
+     */
+    Mono<Void> hoursChanged(List<ZonedDateTime> datetimes) {
+        return salesReportCache.evict(datetimes).then(hourlySalesFeed.publish(datetimes));
+    }
+
+    /**
+     * Computes the final price and points of the sale described by the given verified request data.
+     *
+     * @param requestData the RequestData object containing the sales input and payment method
+     * @return a Sale object, not saved yet
+     */
+    Sale toSale(RequestData requestData) {
         SalesInput salesInput = requestData.getSalesInput();
         PaymentMethod paymentMethod = requestData.getPaymentMethod();
+        return Sale.builder()
+                .id(requestData.getSalesId())
+                .finalPrice(salesInput.getPrice().times(salesInput.getPriceModifier()))
+                .points(salesInput.getPrice().times(paymentMethod.getPointsModifier()))
+                .paymentMethodId(paymentMethod.getId())
+                .dateTime(salesInput.getDatetime())
+                .idempotencyKey(salesInput.getIdempotencyKey())
+                .build();
+    }
 
-        return salesRepository.save(
-                Sale.builder()
-                        .id(requestData.getSalesId() != null ? requestData.getSalesId() : null)
-                        .finalPrice(salesInput.getPrice().multiply(salesInput.getPriceModifier()))
-                        .points(salesInput.getPrice().multiply(paymentMethod.getPointsModifier()))
-                        .paymentMethodId(paymentMethod.getId())
-                        .dateTime(salesInput.getDatetime())
-                        .build()
-        ).switchIfEmpty(Mono.defer(() -> {
-            log.error(errorMessage);
-            return Mono.error(new CustomException(ErrorType.ExecutionAborted, errorMessage));
-        }));
+    /**
+     * Adds a batch of sales and returns the outcome of every item, in the order of the input.
+     * Every item is verified against the in-memory payment method catalog, then the valid ones are inserted in chunks
+     * with one multi-row statement and one transaction per chunk. An invalid item or a failed chunk doesn't prevent
+     * the other items from being saved.
+     * An item with the idempotency key of a sale which is already saved, or of an earlier item of the batch, is a retry:
+     * it gets the price of that sale or the outcome of that item, and nothing is inserted for it.
+     *
+     * @param salesInputs the SalesInput objects to be added
+     * @return a Flux of SaleResultDto, one per input
+     */
+    public Flux<SaleResultDto> addSales(List<SalesInput> salesInputs) {
+        return Flux.defer(() -> {
+            // the outcome of the first item of every key of the batch, the chunks are saved one after the other
+            Map<String, SaleResultDto> outcomesByKey = new HashMap<>();
+            return Flux.fromIterable(salesInputs)
+                    .index()
+                    .concatMap(input -> toBatchItem(input.getT1().intValue(), input.getT2()))
+                    .buffer(batchChunkSize)
+                    .concatMap(chunk -> saveChunk(chunk, outcomesByKey));
+        });
+    }
+
+    private Mono<BatchItem> toBatchItem(int index, SalesInput salesInput) {
+        final String keyError = idempotencyKeyError(salesInput.getIdempotencyKey());
+        if (keyError != null)
+            return Mono.just(new BatchItem(index, null, keyError));
+        return verifyPaymentMethod(salesInput)
+                .map(requestData -> new BatchItem(index, toSale(requestData), null))
+                .onErrorResume(CustomException.class, ex -> Mono.just(new BatchItem(index, null, ex.getMessage())));
+    }
+
+    /**
+     * Saves the first attempts of a chunk of a batch and answers the retries of the keys of the batch.
+     *
+     * @param chunk         the items of the chunk, in the order of the input
+     * @param outcomesByKey the outcome of the first item of every key of the previous chunks, completed with this chunk
+     * @return a Flux of SaleResultDto, one per item of the chunk
+     */
+    Flux<SaleResultDto> saveChunk(List<BatchItem> chunk, Map<String, SaleResultDto> outcomesByKey) {
+        List<BatchItem> firstAttempts = new ArrayList<>();
+        Set<String> chunkKeys = new HashSet<>();
+        for (BatchItem item : chunk) {
+            String key = item.key();
+            if (item.sale() != null && (key == null || (!outcomesByKey.containsKey(key) && chunkKeys.add(key))))
+                firstAttempts.add(item);
+        }
+
+        final String errorMessage = messageSource.getMessage("errormessage.save-sales-chunk", new String[]{
+                String.valueOf(chunk.get(0).index())}, locale);
+        Mono<List<SaleResultDto>> outcomes = firstAttempts.isEmpty()
+                ? Mono.just(List.of())
+                : saveFirstAttempts(firstAttempts, true)
+                .map(prices -> firstAttempts.stream().map(item -> item.toResult(prices.get(item.index()))).toList())
+                .onErrorResume(ex -> {
+                    log.error(errorMessage, ex);
+                    return Mono.just(firstAttempts.stream()
+                            .map(item -> new BatchItem(item.index(), null, errorMessage).toResult(null))
+                            .toList());
+                });
+        return outcomes.flatMapIterable(results -> {
+            Map<Integer, SaleResultDto> byIndex = new HashMap<>();
+            for (int i = 0; i < results.size(); i++) {
+                byIndex.put(results.get(i).getIndex(), results.get(i));
+                if (firstAttempts.get(i).key() != null)
+                    outcomesByKey.put(firstAttempts.get(i).key(), results.get(i));
+            }
+            return chunk.stream()
+                    .map(item -> {
+                        SaleResultDto result = byIndex.get(item.index());
+                        if (result != null)
+                            return result;
+                        if (item.sale() == null)
+                            return item.toResult(null);
+                        // a retry of an earlier item of the batch
+                        SaleResultDto first = outcomesByKey.get(item.key());
+                        return SaleResultDto.builder()
+                                .index(item.index())
+                                .salePrice(first.getSalePrice())
+                                .error(first.getError())
+                                .build();
+                    })
+                    .toList();
+        });
     }
 
     /**
-     * Verifies the payment method and returns a Mono of RequestData.
+     * Returns the price of the items whose key is already used, remembered by the idempotency index or saved, and
+     * inserts the other items and adds them to the hourly rollup in one transaction.
+     *
+     * @param items           the first attempts of a chunk, with distinct keys
+     * @param retryOnConflict whether to look the keys up once more if one of them has been saved concurrently
+     * @return a Mono of the price of every item, by index
+     */
+    private Mono<Map<Integer, SaleResponseDto>> saveFirstAttempts(List<BatchItem> items, boolean retryOnConflict) {
+        Map<Integer, SaleResponseDto> prices = new HashMap<>();
+        List<String> keys = new ArrayList<>();
+        for (BatchItem item : items) {
+            SaleResponseDto remembered = item.key() != null ? idempotencyIndex.completedPrice(item.key()) : null;
+            if (remembered != null)
+                prices.put(item.index(), remembered);
+            else if (item.key() != null)
+                keys.add(item.key());
+        }
+        Mono<Map<String, Sale>> saved = keys.isEmpty()
+                ? Mono.just(Map.of())
+                : salesRepository.findAllByIdempotencyKeyIn(keys).collectMap(Sale::getIdempotencyKey);
+        return saved.flatMap(savedByKey -> {
+                    List<BatchItem> unsaved = new ArrayList<>();
+                    for (BatchItem item : items) {
+                        Sale previous = item.key() != null ? savedByKey.get(item.key()) : null;
+                        if (previous != null)
+                            prices.put(item.index(), toPriceDto(previous));
+                        else if (!prices.containsKey(item.index()))
+                            unsaved.add(item);
+                    }
+                    if (unsaved.isEmpty())
+                        return Mono.just(prices);
+                    return salesMetrics.timeStage("save", null, salesRepository.insertAll(unsaved.stream().map(BatchItem::sale).toList())
+                                    .collectList()
+                                    .flatMap(inserted -> saleRollupService.addAll(inserted)
+                                            .then(hoursChanged(inserted.stream().map(Sale::getDateTime).toList()))
+                                            .thenReturn(inserted))
+                                    .as(transactionalOperator::transactional))
+                            .map(inserted -> {
+                                Iterator<Sale> insertedSales = inserted.iterator();
+                                for (BatchItem item : unsaved) {
+                                    SaleResponseDto price = toPriceDto(insertedSales.next());
+                                    prices.put(item.index(), price);
+                                    if (item.key() != null)
+                                        idempotencyIndex.remember(item.key(), price);
+                                }
+                                return prices;
+                            });
+                })
+                // a key saved by a concurrent call since it was looked up rejects the whole insert, once
+                .onErrorResume(DataIntegrityViolationException.class, ex -> retryOnConflict && !keys.isEmpty()
+                        ? saveFirstAttempts(items, false)
+                        : Mono.error(ex));
+    }
+
+    /**
+     * One item of an addSales batch: the computed sale if the input is valid, the error message otherwise.
+     */
+    record BatchItem(int index, Sale sale, String error) {
+        String key() {
+            return sale != null ? sale.getIdempotencyKey() : null;
+        }
+
+        SaleResultDto toResult(SaleResponseDto salePrice) {
+            return SaleResultDto.builder()
+                    .index(index)
+                    .salePrice(salePrice)
+                    .error(error)
+                    .build();
+        }
+    }
+
+    /**
+     * Verifies the payment method against the in-memory catalog and returns a Mono of RequestData.
      *
      * @param salesInput the SalesInput object to be verified
      * @return a Mono of RequestData
      */
     public Mono<RequestData> verifyPaymentMethod(SalesInput salesInput) {
         final String errorMessage = messageSource.getMessage("errormessage.verify-payment-method", new String[]{salesInput.toString()}, locale);
-        return paymentMethodRepository.findByName(salesInput.getPaymentMethod())
+        return salesMetrics.timeStage("verify", salesInput.getPaymentMethod(), paymentMethodCatalog.findByName(salesInput.getPaymentMethod())
                 .switchIfEmpty(Mono.defer(() -> {
                     log.error(errorMessage);
                     return Mono.error(new CustomException(ErrorType.InvalidSyntax, errorMessage));
@@ -204,7 +678,7 @@ public class SalesServiceImpl implements SalesService {
                         .paymentMethod(paymentMethod)
                         .salesInput(salesInput)
                         .build())
-                ).flatMap(this::verifySaleData);
+                ).flatMap(this::verifySaleData));
     }
 
     /**
@@ -218,40 +692,72 @@ public class SalesServiceImpl implements SalesService {
         if (!(requestData.getSalesInput().getPriceModifier().compareTo(requestData.getPaymentMethod().getPriceModifierFrom()) >= 0
                 && requestData.getSalesInput().getPriceModifier().compareTo(requestData.getPaymentMethod().getPriceModifierTo()) <= 0))
             return Mono.error(new CustomException(ErrorType.InvalidSyntax, errorMessage));
+        else if (!fitsTheSaleTable(requestData))
+            return Mono.error(new CustomException(ErrorType.ValidationError, messageSource.getMessage("errormessage.sale-amount",
+                    new String[]{requestData.getSalesInput().toString(), MAX_AMOUNT.toString()}, locale)));
         else
             return Mono.just(requestData);
     }
 
+    /**
+     * Tells whether the final price and the points of the sale fit in the columns of the sale table, so that a sale
+     * acknowledged before it is saved, e.g. journaled, can't be rejected by the database afterwards.
+     */
+    private boolean fitsTheSaleTable(RequestData requestData) {
+        SalesInput salesInput = requestData.getSalesInput();
+        try {
+            return fits(salesInput.getPrice().times(salesInput.getPriceModifier()))
+                    && fits(salesInput.getPrice().times(requestData.getPaymentMethod().getPointsModifier()));
+        } catch (ArithmeticException ex) {
+            return false;
+        }
+    }
+
+    private static boolean fits(Money amount) {
+        return amount.compareTo(MAX_AMOUNT) <= 0 && amount.compareTo(MAX_AMOUNT.negate()) >= 0;
+    }
+
     /**
      * Updates an existing sale with the given ID and sales input and returns a Mono of SaleResponseDto.
+     * The previous version of the sale is taken out of the hourly rollup and the report cache before the new one is saved.
      *
      * @param id         the ID of the sale to be updated
      * @param salesInput the SalesInput object to be updated
      * @return a Mono of SaleResponseDto
      */
+    @Transactional
     public Mono<SaleResponseDto> updateSale(Integer id, SalesInput salesInput) {
-        final String errorMessage = "Unable to update Sale with id" + id + "input:" + salesInput;
         return verifyPaymentMethod(salesInput)
                 .flatMap(this::verifySaleData)
                 .flatMap(requestData -> {
                     requestData.setSalesId(id);
                     return Mono.just(requestData);
                 })
-                .flatMap(this::saveSale)
+                .flatMap(requestData -> findSaleById(id)
+                        .flatMap(previous -> {
+                            // an update without a key keeps the key of the sale, so retries of its addSale still match it
+                            if (salesInput.getIdempotencyKey() == null)
+                                salesInput.setIdempotencyKey(previous.getIdempotencyKey());
+                            return saleRollupService.remove(previous)
+                                    .then(hoursChanged(List.of(previous.getDateTime())));
+                        })
+                        .then(Mono.defer(() -> saveSale(requestData))))
                 .flatMap(this::getPriceDto);
     }
 
     /**
-     * Deletes a sale with the given ID and returns a Mono of Sale.
+     * Deletes a sale with the given ID, takes it out of the hourly rollup and the report cache and returns a Mono of Sale.
      *
      * @param id the ID of the sale to be deleted
      * @return a Mono of Sale
      */
+    @Transactional
     public Mono<Sale> deleteSale(Integer id) {
-        return salesRepository.findById(id).map(sale -> {
-            salesRepository.deleteById(id).subscribe();
-            return sale;
-        });
+        return salesRepository.findById(id)
+                .flatMap(sale -> salesRepository.delete(sale)
+                        .then(saleRollupService.remove(sale))
+                        .then(hoursChanged(List.of(sale.getDateTime())))
+                        .thenReturn(sale));
     }
 
 }
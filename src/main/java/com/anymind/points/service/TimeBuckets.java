@@ -0,0 +1,233 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Granularity;
+import com.anymind.points.model.Money;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Time buckets of a sales report: a Granularity in a time zone.
+ * Datetimes are indexed by the epoch second of the start of their bucket. An Indexer keeps the bounds of the last
+ * bucket it computed, so ordered datetimes are indexed with two comparisons and the calendar arithmetic only runs once
+ * per bucket, whatever the daylight saving transitions of the zone.
+ *
+ * @param granularity the size of the buckets
+ * @param zone        the time zone of the buckets, null for the zone of every datetime
+ */
+record TimeBuckets(Granularity granularity, ZoneId zone) {
+    /**
+     * The buckets of the hourly report, UTC hours like the hours of the rollup and of the report cache, whatever the
+     * zone of the sales: an hour of a zone such as +05:30 starts at half past a UTC hour.
+     */
+    static final TimeBuckets HOURLY = new TimeBuckets(Granularity.HOUR, ZoneOffset.UTC);
+
+    private static final int SECONDS_PER_HOUR = 3600;
+
+    /**
+     * Tells whether every bucket of the given range is made of whole UTC hours, so that the buckets can be summed from
+     * the hours of the hourly report: any granularity but MINUTE in a zone whose offsets are whole hours over the range.
+     *
+     * @param from start of the range, inclusive
+     * @param to   end of the range, inclusive
+     * @return true if the hourly report can be rebucketed
+     */
+    boolean alignedWithHours(ZonedDateTime from, ZonedDateTime to) {
+        if (granularity == Granularity.MINUTE)
+            return false;
+        if (zone == null)
+            return true;
+        ZoneRules rules = zone.getRules();
+        Instant instant = from.toInstant();
+        if (rules.getOffset(instant).getTotalSeconds() % SECONDS_PER_HOUR != 0)
+            return false;
+        for (ZoneOffsetTransition transition = rules.nextTransition(instant);
+             transition != null && !transition.getInstant().isAfter(to.toInstant());
+             transition = rules.nextTransition(transition.getInstant())) {
+            if (transition.getOffsetAfter().getTotalSeconds() % SECONDS_PER_HOUR != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the zone of the buckets as a time zone of Postgres. Postgres reads the offsets of its time zone names
+     * with the POSIX convention, positive west of Greenwich, so a fixed offset is given with its sign flipped.
+     */
+    String sqlZone() {
+        ZoneId normalized = zone != null ? zone.normalized() : ZoneOffset.UTC;
+        if (!(normalized instanceof ZoneOffset offset))
+            return normalized.getId();
+        return offset.getTotalSeconds() == 0 ? "UTC" : "UTC" + ZoneOffset.ofTotalSeconds(-offset.getTotalSeconds()).getId();
+    }
+
+    /**
+     * Sums ordered items per bucket with primitive running totals. A bucket is emitted as soon as the first item of the
+     * next one is read.
+     *
+     * @param items    the items, ordered by datetime
+     * @param datetime the datetime of an item
+     * @param sales    the sales of an item, in cents
+     * @param points   the points of an item, in cents
+     * @return a Flux of SalesListDto objects, one per bucket with items, labelled with the start of the bucket
+     */
+    <T> Flux<SalesListDto> sum(Flux<T> items, Function<T, ZonedDateTime> datetime, ToLongFunction<T> sales, ToLongFunction<T> points) {
+        return Flux.defer(() -> {
+            Indexer indexer = indexer();
+            Totals totals = new Totals(zone != null);
+            return items.<SalesListDto>handle((item, sink) -> {
+                        ZonedDateTime itemDatetime = datetime.apply(item);
+                        long start = indexer.startOf(itemDatetime.toEpochSecond(), itemDatetime.getZone());
+                        SalesListDto closed = totals.add(start, indexer.zone(), sales.applyAsLong(item), points.applyAsLong(item));
+                        if (closed != null)
+                            sink.next(closed);
+                    })
+                    .concatWith(Mono.fromSupplier(totals::close));
+        });
+    }
+
+    /**
+     * Rebuckets ordered hourly totals, see alignedWithHours.
+     */
+    Flux<SalesListDto> rebucket(Flux<SalesListDto> hours) {
+        return sum(hours, SalesListDto::getDatetime, hour -> hour.getSales().cents(), hour -> hour.getPoints().cents());
+    }
+
+    /**
+     * Returns a new Indexer of these buckets, to be used by a single thread.
+     */
+    Indexer indexer() {
+        return new Indexer();
+    }
+
+    /**
+     * Indexes datetimes by the start of their bucket, caching the bounds of the last bucket.
+     */
+    final class Indexer {
+        private long start = Long.MAX_VALUE;
+        private long end = Long.MIN_VALUE;
+        private ZoneId bucketZone;
+
+        /**
+         * Returns the epoch second of the start of the bucket of the given epoch second.
+         *
+         * @param epochSecond the indexed datetime
+         * @param defaultZone the zone of the datetime, used if the buckets have none
+         */
+        long startOf(long epochSecond, ZoneId defaultZone) {
+            ZoneId target = zone != null ? zone : defaultZone;
+            if (epochSecond >= start && epochSecond < end && target.equals(bucketZone))
+                return start;
+            ZonedDateTime datetime = Instant.ofEpochSecond(epochSecond).atZone(target);
+            ZonedDateTime bucket = switch (granularity) {
+                case MINUTE -> datetime.truncatedTo(ChronoUnit.MINUTES);
+                case HOUR -> datetime.truncatedTo(ChronoUnit.HOURS);
+                case DAY -> startOfDay(datetime.toLocalDate(), target);
+                case WEEK -> startOfDay(datetime.toLocalDate().with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)), target);
+                case MONTH -> startOfDay(datetime.toLocalDate().withDayOfMonth(1), target);
+            };
+            ZonedDateTime next = switch (granularity) {
+                case MINUTE -> bucket.plusMinutes(1);
+                case HOUR -> bucket.plusHours(1);
+                case DAY -> startOfDay(bucket.toLocalDate().plusDays(1), target);
+                case WEEK -> startOfDay(bucket.toLocalDate().plusWeeks(1), target);
+                case MONTH -> startOfDay(bucket.toLocalDate().plusMonths(1), target);
+            };
+            start = bucket.toEpochSecond();
+            end = next.toEpochSecond();
+            bucketZone = target;
+            return start;
+        }
+
+        /**
+         * Returns the zone of the last indexed bucket.
+         */
+        ZoneId zone() {
+            return bucketZone;
+        }
+    }
+
+    private static ZonedDateTime startOfDay(LocalDate date, ZoneId zone) {
+        // a day starting in a daylight saving gap starts at the end of the gap
+        return date.atStartOfDay(zone);
+    }
+
+    /**
+     * Running totals of the bucket which is currently summed, in cents.
+     */
+    static final class Totals {
+        private final boolean fixedOffset;
+        private boolean open;
+        private long start;
+        private ZoneId zone;
+        private long sales;
+        private long points;
+
+        /**
+         * @param fixedOffset whether the buckets are labelled with the offset of their zone rather than the zone
+         */
+        Totals(boolean fixedOffset) {
+            this.fixedOffset = fixedOffset;
+        }
+
+        /**
+         * Adds an item to the bucket starting at the given epoch second.
+         *
+         * @return the previous bucket if the item starts a new one, null otherwise
+         */
+        SalesListDto add(long bucketStart, ZoneId bucketZone, long salesCents, long pointsCents) {
+            SalesListDto closed = null;
+            if (open && bucketStart != start)
+                closed = close();
+            if (!open) {
+                open = true;
+                start = bucketStart;
+                zone = bucketZone;
+            }
+            sales += salesCents;
+            points += pointsCents;
+            return closed;
+        }
+
+        /**
+         * Closes the current bucket.
+         *
+         * @return the current bucket, null if there is none
+         */
+        SalesListDto close() {
+            if (!open)
+                return null;
+            open = false;
+            SalesListDto bucket = SalesListDto.builder()
+                    .datetime(fixedOffset ? label(start, zone) : Instant.ofEpochSecond(start).atZone(zone))
+                    .sales(Money.ofCents(sales))
+                    .points(Money.ofCents(points))
+                    .build();
+            sales = 0;
+            points = 0;
+            return bucket;
+        }
+    }
+
+    /**
+     * Returns the start of a bucket in the given zone. Region zones are replaced by their offset, which is what the
+     * report shows.
+     */
+    static ZonedDateTime label(long start, ZoneId zone) {
+        ZonedDateTime datetime = Instant.ofEpochSecond(start).atZone(zone);
+        return zone instanceof ZoneOffset ? datetime : datetime.withFixedOffsetZone();
+    }
+}
@@ -0,0 +1,47 @@
+package com.anymind.points.service;
+
+import org.springframework.transaction.NoTransactionException;
+import org.springframework.transaction.reactive.TransactionSynchronization;
+import org.springframework.transaction.reactive.TransactionSynchronizationManager;
+import reactor.core.publisher.Mono;
+
+/**
+ * Runs in-memory side effects of a write once its reactive transaction is over, so that they are never seen before the
+ * data they are about. Without a transaction the action runs right away.
+ */
+final class TransactionCallbacks {
+
+    private TransactionCallbacks() {
+    }
+
+    /**
+     * Runs the action after the current transaction completes, whether it committed or rolled back.
+     */
+    static Mono<Void> afterCompletion(Runnable action) {
+        return register(action, false);
+    }
+
+    /**
+     * Runs the action after the current transaction commits, not at all if it rolls back.
+     */
+    static Mono<Void> afterCommit(Runnable action) {
+        return register(action, true);
+    }
+
+    private static Mono<Void> register(Runnable action, boolean onlyOnCommit) {
+        return TransactionSynchronizationManager.forCurrentTransaction()
+                .filter(TransactionSynchronizationManager::isSynchronizationActive)
+                .map(manager -> {
+                    manager.registerSynchronization(new TransactionSynchronization() {
+                        @Override
+                        public Mono<Void> afterCompletion(int status) {
+                            return onlyOnCommit && status != STATUS_COMMITTED ? Mono.empty() : Mono.fromRunnable(action);
+                        }
+                    });
+                    return true;
+                })
+                .onErrorResume(NoTransactionException.class, ex -> Mono.empty())
+                .switchIfEmpty(Mono.fromRunnable(action))
+                .then();
+    }
+}
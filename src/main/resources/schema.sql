@@ -14,4 +14,30 @@ create table IF NOT EXISTS sale(
      payment_method_id int not null,
      datetime timestamptz null,
      FOREIGN KEY (payment_method_id) REFERENCES payment_method(id)
-);
\ No newline at end of file
+);
+create index IF NOT EXISTS sale_datetime_id_idx on sale(datetime, id);
+alter table sale add column IF NOT EXISTS idempotency_key varchar null;
+create unique index IF NOT EXISTS sale_idempotency_key_idx on sale(idempotency_key);
+create table IF NOT EXISTS sale_hourly(
+     datetime timestamptz primary key,
+     sales DECIMAL(14,2) not null,
+     points DECIMAL(14,2) not null,
+     sale_count bigint not null
+);
+create table IF NOT EXISTS sale_journal_checkpoint(
+     journal varchar primary key,
+     sequence bigint not null
+);
+create table IF NOT EXISTS sale_archive(
+     id int not null,
+     final_price DECIMAL(10,2) not null,
+     points DECIMAL(10,2) not null,
+     payment_method_id int not null,
+     datetime timestamptz null,
+     idempotency_key varchar null
+) partition by range (datetime);
+create table IF NOT EXISTS sale_cold_month(
+     month timestamptz primary key,
+     file varchar not null,
+     sale_count bigint not null
+);
@@ -2,6 +2,7 @@ package com.anymind.points;
 
 import com.anymind.points.dto.SaleResponseDto;
 import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Money;
 import com.anymind.points.repository.SalesRepository;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.BeforeEach;
@@ -16,7 +17,6 @@ import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Hooks;
 import reactor.test.StepVerifier;
 
-import java.math.BigDecimal;
 import java.time.ZonedDateTime;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -81,8 +81,8 @@ class IntegrationTests {
 				.path("addSale")
 				.entity(SaleResponseDto.class)
 				.satisfies(saleResponseDto -> {
-					assertThat(BigDecimal.valueOf(95), Matchers.comparesEqualTo(saleResponseDto.getFinalPrice()));
-					assertThat(BigDecimal.valueOf(5), Matchers.comparesEqualTo(saleResponseDto.getPoints()));
+					assertThat(Money.of("95"), Matchers.comparesEqualTo(saleResponseDto.getFinalPrice()));
+					assertThat(Money.of("5"), Matchers.comparesEqualTo(saleResponseDto.getPoints()));
 				});
 
 
@@ -104,8 +104,8 @@ class IntegrationTests {
 				.satisfies(salesListDtoList -> {
 					SalesListDto salesListDto=salesListDtoList.get(0);
 					assertThat(ZonedDateTime.parse("2022-09-01T00:00Z[UTC]"), Matchers.comparesEqualTo(salesListDto.getDatetime()));
-					assertThat(BigDecimal.valueOf(95), Matchers.comparesEqualTo(salesListDto.getSales()));
-					assertThat(BigDecimal.valueOf(5), Matchers.comparesEqualTo(salesListDto.getPoints()));
+					assertThat(Money.of("95"), Matchers.comparesEqualTo(salesListDto.getSales()));
+					assertThat(Money.of("5"), Matchers.comparesEqualTo(salesListDto.getPoints()));
 				});
 
 		assertEquals((currentSaleCount + 1), salesRepository.findAll().collectList().block().size());
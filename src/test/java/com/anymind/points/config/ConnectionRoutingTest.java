@@ -0,0 +1,171 @@
+package com.anymind.points.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.RowMetadata;
+import io.r2dbc.spi.Statement;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ConnectionRoutingTest {
+	@Mock
+	private ConnectionFactory writePool;
+	@Mock
+	private ConnectionFactory readPool;
+	@Mock
+	private ConnectionPool replicaPool;
+	@Mock
+	private Connection writeConnection;
+	@Mock
+	private Connection readConnection;
+	@Mock
+	private Connection replicaConnection;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private ReplicaSet replicaSet;
+
+	private ConnectionRouting.RoutingConnectionFactory connectionFactory;
+
+	@BeforeEach
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		doReturn(Mono.just(writeConnection)).when(writePool).create();
+		doReturn(Mono.just(readConnection)).when(readPool).create();
+	}
+
+	@AfterEach
+	public void after() {
+		if (replicaSet != null)
+			replicaSet.close();
+	}
+
+	@Test
+	public void create_shouldUseTheWritePoolByDefault() {
+		route(List.of());
+
+		StepVerifier.create(connectionFactory.create())
+				.expectNext(writeConnection)
+				.verifyComplete();
+
+		verify(readPool, never()).create();
+		assertEquals(1, meterRegistry.get("points.r2dbc.acquire").tag("pool", "write").timer().count());
+	}
+
+	@Test
+	public void create_whenReadOnly_shouldUseTheReadPool() {
+		route(List.of());
+
+		StepVerifier.create(ConnectionRouting.readOnly(connectionFactory.create()))
+				.expectNext(readConnection)
+				.verifyComplete();
+
+		verify(writePool, never()).create();
+		assertEquals(1, meterRegistry.get("points.r2dbc.acquire").tag("pool", "read").timer().count());
+	}
+
+	@Test
+	public void create_whenReadOnlyAndReplicaHealthy_shouldUseTheReplica() throws InterruptedException {
+		replicaLagging(0.5);
+		route(List.of(replicaPool));
+		awaitHealthy(true);
+
+		StepVerifier.create(ConnectionRouting.readOnly(connectionFactory.create()))
+				.expectNext(replicaConnection)
+				.verifyComplete();
+		// a write never goes to a replica
+		StepVerifier.create(connectionFactory.create())
+				.expectNext(writeConnection)
+				.verifyComplete();
+
+		verify(readPool, never()).create();
+		assertEquals(1, meterRegistry.get("points.r2dbc.acquire").tag("pool", "replica-1").timer().count());
+		assertEquals(0.5, meterRegistry.get("points.r2dbc.replica.lag").tag("replica", "replica-1").gauge().value(), 0.001);
+	}
+
+	@Test
+	public void create_whenReplicaLagsBeyondTheStaleness_shouldUseTheReadPool() throws InterruptedException {
+		replicaLagging(30);
+		route(List.of(replicaPool));
+		awaitHealthy(true);
+
+		StepVerifier.create(ConnectionRouting.readOnly(connectionFactory.create()))
+				.expectNext(readConnection)
+				.verifyComplete();
+		// a query tolerating more staleness still uses it
+		StepVerifier.create(ConnectionRouting.readOnly(connectionFactory.create(), Duration.ofMinutes(1)))
+				.expectNext(replicaConnection)
+				.verifyComplete();
+		StepVerifier.create(ConnectionRouting.readOnly(connectionFactory.create(), Duration.ZERO))
+				.expectNext(readConnection)
+				.verifyComplete();
+	}
+
+	@Test
+	public void create_whenReplicaUnreachable_shouldFailOverToTheReadPool() throws InterruptedException {
+		replicaLagging(0);
+		route(List.of(replicaPool));
+		awaitHealthy(true);
+		doReturn(Mono.error(new IllegalStateException("connection refused"))).when(replicaPool).create();
+
+		StepVerifier.create(ConnectionRouting.readOnly(connectionFactory.create()))
+				.expectNext(readConnection)
+				.verifyComplete();
+
+		assertFalse(replicaSet.getReplicas().get(0).isHealthy());
+		assertEquals(0, meterRegistry.get("points.r2dbc.replica.healthy").tag("replica", "replica-1").gauge().value());
+		StepVerifier.create(ConnectionRouting.readOnly(connectionFactory.create()))
+				.expectNext(readConnection)
+				.verifyComplete();
+		verify(replicaPool, atMost(2)).create();
+	}
+
+	private void route(List<ConnectionPool> replicas) {
+		replicaSet = new ReplicaSet(replicas, Duration.ofMinutes(1), meterRegistry);
+		connectionFactory = new ConnectionRouting.RoutingConnectionFactory(Map.of(
+				ConnectionRouting.Role.WRITE, writePool,
+				ConnectionRouting.Role.READ, readPool), replicaSet, Duration.ofSeconds(5), meterRegistry);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void replicaLagging(double lagSeconds) {
+		Row row = mock(Row.class);
+		when(row.get("standby", Boolean.class)).thenReturn(true);
+		when(row.get("lag", Double.class)).thenReturn(lagSeconds);
+		Result result = mock(Result.class);
+		when(result.map(any(BiFunction.class))).thenAnswer(invocation ->
+				Mono.just(((BiFunction<Row, RowMetadata, Object>) invocation.getArgument(0)).apply(row, null)));
+		Statement statement = mock(Statement.class);
+		doReturn(Mono.just(result)).when(statement).execute();
+		when(replicaConnection.createStatement(anyString())).thenReturn(statement);
+		doReturn(Mono.empty()).when(replicaConnection).close();
+		doReturn(Mono.just(replicaConnection)).when(replicaPool).create();
+	}
+
+	private void awaitHealthy(boolean healthy) throws InterruptedException {
+		for (int i = 0; i < 100 && replicaSet.getReplicas().get(0).isHealthy() != healthy; i++)
+			Thread.sleep(20);
+		assertTrue(replicaSet.getReplicas().get(0).isHealthy() == healthy);
+	}
+}
@@ -0,0 +1,161 @@
+package com.anymind.points.config;
+
+import com.anymind.points.repository.SalesRepository;
+import com.anymind.points.service.PaymentMethodCatalog;
+import graphql.ErrorType;
+import graphql.ExecutionResult;
+import graphql.GraphQL;
+import graphql.execution.instrumentation.ChainedInstrumentation;
+import graphql.language.FloatValue;
+import graphql.schema.CoercingParseLiteralException;
+import graphql.schema.CoercingParseValueException;
+import graphql.schema.DataFetcher;
+import graphql.schema.idl.RuntimeWiring;
+import graphql.schema.idl.SchemaGenerator;
+import graphql.schema.idl.SchemaParser;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.MessageSource;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.when;
+
+public class GraphQlConfigTest {
+	private static final String FIVE_YEARS = """
+			{
+			  getSalesByRange(dateRangeInput: {from: "2018-01-01T00:00:00Z", to: "2022-12-31T23:59:59Z"}) {
+			    datetime
+			  }
+			}""";
+	private static final String ONE_MONTH = """
+			{
+			  getSalesByRange(dateRangeInput: {from: "2022-09-01T00:00:00Z", to: "2022-09-30T23:59:59Z"}) {
+			    datetime
+			  }
+			}""";
+	private static final String ALL_SALES = "{ getAllSales { id } }";
+	private static final String STREAM_SALES = "subscription { streamSales { id } }";
+
+	@Mock
+	private SalesRepository salesRepository;
+	@Mock
+	private PaymentMethodCatalog paymentMethodCatalog;
+	@Mock
+	private MessageSource messageSource;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final AtomicBoolean cancelled = new AtomicBoolean();
+
+	private QueryCostCalculator queryCostCalculator;
+
+	@BeforeEach
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		when(messageSource.getMessage(anyString(), any(), any())).thenReturn("Error Message");
+		when(salesRepository.estimateRows()).thenReturn(Mono.just(0L));
+		when(paymentMethodCatalog.current()).thenReturn(Mono.empty());
+		queryCostCalculator = new QueryCostCalculator(salesRepository, paymentMethodCatalog, 100, 1000);
+	}
+
+	@Test
+	public void queryCostInstrumentation_shouldRejectARangeOverTheBudgetBeforeFetchingIt() throws IOException {
+		AtomicBoolean fetched = new AtomicBoolean();
+		GraphQL graphQL = graphQL(environment -> {
+			fetched.set(true);
+			return List.of();
+		}, Duration.ofSeconds(10));
+
+		ExecutionResult rejected = graphQL.execute(FIVE_YEARS);
+
+		assertEquals(1, rejected.getErrors().size());
+		assertEquals(ErrorType.ExecutionAborted, rejected.getErrors().get(0).getErrorType());
+		assertFalse(fetched.get());
+		assertEquals(1, meterRegistry.get(GraphQlConfig.ABORTED).tag("reason", "cost").counter().count());
+
+		assertTrue(graphQL.execute(ONE_MONTH).getErrors().isEmpty());
+		assertTrue(fetched.get());
+	}
+
+	@Test
+	public void queryCostInstrumentation_shouldRejectGetAllSalesOnALargeTable() throws IOException {
+		GraphQL graphQL = graphQL(environment -> List.of(), Duration.ofSeconds(10));
+		// the size of the table isn't known before the first estimate
+		assertEquals(ErrorType.ExecutionAborted, graphQL.execute(ALL_SALES).getErrors().get(0).getErrorType());
+
+		queryCostCalculator.refresh();
+		assertTrue(graphQL.execute(ALL_SALES).getErrors().isEmpty());
+
+		when(salesRepository.estimateRows()).thenReturn(Mono.just(1_000_000L));
+		queryCostCalculator.refresh();
+
+		assertEquals(ErrorType.ExecutionAborted, graphQL.execute(ALL_SALES).getErrors().get(0).getErrorType());
+	}
+
+	@Test
+	public void queryCostInstrumentation_shouldCostStreamSalesLikeTheWholeTable() throws IOException {
+		GraphQL graphQL = graphQL(environment -> List.of(), Duration.ofSeconds(10));
+		when(salesRepository.estimateRows()).thenReturn(Mono.just(1_000_000L));
+		queryCostCalculator.refresh();
+
+		ExecutionResult rejected = graphQL.execute(STREAM_SALES);
+
+		assertEquals(ErrorType.ExecutionAborted, rejected.getErrors().get(0).getErrorType());
+		assertTrue(graphQL.execute("subscription { hourlySales { datetime } }").getErrors().isEmpty());
+	}
+
+	@Test
+	public void queryTimeoutInstrumentation_shouldCancelTheFluxOfAQueryPastItsDeadline() throws IOException {
+		GraphQL graphQL = graphQL(environment -> Flux.never().doOnCancel(() -> cancelled.set(true)).collectList().toFuture(),
+				Duration.ofMillis(100));
+		queryCostCalculator.refresh();
+
+		ExecutionResult result = graphQL.execute(ALL_SALES);
+
+		assertEquals(1, result.getErrors().size());
+		assertTrue(cancelled.get());
+		assertEquals(1, meterRegistry.get(GraphQlConfig.ABORTED).tag("reason", "timeout").counter().count());
+	}
+
+	@Test
+	public void moneyScalar_shouldRejectAPriceWithMoreThanTwoDecimals() {
+		assertThrows(CoercingParseValueException.class, () -> FixedPointScalars.MONEY.getCoercing().parseValue("10.005"));
+		assertThrows(CoercingParseLiteralException.class, () -> FixedPointScalars.MONEY.getCoercing().parseLiteral(new FloatValue(new BigDecimal("10.005"))));
+		assertThrows(CoercingParseValueException.class, () -> FixedPointScalars.MODIFIER.getCoercing().parseValue("0.95005"));
+	}
+
+	private GraphQL graphQL(DataFetcher<?> queryFetcher, Duration timeout) throws IOException {
+		SchemaParser schemaParser = new SchemaParser();
+		RuntimeWiring.Builder wiring = RuntimeWiring.newRuntimeWiring();
+		GraphQlConfig graphQlConfig = new GraphQlConfig();
+		graphQlConfig.runtimeWiringConfigurer().configure(wiring);
+		wiring.type("Query", type -> type
+				.dataFetcher("getSalesByRange", queryFetcher)
+				.dataFetcher("getAllSales", queryFetcher));
+		wiring.type("Subscription", type -> type
+				.dataFetcher("streamSales", environment -> Flux.empty())
+				.dataFetcher("hourlySales", environment -> Flux.empty()));
+		try (Reader schema = new InputStreamReader(getClass().getResourceAsStream("/graphql/schema.graphqls"), StandardCharsets.UTF_8)) {
+			return GraphQL.newGraphQL(new SchemaGenerator().makeExecutableSchema(schemaParser.parse(schema), wiring.build()))
+					.instrumentation(new ChainedInstrumentation(List.of(
+							graphQlConfig.queryCostInstrumentation(queryCostCalculator, messageSource, meterRegistry, 20000),
+							graphQlConfig.queryTimeoutInstrumentation(messageSource, meterRegistry, timeout))))
+					.build();
+		}
+	}
+}
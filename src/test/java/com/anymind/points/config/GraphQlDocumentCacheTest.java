@@ -0,0 +1,94 @@
+package com.anymind.points.config;
+
+import graphql.ExecutionInput;
+import graphql.execution.preparsed.PreparsedDocumentEntry;
+import graphql.execution.preparsed.persisted.PersistedQueryNotFound;
+import graphql.execution.preparsed.persisted.PersistedQuerySupport;
+import graphql.parser.Parser;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GraphQlDocumentCacheTest {
+	private static final String QUERY = "{ getSaleById(id: 1) { points } }";
+
+	private final AtomicInteger parsed = new AtomicInteger();
+	private final Function<ExecutionInput, PreparsedDocumentEntry> parseAndValidate = executionInput -> {
+		parsed.incrementAndGet();
+		return new PreparsedDocumentEntry(Parser.parse(executionInput.getQuery()));
+	};
+
+	private GraphQlDocumentCache graphQlDocumentCache;
+
+	@BeforeEach
+	public void before() {
+		graphQlDocumentCache = new GraphQlDocumentCache(new SimpleMeterRegistry(), 100, "classpath*:graphql/*.graphql");
+	}
+
+	@Test
+	public void getDocument_shouldParseAQueryOnce() {
+		PreparsedDocumentEntry first = graphQlDocumentCache.getDocument(input(QUERY, Map.of()), parseAndValidate);
+		PreparsedDocumentEntry second = graphQlDocumentCache.getDocument(input(QUERY, Map.of()), parseAndValidate);
+
+		assertSame(first, second);
+		assertEquals(1, parsed.get());
+	}
+
+	@Test
+	public void getDocument_withAPersistedQuery_shouldServeItsHashOnceRegistered() {
+		Map<String, Object> extensions = persistedQuery(GraphQlDocumentCache.sha256(QUERY));
+
+		PreparsedDocumentEntry unknown = graphQlDocumentCache.getDocument(input(PersistedQuerySupport.PERSISTED_QUERY_MARKER, extensions), parseAndValidate);
+		assertInstanceOf(PersistedQueryNotFound.class, unknown.getErrors().get(0));
+
+		PreparsedDocumentEntry registered = graphQlDocumentCache.getDocument(input(QUERY, extensions), parseAndValidate);
+		PreparsedDocumentEntry served = graphQlDocumentCache.getDocument(input(PersistedQuerySupport.PERSISTED_QUERY_MARKER, extensions), parseAndValidate);
+
+		assertSame(registered, served);
+		assertEquals(1, parsed.get());
+	}
+
+	@Test
+	public void getDocument_withAQueryWhichDoesNotMatchItsHash_shouldNotRegisterIt() {
+		Map<String, Object> extensions = persistedQuery(GraphQlDocumentCache.sha256(QUERY));
+
+		PreparsedDocumentEntry forged = graphQlDocumentCache.getDocument(input("{ getAllSales { id } }", extensions), parseAndValidate);
+		assertTrue(forged.hasErrors());
+		assertEquals("PersistedQueryIdInvalid", forged.getErrors().get(0).getMessage());
+		assertEquals(0, parsed.get());
+
+		PreparsedDocumentEntry unknown = graphQlDocumentCache.getDocument(input(PersistedQuerySupport.PERSISTED_QUERY_MARKER, extensions), parseAndValidate);
+		assertInstanceOf(PersistedQueryNotFound.class, unknown.getErrors().get(0));
+	}
+
+	@Test
+	public void getDocument_withTheHashOfARegisteredQuery_shouldServeItWithoutItsDocument() throws IOException {
+		String query;
+		try (InputStream content = getClass().getResourceAsStream("/graphql/test-query.graphql")) {
+			query = new String(content.readAllBytes(), StandardCharsets.UTF_8);
+		}
+
+		PreparsedDocumentEntry entry = graphQlDocumentCache.getDocument(
+				input(PersistedQuerySupport.PERSISTED_QUERY_MARKER, persistedQuery(GraphQlDocumentCache.sha256(query))), parseAndValidate);
+
+		assertFalse(entry.hasErrors());
+		assertEquals(Parser.parse(query).getDefinitions().size(), entry.getDocument().getDefinitions().size());
+	}
+
+	private static ExecutionInput input(String query, Map<String, Object> extensions) {
+		return ExecutionInput.newExecutionInput(query).extensions(extensions).build();
+	}
+
+	private static Map<String, Object> persistedQuery(String hash) {
+		return Map.of("persistedQuery", Map.of("version", 1, "sha256Hash", hash));
+	}
+}
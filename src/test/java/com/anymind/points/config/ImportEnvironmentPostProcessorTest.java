@@ -0,0 +1,55 @@
+package com.anymind.points.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.ResourcePropertySource;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ImportEnvironmentPostProcessorTest {
+	private final ImportEnvironmentPostProcessor postProcessor = new ImportEnvironmentPostProcessor();
+
+	@Test
+	public void postProcessEnvironment_withAnImportFile_shouldDisableTheWebServerAndTheReplay() throws IOException {
+		StandardEnvironment environment = environment(Map.of("points.import.file", "data.csv"));
+
+		postProcessor.postProcessEnvironment(environment, new SpringApplication());
+
+		assertEquals("none", environment.getProperty("spring.main.web-application-type"));
+		assertEquals("false", environment.getProperty("points.ingestion.replay"));
+	}
+
+	@Test
+	public void postProcessEnvironment_shouldKeepTheExplicitValues() throws IOException {
+		StandardEnvironment environment = environment(Map.of("points.import.file", "data.csv",
+				"points.ingestion.replay", "true"));
+
+		postProcessor.postProcessEnvironment(environment, new SpringApplication());
+
+		assertEquals("true", environment.getProperty("points.ingestion.replay"));
+	}
+
+	@Test
+	public void postProcessEnvironment_withoutAnImportFile_shouldChangeNothing() throws IOException {
+		StandardEnvironment environment = environment(Map.of());
+
+		postProcessor.postProcessEnvironment(environment, new SpringApplication());
+
+		assertNull(environment.getProperty("spring.main.web-application-type"));
+	}
+
+	// the arguments first and application.properties last, as loaded before the post processor
+	private static StandardEnvironment environment(Map<String, Object> properties) throws IOException {
+		StandardEnvironment environment = new StandardEnvironment();
+		environment.getPropertySources().addFirst(new MapPropertySource("test", properties));
+		environment.getPropertySources().addLast(new ResourcePropertySource(new ClassPathResource("application.properties")));
+		return environment;
+	}
+}
@@ -0,0 +1,65 @@
+package com.anymind.points.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import graphql.execution.preparsed.persisted.PersistedQuerySupport;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistedQueryWebFilterTest {
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final PersistedQueryWebFilter persistedQueryWebFilter = new PersistedQueryWebFilter(objectMapper, "/graphql",
+			DataSize.ofBytes(256));
+
+	@Test
+	public void withQuery_shouldAddThePlaceholderToAHashOnlyRequest() throws IOException {
+		byte[] body = bytes("{\"extensions\":{\"persistedQuery\":{\"version\":1,\"sha256Hash\":\"abc\"}},\"variables\":{}}");
+
+		JsonNode document = objectMapper.readTree(persistedQueryWebFilter.withQuery(body));
+
+		assertEquals(PersistedQuerySupport.PERSISTED_QUERY_MARKER, document.get("query").asText());
+		assertEquals("abc", document.path("extensions").path("persistedQuery").path("sha256Hash").asText());
+	}
+
+	@Test
+	public void withQuery_shouldKeepTheOtherRequests() {
+		byte[] plain = bytes("{\"query\":\"{ getAllSales { id } }\"}");
+		byte[] registration = bytes("{\"query\":\"{ getAllSales { id } }\",\"extensions\":{\"persistedQuery\":{\"version\":1,\"sha256Hash\":\"abc\"}}}");
+		byte[] malformed = bytes("{\"extensions\":{\"persistedQuery\"");
+
+		assertSame(plain, persistedQueryWebFilter.withQuery(plain));
+		assertSame(registration, persistedQueryWebFilter.withQuery(registration));
+		assertSame(malformed, persistedQueryWebFilter.withQuery(malformed));
+	}
+
+	@Test
+	public void filter_shouldRejectABodyOverTheLimitWithoutBufferingIt() {
+		// a chunked body, without a content length
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/graphql")
+				.body(Flux.range(0, 100).map(i -> DefaultDataBufferFactory.sharedInstance.wrap(bytes("{\"query\":\"{ getAllSales { id } }\"}")))));
+		AtomicBoolean passedOn = new AtomicBoolean();
+
+		StepVerifier.create(persistedQueryWebFilter.filter(exchange, filtered -> Mono.fromRunnable(() -> passedOn.set(true))))
+				.verifyComplete();
+
+		assertEquals(HttpStatus.PAYLOAD_TOO_LARGE, exchange.getResponse().getStatusCode());
+		assertFalse(passedOn.get());
+	}
+
+	private static byte[] bytes(String json) {
+		return json.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,79 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Money;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class HourlySalesFeedTest {
+	@Mock
+	private SaleRollupService saleRollupService;
+
+	private HourlySalesFeed hourlySalesFeed;
+
+	private final ZonedDateTime hour = ZonedDateTime.parse("2022-09-01T01:00:00Z");
+
+	private final SalesListDto first = SalesListDto.builder().datetime(hour).sales(Money.of("95")).points(Money.of("5")).build();
+
+	private final SalesListDto second = SalesListDto.builder().datetime(hour).sales(Money.of("200")).points(Money.of("8")).build();
+
+	@BeforeEach
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		hourlySalesFeed = new HourlySalesFeed(saleRollupService);
+		ReflectionTestUtils.setField(hourlySalesFeed, "coalesceWindow", Duration.ofMillis(20));
+		hourlySalesFeed.start();
+	}
+
+	@AfterEach
+	public void after() {
+		hourlySalesFeed.stop();
+	}
+
+	@Test
+	public void publish_shouldReadAChangedHourOnceForAllSubscribers() {
+		when(saleRollupService.sumByHourBetween(any(), any())).thenReturn(Flux.just(first));
+
+		StepVerifier subscriber1 = StepVerifier.create(hourlySalesFeed.subscribe()).expectNext(first).thenCancel().verifyLater();
+		StepVerifier subscriber2 = StepVerifier.create(hourlySalesFeed.subscribe()).expectNext(first).thenCancel().verifyLater();
+
+		hourlySalesFeed.publish(List.of(hour.plusMinutes(10), hour.plusMinutes(20))).block();
+
+		subscriber1.verify(Duration.ofSeconds(5));
+		subscriber2.verify(Duration.ofSeconds(5));
+		verify(saleRollupService, times(1)).sumByHourBetween(hour, ZonedDateTime.parse("2022-09-01T01:59:59.999999Z"));
+	}
+
+	@Test
+	public void subscribe_whenSlow_shouldOnlyGetTheLatestTotalsOfAnHour() {
+		when(saleRollupService.sumByHourBetween(any(), any())).thenReturn(Flux.just(first), Flux.just(second));
+
+		StepVerifier.create(hourlySalesFeed.subscribe(), 0)
+				.then(() -> {
+					hourlySalesFeed.publish(List.of(hour)).block();
+					verify(saleRollupService, timeout(5000).times(1)).sumByHourBetween(any(), any());
+					hourlySalesFeed.publish(List.of(hour)).block();
+					verify(saleRollupService, timeout(5000).times(2)).sumByHourBetween(any(), any());
+				})
+				// lets the feed hand the second totals to the subscriber
+				.thenAwait(Duration.ofMillis(100))
+				.thenRequest(2)
+				.expectNext(second)
+				.expectNoEvent(Duration.ofMillis(100))
+				.thenCancel()
+				.verify(Duration.ofSeconds(5));
+	}
+}
@@ -0,0 +1,66 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SaleResponseDto;
+import com.anymind.points.model.Money;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IdempotencyIndexTest {
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private final IdempotencyIndex idempotencyIndex = new IdempotencyIndex(meterRegistry, 1000, Duration.ofHours(1));
+
+	private final SaleResponseDto price = SaleResponseDto.builder().finalPrice(Money.of("95")).points(Money.of("5")).build();
+
+	@Test
+	public void deduplicate_whenRetriedDuringTheFirstAttempt_shouldWaitForItsPrice() {
+		Sinks.One<SaleResponseDto> firstAttempt = Sinks.one();
+		AtomicInteger attempts = new AtomicInteger();
+
+		StepVerifier first = StepVerifier.create(idempotencyIndex.deduplicate("pos-7:1042", () -> {
+			attempts.incrementAndGet();
+			return firstAttempt.asMono();
+		})).expectNext(price).expectComplete().verifyLater();
+		StepVerifier retry = StepVerifier.create(idempotencyIndex.deduplicate("pos-7:1042", () -> {
+			attempts.incrementAndGet();
+			return Mono.just(price);
+		})).expectNext(price).expectComplete().verifyLater();
+
+		firstAttempt.tryEmitValue(price);
+
+		first.verify(Duration.ofSeconds(5));
+		retry.verify(Duration.ofSeconds(5));
+		assertEquals(1, attempts.get());
+		assertEquals(1, meterRegistry.get("points.idempotency.retries").counter().count());
+	}
+
+	@Test
+	public void deduplicate_whenTheFirstAttemptFails_shouldLetTheNextRetryTryAgain() {
+		StepVerifier.create(idempotencyIndex.deduplicate("pos-7:1042", () -> Mono.error(new IllegalStateException("connection refused"))))
+				.expectError(IllegalStateException.class)
+				.verify();
+
+		StepVerifier.create(idempotencyIndex.deduplicate("pos-7:1042", () -> Mono.just(price)))
+				.expectNext(price)
+				.verifyComplete();
+	}
+
+	@Test
+	public void deduplicate_withoutKey_shouldAlwaysRunTheAttempt() {
+		AtomicInteger attempts = new AtomicInteger();
+
+		idempotencyIndex.deduplicate(null, () -> Mono.fromCallable(attempts::incrementAndGet).thenReturn(price)).block();
+		idempotencyIndex.deduplicate(null, () -> Mono.fromCallable(attempts::incrementAndGet).thenReturn(price)).block();
+
+		assertEquals(2, attempts.get());
+	}
+}
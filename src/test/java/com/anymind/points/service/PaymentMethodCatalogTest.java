@@ -0,0 +1,139 @@
+package com.anymind.points.service;
+
+import com.anymind.points.model.Modifier;
+import com.anymind.points.model.PaymentMethod;
+import com.anymind.points.repository.PaymentMethodRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.*;
+
+public class PaymentMethodCatalogTest {
+	@Mock
+	private PaymentMethodRepository paymentMethodRepository;
+
+	private SimpleMeterRegistry meterRegistry;
+
+	private PaymentMethodCatalog paymentMethodCatalog;
+
+	private PaymentMethod cash;
+
+	@BeforeEach
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+
+		cash = PaymentMethod.builder()
+				.id(1)
+				.name("CASH")
+				.pointsModifier(Modifier.of("0.05"))
+				.priceModifierFrom(Modifier.of("0.9"))
+				.priceModifierTo(Modifier.of("1"))
+				.build();
+		meterRegistry = new SimpleMeterRegistry();
+		paymentMethodCatalog = new PaymentMethodCatalog(paymentMethodRepository, meterRegistry);
+
+		when(paymentMethodRepository.findAll()).thenReturn(Flux.just(cash));
+	}
+
+	@Test
+	public void findByName_shouldLoadCatalogOnlyOnce() {
+		StepVerifier.create(paymentMethodCatalog.findByName("CASH"))
+				.expectNext(cash)
+				.verifyComplete();
+		StepVerifier.create(paymentMethodCatalog.findById(1))
+				.expectNext(cash)
+				.verifyComplete();
+
+		verify(paymentMethodRepository, times(1)).findAll();
+		assertEquals(2, meterRegistry.get("points.payment-method.catalog.lookups").tag("result", "hit").counter().count());
+	}
+
+	@Test
+	public void findByName_whenUnknown_shouldReturnEmptyAndCountMiss() {
+		StepVerifier.create(paymentMethodCatalog.findByName("INVALID_CASH"))
+				.verifyComplete();
+
+		assertEquals(1, meterRegistry.get("points.payment-method.catalog.lookups").tag("result", "miss").counter().count());
+	}
+
+	@Test
+	public void invalidate_shouldReloadCatalog() {
+		paymentMethodCatalog.current().block();
+
+		paymentMethodCatalog.invalidate();
+
+		StepVerifier.create(paymentMethodCatalog.findByName("CASH"))
+				.expectNext(cash)
+				.verifyComplete();
+		verify(paymentMethodRepository, atLeast(2)).findAll();
+	}
+
+	@Test
+	public void current_beforeTheFirstLoad_shouldShareOneQuery() {
+		Sinks.Many<PaymentMethod> table = Sinks.many().unicast().onBackpressureBuffer();
+		when(paymentMethodRepository.findAll()).thenReturn(table.asFlux());
+
+		Mono<PaymentMethod> first = paymentMethodCatalog.findByName("CASH");
+		Mono<PaymentMethod> second = paymentMethodCatalog.findById(1);
+		StepVerifier.create(Mono.zip(first, second))
+				.then(() -> {
+					table.tryEmitNext(cash);
+					table.tryEmitComplete();
+				})
+				.expectNextMatches(found -> found.getT1() == cash && found.getT2() == cash)
+				.verifyComplete();
+
+		verify(paymentMethodRepository, times(1)).findAll();
+	}
+
+	@Test
+	public void invalidate_shouldKeepTheSnapshotUntilTheNewerLoadIsDone() {
+		PaymentMethod renamed = PaymentMethod.builder().id(1).name("CASH_ON_DELIVERY").pointsModifier(Modifier.of("0.05")).build();
+		Sinks.Many<PaymentMethod> slowTable = Sinks.many().unicast().onBackpressureBuffer();
+		Sinks.Many<PaymentMethod> changedTable = Sinks.many().unicast().onBackpressureBuffer();
+		paymentMethodCatalog.current().block();
+		when(paymentMethodRepository.findAll()).thenReturn(slowTable.asFlux(), changedTable.asFlux());
+
+		// a scheduled refresh is still reading the table when it changes
+		paymentMethodCatalog.refresh().subscribe();
+		paymentMethodCatalog.invalidate();
+		assertEquals(cash, paymentMethodCatalog.findByName("CASH").block());
+
+		changedTable.tryEmitNext(renamed);
+		changedTable.tryEmitComplete();
+		slowTable.tryEmitNext(cash);
+		slowTable.tryEmitComplete();
+
+		// the older load completed last but doesn't replace the newer snapshot
+		assertEquals(renamed, paymentMethodCatalog.findByName("CASH_ON_DELIVERY").block());
+		assertNull(paymentMethodCatalog.findByName("CASH").block());
+	}
+
+	@Test
+	public void findAllById_shouldLookUpEveryIdOnceAndQueryOnlyTheMissingOnes() {
+		PaymentMethod points = PaymentMethod.builder().id(2).name("POINTS").pointsModifier(Modifier.of("0")).build();
+		when(paymentMethodRepository.findAllById(anyIterable())).thenReturn(Flux.just(points));
+
+		StepVerifier.create(paymentMethodCatalog.findAllById(List.of(1, 1, 2, 1, 3)))
+				.expectNext(Map.of(1, cash, 2, points))
+				.verifyComplete();
+
+		verify(paymentMethodRepository).findAllById(Set.of(2, 3));
+		assertEquals(1, meterRegistry.get("points.payment-method.catalog.lookups").tag("result", "hit").counter().count());
+		assertEquals(2, meterRegistry.get("points.payment-method.catalog.lookups").tag("result", "miss").counter().count());
+	}
+}
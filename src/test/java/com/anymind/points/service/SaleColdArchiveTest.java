@@ -0,0 +1,89 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Money;
+import com.anymind.points.model.SaleColdMonth;
+import com.anymind.points.repository.SaleColdMonthRepository;
+import com.anymind.points.repository.SalesRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.ReactiveTransactionManager;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.when;
+
+public class SaleColdArchiveTest {
+	private static final ZonedDateTime MONTH = ZonedDateTime.parse("2022-09-01T00:00:00Z");
+
+	@TempDir
+	Path directory;
+	@Mock
+	private SalesRepository salesRepository;
+	@Mock
+	private SaleColdMonthRepository saleColdMonthRepository;
+	@Mock
+	private SaleRollupService saleRollupService;
+	@Mock
+	private SalesReportCache salesReportCache;
+	@Mock
+	private ReactiveTransactionManager transactionManager;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private SaleColdArchive saleColdArchive;
+
+	@BeforeEach
+	public void before() throws IOException {
+		MockitoAnnotations.initMocks(this);
+		try (SaleColumnFile.Writer writer = SaleColumnFile.create(directory.resolve("sales.tmp"), MONTH)) {
+			writer.add(SaleColumnFileTest.sale(1, "2022-09-01T00:10:00Z", "95.00", "5.00", null));
+			writer.add(SaleColumnFileTest.sale(2, "2022-09-01T02:10:00Z", "10.00", "0.50", null));
+			writer.finish(directory.resolve("sales-2022-09.salecol"));
+		}
+		when(saleColdMonthRepository.findAll()).thenReturn(Flux.just(
+				SaleColdMonth.builder().month(MONTH).file("sales-2022-09.salecol").saleCount(2L).build()));
+		saleColdArchive = new SaleColdArchive(salesRepository, saleColdMonthRepository, saleRollupService, salesReportCache,
+				transactionManager, meterRegistry, directory.toString(), false, 24);
+		saleColdArchive.start();
+	}
+
+	@Test
+	public void mergeByHour_shouldSumTheArchivedAndTheLiveSalesOfAnHour() {
+		// a sale added to the archived month after it was archived, and one of the next month
+		Flux<SalesListDto> live = Flux.just(
+				hour("2022-09-01T02:00:00Z", "1.00", "0.05"),
+				hour("2022-10-01T00:00:00Z", "7.00", "0.35"));
+
+		StepVerifier.create(saleColdArchive.mergeByHour(live, ZonedDateTime.parse("2022-09-01T00:00:00Z"), ZonedDateTime.parse("2022-10-01T05:00:00Z")))
+				.expectNext(hour("2022-09-01T00:00:00Z", "95.00", "5.00"))
+				.expectNext(hour("2022-09-01T02:00:00Z", "11.00", "0.55"))
+				.expectNext(hour("2022-10-01T00:00:00Z", "7.00", "0.35"))
+				.verifyComplete();
+		assertEquals(1, meterRegistry.get("points.cold-archive.months").gauge().value());
+	}
+
+	@Test
+	public void mergeByHour_outsideOfTheArchivedMonths_shouldOnlyReadTheLiveSales() {
+		Flux<SalesListDto> live = Flux.just(hour("2022-10-01T00:00:00Z", "7.00", "0.35"));
+
+		StepVerifier.create(saleColdArchive.mergeByHour(live, ZonedDateTime.parse("2022-10-01T00:00:00Z"), ZonedDateTime.parse("2022-10-01T05:00:00Z")))
+				.expectNext(hour("2022-10-01T00:00:00Z", "7.00", "0.35"))
+				.verifyComplete();
+		assertEquals(List.of(), saleColdArchive.sumByHourBetween(ZonedDateTime.parse("2022-08-01T00:00:00Z"), ZonedDateTime.parse("2022-08-31T00:00:00Z")));
+	}
+
+	private static SalesListDto hour(String datetime, String sales, String points) {
+		return SalesListDto.builder().datetime(ZonedDateTime.parse(datetime)).sales(Money.of(sales)).points(Money.of(points)).build();
+	}
+}
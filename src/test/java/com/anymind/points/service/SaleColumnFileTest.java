@@ -0,0 +1,121 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Money;
+import com.anymind.points.model.Sale;
+import com.anymind.points.model.SaleHourly;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SaleColumnFileTest {
+	private static final ZonedDateTime MONTH = ZonedDateTime.parse("2022-09-01T00:00:00Z");
+
+	@TempDir
+	Path directory;
+
+	private final List<Sale> sales = List.of(
+			sale(7, "2022-09-01T00:10:00Z", "95.00", "5.00", null),
+			sale(3, "2022-09-01T00:40:00.000001Z", "10.50", "0.53", "retry-1"),
+			sale(12, "2022-09-01T01:05:00Z", "1000.00", "50.00", null),
+			sale(9, "2022-09-03T23:59:59.999999Z", "-1.00", "0.00", "retry-2"));
+
+	@Test
+	public void finish_shouldKeepEverySaleInDatetimeOrder() throws IOException {
+		SaleColumnFile file = write(sales);
+
+		List<Sale> read = new ArrayList<>();
+		file.forEachSale(read::add);
+
+		assertEquals(sales, read);
+		assertEquals(4, file.getRows());
+		assertEquals(MONTH, file.getMonth());
+		assertFalse(Files.exists(directory.resolve("sales.tmp")));
+	}
+
+	@Test
+	public void forEachSaleBetween_shouldOnlyReturnTheSalesOfTheRange() throws IOException {
+		SaleColumnFile file = write(sales);
+
+		List<Sale> read = new ArrayList<>();
+		file.forEachSaleBetween(ZonedDateTime.parse("2022-09-01T00:40:00Z"), ZonedDateTime.parse("2022-09-01T01:05:00Z"), read::add);
+
+		assertEquals(sales.subList(1, 3), read);
+	}
+
+	@Test
+	public void hours_shouldReturnTheTotalsOfEveryHourWithSales() throws IOException {
+		List<SaleHourly> hours = write(sales).hours();
+
+		assertEquals(3, hours.size());
+		assertEquals(ZonedDateTime.parse("2022-09-01T00:00:00Z"), hours.get(0).getDatetime());
+		assertEquals(Money.of("105.50"), hours.get(0).getSales());
+		assertEquals(Money.of("5.53"), hours.get(0).getPoints());
+		assertEquals(2L, hours.get(0).getSaleCount());
+		assertEquals(ZonedDateTime.parse("2022-09-03T23:00:00Z"), hours.get(2).getDatetime());
+	}
+
+	@Test
+	public void sumByHourBetween_shouldOnlyDecodeTheHoursCutByTheRange() throws IOException {
+		SaleColumnFile file = write(sales);
+
+		List<SalesListDto> whole = file.sumByHourBetween(ZonedDateTime.parse("2022-08-31T00:00:00Z"), ZonedDateTime.parse("2022-09-30T00:00:00Z"));
+		assertEquals(3, whole.size());
+		assertEquals(Money.of("1000.00"), whole.get(1).getSales());
+
+		// from the middle of the first hour, the sale of 00:10 is left out
+		List<SalesListDto> cut = file.sumByHourBetween(ZonedDateTime.parse("2022-09-01T00:30:00Z"), ZonedDateTime.parse("2022-09-01T01:04:59Z"));
+		assertEquals(1, cut.size());
+		assertEquals(ZonedDateTime.parse("2022-09-01T00:00:00Z"), cut.get(0).getDatetime());
+		assertEquals(Money.of("10.50"), cut.get(0).getSales());
+		assertEquals(Money.of("0.53"), cut.get(0).getPoints());
+
+		assertTrue(file.sumByHourBetween(ZonedDateTime.parse("2022-09-02T00:00:00Z"), ZonedDateTime.parse("2022-09-03T22:59:59Z")).isEmpty());
+	}
+
+	@Test
+	public void open_shouldRejectATruncatedFile() throws IOException {
+		Path path = write(sales).getPath();
+		byte[] bytes = Files.readAllBytes(path);
+		Path truncated = directory.resolve("truncated");
+		Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 1));
+
+		assertThrows(IOException.class, () -> SaleColumnFile.open(truncated));
+	}
+
+	@Test
+	public void add_shouldRejectSalesOutOfOrder() throws IOException {
+		try (SaleColumnFile.Writer writer = SaleColumnFile.create(directory.resolve("sales.tmp"), MONTH)) {
+			writer.add(sales.get(2));
+			assertThrows(IllegalArgumentException.class, () -> writer.add(sales.get(0)));
+		}
+		assertFalse(Files.exists(directory.resolve("sales.tmp")));
+	}
+
+	private SaleColumnFile write(List<Sale> sales) throws IOException {
+		try (SaleColumnFile.Writer writer = SaleColumnFile.create(directory.resolve("sales.tmp"), MONTH)) {
+			sales.forEach(writer::add);
+			return writer.finish(directory.resolve("sales-2022-09.salecol"));
+		}
+	}
+
+	static Sale sale(int id, String datetime, String price, String points, String idempotencyKey) {
+		return Sale.builder()
+				.id(id)
+				.dateTime(ZonedDateTime.parse(datetime))
+				.finalPrice(Money.of(price))
+				.points(Money.of(points))
+				.paymentMethodId(1)
+				.idempotencyKey(idempotencyKey)
+				.build();
+	}
+}
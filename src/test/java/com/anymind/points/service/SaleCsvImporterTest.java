@@ -0,0 +1,184 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.RequestData;
+import com.anymind.points.exception.CustomException;
+import com.anymind.points.model.Modifier;
+import com.anymind.points.model.Money;
+import com.anymind.points.model.PaymentMethod;
+import com.anymind.points.model.Sale;
+import com.anymind.points.model.SalesInput;
+import com.anymind.points.repository.SaleJournalCheckpointRepository;
+import com.anymind.points.repository.SalesRepository;
+import graphql.ErrorType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.MessageSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class SaleCsvImporterTest {
+	private static final String EXPORT = """
+			id,final_price,points,payment_method_id,datetime
+			1,11727.75,617.25,1,2022-09-01 00:00:00.000000 +00:00
+			2,950.00,50.00,1,2022-09-01 01:30:00.000000 +00:00
+
+			3,950.00,50.00,9,2022-09-01 02:00:00.000000 +00:00
+			4,95.00,5.00,1,2022-09-01T03:00:00Z
+			""";
+
+	@TempDir
+	Path directory;
+	@Mock
+	private SalesRepository salesRepository;
+	@Mock
+	private SalesServiceImpl salesService;
+	@Mock
+	private PaymentMethodCatalog paymentMethodCatalog;
+	@Mock
+	private SaleRollupService saleRollupService;
+	@Mock
+	private SalesReportCache salesReportCache;
+	@Mock
+	private HourlySalesFeed hourlySalesFeed;
+	@Mock
+	private TransactionalOperator transactionalOperator;
+	@Mock
+	private SaleJournalCheckpointRepository checkpointRepository;
+	@Mock
+	private MessageSource messageSource;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private SaleCsvImporter saleCsvImporter;
+
+	@BeforeEach
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		when(salesRepository.copyAll(anyList())).thenAnswer(invocation -> Mono.just((long) invocation.<List<Sale>>getArgument(0).size()));
+		when(saleRollupService.addAll(anyList())).thenReturn(Mono.empty());
+		when(salesReportCache.evict(any())).thenReturn(Mono.empty());
+		when(hourlySalesFeed.publish(any())).thenReturn(Mono.empty());
+		when(transactionalOperator.transactional(any(Mono.class))).thenAnswer(invocation -> invocation.getArgument(0));
+		when(messageSource.getMessage(anyString(), any(), any())).thenReturn("Error Message");
+		when(checkpointRepository.findSequence(anyString())).thenReturn(Mono.empty());
+		when(checkpointRepository.advance(anyString(), anyLong())).thenReturn(Mono.just(1));
+		when(paymentMethodCatalog.findById(anyInt())).thenReturn(Mono.empty());
+		when(paymentMethodCatalog.findById(1)).thenReturn(Mono.just(PaymentMethod.builder().id(1).name("CASH").build()));
+
+		saleCsvImporter = new SaleCsvImporter(salesRepository, salesService, paymentMethodCatalog, saleRollupService,
+				salesReportCache, hourlySalesFeed, transactionalOperator, checkpointRepository, messageSource, meterRegistry);
+		ReflectionTestUtils.setField(saleCsvImporter, "chunkSize", 2);
+	}
+
+	@Test
+	public void importFile_shouldLoadTheValidRowsInChunksAndAdvanceTheCheckpoint() throws IOException {
+		Path file = write(EXPORT);
+
+		StepVerifier.create(saleCsvImporter.importFile(file, "import:data.csv"))
+				.assertNext(result -> {
+					assertEquals(6, result.lastLine());
+					assertEquals(3, result.imported());
+					assertEquals(1, result.rejected());
+				})
+				.verifyComplete();
+
+		ArgumentCaptor<List<Sale>> chunks = ArgumentCaptor.forClass(List.class);
+		verify(salesRepository, times(2)).copyAll(chunks.capture());
+		assertEquals(Money.of("11727.75"), chunks.getAllValues().get(0).get(0).getFinalPrice());
+		assertEquals(ZonedDateTime.parse("2022-09-01T01:30:00Z"), chunks.getAllValues().get(0).get(1).getDateTime());
+		// the unknown payment method of line 5 is skipped
+		assertEquals(1, chunks.getAllValues().get(1).size());
+		verify(checkpointRepository).advance("import:data.csv", 3);
+		verify(checkpointRepository).advance("import:data.csv", 6);
+		assertEquals(3, meterRegistry.get("points.import.rows").tag("outcome", "imported").counter().count());
+	}
+
+	@Test
+	public void importFile_withACheckpoint_shouldResumeAfterItsLine() throws IOException {
+		Path file = write(EXPORT);
+		when(checkpointRepository.findSequence("import:data.csv")).thenReturn(Mono.just(3L));
+
+		StepVerifier.create(saleCsvImporter.importFile(file, "import:data.csv"))
+				.assertNext(result -> assertEquals(1, result.imported()))
+				.verifyComplete();
+
+		verify(salesRepository).copyAll(argThat(sales -> sales.size() == 1
+				&& sales.get(0).getDateTime().equals(ZonedDateTime.parse("2022-09-01T03:00:00Z"))));
+	}
+
+	@Test
+	public void importFile_withTheInputsOfAddSale_shouldPriceThemLikeAddSale() throws IOException {
+		Path file = write("""
+				price,price_modifier,payment_method,datetime
+				100.00,0.95,CASH,2022-09-01T00:00:00Z
+				100.00,2.00,CASH,2022-09-01T00:00:00Z
+				""");
+		Sale sale = Sale.builder().finalPrice(Money.of("95.00")).points(Money.of("5.00")).paymentMethodId(1)
+				.dateTime(ZonedDateTime.parse("2022-09-01T00:00:00Z")).build();
+		when(salesService.verifyPaymentMethod(any())).thenAnswer(invocation -> {
+			SalesInput input = invocation.getArgument(0);
+			return input.getPriceModifier().equals(Modifier.of("0.95"))
+					? Mono.just(RequestData.builder().salesInput(input).build())
+					: Mono.error(new CustomException(ErrorType.InvalidSyntax, "Invalid price modifier"));
+		});
+		when(salesService.toSale(any())).thenReturn(sale);
+
+		StepVerifier.create(saleCsvImporter.importFile(file, "import:inputs.csv"))
+				.assertNext(result -> {
+					assertEquals(1, result.imported());
+					assertEquals(1, result.rejected());
+				})
+				.verifyComplete();
+
+		verify(salesRepository).copyAll(List.of(sale));
+	}
+
+	@Test
+	public void importFile_whenAChunkFails_shouldStopBeforeItsCheckpoint() throws IOException {
+		Path file = write(EXPORT);
+		when(salesRepository.copyAll(anyList())).thenReturn(Mono.just(2L), Mono.error(new RuntimeException("connection lost")));
+
+		StepVerifier.create(saleCsvImporter.importFile(file, "import:data.csv"))
+				.expectError(CustomException.class)
+				.verify();
+
+		verify(checkpointRepository).advance("import:data.csv", 3);
+		verify(checkpointRepository, never()).advance("import:data.csv", 6);
+	}
+
+	@Test
+	public void importFile_withAnUnknownHeader_shouldFail() throws IOException {
+		Path file = write("a,b,c\n1,2,3\n");
+
+		StepVerifier.create(saleCsvImporter.importFile(file, "import:unknown.csv"))
+				.expectError(IllegalArgumentException.class)
+				.verify();
+		verify(salesRepository, never()).copyAll(anyList());
+	}
+
+	@Test
+	public void split_shouldHonourTheQuotedFields() {
+		assertEquals(List.of("1", "a,b", "say \"hi\"", ""), SaleCsvImporter.split("1,\"a,b\",\"say \"\"hi\"\"\","));
+	}
+
+	private Path write(String csv) throws IOException {
+		return Files.writeString(directory.resolve("data.csv"), csv);
+	}
+}
@@ -0,0 +1,188 @@
+package com.anymind.points.service;
+
+import com.anymind.points.model.Money;
+import com.anymind.points.model.Sale;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SaleJournalTest {
+	// the smallest segment, room for 8 records without an idempotency key
+	private static final DataSize SEGMENT_SIZE = DataSize.ofBytes(446);
+
+	@TempDir
+	Path directory;
+
+	private final List<SaleJournal> journals = new ArrayList<>();
+
+	private final Sale sale1 = Sale.builder().finalPrice(Money.of("95")).points(Money.of("5")).paymentMethodId(1)
+			.dateTime(ZonedDateTime.parse("2022-09-01T01:10:00.123456+09:00")).idempotencyKey("pos-7:1042").build();
+
+	private final Sale sale2 = Sale.builder().finalPrice(Money.of("200.50")).points(Money.of("8")).paymentMethodId(2)
+			.dateTime(ZonedDateTime.parse("2022-09-01T02:10:00Z")).build();
+
+	private SaleJournal newJournal() {
+		SaleJournal journal = new SaleJournal(new SimpleMeterRegistry(), directory.toString(), "default", SEGMENT_SIZE);
+		journals.add(journal);
+		return journal;
+	}
+
+	@AfterEach
+	public void after() {
+		journals.forEach(SaleJournal::close);
+	}
+
+	@Test
+	public void open_shouldReturnTheDurableSalesAfterTheCheckpoint() {
+		SaleJournal journal = newJournal();
+		journal.open(0);
+		List<Long> appended = new ArrayList<>();
+		long first = journal.append(sale1, appended::add);
+		long second = journal.append(sale2, appended::add);
+		StepVerifier.create(journal.awaitDurable(second)).expectComplete().verify(Duration.ofSeconds(5));
+		journal.close();
+
+		assertEquals(List.of(first, second), appended);
+		List<SaleJournal.Entry> replayed = newJournal().open(first);
+
+		assertEquals(1, replayed.size());
+		assertEquals(second, replayed.get(0).sequence());
+		assertEquals(sale2.getFinalPrice(), replayed.get(0).sale().getFinalPrice());
+		assertEquals(sale2.getPaymentMethodId(), replayed.get(0).sale().getPaymentMethodId());
+		assertTrue(sale2.getDateTime().isEqual(replayed.get(0).sale().getDateTime()));
+	}
+
+	@Test
+	public void open_shouldKeepTheSequencesGoingAfterARestart() {
+		SaleJournal journal = newJournal();
+		journal.open(0);
+		long first = journal.append(sale1, sequence -> {
+		});
+		journal.close();
+
+		SaleJournal reopened = newJournal();
+		List<SaleJournal.Entry> replayed = reopened.open(0);
+
+		assertEquals(first, replayed.get(0).sequence());
+		assertTrue(sale1.getDateTime().isEqual(replayed.get(0).sale().getDateTime()));
+		assertEquals(sale1.getIdempotencyKey(), replayed.get(0).sale().getIdempotencyKey());
+		assertEquals(first + 1, reopened.append(sale2, sequence -> {
+		}));
+	}
+
+	@Test
+	public void open_shouldIgnoreADamagedRecord() throws IOException {
+		SaleJournal journal = newJournal();
+		journal.open(0);
+		journal.append(sale2, sequence -> {
+		});
+		journal.append(sale2, sequence -> {
+		});
+		journal.close();
+
+		// flips a byte of the payload of the second record, the records without a key take 54 bytes
+		try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[]{(byte) 0xFF}), 8 + 54 + 20);
+		}
+
+		List<SaleJournal.Entry> replayed = newJournal().open(0);
+
+		assertEquals(1, replayed.size());
+		assertEquals(sale2.getFinalPrice(), replayed.get(0).sale().getFinalPrice());
+		assertNull(replayed.get(0).sale().getIdempotencyKey());
+	}
+
+	@Test
+	public void open_shouldReplayTheSegmentsOfTheFirstVersion() throws IOException {
+		// a segment written before the idempotency keys: 44 bytes records, no key
+		ByteBuffer segment = ByteBuffer.allocate(8 + 2 * 52);
+		segment.putInt(0x53414C4A).putInt(1);
+		for (long sequence = 1; sequence <= 2; sequence++) {
+			ByteBuffer payload = ByteBuffer.allocate(44)
+					.putLong(sequence)
+					.putLong(sale2.getFinalPrice().cents())
+					.putLong(sale2.getPoints().cents())
+					.putInt(sale2.getPaymentMethodId())
+					.putLong(sale2.getDateTime().toEpochSecond())
+					.putInt(sale2.getDateTime().getNano())
+					.putInt(sale2.getDateTime().getOffset().getTotalSeconds())
+					.flip();
+			CRC32C crc = new CRC32C();
+			crc.update(payload.duplicate());
+			segment.putInt(44).putInt((int) crc.getValue()).put(payload);
+		}
+		Files.write(directory.resolve("segment-00000000000000000001.journal"), segment.array());
+
+		SaleJournal journal = newJournal();
+		List<SaleJournal.Entry> replayed = journal.open(0);
+
+		assertEquals(List.of(1L, 2L), replayed.stream().map(SaleJournal.Entry::sequence).toList());
+		assertEquals(sale2.getFinalPrice(), replayed.get(1).sale().getFinalPrice());
+		assertEquals(sale2.getPoints(), replayed.get(1).sale().getPoints());
+		assertTrue(sale2.getDateTime().isEqual(replayed.get(1).sale().getDateTime()));
+		assertNull(replayed.get(1).sale().getIdempotencyKey());
+		// the new records go to a segment of the current version
+		assertEquals(3, journal.append(sale1, sequence -> {
+		}));
+	}
+
+	@Test
+	public void getName_withoutAConfiguredName_shouldKeepAGeneratedNameInTheDirectory() {
+		String name = new SaleJournal(new SimpleMeterRegistry(), directory.toString(), "", SEGMENT_SIZE).getName();
+
+		assertNotEquals("default", name);
+		assertFalse(name.isBlank());
+		assertEquals(name, new SaleJournal(new SimpleMeterRegistry(), directory.toString(), "", SEGMENT_SIZE).getName());
+		assertNotEquals(name, new SaleJournal(new SimpleMeterRegistry(), directory.resolve("other").toString(), "", SEGMENT_SIZE).getName());
+	}
+
+	@Test
+	public void getName_withTheSegmentsOfAnUnnamedJournal_shouldKeepTheLegacyName() {
+		SaleJournal journal = newJournal();
+		journal.open(0);
+		journal.append(sale2, sequence -> {
+		});
+		journal.close();
+
+		assertEquals("default", new SaleJournal(new SimpleMeterRegistry(), directory.toString(), "", SEGMENT_SIZE).getName());
+	}
+
+	@Test
+	public void truncate_shouldDeleteTheSealedSegmentsUpToTheCheckpoint() throws IOException {
+		SaleJournal journal = newJournal();
+		journal.open(0);
+		for (int i = 0; i < 17; i++)
+			journal.append(sale2, sequence -> {
+			});
+		assertEquals(3, segments().size());
+
+		journal.truncate(12);
+
+		// the second segment still holds the sequences 9 to 16, the third one is active
+		assertEquals(2, segments().size());
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> paths = Files.list(directory)) {
+			return paths.sorted().toList();
+		}
+	}
+}
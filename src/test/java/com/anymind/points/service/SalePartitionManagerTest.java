@@ -0,0 +1,122 @@
+package com.anymind.points.service;
+
+import com.anymind.points.repository.SalePartitionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class SalePartitionManagerTest {
+	@Mock
+	private SalePartitionRepository salePartitionRepository;
+	@Mock
+	private TransactionalOperator transactionalOperator;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	// partitions of the sale table, maintained by the mocked DDL
+	private final List<String> partitions = new ArrayList<>();
+
+	private final ZonedDateTime currentMonth = SalePartitioning.MONTHLY.start(ZonedDateTime.now(ZoneOffset.UTC));
+
+	@BeforeEach
+	@SuppressWarnings("unchecked")
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		when(transactionalOperator.transactional(any(Mono.class))).thenAnswer(invocation -> invocation.getArgument(0));
+		when(salePartitionRepository.lock()).thenReturn(Mono.empty());
+		when(salePartitionRepository.replaceHeap()).thenAnswer(invocation -> Mono.fromRunnable(() -> partitions.add("sale_default")));
+		when(salePartitionRepository.copyHeap()).thenReturn(Mono.empty());
+		when(salePartitionRepository.findPartitions("sale")).thenAnswer(invocation -> Flux.defer(() -> Flux.fromIterable(new ArrayList<>(partitions))));
+		when(salePartitionRepository.createPartition(anyString(), any(), any()))
+				.thenAnswer(invocation -> Mono.fromRunnable(() -> partitions.add(invocation.getArgument(0))));
+		when(salePartitionRepository.archivePartition(anyString(), any(), any()))
+				.thenAnswer(invocation -> Mono.fromRunnable(() -> partitions.remove((String) invocation.getArgument(0))));
+	}
+
+	@Test
+	public void maintain_withHeapTable_shouldPartitionItFromItsFirstSaleToThePremadePartitions() {
+		when(salePartitionRepository.isPartitioned()).thenReturn(Mono.just(false));
+		when(salePartitionRepository.findHeapRange()).thenReturn(Mono.just(new ZonedDateTime[]{
+				currentMonth.minusMonths(2).plusDays(3), currentMonth.plusHours(5)}));
+
+		StepVerifier.create(manager(3, 0).maintain())
+				.expectNext(7)
+				.verifyComplete();
+
+		verify(salePartitionRepository).createPartition(SalePartitioning.MONTHLY.name(currentMonth.minusMonths(2)),
+				currentMonth.minusMonths(2), currentMonth.minusMonths(1));
+		verify(salePartitionRepository).createPartition(eq(SalePartitioning.MONTHLY.name(currentMonth.plusMonths(3))), any(), any());
+		// the partitions of the existing sales are created before they are copied
+		InOrder order = inOrder(salePartitionRepository);
+		order.verify(salePartitionRepository).replaceHeap();
+		order.verify(salePartitionRepository).createPartition(eq(SalePartitioning.MONTHLY.name(currentMonth)), any(), any());
+		order.verify(salePartitionRepository).copyHeap();
+		assertEquals(7, meterRegistry.get("points.sale-partitioning.partitions").gauge().value());
+	}
+
+	@Test
+	public void maintain_withPartitionedTable_shouldOnlyCreateTheMissingPartitionsAndArchiveTheOldOnes() {
+		when(salePartitionRepository.isPartitioned()).thenReturn(Mono.just(true));
+		partitions.addAll(List.of("sale_default",
+				SalePartitioning.MONTHLY.name(currentMonth.minusMonths(2)),
+				SalePartitioning.MONTHLY.name(currentMonth.minusMonths(1)),
+				SalePartitioning.MONTHLY.name(currentMonth)));
+
+		StepVerifier.create(manager(1, 1).maintain())
+				.expectNext(4)
+				.verifyComplete();
+
+		verify(salePartitionRepository, never()).replaceHeap();
+		verify(salePartitionRepository, times(1)).createPartition(anyString(), any(), any());
+		verify(salePartitionRepository).createPartition(SalePartitioning.MONTHLY.name(currentMonth.plusMonths(1)),
+				currentMonth.plusMonths(1), currentMonth.plusMonths(2));
+		verify(salePartitionRepository).archivePartition(SalePartitioning.MONTHLY.name(currentMonth.minusMonths(2)),
+				currentMonth.minusMonths(2), currentMonth.minusMonths(1));
+	}
+
+	@Test
+	public void maintain_withoutPartitioning_shouldNotTouchTheTable() {
+		StepVerifier.create(new SalePartitionManager(salePartitionRepository, transactionalOperator, meterRegistry,
+						SalePartitioning.NONE, 3, 0).maintain())
+				.verifyComplete();
+
+		verifyNoInteractions(salePartitionRepository);
+	}
+
+	@Test
+	public void parse_shouldOnlyAcceptTheNamesOfItsOwnPartitions() {
+		ZonedDateTime start = ZonedDateTime.parse("2022-09-01T00:00:00Z");
+
+		assertEquals("sale_p2022_09", SalePartitioning.MONTHLY.name(start));
+		assertEquals("sale_p2022_09_01", SalePartitioning.DAILY.name(start));
+		assertEquals(Optional.of(start), SalePartitioning.MONTHLY.parse("sale_p2022_09"));
+		assertEquals(Optional.of(start), SalePartitioning.DAILY.parse("sale_p2022_09_01"));
+		assertEquals(Optional.empty(), SalePartitioning.MONTHLY.parse("sale_p2022_09_01"));
+		assertEquals(Optional.empty(), SalePartitioning.DAILY.parse("sale_default"));
+		// partitions cover UTC periods
+		assertEquals(start.plusMonths(1), SalePartitioning.MONTHLY.start(ZonedDateTime.parse("2022-09-30T20:30:00-05:00")));
+	}
+
+	private SalePartitionManager manager(int premadePartitions, int retainedPartitions) {
+		return new SalePartitionManager(salePartitionRepository, transactionalOperator, meterRegistry,
+				SalePartitioning.MONTHLY, premadePartitions, retainedPartitions);
+	}
+}
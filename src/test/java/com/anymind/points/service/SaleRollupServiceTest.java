@@ -0,0 +1,95 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Money;
+import com.anymind.points.model.Sale;
+import com.anymind.points.repository.SaleHourlyRepository;
+import com.anymind.points.repository.SalesRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class SaleRollupServiceTest {
+	@Mock
+	private SaleHourlyRepository saleHourlyRepository;
+	@Mock
+	private SalesRepository salesRepository;
+
+	private SaleRollupService saleRollupService;
+
+	@BeforeEach
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		saleRollupService = new SaleRollupService(saleHourlyRepository, salesRepository, new SimpleMeterRegistry());
+
+		when(salesRepository.sumByHourBetween(any(), any())).thenReturn(Flux.empty());
+		when(saleHourlyRepository.findHoursBetween(any(), any())).thenReturn(Flux.empty());
+	}
+
+	@Test
+	public void sumByHourBetween_shouldReadWholeHoursFromRollupAndEdgesFromSales() {
+		ZonedDateTime from = ZonedDateTime.parse("2022-09-01T00:30:00Z");
+		ZonedDateTime to = ZonedDateTime.parse("2022-09-01T08:15:00Z");
+		SalesListDto hour = SalesListDto.builder().datetime(ZonedDateTime.parse("2022-09-01T01:00:00Z"))
+				.sales(Money.of("95")).points(Money.of("5")).build();
+		when(saleHourlyRepository.findHoursBetween(any(), any())).thenReturn(Flux.just(hour));
+
+		StepVerifier.create(saleRollupService.sumByHourBetween(from, to))
+				.expectNext(hour)
+				.verifyComplete();
+
+		verify(salesRepository).sumByHourBetween(from, ZonedDateTime.parse("2022-09-01T00:59:59.999999Z"));
+		verify(saleHourlyRepository).findHoursBetween(ZonedDateTime.parse("2022-09-01T01:00:00Z"), ZonedDateTime.parse("2022-09-01T07:59:59.999999Z"));
+		verify(salesRepository).sumByHourBetween(ZonedDateTime.parse("2022-09-01T08:00:00Z"), to);
+	}
+
+	@Test
+	public void sumByHourBetween_whenAlignedOnHours_shouldOnlyReadRollupAndLastInstant() {
+		ZonedDateTime from = ZonedDateTime.parse("2022-09-01T00:00:00Z");
+		ZonedDateTime to = ZonedDateTime.parse("2022-09-01T08:00:00Z");
+
+		StepVerifier.create(saleRollupService.sumByHourBetween(from, to))
+				.verifyComplete();
+
+		verify(saleHourlyRepository).findHoursBetween(from, ZonedDateTime.parse("2022-09-01T07:59:59.999999Z"));
+		verify(salesRepository).sumByHourBetween(to, to);
+		verify(salesRepository, times(1)).sumByHourBetween(any(), any());
+	}
+
+	@Test
+	public void sumByHourBetween_whenInsideOneHour_shouldOnlyReadSales() {
+		ZonedDateTime from = ZonedDateTime.parse("2022-09-01T00:10:00Z");
+		ZonedDateTime to = ZonedDateTime.parse("2022-09-01T00:50:00Z");
+
+		StepVerifier.create(saleRollupService.sumByHourBetween(from, to))
+				.verifyComplete();
+
+		verify(salesRepository).sumByHourBetween(from, to);
+		verifyNoInteractions(saleHourlyRepository);
+	}
+
+	@Test
+	public void remove_shouldSubtractSaleAndDropEmptyHour() {
+		Sale sale = Sale.builder().id(1).finalPrice(Money.of("95")).points(Money.of("5"))
+				.dateTime(ZonedDateTime.parse("2022-09-01T00:10:00Z")).paymentMethodId(1).build();
+		when(saleHourlyRepository.increment(any(), any(), any(), anyLong())).thenReturn(Mono.just(1));
+		when(saleHourlyRepository.deleteEmptyHour(any())).thenReturn(Mono.just(0));
+
+		StepVerifier.create(saleRollupService.remove(sale))
+				.verifyComplete();
+
+		verify(saleHourlyRepository).increment(sale.getDateTime(), new BigDecimal("-95.00"), new BigDecimal("-5.00"), -1);
+		verify(saleHourlyRepository).deleteEmptyHour(sale.getDateTime());
+	}
+}
@@ -0,0 +1,261 @@
+package com.anymind.points.service;
+
+import com.anymind.points.exception.CustomException;
+import com.anymind.points.model.Money;
+import com.anymind.points.model.Sale;
+import com.anymind.points.repository.SaleJournalCheckpointRepository;
+import com.anymind.points.repository.SalesRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.context.MessageSource;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class SaleWriteBehindTest {
+	@Mock
+	private SalesRepository salesRepository;
+	@Mock
+	private SaleRollupService saleRollupService;
+	@Mock
+	private SalesReportCache salesReportCache;
+	@Mock
+	private HourlySalesFeed hourlySalesFeed;
+	@Mock
+	private TransactionalOperator transactionalOperator;
+	@Mock
+	private SaleJournal saleJournal;
+	@Mock
+	private SaleJournalCheckpointRepository checkpointRepository;
+	@Mock
+	private MessageSource messageSource;
+
+	private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	private SaleWriteBehind saleWriteBehind;
+
+	private final Sale sale1 = Sale.builder().finalPrice(Money.of("95")).points(Money.of("5")).paymentMethodId(1)
+			.dateTime(ZonedDateTime.parse("2022-09-01T01:10:00Z")).build();
+
+	private final Sale sale2 = Sale.builder().finalPrice(Money.of("200")).points(Money.of("8")).paymentMethodId(1)
+			.dateTime(ZonedDateTime.parse("2022-09-01T02:10:00Z")).build();
+
+	@BeforeEach
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		when(saleRollupService.addAll(anyList())).thenReturn(Mono.empty());
+		when(salesReportCache.evict(any())).thenReturn(Mono.empty());
+		when(hourlySalesFeed.publish(any())).thenReturn(Mono.empty());
+		when(transactionalOperator.transactional(any(Mono.class))).thenAnswer(invocation -> invocation.getArgument(0));
+		when(messageSource.getMessage(anyString(), any(), any())).thenReturn("Error Message");
+		when(saleJournal.getName()).thenReturn("default");
+		when(checkpointRepository.advance(anyString(), anyLong())).thenReturn(Mono.just(1));
+
+		saleWriteBehind = newSaleWriteBehind(IngestionDurability.COMMITTED);
+	}
+
+	private SaleWriteBehind newSaleWriteBehind(IngestionDurability durability) {
+		return newSaleWriteBehind(durability, 500);
+	}
+
+	private SaleWriteBehind newSaleWriteBehind(IngestionDurability durability, int maxBatchSize) {
+		SaleWriteBehind writeBehind = new SaleWriteBehind(salesRepository, saleRollupService, salesReportCache, hourlySalesFeed,
+				transactionalOperator, saleJournal, checkpointRepository, messageSource, meterRegistry);
+		ReflectionTestUtils.setField(writeBehind, "durability", durability);
+		ReflectionTestUtils.setField(writeBehind, "flushInterval", Duration.ofMillis(50));
+		ReflectionTestUtils.setField(writeBehind, "flushRetries", 0);
+		ReflectionTestUtils.setField(writeBehind, "maxBatchSize", maxBatchSize);
+		writeBehind.start();
+		return writeBehind;
+	}
+
+	@AfterEach
+	public void after() throws InterruptedException {
+		saleWriteBehind.stop();
+	}
+
+	@Test
+	public void submit_shouldFlushTheQueuedSalesInOneBatch() {
+		when(salesRepository.insertAll(anyList())).thenAnswer(invocation -> Flux.fromIterable(invocation.<List<Sale>>getArgument(0)));
+
+		StepVerifier.create(Mono.when(saleWriteBehind.submit(sale1), saleWriteBehind.submit(sale2)))
+				.expectComplete()
+				.verify(Duration.ofSeconds(5));
+
+		verify(salesRepository, times(1)).insertAll(List.of(sale1, sale2));
+		verify(saleRollupService).addAll(List.of(sale1, sale2));
+		verify(hourlySalesFeed).publish(List.of(sale1.getDateTime(), sale2.getDateTime()));
+		assertEquals(1, meterRegistry.get("points.ingestion.flush").tag("outcome", "success").timer().count());
+		assertEquals(0, meterRegistry.get("points.ingestion.queue.depth").gauge().value());
+	}
+
+	@Test
+	public void submit_whenTheFlushFails_shouldFailTheWaitingSales() {
+		when(salesRepository.insertAll(anyList())).thenReturn(Flux.error(new IllegalStateException("connection refused")));
+
+		StepVerifier.create(saleWriteBehind.submit(sale1))
+				.expectErrorMatches(ex -> ex instanceof CustomException && ex.getMessage().equals("Error Message"))
+				.verify(Duration.ofSeconds(5));
+
+		assertEquals(1, meterRegistry.get("points.ingestion.flush").tag("outcome", "error").timer().count());
+	}
+
+	@Test
+	public void submit_whenTheQueueIsFull_shouldRejectTheSale() {
+		ReflectionTestUtils.setField(saleWriteBehind, "queueCapacity", 0);
+
+		StepVerifier.create(saleWriteBehind.submit(sale1))
+				.expectError(CustomException.class)
+				.verify(Duration.ofSeconds(5));
+
+		verifyNoInteractions(salesRepository);
+	}
+
+	@Test
+	public void submit_whenQueuedDurability_shouldCompleteBeforeTheFlush() {
+		ReflectionTestUtils.setField(saleWriteBehind, "durability", IngestionDurability.QUEUED);
+		when(salesRepository.insertAll(anyList())).thenAnswer(invocation -> Flux.fromIterable(invocation.<List<Sale>>getArgument(0))
+				.delaySubscription(Duration.ofMillis(500)));
+
+		StepVerifier.create(saleWriteBehind.submit(sale1))
+				.expectComplete()
+				.verify(Duration.ofMillis(250));
+	}
+
+	@Test
+	public void flush_shouldSkipTheSalesWhoseKeyIsAlreadyUsed() {
+		Sale retried = Sale.builder().finalPrice(Money.of("95")).points(Money.of("5")).paymentMethodId(1)
+				.dateTime(sale1.getDateTime()).idempotencyKey("pos-7:1042").build();
+		Sale again = Sale.builder().finalPrice(Money.of("95")).points(Money.of("5")).paymentMethodId(1)
+				.dateTime(sale1.getDateTime()).idempotencyKey("pos-7:1043").build();
+		when(salesRepository.findUsedIdempotencyKeys(anyCollection())).thenReturn(Flux.just("pos-7:1042"));
+		when(salesRepository.insertAll(anyList())).thenAnswer(invocation -> Flux.fromIterable(invocation.<List<Sale>>getArgument(0)));
+
+		StepVerifier.create(saleWriteBehind.flush(List.of(
+						new SaleWriteBehind.Pending(retried, 0, null),
+						new SaleWriteBehind.Pending(again, 0, null),
+						new SaleWriteBehind.Pending(again, 0, null),
+						new SaleWriteBehind.Pending(sale2, 0, null))))
+				.verifyComplete();
+
+		verify(salesRepository).insertAll(List.of(again, sale2));
+	}
+
+	@Test
+	public void submit_whenJournaled_shouldAdvanceTheCheckpointWithTheBatch() {
+		saleWriteBehind.stop();
+		when(checkpointRepository.findSequence("default")).thenReturn(Mono.empty());
+		when(saleJournal.open(0L)).thenReturn(List.of());
+		saleWriteBehind = newSaleWriteBehind(IngestionDurability.JOURNALED);
+		when(saleJournal.append(eq(sale1), any())).thenAnswer(invocation -> {
+			invocation.<LongConsumer>getArgument(1).accept(7L);
+			return 7L;
+		});
+		when(saleJournal.awaitDurable(7L)).thenReturn(Mono.empty());
+		when(salesRepository.insertAll(anyList())).thenAnswer(invocation -> Flux.fromIterable(invocation.<List<Sale>>getArgument(0)));
+
+		StepVerifier.create(saleWriteBehind.submit(sale1))
+				.expectComplete()
+				.verify(Duration.ofSeconds(5));
+
+		verify(checkpointRepository, timeout(5000)).advance("default", 7L);
+		verify(saleJournal, timeout(5000)).truncate(7L);
+	}
+
+	@Test
+	public void submit_whenTheJournalFsyncFails_shouldWithdrawTheSaleBeforeFailing() {
+		saleWriteBehind.stop();
+		when(checkpointRepository.findSequence("default")).thenReturn(Mono.empty());
+		when(saleJournal.open(0L)).thenReturn(List.of());
+		saleWriteBehind = newSaleWriteBehind(IngestionDurability.JOURNALED);
+		when(saleJournal.append(eq(sale1), any())).thenAnswer(invocation -> {
+			invocation.<LongConsumer>getArgument(1).accept(7L);
+			return 7L;
+		});
+		when(saleJournal.awaitDurable(7L)).thenReturn(Mono.error(new UncheckedIOException(new IOException("fsync"))));
+
+		StepVerifier.create(saleWriteBehind.submit(sale1))
+				.expectError(CustomException.class)
+				.verify(Duration.ofSeconds(5));
+
+		// the failed sale isn't saved, the checkpoint moves past it so that it isn't replayed either
+		verify(checkpointRepository, timeout(5000)).advance("default", 7L);
+		verify(salesRepository, never()).insertAll(anyList());
+		assertEquals(0, meterRegistry.get("points.ingestion.queue.depth").gauge().value());
+	}
+
+	@Test
+	public void flush_shouldLeaveOutTheWithdrawnSales() {
+		when(salesRepository.insertAll(anyList())).thenAnswer(invocation -> Flux.fromIterable(invocation.<List<Sale>>getArgument(0)));
+		SaleWriteBehind.Pending withdrawn = new SaleWriteBehind.Pending(sale1, 7, null);
+		SaleWriteBehind.Pending flushed = new SaleWriteBehind.Pending(sale2, 8, null);
+		assertTrue(withdrawn.claim());
+
+		StepVerifier.create(saleWriteBehind.flush(List.of(withdrawn, flushed)))
+				.verifyComplete();
+
+		verify(salesRepository).insertAll(List.of(sale2));
+		verify(checkpointRepository).advance("default", 8L);
+		// claimed by the flush, a failed fsync can't withdraw it anymore: its client is told it was accepted
+		assertFalse(flushed.claim());
+	}
+
+	@Test
+	public void start_whenJournaled_shouldSaveTheSalesAfterTheCheckpoint() {
+		saleWriteBehind.stop();
+		when(checkpointRepository.findSequence("default")).thenReturn(Mono.just(4L));
+		when(saleJournal.open(4L)).thenReturn(List.of(new SaleJournal.Entry(5L, sale1), new SaleJournal.Entry(6L, sale2)));
+		when(salesRepository.insertAll(anyList())).thenAnswer(invocation -> Flux.fromIterable(invocation.<List<Sale>>getArgument(0)));
+
+		saleWriteBehind = newSaleWriteBehind(IngestionDurability.JOURNALED);
+
+		verify(salesRepository, timeout(5000)).insertAll(List.of(sale1, sale2));
+		verify(checkpointRepository, timeout(5000)).advance("default", 6L);
+		verify(saleJournal, timeout(5000)).truncate(6L);
+	}
+
+	@Test
+	public void start_whenAJournaledBatchCanNeverBeSaved_shouldGiveItUpAndSaveTheNextOnes() {
+		saleWriteBehind.stop();
+		when(checkpointRepository.findSequence("default")).thenReturn(Mono.just(4L));
+		when(saleJournal.open(4L)).thenReturn(List.of(new SaleJournal.Entry(5L, sale1), new SaleJournal.Entry(6L, sale2)));
+		when(salesRepository.insertAll(List.of(sale1))).thenReturn(Flux.error(new DataIntegrityViolationException("numeric field overflow")));
+		when(salesRepository.insertAll(List.of(sale2))).thenReturn(Flux.just(sale2));
+
+		saleWriteBehind = newSaleWriteBehind(IngestionDurability.JOURNALED, 1);
+
+		// the first batch is dead-lettered without being retried, the checkpoint moves past it
+		verify(checkpointRepository, timeout(5000)).advance("default", 5L);
+		verify(salesRepository, timeout(5000)).insertAll(List.of(sale2));
+		verify(checkpointRepository, timeout(5000)).advance("default", 6L);
+		verify(salesRepository, times(1)).insertAll(List.of(sale1));
+		assertEquals(1, meterRegistry.get("points.ingestion.dead-lettered").counter().count());
+	}
+
+	@Test
+	public void isPermanent_shouldOnlyGiveUpTheFailuresWhichRetryingCantFix() {
+		assertTrue(SaleWriteBehind.isPermanent(new DataIntegrityViolationException("duplicate key")));
+		assertFalse(SaleWriteBehind.isPermanent(new DataAccessResourceFailureException("connection refused")));
+		assertFalse(SaleWriteBehind.isPermanent(new IllegalStateException("timeout")));
+	}
+}
@@ -0,0 +1,58 @@
+package com.anymind.points.service;
+
+import com.anymind.points.exception.CustomException;
+import graphql.ErrorType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.when;
+
+public class SalesMetricsTest {
+	@Mock
+	private PaymentMethodCatalog paymentMethodCatalog;
+
+	private SimpleMeterRegistry meterRegistry;
+
+	private SalesMetrics salesMetrics;
+
+	@BeforeEach
+	public void before() {
+		MockitoAnnotations.initMocks(this);
+		meterRegistry = new SimpleMeterRegistry();
+		salesMetrics = new SalesMetrics(meterRegistry, paymentMethodCatalog);
+
+		when(paymentMethodCatalog.isKnown("CASH")).thenReturn(true);
+	}
+
+	@Test
+	public void timeResolver_shouldTagPaymentMethodAndOutcome() {
+		StepVerifier.create(salesMetrics.timeResolver("addSale", "CASH", Mono.just(1)))
+				.expectNext(1)
+				.verifyComplete();
+		StepVerifier.create(salesMetrics.timeResolver("addSale", "INVALID_CASH",
+						Mono.error(new CustomException(ErrorType.InvalidSyntax, "Invalid Payment Method"))))
+				.verifyError(CustomException.class);
+
+		assertEquals(1, meterRegistry.get(SalesMetrics.RESOLVER)
+				.tag("operation", "addSale").tag("payment.method", "CASH").tag("outcome", "success").timer().count());
+		assertEquals(1, meterRegistry.get(SalesMetrics.RESOLVER)
+				.tag("operation", "addSale").tag("payment.method", "unknown").tag("outcome", "rejected").timer().count());
+	}
+
+	@Test
+	public void timeStage_shouldRecordTheNumberOfItemsOfAFlux() {
+		StepVerifier.create(salesMetrics.timeStage("group", null, Flux.range(0, 24)))
+				.expectNextCount(24)
+				.verifyComplete();
+
+		assertEquals(1, meterRegistry.get(SalesMetrics.STAGE).tag("stage", "group").tag("outcome", "success").timer().count());
+		assertEquals(24, meterRegistry.get(SalesMetrics.STAGE + ".items").tag("payment.method", "none").summary().totalAmount());
+	}
+}
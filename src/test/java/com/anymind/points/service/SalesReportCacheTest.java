@@ -0,0 +1,128 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Money;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SalesReportCacheTest {
+	private SimpleMeterRegistry meterRegistry;
+
+	private SalesReportCache salesReportCache;
+
+	private final List<ZonedDateTime[]> aggregatedRanges = new ArrayList<>();
+
+	private final SalesListDto hour1 = SalesListDto.builder().datetime(ZonedDateTime.parse("2022-09-01T01:00:00Z"))
+			.sales(Money.of("95")).points(Money.of("5")).build();
+
+	// one sale at 01:00, nothing in the other hours
+	private final BiFunction<ZonedDateTime, ZonedDateTime, Flux<SalesListDto>> aggregate = (from, to) -> {
+		aggregatedRanges.add(new ZonedDateTime[]{from, to});
+		return hour1.getDatetime().isBefore(from) || hour1.getDatetime().isAfter(to) ? Flux.empty() : Flux.just(hour1);
+	};
+
+	@BeforeEach
+	public void before() {
+		meterRegistry = new SimpleMeterRegistry();
+		salesReportCache = new SalesReportCache(meterRegistry, true, 1000, Duration.ofHours(1), Duration.ZERO);
+	}
+
+	@Test
+	public void sumByHourBetween_shouldComputeClosedHoursOnceAndEdgesEveryTime() {
+		ZonedDateTime from = ZonedDateTime.parse("2022-09-01T00:30:00Z");
+		ZonedDateTime to = ZonedDateTime.parse("2022-09-01T03:15:00Z");
+
+		StepVerifier.create(salesReportCache.sumByHourBetween(from, to, aggregate))
+				.expectNext(hour1)
+				.verifyComplete();
+		assertEquals(3, aggregatedRanges.size());
+		assertEquals(ZonedDateTime.parse("2022-09-01T01:00:00Z"), aggregatedRanges.get(1)[0]);
+		assertEquals(ZonedDateTime.parse("2022-09-01T02:59:59.999999Z"), aggregatedRanges.get(1)[1]);
+
+		aggregatedRanges.clear();
+		StepVerifier.create(salesReportCache.sumByHourBetween(from, to, aggregate))
+				.expectNext(hour1)
+				.verifyComplete();
+		// only the partial hours at the edges are computed again
+		assertEquals(2, aggregatedRanges.size());
+		assertEquals(0.5, meterRegistry.get("points.sales-report.cache.hit-ratio").gauge().value(), 0.001);
+	}
+
+	@Test
+	public void evict_shouldOnlyRecomputeTheEvictedHour() {
+		ZonedDateTime from = ZonedDateTime.parse("2022-09-01T00:00:00Z");
+		ZonedDateTime to = ZonedDateTime.parse("2022-09-01T03:59:59.999999Z");
+		salesReportCache.sumByHourBetween(from, to, aggregate).blockLast();
+
+		StepVerifier.create(salesReportCache.evict(List.of(ZonedDateTime.parse("2022-09-01T01:10:00Z"))))
+				.verifyComplete();
+
+		aggregatedRanges.clear();
+		StepVerifier.create(salesReportCache.sumByHourBetween(from, to, aggregate))
+				.expectNext(hour1)
+				.verifyComplete();
+		assertEquals(1, aggregatedRanges.size());
+		assertEquals(ZonedDateTime.parse("2022-09-01T01:00:00Z"), aggregatedRanges.get(0)[0]);
+		assertEquals(ZonedDateTime.parse("2022-09-01T01:59:59.999999Z"), aggregatedRanges.get(0)[1]);
+	}
+
+	@Test
+	public void sumByHourBetween_shouldOnlyDropTheHoursWrittenWhileTheyWereComputed() {
+		ZonedDateTime from = ZonedDateTime.parse("2022-09-01T00:00:00Z");
+		ZonedDateTime to = ZonedDateTime.parse("2022-09-01T03:59:59.999999Z");
+		// writes to 01:00 and to an hour outside of the range land while the range is being computed
+		BiFunction<ZonedDateTime, ZonedDateTime, Flux<SalesListDto>> aggregateWhileWriting = (start, end) -> {
+			salesReportCache.evict(List.of(ZonedDateTime.parse("2022-09-01T01:10:00Z"),
+					ZonedDateTime.parse("2022-09-01T10:20:00Z"))).block();
+			return aggregate.apply(start, end);
+		};
+		salesReportCache.sumByHourBetween(from, to, aggregateWhileWriting).blockLast();
+
+		aggregatedRanges.clear();
+		StepVerifier.create(salesReportCache.sumByHourBetween(from, to, aggregate))
+				.expectNext(hour1)
+				.verifyComplete();
+		// the other hours computed along with 01:00 stayed cached
+		assertEquals(1, aggregatedRanges.size());
+		assertEquals(ZonedDateTime.parse("2022-09-01T01:00:00Z"), aggregatedRanges.get(0)[0]);
+		assertEquals(ZonedDateTime.parse("2022-09-01T01:59:59.999999Z"), aggregatedRanges.get(0)[1]);
+
+		// a write to an unrelated hour doesn't drop anything
+		salesReportCache.invalidateAll();
+		BiFunction<ZonedDateTime, ZonedDateTime, Flux<SalesListDto>> aggregateWhileWritingElsewhere = (start, end) -> {
+			salesReportCache.evict(List.of(ZonedDateTime.parse("2022-09-01T10:20:00Z"))).block();
+			return aggregate.apply(start, end);
+		};
+		salesReportCache.sumByHourBetween(from, to, aggregateWhileWritingElsewhere).blockLast();
+		aggregatedRanges.clear();
+		salesReportCache.sumByHourBetween(from, to, aggregate).blockLast();
+		assertEquals(0, aggregatedRanges.size());
+	}
+
+	@Test
+	public void evict_withLateEviction_shouldEvictAgainAfterTheDelay() throws InterruptedException {
+		salesReportCache = new SalesReportCache(meterRegistry, true, 1000, Duration.ofHours(1), Duration.ofMillis(100));
+		ZonedDateTime from = ZonedDateTime.parse("2022-09-01T00:00:00Z");
+		ZonedDateTime to = ZonedDateTime.parse("2022-09-01T03:59:59.999999Z");
+		salesReportCache.evict(List.of(ZonedDateTime.parse("2022-09-01T01:10:00Z"))).block();
+		// read from a replica which hadn't replayed the write yet
+		salesReportCache.sumByHourBetween(from, to, aggregate).blockLast();
+
+		Thread.sleep(300);
+		aggregatedRanges.clear();
+		salesReportCache.sumByHourBetween(from, to, aggregate).blockLast();
+		assertEquals(1, aggregatedRanges.size());
+		assertEquals(ZonedDateTime.parse("2022-09-01T01:00:00Z"), aggregatedRanges.get(0)[0]);
+	}
+}
@@ -1,33 +1,46 @@
 package com.anymind.points.service;
 
+import com.anymind.points.dto.PaymentMethodSalesDto;
 import com.anymind.points.dto.RequestData;
 import com.anymind.points.dto.SaleResponseDto;
 import com.anymind.points.dto.SalesListDto;
 import com.anymind.points.exception.CustomException;
 import com.anymind.points.model.DateRangeInput;
+import com.anymind.points.model.Granularity;
+import com.anymind.points.model.Modifier;
+import com.anymind.points.model.Money;
 import com.anymind.points.model.PaymentMethod;
 import com.anymind.points.model.Sale;
 import com.anymind.points.model.SalesInput;
-import com.anymind.points.repository.PaymentMethodRepository;
 import com.anymind.points.repository.SalesRepository;
 import graphql.ErrorType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.springframework.context.MessageSource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.reactive.TransactionalOperator;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiFunction;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.*;
@@ -42,9 +55,25 @@ public class SalesServiceImplTest {
 	private MessageSource messageSource;
 
 	@Mock
-	private PaymentMethodRepository paymentMethodRepository;
+	private PaymentMethodCatalog paymentMethodCatalog;
 	@Mock
 	private SalesRepository salesRepository;
+	@Mock
+	private SaleRollupService saleRollupService;
+	@Mock
+	private TransactionalOperator transactionalOperator;
+	@Mock
+	private SalesReportCache salesReportCache;
+	@Mock
+	private HourlySalesFeed hourlySalesFeed;
+	@Mock
+	private SaleWriteBehind saleWriteBehind;
+	@Mock
+	private SaleColdArchive saleColdArchive;
+	@Spy
+	private IdempotencyIndex idempotencyIndex = new IdempotencyIndex(new SimpleMeterRegistry(), 1000, Duration.ofHours(1));
+	@Spy
+	private SalesMetrics salesMetrics = new SalesMetrics(new SimpleMeterRegistry(), mock(PaymentMethodCatalog.class));
 
 	private Sale mockSale1;
 	private Sale mockSale2;
@@ -62,38 +91,38 @@ public class SalesServiceImplTest {
 	public void before() {
 		mockSale1 = Sale.builder()
 				.id(1)
-				.finalPrice(BigDecimal.valueOf(95.00))
-				.points(BigDecimal.valueOf(5))
+				.finalPrice(Money.of("95.00"))
+				.points(Money.of("5"))
 				.dateTime(ZonedDateTime.now().plusHours(2))
 				.paymentMethodId(1)
 				.build();
 
 		mockSale2 = Sale.builder()
 				.id(2)
-				.finalPrice(BigDecimal.valueOf(105.00))
-				.points(BigDecimal.valueOf(3))
+				.finalPrice(Money.of("105.00"))
+				.points(Money.of("3"))
 				.dateTime(ZonedDateTime.now().plusHours(1))
 				.paymentMethodId(2)
 				.build();
 
-		salesDto1 = SalesListDto.builder().datetime(ZonedDateTime.now().plusHours(2).truncatedTo(ChronoUnit.HOURS)).sales(BigDecimal.valueOf(95.00)).points(BigDecimal.valueOf(5)).build();
-		salesDto2 = SalesListDto.builder().datetime(ZonedDateTime.now().plusHours(1).truncatedTo(ChronoUnit.HOURS)).sales(BigDecimal.valueOf(105.00)).points(BigDecimal.valueOf(3)).build();
+		salesDto1 = SalesListDto.builder().datetime(ZonedDateTime.now(ZoneOffset.UTC).plusHours(2).truncatedTo(ChronoUnit.HOURS)).sales(Money.of("95.00")).points(Money.of("5")).build();
+		salesDto2 = SalesListDto.builder().datetime(ZonedDateTime.now(ZoneOffset.UTC).plusHours(1).truncatedTo(ChronoUnit.HOURS)).sales(Money.of("105.00")).points(Money.of("3")).build();
 		salesList.add(salesDto1);
 		salesList.add(salesDto2);
 
 		salesInput = SalesInput.builder()
-				.price(BigDecimal.valueOf(100))
+				.price(Money.of("100"))
 				.paymentMethod("CASH")
-				.priceModifier(BigDecimal.valueOf(0.95))
+				.priceModifier(Modifier.of("0.95"))
 				.datetime(ZonedDateTime.now())
 				.build();
 
 		paymentMethod = PaymentMethod.builder()
 				.id(1)
 				.name("CASH")
-				.pointsModifier(BigDecimal.valueOf(0.05))
-				.priceModifierFrom(BigDecimal.valueOf(0.95))
-				.priceModifierTo(BigDecimal.valueOf(1.05))
+				.pointsModifier(Modifier.of("0.05"))
+				.priceModifierFrom(Modifier.of("0.95"))
+				.priceModifierTo(Modifier.of("1.05"))
 				.build();
 
 		requestData = RequestData.builder()
@@ -103,6 +132,16 @@ public class SalesServiceImplTest {
 
 		MockitoAnnotations.initMocks(this);
 
+		when(saleRollupService.add(any())).thenReturn(Mono.empty());
+		when(saleRollupService.remove(any())).thenReturn(Mono.empty());
+		when(saleRollupService.addAll(anyList())).thenReturn(Mono.empty());
+		when(transactionalOperator.transactional(any(Mono.class))).thenAnswer(invocation -> invocation.getArgument(0));
+		when(salesReportCache.evict(any())).thenReturn(Mono.empty());
+		when(hourlySalesFeed.publish(any())).thenReturn(Mono.empty());
+		when(saleColdArchive.mergeByHour(any(), any(), any())).thenAnswer(invocation -> invocation.getArgument(0));
+		when(salesReportCache.sumByHourBetween(any(), any(), any())).thenAnswer(invocation ->
+				invocation.<BiFunction<ZonedDateTime, ZonedDateTime, Flux<SalesListDto>>>getArgument(2)
+						.apply(invocation.getArgument(0), invocation.getArgument(1)));
 	}
 
 	@Test
@@ -128,8 +167,44 @@ public class SalesServiceImplTest {
 
 		DateRangeInput dateRangeInput = new DateRangeInput(ZonedDateTime.now(), ZonedDateTime.now().plusHours(4));
 
+		when(saleRollupService.sumByHourBetween(dateRangeInput.getFrom(), dateRangeInput.getTo()))
+				.thenReturn(Flux.fromIterable(Arrays.asList(salesDto2, salesDto1)));
+
+		Flux<SalesListDto> salesListDtoFlux = salesService.getSaleByRange(dateRangeInput);
+
+		StepVerifier.create(salesListDtoFlux)
+				.expectNext(salesDto2)
+				.expectNext(salesDto1)
+				.verifyComplete();
+		verify(salesRepository, never()).findByDateTimeBetweenOrderByDateTime(any(), any());
+	}
+
+	@Test
+	public void testGetSaleByRangeInDatabase() {
+		ReflectionTestUtils.setField(salesService, "reportAggregation", ReportAggregation.DATABASE);
+
+		DateRangeInput dateRangeInput = new DateRangeInput(ZonedDateTime.now(), ZonedDateTime.now().plusHours(4));
+
+		when(salesRepository.sumByHourBetween(dateRangeInput.getFrom(), dateRangeInput.getTo()))
+				.thenReturn(Flux.fromIterable(Arrays.asList(salesDto2, salesDto1)));
+
+		Flux<SalesListDto> salesListDtoFlux = salesService.getSaleByRange(dateRangeInput);
+
+		StepVerifier.create(salesListDtoFlux)
+				.expectNext(salesDto2)
+				.expectNext(salesDto1)
+				.verifyComplete();
+		verify(salesRepository, never()).findByDateTimeBetweenOrderByDateTime(any(), any());
+	}
+
+	@Test
+	public void testGetSaleByRangeInMemory() {
+		ReflectionTestUtils.setField(salesService, "reportAggregation", ReportAggregation.MEMORY);
+
+		DateRangeInput dateRangeInput = new DateRangeInput(ZonedDateTime.now(), ZonedDateTime.now().plusHours(4));
+
 		when(salesRepository.findByDateTimeBetweenOrderByDateTime(dateRangeInput.getFrom(), dateRangeInput.getTo()))
-				.thenReturn(Flux.fromIterable(Arrays.asList(mockSale1, mockSale2)));
+				.thenReturn(Flux.fromIterable(Arrays.asList(mockSale2, mockSale1)));
 
 		Flux<SalesListDto> salesListDtoFlux = salesService.getSaleByRange(dateRangeInput);
 
@@ -142,35 +217,65 @@ public class SalesServiceImplTest {
 
 
 	@Test
-	public void testGroupSalesByInterval() {
-		DateRangeInput dateRangeInput = new DateRangeInput(ZonedDateTime.now(), ZonedDateTime.now().plusHours(4));
+	public void getSaleByRangeInMemory_withASaleOffsetByHalfAnHour_shouldKeepItInTheCachedUtcHour() {
+		ReflectionTestUtils.setField(salesService, "reportAggregation", ReportAggregation.MEMORY);
+		ReflectionTestUtils.setField(salesService, "salesReportCache",
+				new SalesReportCache(new SimpleMeterRegistry(), true, 1000, Duration.ofHours(1), Duration.ZERO));
+		// 01:15 UTC, in the hour of its own zone starting at 00:30 UTC
+		Sale halfHourZoneSale = sale(3, "2022-09-01T06:45:00+05:30", "95.00", "5.00", 1);
+		when(salesRepository.findByDateTimeBetweenOrderByDateTime(any(), any())).thenAnswer(invocation ->
+				halfHourZoneSale.getDateTime().isBefore(invocation.getArgument(0)) || halfHourZoneSale.getDateTime().isAfter(invocation.getArgument(1))
+						? Flux.empty() : Flux.just(halfHourZoneSale));
+		DateRangeInput dateRangeInput = new DateRangeInput(ZonedDateTime.parse("2022-09-01T00:00:00Z"), ZonedDateTime.parse("2022-09-01T03:59:59Z"));
+		SalesListDto hour = SalesListDto.builder().datetime(ZonedDateTime.parse("2022-09-01T01:00:00Z"))
+				.sales(Money.of("95.00")).points(Money.of("5.00")).build();
+
+		StepVerifier.create(salesService.getSaleByRange(dateRangeInput))
+				.expectNext(hour)
+				.verifyComplete();
+		// served from the cache the second time
+		StepVerifier.create(salesService.getSaleByRange(dateRangeInput))
+				.expectNext(hour)
+				.verifyComplete();
+	}
 
-		Mono<Map<ZonedDateTime, List<Sale>>> result = salesService.groupSalesByInterval(Arrays.asList(mockSale1, mockSale2));
 
-		StepVerifier.create(result)
-				.assertNext(map -> {
-					assertEquals(2, map.size());
+	@Test
+	public void testHourlyAggregation() {
+		Sale sameHourSale = Sale.builder()
+				.id(3)
+				.finalPrice(Money.of("10.00"))
+				.points(Money.of("1"))
+				.dateTime(mockSale1.getDateTime())
+				.paymentMethodId(1)
+				.build();
 
-					ZonedDateTime key1 = mockSale1.getDateTime().truncatedTo(ChronoUnit.HOURS);
-					assertTrue(map.containsKey(key1));
+		Flux<SalesListDto> result = SalesAggregator.hourly(Flux.just(mockSale2, mockSale1, sameHourSale));
 
-					ZonedDateTime key2 = mockSale2.getDateTime().truncatedTo(ChronoUnit.HOURS);
-					assertTrue(map.containsKey(key2));
+		StepVerifier.create(result)
+				.assertNext(salesListDto -> {
+					assertEquals(mockSale2.getDateTime().withZoneSameInstant(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS), salesListDto.getDatetime());
+					assertEquals(Money.of("105.00"), salesListDto.getSales());
+					assertEquals(Money.of("3"), salesListDto.getPoints());
+				})
+				.assertNext(salesListDto -> {
+					assertEquals(mockSale1.getDateTime().withZoneSameInstant(ZoneOffset.UTC).truncatedTo(ChronoUnit.HOURS), salesListDto.getDatetime());
+					assertEquals(Money.of("105.00"), salesListDto.getSales());
+					assertEquals(Money.of("6"), salesListDto.getPoints());
 				})
 				.verifyComplete();
 	}
 
 
 	@Test
-	public void testGetSalesListDto() {
+	public void testHourlyAggregationEmitsClosedHourBeforeCompletion() {
 		mockSale1.setDateTime(ZonedDateTime.now());
-		mockSale2.setDateTime(ZonedDateTime.now());
-
-		SalesListDto salesListDto = salesService.getSalesListDto(Map.entry(ZonedDateTime.now().truncatedTo(ChronoUnit.HOURS), Arrays.asList(mockSale1, mockSale2))).block();
+		mockSale2.setDateTime(ZonedDateTime.now().plusHours(1));
 
-		assertEquals(ZonedDateTime.now().truncatedTo(ChronoUnit.HOURS), salesListDto.getDatetime().truncatedTo(ChronoUnit.HOURS));
-		assertEquals(BigDecimal.valueOf(200.00), salesListDto.getSales());
-		assertEquals(BigDecimal.valueOf(8), salesListDto.getPoints());
+		StepVerifier.create(SalesAggregator.hourly(Flux.just(mockSale1, mockSale2).concatWith(Flux.never())))
+				.assertNext(salesListDto -> assertEquals(Money.of("95.00"), salesListDto.getSales()))
+				.thenCancel()
+				.verify();
 	}
 
 
@@ -190,32 +295,108 @@ public class SalesServiceImplTest {
 	@Test
 	public void testAddSale() {
 		// when
-		SaleResponseDto expectedResponse = SaleResponseDto.builder().finalPrice(BigDecimal.valueOf(95.00)).points(BigDecimal.valueOf(5)).build();
+		SaleResponseDto expectedResponse = SaleResponseDto.builder().finalPrice(Money.of("95.00")).points(Money.of("5")).build();
 
 		when(salesRepository.save(any())).thenReturn(Mono.just(mockSale1));
 		when(messageSource.getMessage(eq("errormessage.verify-payment-method"), any(), any())).thenReturn("Error Message");
-		when(paymentMethodRepository.findByName(anyString())).thenReturn(Mono.just(paymentMethod));
+		when(paymentMethodCatalog.findByName(anyString())).thenReturn(Mono.just(paymentMethod));
 
 		Mono<SaleResponseDto> actualResponse = salesService.addSale(salesInput);
 
 		// then
 		StepVerifier.create(actualResponse)
 				.expectNextMatches(saleResponseDto -> {
-					assertThat("Check final Price", saleResponseDto.getFinalPrice().compareTo(BigDecimal.valueOf(95)) == 0);
-					assertThat("Check Points", saleResponseDto.getPoints().compareTo(BigDecimal.valueOf(5)) == 0);
+					assertThat("Check final Price", saleResponseDto.getFinalPrice().compareTo(Money.of("95")) == 0);
+					assertThat("Check Points", saleResponseDto.getPoints().compareTo(Money.of("5")) == 0);
 					return true;
 				})
 				.verifyComplete();
 	}
 
+	@Test
+	public void addSale_whenWriteBehind_shouldQueueTheSaleInsteadOfSavingIt() {
+		ReflectionTestUtils.setField(salesService, "ingestionMode", IngestionMode.WRITE_BEHIND);
+		when(paymentMethodCatalog.findByName(anyString())).thenReturn(Mono.just(paymentMethod));
+		when(saleWriteBehind.submit(any())).thenReturn(Mono.empty());
+
+		StepVerifier.create(salesService.addSale(salesInput))
+				.assertNext(saleResponseDto -> {
+					assertEquals(0, saleResponseDto.getFinalPrice().compareTo(Money.of("95")));
+					assertEquals(0, saleResponseDto.getPoints().compareTo(Money.of("5")));
+				})
+				.verifyComplete();
+
+		verify(saleWriteBehind).submit(argThat(sale -> sale.getFinalPrice().equals(Money.of("95"))));
+		verify(salesRepository, never()).save(any());
+		verify(transactionalOperator, never()).transactional(any(Mono.class));
+	}
+
+	@Test
+	public void addSale_whenRetriedWithTheSameKey_shouldReturnTheFirstPriceWithoutSavingAgain() {
+		salesInput.setIdempotencyKey("pos-7:1042");
+		when(salesRepository.save(any())).thenReturn(Mono.just(mockSale1));
+		when(paymentMethodCatalog.findByName(anyString())).thenReturn(Mono.just(paymentMethod));
+
+		SaleResponseDto first = salesService.addSale(salesInput).block();
+		SaleResponseDto retry = salesService.addSale(salesInput).block();
+
+		assertEquals(first, retry);
+		verify(salesRepository, times(1)).save(argThat(sale -> "pos-7:1042".equals(sale.getIdempotencyKey())));
+		verify(paymentMethodCatalog, times(1)).findByName(anyString());
+	}
+
+	@Test
+	public void addSale_whenTheKeyIsAlreadySaved_shouldReturnThePriceOfTheSavedSale() {
+		salesInput.setIdempotencyKey("pos-7:1042");
+		when(salesRepository.save(any())).thenReturn(Mono.error(new DuplicateKeyException("sale_idempotency_key_idx")));
+		when(salesRepository.findByIdempotencyKey("pos-7:1042")).thenReturn(Mono.just(mockSale2));
+		when(paymentMethodCatalog.findByName(anyString())).thenReturn(Mono.just(paymentMethod));
+
+		StepVerifier.create(salesService.addSale(salesInput))
+				.assertNext(saleResponseDto -> assertEquals(mockSale2.getFinalPrice(), saleResponseDto.getFinalPrice()))
+				.verifyComplete();
+	}
+
+	@Test
+	public void addSale_whenTheKeyIsTooLong_shouldReturnAValidationError() {
+		salesInput.setIdempotencyKey("k".repeat(IdempotencyIndex.MAX_KEY_LENGTH + 1));
+		when(messageSource.getMessage(eq("errormessage.idempotency-key"), any(), any())).thenReturn("Invalid idempotency key");
+
+		StepVerifier.create(salesService.addSale(salesInput))
+				.expectErrorMatches(ex -> ex instanceof CustomException && ((CustomException) ex).getErrorType() == ErrorType.ValidationError)
+				.verify();
+		verifyNoInteractions(salesRepository);
+	}
+
+	@Test
+	public void toSale_shouldRoundTheExactProductsOnceLikeBigDecimal() {
+		String[][] pricesAndModifiers = {{"0.15", "0.5"}, {"10.01", "0.2525"}, {"10.05", "0.95"}, {"99999.99", "1.0001"}};
+		for (String[] priceAndModifier : pricesAndModifiers) {
+			salesInput.setPrice(Money.of(priceAndModifier[0])).setPriceModifier(Modifier.of(priceAndModifier[1]));
+
+			Sale sale = salesService.toSale(requestData);
+
+			BigDecimal price = new BigDecimal(priceAndModifier[0]);
+			assertEquals(price.multiply(new BigDecimal(priceAndModifier[1])).setScale(2, RoundingMode.HALF_UP),
+					sale.getFinalPrice().toBigDecimal());
+			assertEquals(price.multiply(new BigDecimal("0.05")).setScale(2, RoundingMode.HALF_UP),
+					sale.getPoints().toBigDecimal());
+		}
+	}
 
+	@Test
+	public void moneyOf_shouldRejectAPriceWithMoreThanTwoDecimals() {
+		// 10.005 * 0.5 was 5.00 when only the product was rounded, rounding the price first would give 5.01
+		assertThrows(IllegalArgumentException.class, () -> Money.of("10.005"));
+		assertEquals(Money.of("10.01"), Money.of("10.0100"));
+	}
 
 	@Test
 	public void getPriceDto() {
 		SaleResponseDto saleResponseDto = salesService.getPriceDto(mockSale1).block();
 
-		assertEquals(saleResponseDto.getFinalPrice(), new BigDecimal("95.00").setScale(BigDecimal.ROUND_HALF_UP));
-		assertEquals(saleResponseDto.getPoints(), BigDecimal.valueOf(5));
+		assertEquals(saleResponseDto.getFinalPrice(), Money.of("95.00"));
+		assertEquals(saleResponseDto.getPoints(), Money.of("5"));
 	}
 
 
@@ -228,8 +409,8 @@ public class SalesServiceImplTest {
 		StepVerifier.create(saleMono)
 				.assertNext((sale) -> {  // Asserts that the returned sale is correct
 					assertEquals(1, sale.getId());  // Asserts that the id is correct
-					assertEquals(BigDecimal.valueOf(95.0), sale.getFinalPrice());  // Asserts that the final price is correct
-					assertEquals(BigDecimal.valueOf(5), sale.getPoints());  // Asserts that the points are correct
+					assertEquals(Money.of("95.0"), sale.getFinalPrice());  // Asserts that the final price is correct
+					assertEquals(Money.of("5"), sale.getPoints());  // Asserts that the points are correct
 					assertEquals(1, sale.getPaymentMethodId());  // Asserts that the payment method id is correct
 					assertNotNull(sale.getDateTime()); // Asserts that the date time is not null
 
@@ -239,7 +420,7 @@ public class SalesServiceImplTest {
 
 	@Test
 	public void verifyPaymentMethodTest() {
-		when(paymentMethodRepository.findByName(anyString())).thenReturn(Mono.just(paymentMethod));
+		when(paymentMethodCatalog.findByName(anyString())).thenReturn(Mono.just(paymentMethod));
 
 		Mono<RequestData> requestDataMono = salesService.verifyPaymentMethod(salesInput);
 
@@ -254,7 +435,7 @@ public class SalesServiceImplTest {
 	@Test
 	public void verifyPaymentMethodTestNotFound() {
 		when(messageSource.getMessage(eq("errormessage.verify-payment-method"), any(), any())).thenReturn("Invalid Payment Method");
-		when(paymentMethodRepository.findByName(anyString())).thenReturn(Mono.just(paymentMethod));
+		when(paymentMethodCatalog.findByName(anyString())).thenReturn(Mono.just(paymentMethod));
 
 		Mono<RequestData> requestDataMono = salesService.verifyPaymentMethod(salesInput);
 
@@ -274,8 +455,8 @@ public class SalesServiceImplTest {
 
 		StepVerifier.create(response)
 				.assertNext(saleResponseDto -> {
-					assertEquals(BigDecimal.valueOf(95.0).setScale(BigDecimal.ROUND_HALF_UP), saleResponseDto.getFinalPrice());
-					assertEquals(BigDecimal.valueOf(5), saleResponseDto.getPoints());
+					assertEquals(Money.of("95.00"), saleResponseDto.getFinalPrice());
+					assertEquals(Money.of("5"), saleResponseDto.getPoints());
 				})
 				.verifyComplete();
 	}
@@ -289,8 +470,8 @@ public class SalesServiceImplTest {
 
 		StepVerifier.create(saleMono)
 				.assertNext(sale -> {
-					assertEquals(BigDecimal.valueOf(95.0), sale.getFinalPrice());
-					assertEquals(BigDecimal.valueOf(5), sale.getPoints());
+					assertEquals(Money.of("95.0"), sale.getFinalPrice());
+					assertEquals(Money.of("5"), sale.getPoints());
 					assertNotNull(sale.getDateTime());
 				})
 				.verifyComplete();
@@ -300,7 +481,7 @@ public class SalesServiceImplTest {
 	@Test
 	public void verifyPaymentMethod_whenValidInput_shouldReturnRequestData() {
 		when(messageSource.getMessage(eq("errormessage.verify-payment-method"), any(), any())).thenReturn("Error Message");
-		when(paymentMethodRepository.findByName(anyString())).thenReturn(Mono.just(paymentMethod));
+		when(paymentMethodCatalog.findByName(anyString())).thenReturn(Mono.just(paymentMethod));
 
 		StepVerifier.create(salesService.verifyPaymentMethod(salesInput))
 				.assertNext(requestData -> {
@@ -326,9 +507,9 @@ public class SalesServiceImplTest {
 	public void verifyInvalidSaleDataTest() {
 
 		salesInput = SalesInput.builder()
-				.price(BigDecimal.valueOf(100))
+				.price(Money.of("100"))
 				.paymentMethod("CASH")
-				.priceModifier(BigDecimal.valueOf(1.5)) // INVALID PRICE MODIFIER
+				.priceModifier(Modifier.of("1.5")) // INVALID PRICE MODIFIER
 				.datetime(ZonedDateTime.now())
 				.build();
 		when(messageSource.getMessage(any(), any(), any())).thenReturn("Invalid price modifier data for the input::" + salesInput.getPriceModifier());
@@ -344,26 +525,314 @@ public class SalesServiceImplTest {
 				}).log();
 	}
 
+	@Test
+	public void verifySaleData_withAPriceLargerThanTheSaleColumns_shouldRejectIt() {
+		requestData.setSalesInput(SalesInput.builder()
+				.price(Money.of("100000000"))
+				.paymentMethod("CASH")
+				.priceModifier(Modifier.of("1"))
+				.datetime(ZonedDateTime.now())
+				.build());
+
+		StepVerifier.create(salesService.verifySaleData(requestData))
+				.expectErrorMatches(ex -> ex instanceof CustomException customException
+						&& customException.getErrorType() == ErrorType.ValidationError)
+				.verify();
+	}
+
 	@Test
 	public void testUpdateSale() {
 		// given
 		Integer id = 1;
 		// when
-		SaleResponseDto expectedResponse = SaleResponseDto.builder().finalPrice(BigDecimal.valueOf(95.00)).points(BigDecimal.valueOf(5)).build();
+		SaleResponseDto expectedResponse = SaleResponseDto.builder().finalPrice(Money.of("95.00")).points(Money.of("5")).build();
 
 		when(salesRepository.save(any())).thenReturn(Mono.just(mockSale1));
 		when(messageSource.getMessage(eq("errormessage.verify-payment-method"), any(), any())).thenReturn("Error Message");
-		when(paymentMethodRepository.findByName(anyString())).thenReturn(Mono.just(paymentMethod));
+		when(paymentMethodCatalog.findByName(anyString())).thenReturn(Mono.just(paymentMethod));
+		when(salesRepository.findById(id)).thenReturn(Mono.just(mockSale2));
 
 		Mono<SaleResponseDto> actualResponse = salesService.updateSale(id, salesInput);
 
 		// then
 		StepVerifier.create(actualResponse)
 				.expectNextMatches(saleResponseDto -> {
-					assertThat("Check final Price", saleResponseDto.getFinalPrice().compareTo(BigDecimal.valueOf(95)) == 0);
-					assertThat("Check Points", saleResponseDto.getPoints().compareTo(BigDecimal.valueOf(5)) == 0);
+					assertThat("Check final Price", saleResponseDto.getFinalPrice().compareTo(Money.of("95")) == 0);
+					assertThat("Check Points", saleResponseDto.getPoints().compareTo(Money.of("5")) == 0);
 					return true;
 				})
 				.verifyComplete();
 	}
+
+	@Test
+	public void testUpdateSaleReplacesRollup() {
+		Integer id = 2;
+		when(salesRepository.save(any())).thenReturn(Mono.just(mockSale1));
+		when(paymentMethodCatalog.findByName(anyString())).thenReturn(Mono.just(paymentMethod));
+		when(salesRepository.findById(id)).thenReturn(Mono.just(mockSale2));
+
+		StepVerifier.create(salesService.updateSale(id, salesInput))
+				.expectNextCount(1)
+				.verifyComplete();
+
+		verify(saleRollupService).remove(mockSale2);
+		verify(saleRollupService).add(mockSale1);
+		verify(salesReportCache).evict(List.of(mockSale2.getDateTime()));
+		verify(salesReportCache).evict(List.of(mockSale1.getDateTime()));
+	}
+
+	@Test
+	public void testDeleteSale() {
+		Integer id = 1;
+		when(salesRepository.findById(id)).thenReturn(Mono.just(mockSale1));
+		when(salesRepository.delete(mockSale1)).thenReturn(Mono.empty());
+
+		StepVerifier.create(salesService.deleteSale(id))
+				.expectNext(mockSale1)
+				.verifyComplete();
+
+		verify(saleRollupService).remove(mockSale1);
+		verify(salesReportCache).evict(List.of(mockSale1.getDateTime()));
+	}
+
+	@Test
+	public void testAddSales() {
+		SalesInput invalidInput = SalesInput.builder()
+				.price(Money.of("100"))
+				.paymentMethod("INVALID_CASH")
+				.priceModifier(Modifier.of("0.95"))
+				.datetime(ZonedDateTime.now())
+				.build();
+		when(paymentMethodCatalog.findByName("CASH")).thenReturn(Mono.just(paymentMethod));
+		when(paymentMethodCatalog.findByName("INVALID_CASH")).thenReturn(Mono.empty());
+		when(messageSource.getMessage(eq("errormessage.verify-payment-method"), any(), any())).thenReturn("Invalid Payment Method");
+		when(salesRepository.insertAll(anyList())).thenAnswer(invocation -> Flux.fromIterable(invocation.<List<Sale>>getArgument(0)));
+
+		StepVerifier.create(salesService.addSales(Arrays.asList(salesInput, invalidInput, salesInput)))
+				.assertNext(result -> {
+					assertEquals(0, result.getIndex());
+					assertEquals(0, result.getSalePrice().getFinalPrice().compareTo(Money.of("95")));
+					assertNull(result.getError());
+				})
+				.assertNext(result -> {
+					assertEquals(1, result.getIndex());
+					assertNull(result.getSalePrice());
+					assertEquals("Invalid Payment Method", result.getError());
+				})
+				.assertNext(result -> {
+					assertEquals(2, result.getIndex());
+					assertEquals(0, result.getSalePrice().getPoints().compareTo(Money.of("5")));
+				})
+				.verifyComplete();
+
+		verify(salesRepository, times(1)).insertAll(argThat(sales -> sales.size() == 2));
+		verify(saleRollupService).addAll(anyList());
+	}
+
+	@Test
+	public void addSales_withIdempotencyKeys_shouldOnlyInsertTheFirstAttempts() {
+		Sale saved = Sale.builder().id(9).finalPrice(Money.of("90.00")).points(Money.of("4.00"))
+				.dateTime(ZonedDateTime.parse("2022-09-01T00:00:00Z")).paymentMethodId(1).idempotencyKey("pos-7:1").build();
+		when(paymentMethodCatalog.findByName("CASH")).thenReturn(Mono.just(paymentMethod));
+		when(messageSource.getMessage(eq("errormessage.idempotency-key"), any(), any())).thenReturn("Invalid idempotency key");
+		when(salesRepository.findAllByIdempotencyKeyIn(anyCollection())).thenReturn(Flux.just(saved));
+		when(salesRepository.insertAll(anyList())).thenAnswer(invocation -> Flux.fromIterable(invocation.<List<Sale>>getArgument(0)));
+
+		// a retry of a saved sale, a new sale, a retry of the new sale within the batch and a key too long
+		StepVerifier.create(salesService.addSales(List.of(keyed("pos-7:1"), keyed("pos-7:2"), keyed("pos-7:2"), keyed("x".repeat(129)))))
+				.assertNext(result -> assertEquals(0, result.getSalePrice().getFinalPrice().compareTo(Money.of("90.00"))))
+				.assertNext(result -> assertEquals(0, result.getSalePrice().getFinalPrice().compareTo(Money.of("95.00"))))
+				.assertNext(result -> {
+					assertEquals(2, result.getIndex());
+					assertEquals(0, result.getSalePrice().getFinalPrice().compareTo(Money.of("95.00")));
+				})
+				.assertNext(result -> assertEquals("Invalid idempotency key", result.getError()))
+				.verifyComplete();
+
+		verify(salesRepository).findAllByIdempotencyKeyIn(List.of("pos-7:1", "pos-7:2"));
+		verify(salesRepository).insertAll(argThat(sales -> sales.size() == 1 && "pos-7:2".equals(sales.get(0).getIdempotencyKey())));
+	}
+
+	@Test
+	public void addSales_whenAKeyIsSavedConcurrently_shouldAnswerItsPriceAndSaveTheOthers() {
+		Sale concurrent = Sale.builder().id(9).finalPrice(Money.of("90.00")).points(Money.of("4.00"))
+				.dateTime(ZonedDateTime.parse("2022-09-01T00:00:00Z")).paymentMethodId(1).idempotencyKey("pos-7:1").build();
+		when(paymentMethodCatalog.findByName("CASH")).thenReturn(Mono.just(paymentMethod));
+		when(salesRepository.findAllByIdempotencyKeyIn(anyCollection())).thenReturn(Flux.empty(), Flux.just(concurrent));
+		when(salesRepository.insertAll(anyList()))
+				.thenReturn(Flux.error(new DataIntegrityViolationException("sale_idempotency_key_idx")))
+				.thenAnswer(invocation -> Flux.fromIterable(invocation.<List<Sale>>getArgument(0)));
+
+		StepVerifier.create(salesService.addSales(List.of(keyed("pos-7:1"), keyed("pos-7:2"))))
+				.assertNext(result -> assertEquals(0, result.getSalePrice().getFinalPrice().compareTo(Money.of("90.00"))))
+				.assertNext(result -> assertEquals(0, result.getSalePrice().getFinalPrice().compareTo(Money.of("95.00"))))
+				.verifyComplete();
+	}
+
+	private SalesInput keyed(String idempotencyKey) {
+		return SalesInput.builder()
+				.price(Money.of("100"))
+				.paymentMethod("CASH")
+				.priceModifier(Modifier.of("0.95"))
+				.datetime(ZonedDateTime.parse("2022-09-01T00:00:00Z"))
+				.idempotencyKey(idempotencyKey)
+				.build();
+	}
+
+	@Test
+	public void testGetSalesConnection() {
+		when(salesRepository.findPage(3)).thenReturn(Flux.just(mockSale2, mockSale1));
+
+		StepVerifier.create(salesService.getSalesConnection(2, null))
+				.assertNext(connection -> {
+					assertEquals(2, connection.getEdges().size());
+					assertFalse(connection.getPageInfo().isHasNextPage());
+					assertEquals(SaleCursor.of(mockSale1).encode(), connection.getPageInfo().getEndCursor());
+				})
+				.verifyComplete();
+
+		SaleCursor cursor = SaleCursor.decode(SaleCursor.of(mockSale2).encode());
+		when(salesRepository.findPageAfter(cursor.zonedDateTime(), 2, 2)).thenReturn(Flux.just(mockSale1, mockSale2));
+
+		StepVerifier.create(salesService.getSalesConnection(1, SaleCursor.of(mockSale2).encode()))
+				.assertNext(connection -> {
+					assertEquals(1, connection.getEdges().size());
+					assertEquals(mockSale1, connection.getEdges().get(0).getNode());
+					assertTrue(connection.getPageInfo().isHasNextPage());
+				})
+				.verifyComplete();
+	}
+
+	@Test
+	public void testGetSalesConnectionWithInvalidCursor() {
+		when(messageSource.getMessage(eq("errormessage.invalid-cursor"), any(), any())).thenReturn("Invalid cursor");
+
+		StepVerifier.create(salesService.getSalesConnection(10, "not-a-cursor"))
+				.expectErrorSatisfies(ex -> assertEquals(ErrorType.ValidationError, ((CustomException) ex).getErrorType()))
+				.verify();
+	}
+
+	@Test
+	public void testGetPaymentMethodsWithOneLookupForAllSales() {
+		PaymentMethod points = PaymentMethod.builder().id(2).name("POINTS").build();
+		when(paymentMethodCatalog.findAllById(anyCollection())).thenReturn(Mono.just(Map.of(1, paymentMethod, 2, points)));
+
+		StepVerifier.create(salesService.getPaymentMethods(List.of(mockSale1, mockSale2)))
+				.expectNext(Map.of(mockSale1, paymentMethod, mockSale2, points))
+				.verifyComplete();
+		verify(paymentMethodCatalog, times(1)).findAllById(List.of(1, 2));
+	}
+
+	@Test
+	public void testGetSaleByRangePerDay_shouldSumTheHoursOfTheReport() {
+		DateRangeInput dateRangeInput = new DateRangeInput(ZonedDateTime.parse("2022-09-01T00:00:00Z"), ZonedDateTime.parse("2022-09-02T23:59:59Z"));
+		dateRangeInput.setGranularity(Granularity.DAY);
+		dateRangeInput.setZone("Asia/Tokyo");
+		when(saleRollupService.sumByHourBetween(dateRangeInput.getFrom(), dateRangeInput.getTo()))
+				.thenReturn(Flux.just(
+						SalesListDto.builder().datetime(ZonedDateTime.parse("2022-09-01T10:00:00Z")).sales(Money.of("100")).points(Money.of("5")).build(),
+						SalesListDto.builder().datetime(ZonedDateTime.parse("2022-09-01T14:00:00Z")).sales(Money.of("50")).points(Money.of("2")).build(),
+						SalesListDto.builder().datetime(ZonedDateTime.parse("2022-09-01T15:00:00Z")).sales(Money.of("10")).points(Money.of("1")).build()));
+
+		StepVerifier.create(salesService.getSaleByRange(dateRangeInput))
+				.expectNext(SalesListDto.builder().datetime(ZonedDateTime.parse("2022-09-01T00:00:00+09:00")).sales(Money.of("150")).points(Money.of("7")).build())
+				.expectNext(SalesListDto.builder().datetime(ZonedDateTime.parse("2022-09-02T00:00:00+09:00")).sales(Money.of("10")).points(Money.of("1")).build())
+				.verifyComplete();
+		verify(salesRepository, never()).sumByBucketBetween(any(), any(), any(), any());
+	}
+
+	@Test
+	public void testGetSaleByRangeInAHalfHourZone_shouldAggregateInDatabase() {
+		ReflectionTestUtils.setField(salesService, "reportAggregation", ReportAggregation.DATABASE);
+		DateRangeInput dateRangeInput = new DateRangeInput(ZonedDateTime.parse("2022-09-01T00:00:00Z"), ZonedDateTime.parse("2022-09-01T23:59:59Z"));
+		dateRangeInput.setGranularity(Granularity.DAY);
+		dateRangeInput.setZone("+05:30");
+		when(saleColdArchive.mergeByBucket(any(), any(), any(), any())).thenAnswer(invocation -> invocation.getArgument(0));
+		when(salesRepository.sumByBucketBetween("day", "UTC-05:30", dateRangeInput.getFrom(), dateRangeInput.getTo()))
+				.thenReturn(Flux.just(SalesListDto.builder().datetime(ZonedDateTime.parse("2022-08-31T18:30:00Z")).sales(Money.of("100")).points(Money.of("5")).build()));
+
+		StepVerifier.create(salesService.getSaleByRange(dateRangeInput))
+				.expectNext(SalesListDto.builder().datetime(ZonedDateTime.parse("2022-09-01T00:00:00+05:30")).sales(Money.of("100")).points(Money.of("5")).build())
+				.verifyComplete();
+		verify(salesReportCache, never()).sumByHourBetween(any(), any(), any());
+	}
+
+	@Test
+	public void testGetSaleByRangeWithAnInvalidZone_shouldFail() {
+		when(messageSource.getMessage(anyString(), any(), any())).thenReturn("Error Message");
+		DateRangeInput dateRangeInput = new DateRangeInput(ZonedDateTime.now(), ZonedDateTime.now().plusHours(4));
+		dateRangeInput.setZone("Mars/Olympus");
+
+		StepVerifier.create(salesService.getSaleByRange(dateRangeInput))
+				.expectErrorMatches(ex -> ex instanceof CustomException && ((CustomException) ex).getErrorType() == ErrorType.ValidationError)
+				.verify();
+	}
+
+	@Test
+	public void testGetSalesBreakdownByRangeInMemory_shouldSplitEveryBucketByPaymentMethod() {
+		ReflectionTestUtils.setField(salesService, "reportAggregation", ReportAggregation.MEMORY);
+		DateRangeInput dateRangeInput = new DateRangeInput(ZonedDateTime.parse("2022-09-01T00:00:00Z"), ZonedDateTime.parse("2022-09-01T23:59:59Z"));
+		dateRangeInput.setGranularity(Granularity.DAY);
+		dateRangeInput.setZone("UTC");
+		when(salesRepository.findByDateTimeBetweenOrderByDateTime(dateRangeInput.getFrom(), dateRangeInput.getTo()))
+				.thenReturn(Flux.just(
+						sale(1, "2022-09-01T01:00:00Z", "100.00", "5.00", 2),
+						sale(2, "2022-09-01T03:00:00Z", "50.00", "1.00", 2)));
+		when(saleColdArchive.findAllBetween(dateRangeInput.getFrom(), dateRangeInput.getTo()))
+				.thenReturn(Flux.just(sale(3, "2022-09-01T02:00:00Z", "10.00", "0.50", 1)));
+
+		StepVerifier.create(salesService.getSalesBreakdownByRange(dateRangeInput))
+				.assertNext(bucket -> {
+					assertEquals(ZonedDateTime.parse("2022-09-01T00:00:00Z"), bucket.getDatetime());
+					assertEquals(Money.of("160.00"), bucket.getSales());
+					assertEquals(Money.of("6.50"), bucket.getPoints());
+					assertEquals(2, bucket.getPaymentMethods().size());
+					assertEquals(1, bucket.getPaymentMethods().get(0).getPaymentMethodId());
+					assertEquals(Money.of("10.00"), bucket.getPaymentMethods().get(0).getSales());
+					assertEquals(Money.of("150.00"), bucket.getPaymentMethods().get(1).getSales());
+					assertEquals(Money.of("6.00"), bucket.getPaymentMethods().get(1).getPoints());
+				})
+				.verifyComplete();
+	}
+
+	@Test
+	public void testGetSalesBreakdownByRangeInDatabase_shouldGroupTheRowsOfEveryBucket() {
+		DateRangeInput dateRangeInput = new DateRangeInput(ZonedDateTime.parse("2022-09-01T00:00:00Z"), ZonedDateTime.parse("2022-09-01T02:59:59Z"));
+		when(saleColdArchive.findAllBetween(any(), any())).thenReturn(Flux.empty());
+		when(salesRepository.sumByBucketAndPaymentMethodBetween("hour", "UTC", dateRangeInput.getFrom(), dateRangeInput.getTo()))
+				.thenReturn(Flux.just(
+						row("2022-09-01T00:00:00Z", 1, "10.00"),
+						row("2022-09-01T00:00:00Z", 3, "20.00"),
+						row("2022-09-01T02:00:00Z", 3, "5.00")));
+
+		StepVerifier.create(salesService.getSalesBreakdownByRange(dateRangeInput))
+				.assertNext(bucket -> {
+					assertEquals(ZonedDateTime.parse("2022-09-01T00:00:00Z"), bucket.getDatetime());
+					assertEquals(Money.of("30.00"), bucket.getSales());
+					assertEquals(List.of(row("2022-09-01T00:00:00Z", 1, "10.00"), row("2022-09-01T00:00:00Z", 3, "20.00")), bucket.getPaymentMethods());
+				})
+				.assertNext(bucket -> assertEquals(List.of(row("2022-09-01T02:00:00Z", 3, "5.00")), bucket.getPaymentMethods()))
+				.verifyComplete();
+		verify(salesRepository, never()).findByDateTimeBetweenOrderByDateTime(any(), any());
+		verify(saleRollupService, never()).sumByHourBetween(any(), any());
+	}
+
+	private static Sale sale(int id, String datetime, String price, String points, int paymentMethodId) {
+		return Sale.builder()
+				.id(id)
+				.finalPrice(Money.of(price))
+				.points(Money.of(points))
+				.dateTime(ZonedDateTime.parse(datetime))
+				.paymentMethodId(paymentMethodId)
+				.build();
+	}
+
+	private static PaymentMethodSalesDto row(String datetime, int paymentMethodId, String sales) {
+		return PaymentMethodSalesDto.builder()
+				.datetime(ZonedDateTime.parse(datetime))
+				.paymentMethodId(paymentMethodId)
+				.sales(Money.of(sales))
+				.points(Money.of("1.00"))
+				.build();
+	}
 }
@@ -0,0 +1,77 @@
+package com.anymind.points.service;
+
+import com.anymind.points.dto.SalesListDto;
+import com.anymind.points.model.Granularity;
+import com.anymind.points.model.Money;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimeBucketsTest {
+	private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+	@Test
+	public void startOf_shouldStartWeeksOnMondayAndMonthsOnTheFirst() {
+		TimeBuckets.Indexer weeks = new TimeBuckets(Granularity.WEEK, ZoneOffset.UTC).indexer();
+		TimeBuckets.Indexer months = new TimeBuckets(Granularity.MONTH, ZoneOffset.UTC).indexer();
+		long sunday = ZonedDateTime.parse("2022-09-04T23:00:00Z").toEpochSecond();
+
+		assertEquals(ZonedDateTime.parse("2022-08-29T00:00:00Z").toEpochSecond(), weeks.startOf(sunday, ZoneOffset.UTC));
+		assertEquals(ZonedDateTime.parse("2022-09-01T00:00:00Z").toEpochSecond(), months.startOf(sunday, ZoneOffset.UTC));
+	}
+
+	@Test
+	public void startOf_acrossADaylightSavingTransition_shouldFollowTheLocalDays() {
+		TimeBuckets.Indexer days = new TimeBuckets(Granularity.DAY, NEW_YORK).indexer();
+
+		// 2022-11-06 is 25 hours long in New York
+		long beforeTransition = ZonedDateTime.parse("2022-11-06T05:00:00Z").toEpochSecond();
+		long lastHour = ZonedDateTime.parse("2022-11-07T04:30:00Z").toEpochSecond();
+		long nextDay = ZonedDateTime.parse("2022-11-07T05:00:00Z").toEpochSecond();
+
+		assertEquals(ZonedDateTime.parse("2022-11-06T04:00:00Z").toEpochSecond(), days.startOf(beforeTransition, NEW_YORK));
+		assertEquals(ZonedDateTime.parse("2022-11-06T04:00:00Z").toEpochSecond(), days.startOf(lastHour, NEW_YORK));
+		assertEquals(ZonedDateTime.parse("2022-11-07T05:00:00Z").toEpochSecond(), days.startOf(nextDay, NEW_YORK));
+	}
+
+	@Test
+	public void alignedWithHours_shouldRejectMinutesAndHalfHourZones() {
+		ZonedDateTime from = ZonedDateTime.parse("2022-09-01T00:00:00Z");
+		ZonedDateTime to = ZonedDateTime.parse("2022-12-31T23:59:59Z");
+
+		assertTrue(new TimeBuckets(Granularity.DAY, NEW_YORK).alignedWithHours(from, to));
+		assertTrue(TimeBuckets.HOURLY.alignedWithHours(from, to));
+		assertFalse(new TimeBuckets(Granularity.MINUTE, ZoneOffset.UTC).alignedWithHours(from, to));
+		assertFalse(new TimeBuckets(Granularity.DAY, ZoneId.of("Asia/Kolkata")).alignedWithHours(from, to));
+	}
+
+	@Test
+	public void sqlZone_shouldFlipTheSignOfFixedOffsets() {
+		assertEquals("UTC-05:30", new TimeBuckets(Granularity.DAY, ZoneId.of("+05:30")).sqlZone());
+		assertEquals("UTC", new TimeBuckets(Granularity.DAY, ZoneOffset.UTC).sqlZone());
+		assertEquals("America/New_York", new TimeBuckets(Granularity.DAY, NEW_YORK).sqlZone());
+	}
+
+	@Test
+	public void rebucket_shouldSumTheHoursOfEveryMonth() {
+		TimeBuckets months = new TimeBuckets(Granularity.MONTH, ZoneOffset.UTC);
+
+		StepVerifier.create(months.rebucket(Flux.just(
+						hour("2022-09-01T00:00:00Z", "10.00"),
+						hour("2022-09-30T23:00:00Z", "5.50"),
+						hour("2022-10-01T00:00:00Z", "1.00"))))
+				.expectNext(SalesListDto.builder().datetime(ZonedDateTime.parse("2022-09-01T00:00:00Z")).sales(Money.of("15.50")).points(Money.of("2")).build())
+				.expectNext(SalesListDto.builder().datetime(ZonedDateTime.parse("2022-10-01T00:00:00Z")).sales(Money.of("1.00")).points(Money.of("1")).build())
+				.verifyComplete();
+	}
+
+	private static SalesListDto hour(String datetime, String sales) {
+		return SalesListDto.builder().datetime(ZonedDateTime.parse(datetime)).sales(Money.of(sales)).points(Money.of("1")).build();
+	}
+}